@@ -770,6 +770,7 @@ public class ChannelSetup extends JPanel {
         // load message storage settings
         messageStorageSlider.setValue(properties.getMessageStorageMode().getValue());
         encryptMessagesCheckBox.setSelected(properties.isEncryptData());
+        compressMessagesCheckBox.setSelected(properties.isCompressContent());
         removeContentCheckBox.setSelected(properties.isRemoveContentOnCompletion());
         removeOnlyFilteredCheckBox.setSelected(properties.isRemoveOnlyFilteredOnCompletion());
         removeAttachmentsCheckBox.setSelected(properties.isRemoveAttachmentsOnCompletion());
@@ -919,6 +920,7 @@ public class ChannelSetup extends JPanel {
                 durableStatusLabel.setForeground(new Color(0, 130, 0));
                 messageStorageProgressBar.setValue(20);
                 encryptMessagesCheckBox.setEnabled(true);
+                compressMessagesCheckBox.setEnabled(true);
                 removeContentCheckBox.setEnabled(true);
                 removeOnlyFilteredCheckBox.setEnabled(removeContentCheckBox.isSelected());
                 removeAttachmentsCheckBox.setEnabled(true);
@@ -932,6 +934,7 @@ public class ChannelSetup extends JPanel {
                 durableStatusLabel.setForeground(new Color(0, 130, 0));
                 messageStorageProgressBar.setValue(25);
                 encryptMessagesCheckBox.setEnabled(true);
+                compressMessagesCheckBox.setEnabled(true);
                 removeContentCheckBox.setEnabled(true);
                 removeOnlyFilteredCheckBox.setEnabled(removeContentCheckBox.isSelected());
                 removeAttachmentsCheckBox.setEnabled(true);
@@ -945,6 +948,7 @@ public class ChannelSetup extends JPanel {
                 durableStatusLabel.setForeground(new Color(255, 102, 0));
                 messageStorageProgressBar.setValue(60);
                 encryptMessagesCheckBox.setEnabled(true);
+                compressMessagesCheckBox.setEnabled(true);
                 removeContentCheckBox.setEnabled(true);
                 removeOnlyFilteredCheckBox.setEnabled(removeContentCheckBox.isSelected());
                 removeAttachmentsCheckBox.setEnabled(true);
@@ -958,6 +962,7 @@ public class ChannelSetup extends JPanel {
                 durableStatusLabel.setForeground(new Color(130, 0, 0));
                 messageStorageProgressBar.setValue(65);
                 encryptMessagesCheckBox.setEnabled(false);
+                compressMessagesCheckBox.setEnabled(false);
                 removeContentCheckBox.setEnabled(false);
                 removeOnlyFilteredCheckBox.setEnabled(false);
                 removeAttachmentsCheckBox.setEnabled(false);
@@ -971,6 +976,7 @@ public class ChannelSetup extends JPanel {
                 durableStatusLabel.setForeground(new Color(130, 0, 0));
                 messageStorageProgressBar.setValue(100);
                 encryptMessagesCheckBox.setEnabled(false);
+                compressMessagesCheckBox.setEnabled(false);
                 removeContentCheckBox.setEnabled(false);
                 removeOnlyFilteredCheckBox.setEnabled(false);
                 removeAttachmentsCheckBox.setEnabled(false);
@@ -1207,6 +1213,7 @@ public class ChannelSetup extends JPanel {
 
         currentChannel.getProperties().setClearGlobalChannelMap(clearGlobalChannelMapCheckBox.isSelected());
         currentChannel.getProperties().setEncryptData(encryptMessagesCheckBox.isSelected());
+        currentChannel.getProperties().setCompressContent(compressMessagesCheckBox.isSelected());
         currentChannel.getProperties().setInitialState((DeployedState) initialStateComboBox.getSelectedItem());
         currentChannel.getProperties().setStoreAttachments(attachmentStoreCheckBox.isSelected());
 
@@ -1293,6 +1300,7 @@ public class ChannelSetup extends JPanel {
         ChannelProperties properties = currentChannel.getProperties();
         properties.setMessageStorageMode(messageStorageMode);
         properties.setEncryptData(encryptMessagesCheckBox.isSelected());
+        properties.setCompressContent(compressMessagesCheckBox.isSelected());
         properties.setRemoveContentOnCompletion(removeContentCheckBox.isSelected());
         properties.setRemoveOnlyFilteredOnCompletion(removeOnlyFilteredCheckBox.isSelected());
         properties.setRemoveAttachmentsOnCompletion(removeAttachmentsCheckBox.isSelected());
@@ -1944,6 +1952,15 @@ public class ChannelSetup extends JPanel {
             }
         });
 
+        compressMessagesCheckBox = new MirthCheckBox("Compress message content");
+        compressMessagesCheckBox.setBackground(messageStoragePanel.getBackground());
+        compressMessagesCheckBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent evt) {
+                parent.setSaveEnabled(true);
+            }
+        });
+
         removeContentCheckBox = new MirthCheckBox("Remove content on completion");
         removeContentCheckBox.setBackground(messageStoragePanel.getBackground());
         removeContentCheckBox.addActionListener(new ActionListener() {
@@ -2358,6 +2375,7 @@ public class ChannelSetup extends JPanel {
         clearGlobalChannelMapCheckBox.setToolTipText("Clear the global channel map on both single channel deploy and a full redeploy.");
         attachmentStoreCheckBox.setToolTipText("If checked, attachments will be stored in the database and available for reattachment.");
         encryptMessagesCheckBox.setToolTipText("<html>Encrypt message content that is stored in the database. Messages that<br>are stored while this option is enabled will still be viewable in the<br>message browser, but the content will not be searchable.</html>");
+        compressMessagesCheckBox.setToolTipText("<html>Compress message content before it is stored in the database. Messages that<br>are stored while this option is enabled take less space and will still be<br>viewable and searchable in the message browser, but searches must decompress<br>the content and take longer.</html>");
         removeContentCheckBox.setToolTipText("<html>Remove message content once the message has completed processing.<br/>Not applicable for messages that are errored or queued.</html>");
         removeAttachmentsCheckBox.setToolTipText("<html>Remove message attachments once the message has completed processing.<br/>Not applicable for messages that are errored or queued.</html>");
         removeOnlyFilteredCheckBox.setToolTipText("<html>If checked, only content for filtered connector messages will be removed.</html>");
@@ -2399,7 +2417,8 @@ public class ChannelSetup extends JPanel {
         messageStoragePanel.add(durableStatusLabel);
         messageStoragePanel.add(performanceLabel, "newline, sx, split 2");
         messageStoragePanel.add(messageStorageProgressBar, "growx, gapbefore 12");
-        messageStoragePanel.add(encryptMessagesCheckBox, "newline");
+        messageStoragePanel.add(encryptMessagesCheckBox, "newline, split 2");
+        messageStoragePanel.add(compressMessagesCheckBox);
         messageStoragePanel.add(removeContentCheckBox, "newline, split 2");
         messageStoragePanel.add(removeOnlyFilteredCheckBox);
         messageStoragePanel.add(removeAttachmentsCheckBox, "newline");
@@ -3155,6 +3174,7 @@ public class ChannelSetup extends JPanel {
     private JLabel performanceLabel;
     private JProgressBar messageStorageProgressBar;
     private MirthCheckBox encryptMessagesCheckBox;
+    private MirthCheckBox compressMessagesCheckBox;
     private MirthCheckBox removeContentCheckBox;
     private MirthCheckBox removeOnlyFilteredCheckBox;
     private MirthCheckBox removeAttachmentsCheckBox;
@@ -79,6 +79,7 @@ public class DatabaseReader extends ConnectorSettingsPanel {
 
         databaseDriverCombobox.setModel(new javax.swing.DefaultComboBoxModel(driverNames));
         fetchSizeField.setDocument(new MirthFieldConstraints(9, false, false, true));
+        rowsPerMessageField.setDocument(new MirthFieldConstraints(9, false, false, true));
 
         selectTextPane.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_SQL);
         updateTextPane.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_SQL);
@@ -125,6 +126,8 @@ public class DatabaseReader extends ConnectorSettingsPanel {
         properties.setAggregateResults(aggregateResultsYesRadio.isSelected());
         properties.setCacheResults(cacheResultsYesButton.isSelected());
         properties.setFetchSize(fetchSizeField.getText());
+        properties.setRowsPerMessage(rowsPerMessageField.getText());
+        properties.setCheckpointColumn(checkpointColumnField.getText());
         properties.setRetryCount(retryCountField.getText());
         properties.setRetryInterval(retryIntervalField.getText());
         properties.setUseScript(useScriptYes.isSelected());
@@ -188,6 +191,8 @@ public class DatabaseReader extends ConnectorSettingsPanel {
         }
 
         fetchSizeField.setText(props.getFetchSize());
+        rowsPerMessageField.setText(props.getRowsPerMessage() != null ? props.getRowsPerMessage() : "0");
+        checkpointColumnField.setText(props.getCheckpointColumn());
         retryCountField.setText(props.getRetryCount());
         retryIntervalField.setText(props.getRetryInterval());
 
@@ -589,7 +594,7 @@ public class DatabaseReader extends ConnectorSettingsPanel {
 
         aggregateResultsLabel = new JLabel("Aggregate Results:");
         ButtonGroup aggregateResultsButtonGroup = new ButtonGroup();
-        String toolTipText = "<html>If enabled, all rows returned in the query will be<br/>aggregated into a single XML message. Note that all rows<br/>will be read into memory at once, so use this with caution.</html>";
+        String toolTipText = "<html>If enabled, all rows returned in the query will be<br/>aggregated into a single XML message. Note that all rows<br/>will be read into memory at once unless Rows per Message<br/>is set, so use this with caution.</html>";
 
         aggregateResultsYesRadio = new MirthRadioButton("Yes");
         aggregateResultsYesRadio.setBackground(getBackground());
@@ -617,6 +622,14 @@ public class DatabaseReader extends ConnectorSettingsPanel {
         });
         aggregateResultsButtonGroup.add(aggregateResultsNoRadio);
 
+        rowsPerMessageLabel = new JLabel("Rows per Message:");
+        rowsPerMessageField = new com.mirth.connect.client.ui.components.MirthTextField();
+        rowsPerMessageField.setToolTipText("<html>The maximum number of rows aggregated into each message. Each message is<br/>dispatched as soon as its rows are read, so only those rows are held in memory<br/>if results are not cached. Use 0 to aggregate all rows into a single message.</html>");
+
+        checkpointColumnLabel = new JLabel("Checkpoint Column:");
+        checkpointColumnField = new com.mirth.connect.client.ui.components.MirthTextField();
+        checkpointColumnField.setToolTipText("<html>The column whose value in the last successfully dispatched row is available to the<br/>select query as ${checkpoint}, so the next poll can resume after that row. The query<br/>should order its results by this column. The checkpoint stops advancing at the first row<br/>that fails, and is cleared when the channel is redeployed. Until then, ${checkpoint}<br/>is looked up like any other variable, e.g. from the global channel map.</html>");
+
         cacheResultsNoButton.setBackground(new java.awt.Color(255, 255, 255));
         cacheResultsNoButton.setBorder(javax.swing.BorderFactory.createEmptyBorder(0, 0, 0, 0));
         buttonGroup4.add(cacheResultsNoButton);
@@ -698,7 +711,7 @@ public class DatabaseReader extends ConnectorSettingsPanel {
     }
 
     private void initLayout() {
-        setLayout(new MigLayout("insets 0, novisualpadding, hidemode 3, fill, gap 6 6", "6[]13[grow]", "[][][][][][][][][][][][][sgy][][sgy]"));
+        setLayout(new MigLayout("insets 0, novisualpadding, hidemode 3, fill, gap 6 6", "6[]13[grow]", "[][][][][][][][][][][][][][][sgy][][sgy]"));
 
         add(driverLabel, "right");
         add(databaseDriverCombobox, "split");
@@ -718,11 +731,15 @@ public class DatabaseReader extends ConnectorSettingsPanel {
         add(aggregateResultsLabel, "newline, right");
         add(aggregateResultsYesRadio, "split");
         add(aggregateResultsNoRadio);
+        add(rowsPerMessageLabel, "newline, right");
+        add(rowsPerMessageField, "w 121!");
         add(cacheResultsLabel, "newline, right");
         add(cacheResultsYesButton, "split");
         add(cacheResultsNoButton);
         add(fetchSizeLabel, "newline, right");
         add(fetchSizeField, "w 121!");
+        add(checkpointColumnLabel, "newline, right");
+        add(checkpointColumnField, "w 121!");
         add(retryCountLabel, "newline, right");
         add(retryCountField, "w 121!");
         add(retryIntervalLabel, "newline, right");
@@ -774,6 +791,9 @@ public class DatabaseReader extends ConnectorSettingsPanel {
         keepConnOpenNo.setEnabled(true);
         keepConnOpenYes.setEnabled(true);
 
+        checkpointColumnLabel.setEnabled(true);
+        checkpointColumnField.setEnabled(true);
+
         aggregateResultsActionPerformed(aggregateResultsYesRadio.isSelected());
 
         update();
@@ -804,6 +824,9 @@ public class DatabaseReader extends ConnectorSettingsPanel {
 
         fetchSizeField.setEnabled(false);
         fetchSizeLabel.setEnabled(false);
+
+        checkpointColumnLabel.setEnabled(false);
+        checkpointColumnField.setEnabled(false);
         update();
 
         if (!updateNever.isSelected()) {
@@ -989,28 +1012,25 @@ public class DatabaseReader extends ConnectorSettingsPanel {
     }
 
     private void aggregateResultsActionPerformed(boolean aggregateResults) {
-        if (aggregateResults) {
-            cacheResultsYesButton.setSelected(true);
+        rowsPerMessageLabel.setEnabled(aggregateResults);
+        rowsPerMessageField.setEnabled(aggregateResults);
+
+        cacheResultsLabel.setEnabled(useScriptNo.isSelected());
+        cacheResultsYesButton.setEnabled(useScriptNo.isSelected());
+        cacheResultsNoButton.setEnabled(useScriptNo.isSelected());
+        if (cacheResultsYesButton.isSelected()) {
             cacheResultsYesButtonActionPerformed(null);
-            cacheResultsLabel.setEnabled(false);
-            cacheResultsYesButton.setEnabled(false);
-            cacheResultsNoButton.setEnabled(false);
+        } else {
+            cacheResultsNoButtonActionPerformed(null);
+        }
 
+        if (aggregateResults) {
             updateEach.setText("For each row");
             updateEach.setToolTipText("<html>Run the post-process statement/script for each row in the result set.</html>");
 
             updateOnce.setText("Once for all rows");
             updateOnce.setToolTipText("<html>Run the post-process statement/script only once.<br/>If JavaScript mode is used, a List of Maps representing all rows<br/>in the result set will be available as the variable \"results\".</html>");
         } else {
-            cacheResultsLabel.setEnabled(useScriptNo.isSelected());
-            cacheResultsYesButton.setEnabled(useScriptNo.isSelected());
-            cacheResultsNoButton.setEnabled(useScriptNo.isSelected());
-            if (cacheResultsYesButton.isSelected()) {
-                cacheResultsYesButtonActionPerformed(null);
-            } else {
-                cacheResultsNoButtonActionPerformed(null);
-            }
-
             updateEach.setText("After each message");
             updateEach.setToolTipText("<html>Run the post-process statement/script after each message finishes processing.</html>");
 
@@ -1048,6 +1068,10 @@ public class DatabaseReader extends ConnectorSettingsPanel {
     private JLabel aggregateResultsLabel;
     private JRadioButton aggregateResultsYesRadio;
     private JRadioButton aggregateResultsNoRadio;
+    private JLabel rowsPerMessageLabel;
+    private com.mirth.connect.client.ui.components.MirthTextField rowsPerMessageField;
+    private JLabel checkpointColumnLabel;
+    private com.mirth.connect.client.ui.components.MirthTextField checkpointColumnField;
     private javax.swing.JLabel passwordLabel;
     private com.mirth.connect.client.ui.components.MirthTextField retryCountField;
     private javax.swing.JLabel retryCountLabel;
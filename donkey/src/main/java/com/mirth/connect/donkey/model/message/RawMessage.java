@@ -12,8 +12,11 @@ package com.mirth.connect.donkey.model.message;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.mirth.connect.donkey.model.message.attachment.Attachment;
+
 public class RawMessage implements Serializable {
     private boolean overwrite;
     private boolean imported;
@@ -23,6 +26,7 @@ public class RawMessage implements Serializable {
     private Collection<Integer> destinationMetaDataIds;
     private Map<String, Object> sourceMap = new HashMap<String, Object>();
     private Boolean binary;
+    private transient List<Attachment> attachments;
 
     public RawMessage(String rawData) {
         this(rawData, null);
@@ -114,6 +118,19 @@ public class RawMessage implements Serializable {
         return binary;
     }
 
+    /**
+     * Returns the attachments already extracted from the message by the source connector, such as
+     * the content of a file too large to be held in memory. They are stored with the message the
+     * same as attachments returned by the channel's attachment handler.
+     */
+    public List<Attachment> getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(List<Attachment> attachments) {
+        this.attachments = attachments;
+    }
+
     public void clearMessage() {
         this.rawBytes = null;
         this.rawData = null;
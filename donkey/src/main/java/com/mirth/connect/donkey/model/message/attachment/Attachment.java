@@ -9,14 +9,31 @@
 
 package com.mirth.connect.donkey.model.message.attachment;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 
+/**
+ * A message attachment. The content can either be held in memory as a byte array, or be backed by
+ * a file or an input stream so that large attachments can be written to storage without ever
+ * being loaded whole. Stream and file sources are not serialized; {@link #getContent()} reads them
+ * into memory on demand.
+ */
 @XStreamAlias("attachment")
 public class Attachment {
     private String id;
     private byte[] content;
     private String type;
     private boolean encrypt;
+    private transient File contentFile;
+    private transient InputStream contentStream;
+    private transient boolean contentStreamConsumed;
 
     public Attachment() {
 
@@ -28,6 +45,18 @@ public class Attachment {
         this.setType(type);
     }
 
+    public Attachment(String id, File contentFile, String type) {
+        this.id = id;
+        this.contentFile = contentFile;
+        this.setType(type);
+    }
+
+    public Attachment(String id, InputStream contentStream, String type) {
+        this.id = id;
+        this.contentStream = contentStream;
+        this.setType(type);
+    }
+
     public String getAttachmentId() {
         return "${ATTACH:" + id + "}";
     }
@@ -40,12 +69,93 @@ public class Attachment {
         this.id = id;
     }
 
+    /**
+     * Returns the attachment content. If the content is backed by a file or stream, it is read into
+     * memory first.
+     */
     public byte[] getContent() {
+        if (content == null && hasContentSource()) {
+            InputStream inputStream = null;
+
+            try {
+                inputStream = getContentStream();
+                content = IOUtils.toByteArray(inputStream);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read content for attachment " + id, e);
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+
+            contentFile = null;
+            contentStream = null;
+        }
+
         return content;
     }
 
     public void setContent(byte[] content) {
         this.content = content;
+        contentFile = null;
+        contentStream = null;
+        contentStreamConsumed = false;
+    }
+
+    /**
+     * Returns true if the content has not been loaded into memory and is instead backed by a file
+     * or an input stream.
+     */
+    public boolean hasContentSource() {
+        return content == null && (contentFile != null || contentStream != null);
+    }
+
+    /**
+     * Returns true if the content is backed by an input stream, which can only be read once.
+     */
+    public boolean hasContentStream() {
+        return content == null && contentFile == null && contentStream != null;
+    }
+
+    /**
+     * Returns a stream over the attachment content, or null if there is no content. The caller is
+     * responsible for closing the returned stream.
+     * 
+     * A file-backed attachment opens a new stream on every call. An attachment created from an
+     * input stream can only be read once, and an IllegalStateException is thrown on any later call
+     * rather than silently returning an empty attachment.
+     */
+    public InputStream getContentStream() throws IOException {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        } else if (contentFile != null) {
+            return new FileInputStream(contentFile);
+        } else if (contentStream != null) {
+            if (contentStreamConsumed) {
+                throw new IllegalStateException("The content stream for attachment " + id + " has already been read");
+            }
+
+            contentStreamConsumed = true;
+            return contentStream;
+        }
+
+        return null;
+    }
+
+    public void setContentStream(InputStream contentStream) {
+        this.content = null;
+        this.contentFile = null;
+        this.contentStream = contentStream;
+        contentStreamConsumed = false;
+    }
+
+    public File getContentFile() {
+        return contentFile;
+    }
+
+    public void setContentFile(File contentFile) {
+        this.content = null;
+        this.contentFile = contentFile;
+        this.contentStream = null;
+        contentStreamConsumed = false;
     }
 
     public String getType() {
@@ -18,6 +18,11 @@ public interface AttachmentHandler extends Serializable {
 
     public void initialize(RawMessage message, Channel channel) throws AttachmentException;
 
+    /**
+     * Returns the next attachment extracted from the message, or null if there are no more. Large
+     * attachments may be returned with a file or stream content source instead of a byte array, in
+     * which case the source must remain readable until the message has been committed.
+     */
     public Attachment nextAttachment() throws AttachmentException;
 
     public String shutdown() throws AttachmentException;
@@ -9,6 +9,7 @@
 
 package com.mirth.connect.donkey.server;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -19,6 +20,8 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.log4j.Logger;
@@ -28,12 +31,14 @@ import com.mirth.connect.donkey.server.controllers.ChannelController;
 import com.mirth.connect.donkey.server.data.DonkeyDao;
 import com.mirth.connect.donkey.server.data.DonkeyDaoFactory;
 import com.mirth.connect.donkey.server.data.DonkeyStatisticsUpdater;
+import com.mirth.connect.donkey.server.data.index.ContentSearchIndex;
 import com.mirth.connect.donkey.server.data.jdbc.DBCPConnectionPool;
 import com.mirth.connect.donkey.server.data.jdbc.HikariConnectionPool;
 import com.mirth.connect.donkey.server.data.jdbc.JdbcDao;
 import com.mirth.connect.donkey.server.data.jdbc.JdbcDaoFactory;
 import com.mirth.connect.donkey.server.data.jdbc.XmlQuerySource;
 import com.mirth.connect.donkey.server.data.jdbc.XmlQuerySource.XmlQuerySourceException;
+import com.mirth.connect.donkey.server.event.CoalescingEventDispatcher;
 import com.mirth.connect.donkey.server.event.EventDispatcher;
 import com.mirth.connect.donkey.util.Serializer;
 import com.mirth.connect.donkey.util.SerializerProvider;
@@ -63,6 +68,8 @@ public class Donkey {
     private Encryptor encryptor;
     private EventDispatcher eventDispatcher;
     private DonkeyStatisticsUpdater statisticsUpdater;
+    private CoalescingEventDispatcher coalescingEventDispatcher;
+    private ContentSearchIndex contentSearchIndex;
     private Logger logger = Logger.getLogger(getClass());
     private boolean running = false;
 
@@ -90,12 +97,14 @@ public class Donkey {
 
         encryptor = donkeyConfiguration.getEncryptor();
 
-        eventDispatcher = donkeyConfiguration.getEventDispatcher();
+        initEventDispatcher();
 
         int updateInterval = NumberUtils.toInt(donkeyConfiguration.getDonkeyProperties().getProperty("donkey.statsupdateinterval"), DonkeyStatisticsUpdater.DEFAULT_UPDATE_INTERVAL);
         statisticsUpdater = new DonkeyStatisticsUpdater(daoFactory, updateInterval);
         statisticsUpdater.start();
 
+        initContentSearchIndex();
+
         running = true;
     }
 
@@ -167,6 +176,54 @@ public class Donkey {
         daoFactory = jdbcDaoFactory;
     }
 
+    private void initEventDispatcher() {
+        eventDispatcher = donkeyConfiguration.getEventDispatcher();
+
+        if (coalescingEventDispatcher != null) {
+            coalescingEventDispatcher.shutdown();
+            coalescingEventDispatcher = null;
+        }
+
+        // Message events are coalesced so queues and statistics don't dispatch every change to every listener
+        int coalesceInterval = NumberUtils.toInt(donkeyConfiguration.getDonkeyProperties().getProperty("donkey.eventcoalesceinterval"));
+
+        if (eventDispatcher != null && coalesceInterval > 0) {
+            coalescingEventDispatcher = new CoalescingEventDispatcher(eventDispatcher, coalesceInterval);
+            coalescingEventDispatcher.start();
+            eventDispatcher = coalescingEventDispatcher;
+        }
+    }
+
+    /*
+     * The saved index is only valid if all content written since then was indexed, so it is
+     * deleted if the index is disabled.
+     */
+    private void initContentSearchIndex() {
+        Properties donkeyProperties = donkeyConfiguration.getDonkeyProperties();
+        File directory = getContentSearchIndexDirectory();
+
+        if (BooleanUtils.toBoolean(donkeyProperties.getProperty("donkey.contentsearchindex"))) {
+            int maxBlocks = NumberUtils.toInt(donkeyProperties.getProperty("donkey.contentsearchindex.maxblocks"), ContentSearchIndex.DEFAULT_MAX_BLOCKS);
+            int maxTotalBlocks = NumberUtils.toInt(donkeyProperties.getProperty("donkey.contentsearchindex.maxtotalblocks"), ContentSearchIndex.DEFAULT_MAX_TOTAL_BLOCKS);
+            contentSearchIndex = new ContentSearchIndex(maxBlocks, maxTotalBlocks);
+
+            if (directory != null) {
+                contentSearchIndex.load(directory);
+            }
+        } else {
+            contentSearchIndex = null;
+
+            if (directory != null) {
+                FileUtils.deleteQuietly(directory);
+            }
+        }
+    }
+
+    private File getContentSearchIndexDirectory() {
+        String appData = donkeyConfiguration.getAppData();
+        return appData == null ? null : new File(appData, "contentsearchindex");
+    }
+
     public DonkeyDaoFactory getDaoFactory() {
         return daoFactory;
     }
@@ -183,6 +240,24 @@ public class Donkey {
         if (statisticsUpdater != null) {
             statisticsUpdater.shutdown();
         }
+
+        if (coalescingEventDispatcher != null) {
+            coalescingEventDispatcher.shutdown();
+            coalescingEventDispatcher = null;
+        }
+
+        if (contentSearchIndex != null) {
+            File directory = getContentSearchIndexDirectory();
+
+            if (directory != null) {
+                try {
+                    contentSearchIndex.save(directory);
+                } catch (Exception e) {
+                    logger.warn("Failed to save the content search index.", e);
+                    FileUtils.deleteQuietly(directory);
+                }
+            }
+        }
         
         running = false;
     }
@@ -228,6 +303,17 @@ public class Donkey {
         this.serializer = serializer;
     }
 
+    /**
+     * Returns the index used to narrow message content searches, or null if it is disabled.
+     */
+    public ContentSearchIndex getContentSearchIndex() {
+        return contentSearchIndex;
+    }
+
+    public void setContentSearchIndex(ContentSearchIndex contentSearchIndex) {
+        this.contentSearchIndex = contentSearchIndex;
+    }
+
     public Encryptor getEncryptor() {
         return encryptor;
     }
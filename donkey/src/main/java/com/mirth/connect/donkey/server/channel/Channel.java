@@ -1378,6 +1378,13 @@ public class Channel implements Runnable {
         // The source map is read-only so we wrap it in an unmodifiable map
         sourceMessage.setSourceMap(Collections.unmodifiableMap(sourceMap));
 
+        if (CollectionUtils.isNotEmpty(rawMessage.getAttachments()) && storageSettings.isStoreAttachments()) {
+            for (Attachment attachment : rawMessage.getAttachments()) {
+                ThreadUtils.checkInterruptedStatus();
+                dao.insertMessageAttachment(channelId, messageId, attachment);
+            }
+        }
+
         if (attachmentHandlerProvider != null && attachmentHandlerProvider.canExtractAttachments()) {
             ThreadUtils.checkInterruptedStatus();
             AttachmentHandler attachmentHandler = attachmentHandlerProvider.getHandler();
@@ -128,14 +128,15 @@ public class Statistics {
             return;
         }
 
-        Map<Status, Long> statsDiff = new LinkedHashMap<Status, Long>();
-        statsDiff.put(incrementStatus, 1L);
+        Map<Integer, Map<Status, AtomicLong>> channelStats = getChannelStatsMap(channelId);
+        Map<Status, AtomicLong> aggregateStats = getConnectorStatsMap(channelStats, null);
+        Map<Status, AtomicLong> connectorStats = getConnectorStatsMap(channelStats, metaDataId);
+
+        updateStatus(channelId, metaDataId, aggregateStats, connectorStats, incrementStatus, 1L);
 
         if (decrementStatus != null) {
-            statsDiff.put(decrementStatus, -1L);
+            updateStatus(channelId, metaDataId, aggregateStats, connectorStats, decrementStatus, -1L);
         }
-
-        update(channelId, metaDataId, statsDiff);
     }
 
     public void update(String channelId, int metaDataId, Map<Status, Long> statsDiff) {
@@ -144,55 +145,58 @@ public class Statistics {
         Map<Status, AtomicLong> connectorStats = getConnectorStatsMap(channelStats, metaDataId);
 
         for (Entry<Status, Long> statsEntry : statsDiff.entrySet()) {
-            Long diff = statsEntry.getValue();
-
-            if (ArrayUtils.contains(TRACKED_STATUSES, statsEntry.getKey()) && diff != 0) {
-                Status status = statsEntry.getKey();
-
-                AtomicLong statValue = connectorStats.get(status);
-                Long connectorCount = updateStat(statValue, diff);
-                
-                // update the channel statistics
-                switch (status) {
-                // update the following statuses based on the source connector
-                    case RECEIVED:
-                        if (metaDataId == 0) {
-                            updateStat(aggregateStats.get(status), diff);
-                        }
-                        break;
-
-                    // update the following statuses based on the source and destination connectors
-                    case FILTERED:
-                    case ERROR:
-                        updateStat(aggregateStats.get(status), diff);
-                        break;
-
-                    // update the following statuses based on the destination connectors
-                    case SENT:
-                        if (metaDataId > 0) {
-                            updateStat(aggregateStats.get(status), diff);
-                        }
-                        break;
+            updateStatus(channelId, metaDataId, aggregateStats, connectorStats, statsEntry.getKey(), statsEntry.getValue());
+        }
+    }
 
-                    default:
-                        break;
-                }
+    private void updateStatus(String channelId, int metaDataId, Map<Status, AtomicLong> aggregateStats, Map<Status, AtomicLong> connectorStats, Status status, long diff) {
+        if (ArrayUtils.contains(TRACKED_STATUSES, status) && diff != 0) {
+            AtomicLong statValue = connectorStats.get(status);
+            long connectorCount = updateStat(statValue, diff);
 
-                if (sendEvents) {
-                    MessageEventType type = MessageEventType.fromStatus(status);
-                    if (type != null) {
-                        // Dispatch a message event if the the status is in MessageEventType and the connector stat was updated
-                        if (eventDispatcher == null) {
-                            eventDispatcher = Donkey.getInstance().getEventDispatcher();
-                        }
-                        eventDispatcher.dispatchEvent(new MessageEvent(channelId, metaDataId, type, connectorCount, diff <= 0));
+            // update the channel statistics
+            if (isChannelStatus(status, metaDataId)) {
+                updateStat(aggregateStats.get(status), diff);
+            }
+
+            if (sendEvents) {
+                MessageEventType type = MessageEventType.fromStatus(status);
+                if (type != null) {
+                    // Dispatch a message event if the the status is in MessageEventType and the connector stat was updated
+                    if (eventDispatcher == null) {
+                        eventDispatcher = Donkey.getInstance().getEventDispatcher();
                     }
+                    eventDispatcher.dispatchEvent(new MessageEvent(channelId, metaDataId, type, connectorCount, diff <= 0));
                 }
             }
         }
     }
 
-    private long updateStat(AtomicLong stat, Long diff) {
+    /**
+     * Returns true if a change to the given status of a connector also changes the channel
+     * statistics.
+     */
+    static boolean isChannelStatus(Status status, int metaDataId) {
+        switch (status) {
+        // update the following statuses based on the source connector
+            case RECEIVED:
+                return metaDataId == 0;
+
+            // update the following statuses based on the source and destination connectors
+            case FILTERED:
+            case ERROR:
+                return true;
+
+            // update the following statuses based on the destination connectors
+            case SENT:
+                return metaDataId > 0;
+
+            default:
+                return false;
+        }
+    }
+
+    private long updateStat(AtomicLong stat, long diff) {
         // stats values can not go below zero. If we are decrementing, synchronize so threads don't decrement below zero accidentally
         if (!allowNegatives && diff < 0) {
             synchronized (stat) {
@@ -217,20 +221,36 @@ public class Statistics {
     }
 
     /**
-     * Updates (increments/decrements) values from another Statistics object
+     * Updates (increments/decrements) values from another Statistics object. The values are read
+     * directly, without copying the other object's maps.
      */
     public void update(Statistics statistics) {
-        for (Entry<String, Map<Integer, Map<Status, Long>>> entry : statistics.getStats().entrySet()) {
-            for (Entry<Integer, Map<Status, Long>> connectorEntry : entry.getValue().entrySet()) {
+        for (Entry<String, Map<Integer, Map<Status, AtomicLong>>> entry : statistics.stats.entrySet()) {
+            String channelId = entry.getKey();
+            Map<Integer, Map<Status, AtomicLong>> channelStats = getChannelStatsMap(channelId);
+            Map<Status, AtomicLong> aggregateStats = getConnectorStatsMap(channelStats, null);
+
+            for (Entry<Integer, Map<Status, AtomicLong>> connectorEntry : entry.getValue().entrySet()) {
                 Integer metaDataId = connectorEntry.getKey();
 
                 if (metaDataId != null) {
-                    update(entry.getKey(), metaDataId, connectorEntry.getValue());
+                    Map<Status, AtomicLong> connectorStats = getConnectorStatsMap(channelStats, metaDataId);
+
+                    for (Entry<Status, AtomicLong> statusEntry : connectorEntry.getValue().entrySet()) {
+                        updateStatus(channelId, metaDataId, aggregateStats, connectorStats, statusEntry.getKey(), statusEntry.getValue().get());
+                    }
                 }
             }
         }
     }
 
+    /*
+     * Gives StripedStatistics access to the values without copying them.
+     */
+    Map<String, Map<Integer, Map<Status, AtomicLong>>> getStatsMap() {
+        return stats;
+    }
+
     public void resetStats(String channelId, Integer metaDataId, Set<Status> statuses) {
         for (Status status : statuses) {
             if (ArrayUtils.contains(TRACKED_STATUSES, status)) {
@@ -21,6 +21,7 @@ public class StorageSettings {
 
     private boolean storeAttachments = true;
     private boolean storeCustomMetaData = true;
+    private boolean compressContent = false;
 
     private boolean storeRaw = true;
     private boolean storeProcessedRaw = true;
@@ -124,6 +125,18 @@ public class StorageSettings {
         this.storeCustomMetaData = storeCustomMetaData;
     }
 
+    public boolean isCompressContent() {
+        return compressContent;
+    }
+
+    /**
+     * If enabled, message content is compressed before it is encrypted and stored. Content that
+     * was stored without compression can still be read.
+     */
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
+
     public boolean isStoreRaw() {
         return storeRaw;
     }
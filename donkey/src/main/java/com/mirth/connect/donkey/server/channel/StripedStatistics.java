@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.channel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mirth.connect.donkey.model.message.Status;
+
+/**
+ * Accumulates statistics changes from many threads until they are written to the database. Each
+ * channel keeps a dense array of connectors indexed by metadata id, and each connector keeps one
+ * striped LongAdder per tracked status, so threads committing messages for the same channel don't
+ * contend on the same counters. Connectors are marked as changed when a delta is added, so only
+ * the connectors that changed since the last write are returned by getChangedStatistics.
+ * 
+ * Unlike Statistics, values may be negative and no events are dispatched.
+ */
+public class StripedStatistics {
+    private static final int CHANNEL_INDEX = 0;
+    private static final int[] STATUS_INDEXES = new int[Status.values().length];
+
+    static {
+        for (int i = 0; i < STATUS_INDEXES.length; i++) {
+            STATUS_INDEXES[i] = -1;
+        }
+
+        for (int i = 0; i < Statistics.TRACKED_STATUSES.length; i++) {
+            STATUS_INDEXES[Statistics.TRACKED_STATUSES[i].ordinal()] = i;
+        }
+    }
+
+    private Map<String, ChannelCells> channels = new ConcurrentHashMap<String, ChannelCells>();
+
+    /**
+     * Adds the connector values of a Statistics object, along with the channel values they affect.
+     */
+    public void update(Statistics statistics) {
+        for (Entry<String, Map<Integer, Map<Status, AtomicLong>>> channelEntry : statistics.getStatsMap().entrySet()) {
+            ChannelCells channelCells = null;
+
+            for (Entry<Integer, Map<Status, AtomicLong>> connectorEntry : channelEntry.getValue().entrySet()) {
+                Integer metaDataId = connectorEntry.getKey();
+
+                if (metaDataId != null) {
+                    for (Entry<Status, AtomicLong> statusEntry : connectorEntry.getValue().entrySet()) {
+                        int statusIndex = STATUS_INDEXES[statusEntry.getKey().ordinal()];
+                        long diff = statusEntry.getValue().get();
+
+                        if (statusIndex >= 0 && diff != 0) {
+                            if (channelCells == null) {
+                                channelCells = getChannelCells(channelEntry.getKey());
+                            }
+
+                            channelCells.getConnectorCells(metaDataId + 1).add(statusIndex, diff);
+
+                            if (Statistics.isChannelStatus(statusEntry.getKey(), metaDataId)) {
+                                channelCells.getConnectorCells(CHANNEL_INDEX).add(statusIndex, diff);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the current values of all connectors that changed since the last call, and clears
+     * their changed flags. The channel values are always included for a channel with changes. Once
+     * the values have been written, they must be passed to subtract, or to markChanged if writing
+     * them failed.
+     */
+    public Statistics getChangedStatistics() {
+        Statistics statistics = new Statistics(false, true);
+
+        for (Entry<String, ChannelCells> entry : channels.entrySet()) {
+            ConnectorCells[] connectors = entry.getValue().connectors;
+            boolean changed = false;
+
+            for (int i = connectors.length - 1; i >= 0; i--) {
+                ConnectorCells connectorCells = connectors[i];
+
+                if (connectorCells != null && (connectorCells.changed || (changed && i == CHANNEL_INDEX))) {
+                    changed = true;
+                    connectorCells.changed = false;
+
+                    Map<Status, Long> values = new LinkedHashMap<Status, Long>();
+                    for (int statusIndex = 0; statusIndex < Statistics.TRACKED_STATUSES.length; statusIndex++) {
+                        values.put(Statistics.TRACKED_STATUSES[statusIndex], connectorCells.cells[statusIndex].sum());
+                    }
+
+                    statistics.overwrite(entry.getKey(), i == CHANNEL_INDEX ? null : i - 1, values);
+                }
+            }
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Subtracts values returned by getChangedStatistics after they have been written. Any deltas
+     * added in the meantime remain.
+     */
+    public void subtract(Statistics statistics) {
+        for (Entry<String, Map<Integer, Map<Status, AtomicLong>>> channelEntry : statistics.getStatsMap().entrySet()) {
+            ChannelCells channelCells = channels.get(channelEntry.getKey());
+
+            if (channelCells != null) {
+                for (Entry<Integer, Map<Status, AtomicLong>> connectorEntry : channelEntry.getValue().entrySet()) {
+                    ConnectorCells connectorCells = channelCells.getConnectorCells(getIndex(connectorEntry.getKey()));
+
+                    for (Entry<Status, AtomicLong> statusEntry : connectorEntry.getValue().entrySet()) {
+                        connectorCells.cells[STATUS_INDEXES[statusEntry.getKey().ordinal()]].add(-statusEntry.getValue().get());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the connectors of values returned by getChangedStatistics as changed again, so they
+     * are returned by the next call.
+     */
+    public void markChanged(Statistics statistics) {
+        for (Entry<String, Map<Integer, Map<Status, AtomicLong>>> channelEntry : statistics.getStatsMap().entrySet()) {
+            ChannelCells channelCells = channels.get(channelEntry.getKey());
+
+            if (channelCells != null) {
+                for (Integer metaDataId : channelEntry.getValue().keySet()) {
+                    channelCells.getConnectorCells(getIndex(metaDataId)).changed = true;
+                }
+            }
+        }
+    }
+
+    public void remove(String channelId) {
+        channels.remove(channelId);
+    }
+
+    private int getIndex(Integer metaDataId) {
+        return metaDataId == null ? CHANNEL_INDEX : metaDataId + 1;
+    }
+
+    private ChannelCells getChannelCells(String channelId) {
+        ChannelCells channelCells = channels.get(channelId);
+
+        if (channelCells == null) {
+            synchronized (channels) {
+                channelCells = channels.get(channelId);
+
+                if (channelCells == null) {
+                    channelCells = new ChannelCells();
+                    channels.put(channelId, channelCells);
+                }
+            }
+        }
+
+        return channelCells;
+    }
+
+    private static class ChannelCells {
+        private volatile ConnectorCells[] connectors = new ConnectorCells[0];
+
+        public ConnectorCells getConnectorCells(int index) {
+            ConnectorCells[] connectors = this.connectors;
+
+            if (index < connectors.length && connectors[index] != null) {
+                return connectors[index];
+            }
+
+            synchronized (this) {
+                connectors = this.connectors;
+
+                if (index >= connectors.length) {
+                    ConnectorCells[] newConnectors = new ConnectorCells[index + 1];
+                    System.arraycopy(connectors, 0, newConnectors, 0, connectors.length);
+                    connectors = newConnectors;
+                }
+
+                if (connectors[index] == null) {
+                    connectors[index] = new ConnectorCells();
+                }
+
+                this.connectors = connectors;
+                return connectors[index];
+            }
+        }
+    }
+
+    private static class ConnectorCells {
+        private LongAdder[] cells = new LongAdder[Statistics.TRACKED_STATUSES.length];
+        private volatile boolean changed;
+
+        public ConnectorCells() {
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = new LongAdder();
+            }
+        }
+
+        public void add(int statusIndex, long diff) {
+            cells[statusIndex].add(diff);
+            changed = true;
+        }
+    }
+}
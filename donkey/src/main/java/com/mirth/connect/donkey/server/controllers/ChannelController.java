@@ -22,6 +22,7 @@ import com.mirth.connect.donkey.server.Donkey;
 import com.mirth.connect.donkey.server.channel.Statistics;
 import com.mirth.connect.donkey.server.data.DonkeyDao;
 import com.mirth.connect.donkey.server.data.DonkeyDaoException;
+import com.mirth.connect.donkey.server.data.index.ContentSearchIndex;
 
 public class ChannelController {
     private static ChannelController instance;
@@ -200,6 +201,22 @@ public class ChannelController {
 
     public void initChannelStorage(String channelId) {
         getLocalChannelId(channelId);
+
+        /*
+         * Start indexing the channel's content before it is deployed, so the content of every
+         * message after the current last one is added to the index.
+         */
+        ContentSearchIndex contentSearchIndex = donkey.getContentSearchIndex();
+
+        if (contentSearchIndex != null && !contentSearchIndex.isIndexing(channelId)) {
+            DonkeyDao dao = donkey.getDaoFactory().getDao();
+
+            try {
+                contentSearchIndex.startChannel(channelId, dao.getMaxMessageId(channelId) + 1);
+            } finally {
+                dao.close();
+            }
+        }
     }
 
     public boolean channelExists(String channelId) {
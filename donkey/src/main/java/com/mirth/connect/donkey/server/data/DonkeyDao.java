@@ -9,6 +9,7 @@
 
 package com.mirth.connect.donkey.server.data;
 
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -120,6 +121,12 @@ public interface DonkeyDao {
 
     public Attachment getMessageAttachment(String channelId, String attachmentId, Long messageId);
 
+    /**
+     * Writes the content of an attachment to the given output stream one segment at a time, and
+     * returns the attachment without its content.
+     */
+    public Attachment getMessageAttachment(String channelId, String attachmentId, Long messageId, OutputStream outputStream);
+
     public Statistics getChannelStatistics(String serverId);
 
     public Statistics getChannelTotalStatistics(String serverId);
@@ -128,8 +135,15 @@ public interface DonkeyDao {
 
     public void setDecryptData(boolean decryptData);
 
+    /**
+     * If enabled, message content is compressed before it is encrypted and stored.
+     */
+    public void setCompressContent(boolean compressContent);
+
     public void setStatisticsUpdater(StatisticsUpdater statisticsUpdater);
 
+    public void setBatchStatements(boolean batchStatements);
+
     public void commit();
 
     public void commit(boolean durable);
@@ -9,13 +9,10 @@
 
 package com.mirth.connect.donkey.server.data;
 
-import java.util.Map;
-import java.util.Map.Entry;
-
 import org.apache.log4j.Logger;
 
-import com.mirth.connect.donkey.model.message.Status;
 import com.mirth.connect.donkey.server.channel.Statistics;
+import com.mirth.connect.donkey.server.channel.StripedStatistics;
 
 public class DonkeyStatisticsUpdater extends Thread implements StatisticsUpdater {
 
@@ -23,7 +20,7 @@ public class DonkeyStatisticsUpdater extends Thread implements StatisticsUpdater
 
     private DonkeyDaoFactory daoFactory;
     private int updateInterval;
-    private Statistics statistics = new Statistics(false, true);
+    private StripedStatistics statistics = new StripedStatistics();
     private Logger logger = Logger.getLogger(getClass());
 
     public DonkeyStatisticsUpdater(DonkeyDaoFactory daoFactory, int updateInterval) {
@@ -76,27 +73,24 @@ public class DonkeyStatisticsUpdater extends Thread implements StatisticsUpdater
     }
 
     private void commit() throws InterruptedException {
-        if (!statistics.isEmpty() && daoFactory != null) {
-            Statistics tempStats = new Statistics(false, true);
+        if (daoFactory == null) {
+            return;
+        }
 
-            Map<String, Map<Integer, Map<Status, Long>>> stats = statistics.getStats();
-            tempStats.update(stats);
+        // Only the connectors that changed since the last commit are written
+        Statistics tempStats = statistics.getChangedStatistics();
 
+        if (!tempStats.isEmpty()) {
             DonkeyDao dao = daoFactory.getDao();
             try {
                 dao.addChannelStatistics(tempStats);
                 dao.commit();
 
-                // Invert the stats and update them on the Statistics object
-                for (Map<Integer, Map<Status, Long>> channelMap : stats.values()) {
-                    for (Map<Status, Long> connectorMap : channelMap.values()) {
-                        for (Entry<Status, Long> entry : connectorMap.entrySet()) {
-                            entry.setValue(-entry.getValue());
-                        }
-                    }
-                }
-                statistics.update(stats);
+                // Remove the committed values, keeping anything added in the meantime
+                statistics.subtract(tempStats);
             } catch (Throwable t) {
+                statistics.markChanged(tempStats);
+
                 if (t instanceof InterruptedException) {
                     throw (InterruptedException) t;
                 }
@@ -119,8 +113,6 @@ public class DonkeyStatisticsUpdater extends Thread implements StatisticsUpdater
 
     @Override
     public void update(Statistics statistics) {
-        if (!statistics.isEmpty()) {
-            this.statistics.update(statistics);
-        }
+        this.statistics.update(statistics);
     }
 }
\ No newline at end of file
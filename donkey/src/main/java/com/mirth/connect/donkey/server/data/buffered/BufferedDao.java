@@ -9,6 +9,8 @@
 
 package com.mirth.connect.donkey.server.data.buffered;
 
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +37,8 @@ public class BufferedDao implements DonkeyDao {
     private boolean encryptData;
     private boolean decryptData;
     private StatisticsUpdater statisticsUpdater;
+    private boolean batchStatements = false;
+    private boolean compressContent = false;
     private Queue<DaoTask> tasks = new LinkedList<DaoTask>();
     private boolean closed = false;
     private Logger logger = Logger.getLogger(this.getClass());
@@ -56,12 +60,26 @@ public class BufferedDao implements DonkeyDao {
     public void setDecryptData(boolean decryptData) {
         this.decryptData = decryptData;
     }
+
+    @Override
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
     
     @Override
     public void setStatisticsUpdater(StatisticsUpdater statisticsUpdater) {
         this.statisticsUpdater = statisticsUpdater;
     }
 
+    /**
+     * When enabled, the delegate DAO used to execute the buffered tasks on commit batches its
+     * inserts, so that the rows for all of the tasks are sent with one JDBC batch per statement.
+     */
+    @Override
+    public void setBatchStatements(boolean batchStatements) {
+        this.batchStatements = batchStatements;
+    }
+
     @Override
     public void commit() {
         commit(null);
@@ -91,53 +109,18 @@ public class BufferedDao implements DonkeyDao {
         dao.setEncryptData(encryptData);
         dao.setDecryptData(decryptData);
         dao.setStatisticsUpdater(statisticsUpdater);
+        dao.setBatchStatements(batchStatements);
+        dao.setCompressContent(compressContent);
 
         return dao;
     }
 
-    private void executeTasks(Boolean durable) {
+    void executeTasks(Boolean durable) {
         DonkeyDao dao = getDelegateDao();
 
         try {
             while (!tasks.isEmpty()) {
-                DaoTask task = tasks.poll();
-                Object[] p = task.getParameters();
-
-                // @formatter:off
-                switch (task.getTaskType()) {
-                    case INSERT_MESSAGE: dao.insertMessage((Message) p[0]); break;
-                    case INSERT_CONNECTOR_MESSAGE: dao.insertConnectorMessage((ConnectorMessage) p[0], (Boolean) p[1], (Boolean) p[2]); break;
-                    case INSERT_MESSAGE_CONTENT: dao.insertMessageContent((MessageContent) p[0]); break;
-                    case BATCH_INSERT_MESSAGE_CONTENT: dao.batchInsertMessageContent((MessageContent) p[0]); break;
-                    case EXECUTE_BATCH_INSERT_MESSAGE_CONTENT: dao.executeBatchInsertMessageContent((String) p[0]); break;
-                    case INSERT_MESSAGE_ATTACHMENT: dao.insertMessageAttachment((String) p[0], (Long) p[1], (Attachment) p[2]); break;
-                    case INSERT_META_DATA: dao.insertMetaData((ConnectorMessage) p[0], (List<MetaDataColumn>) p[1]); break;
-                    case STORE_META_DATA: dao.storeMetaData((ConnectorMessage) p[0], (List<MetaDataColumn>) p[1]); break;
-                    case STORE_MESSAGE_CONTENT: dao.storeMessageContent((MessageContent) p[0]); break;
-                    case STORE_CHANNEL_STATISTICS: dao.addChannelStatistics((Statistics) p[0]); break;
-                    case UPDATE_SEND_ATTEMPTS: dao.updateSendAttempts((ConnectorMessage) p[0]); break;
-                    case UPDATE_STATUS: dao.updateStatus((ConnectorMessage) p[0], (Status) p[1]); break;
-                    case UPDATE_ERRORS: dao.updateErrors((ConnectorMessage) p[0]); break;
-                    case UPDATE_MAPS: dao.updateMaps((ConnectorMessage) p[0]); break;
-                    case UPDATE_SOURCE_MAP: dao.updateSourceMap((ConnectorMessage) p[0]); break;
-                    case UPDATE_RESPONSE_MAP: dao.updateResponseMap((ConnectorMessage) p[0]); break;
-                    case MARK_AS_PROCESSED: dao.markAsProcessed((String) p[0], (Long) p[1]); break;
-                    case RESET_MESSAGE: dao.resetMessage((String) p[0], (Long) p[1]); break;
-                    case DELETE_MESSAGE: dao.deleteMessage((String) p[0], (Long) p[1]); break;
-                    case DELETE_CONNECTOR_MESSAGES: dao.deleteConnectorMessages((String) p[0], (Long) p[1], (Set<Integer>) p[2]); break;
-                    case DELETE_MESSAGE_STATISTICS: dao.deleteMessageStatistics((String) p[0], (Long) p[1], (Set<Integer>) p[2]); break;
-                    case DELETE_ALL_MESSAGES: dao.deleteAllMessages((String) p[0]); break;
-                    case DELETE_MESSAGE_CONTENT: dao.deleteMessageContent((String) p[0], (Long) p[1]); break;
-                    case DELETE_MESSAGE_CONTENT_BY_META_DATA_IDS: dao.deleteMessageContentByMetaDataIds((String) p[0], (Long) p[1], (Set<Integer>) p[2]); break;
-                    case DELETE_MESSAGE_ATTACHMENTS: dao.deleteMessageAttachments((String) p[0], (Long) p[1]); break;
-                    case CREATE_CHANNEL: dao.createChannel((String) p[0], (Long) p[1]); break;
-                    case REMOVE_CHANNEL: dao.removeChannel((String) p[0]); break;
-                    case ADD_META_DATA_COLUMN: dao.addMetaDataColumn((String) p[0], (MetaDataColumn) p[1]); break;
-                    case REMOVE_META_DATA_COLUMN: dao.removeMetaDataColumn((String) p[0], (String) p[1]); break;
-                    case RESET_STATISTICS: dao.resetStatistics((String) p[0], (Integer) p[1], (Set<Status>) p[2]); break;
-                    case RESET_ALL_STATISTICS: dao.resetAllStatistics((String) p[0]); break;
-                }
-                // @formatter:on
+                executeTask(dao, tasks.poll());
             }
 
             if (durable == null) {
@@ -152,6 +135,56 @@ public class BufferedDao implements DonkeyDao {
         }
     }
 
+    /**
+     * Removes and returns all tasks that have been buffered since the last commit or rollback.
+     */
+    List<DaoTask> drainTasks() {
+        List<DaoTask> drained = new ArrayList<DaoTask>(tasks);
+        tasks.clear();
+        return drained;
+    }
+
+    @SuppressWarnings("unchecked")
+    static void executeTask(DonkeyDao dao, DaoTask task) {
+        Object[] p = task.getParameters();
+
+        // @formatter:off
+        switch (task.getTaskType()) {
+            case INSERT_MESSAGE: dao.insertMessage((Message) p[0]); break;
+            case INSERT_CONNECTOR_MESSAGE: dao.insertConnectorMessage((ConnectorMessage) p[0], (Boolean) p[1], (Boolean) p[2]); break;
+            case INSERT_MESSAGE_CONTENT: dao.insertMessageContent((MessageContent) p[0]); break;
+            case BATCH_INSERT_MESSAGE_CONTENT: dao.batchInsertMessageContent((MessageContent) p[0]); break;
+            case EXECUTE_BATCH_INSERT_MESSAGE_CONTENT: dao.executeBatchInsertMessageContent((String) p[0]); break;
+            case INSERT_MESSAGE_ATTACHMENT: dao.insertMessageAttachment((String) p[0], (Long) p[1], (Attachment) p[2]); break;
+            case INSERT_META_DATA: dao.insertMetaData((ConnectorMessage) p[0], (List<MetaDataColumn>) p[1]); break;
+            case STORE_META_DATA: dao.storeMetaData((ConnectorMessage) p[0], (List<MetaDataColumn>) p[1]); break;
+            case STORE_MESSAGE_CONTENT: dao.storeMessageContent((MessageContent) p[0]); break;
+            case STORE_CHANNEL_STATISTICS: dao.addChannelStatistics((Statistics) p[0]); break;
+            case UPDATE_SEND_ATTEMPTS: dao.updateSendAttempts((ConnectorMessage) p[0]); break;
+            case UPDATE_STATUS: dao.updateStatus((ConnectorMessage) p[0], (Status) p[1]); break;
+            case UPDATE_ERRORS: dao.updateErrors((ConnectorMessage) p[0]); break;
+            case UPDATE_MAPS: dao.updateMaps((ConnectorMessage) p[0]); break;
+            case UPDATE_SOURCE_MAP: dao.updateSourceMap((ConnectorMessage) p[0]); break;
+            case UPDATE_RESPONSE_MAP: dao.updateResponseMap((ConnectorMessage) p[0]); break;
+            case MARK_AS_PROCESSED: dao.markAsProcessed((String) p[0], (Long) p[1]); break;
+            case RESET_MESSAGE: dao.resetMessage((String) p[0], (Long) p[1]); break;
+            case DELETE_MESSAGE: dao.deleteMessage((String) p[0], (Long) p[1]); break;
+            case DELETE_CONNECTOR_MESSAGES: dao.deleteConnectorMessages((String) p[0], (Long) p[1], (Set<Integer>) p[2]); break;
+            case DELETE_MESSAGE_STATISTICS: dao.deleteMessageStatistics((String) p[0], (Long) p[1], (Set<Integer>) p[2]); break;
+            case DELETE_ALL_MESSAGES: dao.deleteAllMessages((String) p[0]); break;
+            case DELETE_MESSAGE_CONTENT: dao.deleteMessageContent((String) p[0], (Long) p[1]); break;
+            case DELETE_MESSAGE_CONTENT_BY_META_DATA_IDS: dao.deleteMessageContentByMetaDataIds((String) p[0], (Long) p[1], (Set<Integer>) p[2]); break;
+            case DELETE_MESSAGE_ATTACHMENTS: dao.deleteMessageAttachments((String) p[0], (Long) p[1]); break;
+            case CREATE_CHANNEL: dao.createChannel((String) p[0], (Long) p[1]); break;
+            case REMOVE_CHANNEL: dao.removeChannel((String) p[0]); break;
+            case ADD_META_DATA_COLUMN: dao.addMetaDataColumn((String) p[0], (MetaDataColumn) p[1]); break;
+            case REMOVE_META_DATA_COLUMN: dao.removeMetaDataColumn((String) p[0], (String) p[1]); break;
+            case RESET_STATISTICS: dao.resetStatistics((String) p[0], (Integer) p[1], (Set<Status>) p[2]); break;
+            case RESET_ALL_STATISTICS: dao.resetAllStatistics((String) p[0]); break;
+        }
+        // @formatter:on
+    }
+
     @Override
     public void rollback() {
         tasks.clear();
@@ -419,6 +452,17 @@ public class BufferedDao implements DonkeyDao {
         }
     }
 
+    @Override
+    public Attachment getMessageAttachment(String channelId, String attachmentId, Long messageId, OutputStream outputStream) {
+        DonkeyDao dao = getDelegateDao();
+
+        try {
+            return dao.getMessageAttachment(channelId, attachmentId, messageId, outputStream);
+        } finally {
+            dao.close();
+        }
+    }
+
     @Override
     public List<Message> getPendingConnectorMessages(String channelId, String serverId, int limit, Long minMessageId) {
         DonkeyDao dao = getDelegateDao();
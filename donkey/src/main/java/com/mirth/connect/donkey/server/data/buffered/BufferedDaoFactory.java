@@ -20,6 +20,8 @@ public class BufferedDaoFactory implements DonkeyDaoFactory {
     private boolean encryptData = false;
     private boolean decryptData = true;
     private StatisticsUpdater statisticsUpdater;
+    private boolean batchStatements = false;
+    private boolean compressContent = false;
 
     public BufferedDaoFactory(DonkeyDaoFactory delegateFactory, SerializerProvider serializerProvider, StatisticsUpdater statisticsUpdater) {
         this.delegateFactory = delegateFactory;
@@ -50,6 +52,14 @@ public class BufferedDaoFactory implements DonkeyDaoFactory {
         this.statisticsUpdater = statisticsUpdater;
     }
 
+    public void setBatchStatements(boolean batchStatements) {
+        this.batchStatements = batchStatements;
+    }
+
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
+
     @Override
     public DonkeyDao getDao() {
         return getDao(serializerProvider);
@@ -57,6 +67,9 @@ public class BufferedDaoFactory implements DonkeyDaoFactory {
 
     @Override
     public DonkeyDao getDao(SerializerProvider serializerProvider) {
-        return new BufferedDao(delegateFactory, serializerProvider, encryptData, decryptData, statisticsUpdater);
+        BufferedDao dao = new BufferedDao(delegateFactory, serializerProvider, encryptData, decryptData, statisticsUpdater);
+        dao.setBatchStatements(batchStatements);
+        dao.setCompressContent(compressContent);
+        return dao;
     }
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.buffered;
+
+import com.mirth.connect.donkey.server.data.DonkeyDaoFactory;
+import com.mirth.connect.donkey.server.data.StatisticsUpdater;
+import com.mirth.connect.donkey.util.SerializerProvider;
+
+public class GroupCommitDao extends BufferedDao {
+    private GroupCommitter committer;
+
+    protected GroupCommitDao(DonkeyDaoFactory daoFactory, SerializerProvider serializerProvider, boolean encryptData, boolean decryptData, StatisticsUpdater statisticsUpdater, GroupCommitter committer) {
+        super(daoFactory, serializerProvider, encryptData, decryptData, statisticsUpdater);
+        this.committer = committer;
+    }
+
+    @Override
+    void executeTasks(Boolean durable) {
+        committer.commit(drainTasks(), durable == null || durable);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.buffered;
+
+import com.mirth.connect.donkey.server.data.DonkeyDao;
+import com.mirth.connect.donkey.server.data.DonkeyDaoFactory;
+import com.mirth.connect.donkey.server.data.StatisticsUpdater;
+import com.mirth.connect.donkey.util.SerializerProvider;
+
+/**
+ * A buffered DAO factory whose DAOs commit through a shared {@link GroupCommitter}. Transactions
+ * committed concurrently by multiple threads are written to the delegate factory in a single
+ * transaction with a single commit. Each caller is released only once that commit has completed,
+ * so the durability of every individual transaction is unchanged.
+ */
+public class GroupCommitDaoFactory implements DonkeyDaoFactory {
+    private DonkeyDaoFactory delegateFactory;
+    private SerializerProvider serializerProvider;
+    private boolean encryptData = false;
+    private boolean decryptData = true;
+    private StatisticsUpdater statisticsUpdater;
+    private boolean batchStatements = false;
+    private boolean compressContent = false;
+    private GroupCommitter committer;
+
+    public GroupCommitDaoFactory(DonkeyDaoFactory delegateFactory, SerializerProvider serializerProvider, StatisticsUpdater statisticsUpdater) {
+        this.delegateFactory = delegateFactory;
+        this.serializerProvider = serializerProvider;
+        this.statisticsUpdater = statisticsUpdater;
+        committer = new GroupCommitter(this);
+    }
+
+    public DonkeyDaoFactory getDelegateFactory() {
+        return delegateFactory;
+    }
+
+    public void setDelegateFactory(DonkeyDaoFactory delegateFactory) {
+        this.delegateFactory = delegateFactory;
+    }
+
+    public GroupCommitter getCommitter() {
+        return committer;
+    }
+
+    public int getMaxBatchSize() {
+        return committer.getMaxBatchSize();
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        committer.setMaxBatchSize(maxBatchSize);
+    }
+
+    public void setChannelId(String channelId) {
+        committer.setChannelId(channelId);
+    }
+
+    public void setBatchStatements(boolean batchStatements) {
+        this.batchStatements = batchStatements;
+    }
+
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
+
+    @Override
+    public void setEncryptData(boolean encryptData) {
+        this.encryptData = encryptData;
+    }
+
+    @Override
+    public void setDecryptData(boolean decryptData) {
+        this.decryptData = decryptData;
+    }
+
+    @Override
+    public void setStatisticsUpdater(StatisticsUpdater statisticsUpdater) {
+        this.statisticsUpdater = statisticsUpdater;
+    }
+
+    @Override
+    public DonkeyDao getDao() {
+        return new GroupCommitDao(delegateFactory, serializerProvider, encryptData, decryptData, statisticsUpdater, committer);
+    }
+
+    @Override
+    public DonkeyDao getDao(SerializerProvider serializerProvider) {
+        /*
+         * The delegate DAO used for a group commit is tied to a single serializer provider, so
+         * transactions using a different one can't join the group.
+         */
+        if (serializerProvider != this.serializerProvider) {
+            BufferedDao dao = new BufferedDao(delegateFactory, serializerProvider, encryptData, decryptData, statisticsUpdater);
+            dao.setBatchStatements(batchStatements);
+            dao.setCompressContent(compressContent);
+            return dao;
+        }
+
+        return getDao();
+    }
+
+    DonkeyDao getDelegateDao() {
+        DonkeyDao dao = delegateFactory.getDao(serializerProvider);
+
+        dao.setEncryptData(encryptData);
+        dao.setDecryptData(decryptData);
+        dao.setStatisticsUpdater(statisticsUpdater);
+        dao.setBatchStatements(batchStatements);
+        dao.setCompressContent(compressContent);
+
+        return dao;
+    }
+}
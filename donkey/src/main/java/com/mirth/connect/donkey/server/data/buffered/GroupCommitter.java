@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.buffered;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.mirth.connect.donkey.model.message.attachment.Attachment;
+import com.mirth.connect.donkey.server.data.DonkeyDao;
+import com.mirth.connect.donkey.server.data.DonkeyDaoException;
+
+/**
+ * Combines transactions committed concurrently by multiple threads into a single delegate
+ * transaction.
+ * 
+ * There is no dedicated commit thread. The first thread to commit becomes the leader and writes
+ * every pending transaction to one delegate DAO, then commits once. Threads that commit while the
+ * leader is busy wait, and one of them becomes the leader for the next group. A thread only
+ * returns from {@link #commit(List, boolean)} after the commit containing its own transaction has
+ * completed, or throws the exception that caused its transaction to fail.
+ * 
+ * If a group fails, it is rolled back and each transaction in it is retried on its own, so that
+ * one bad transaction doesn't fail every other caller in the group. A transaction that inserts an
+ * attachment backed by an input stream can't be retried, since the stream can only be read once,
+ * so it is always committed in a group of its own.
+ * 
+ * The group size and latency statistics are logged once a minute while debug logging is enabled
+ * for this class.
+ */
+public class GroupCommitter {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final long STATISTICS_LOG_INTERVAL_MILLIS = 60000;
+
+    private GroupCommitDaoFactory daoFactory;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private String channelId;
+    private List<Transaction> pending = new ArrayList<Transaction>();
+    private boolean committing = false;
+
+    private AtomicLong commitCount = new AtomicLong();
+    private AtomicLong transactionCount = new AtomicLong();
+    private AtomicLong retryCount = new AtomicLong();
+    private AtomicLong largestGroupSize = new AtomicLong();
+    private AtomicLong totalCommitNanos = new AtomicLong();
+    private AtomicLong totalWaitNanos = new AtomicLong();
+    private AtomicLong lastLoggedMillis = new AtomicLong();
+    private Logger logger = Logger.getLogger(this.getClass());
+
+    public GroupCommitter(GroupCommitDaoFactory daoFactory) {
+        this.daoFactory = daoFactory;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize > 0) {
+            this.maxBatchSize = maxBatchSize;
+        }
+    }
+
+    /**
+     * Sets the channel id included in the logged statistics.
+     */
+    public void setChannelId(String channelId) {
+        this.channelId = channelId;
+    }
+
+    /**
+     * Returns the number of delegate commits that have been executed.
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Returns the number of caller transactions that have been committed.
+     */
+    public long getTransactionCount() {
+        return transactionCount.get();
+    }
+
+    /**
+     * Returns the number of groups that failed and had their transactions retried one at a time.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public long getLargestGroupSize() {
+        return largestGroupSize.get();
+    }
+
+    public double getAverageGroupSize() {
+        long commits = commitCount.get();
+        return commits > 0 ? (double) transactionCount.get() / commits : 0;
+    }
+
+    /**
+     * Returns the average time in milliseconds spent writing and committing a group.
+     */
+    public double getAverageCommitMillis() {
+        long commits = commitCount.get();
+        return commits > 0 ? (double) TimeUnit.NANOSECONDS.toMicros(totalCommitNanos.get()) / commits / 1000 : 0;
+    }
+
+    /**
+     * Returns the average time in milliseconds between a caller committing and its transaction
+     * being durable, including any time spent waiting for the previous group.
+     */
+    public double getAverageLatencyMillis() {
+        long transactions = transactionCount.get();
+        return transactions > 0 ? (double) TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.get()) / transactions / 1000 : 0;
+    }
+
+    public void resetStatistics() {
+        commitCount.set(0);
+        transactionCount.set(0);
+        retryCount.set(0);
+        largestGroupSize.set(0);
+        totalCommitNanos.set(0);
+        totalWaitNanos.set(0);
+    }
+
+    /**
+     * Commits the given tasks as part of the next group, blocking until the group commit
+     * containing them has completed.
+     */
+    public void commit(List<DaoTask> tasks, boolean durable) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        Transaction transaction = new Transaction(tasks, durable);
+
+        synchronized (this) {
+            pending.add(transaction);
+        }
+
+        while (true) {
+            List<Transaction> group = null;
+
+            synchronized (this) {
+                while (!transaction.done && committing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        /*
+                         * The transaction is already pending and will be committed by the next
+                         * leader, so keep waiting for it and restore the interrupt afterwards.
+                         */
+                        transaction.interrupted = true;
+                    }
+                }
+
+                if (transaction.done) {
+                    break;
+                }
+
+                committing = true;
+                int groupSize = getNextGroupSize();
+
+                if (groupSize == pending.size()) {
+                    group = pending;
+                    pending = new ArrayList<Transaction>();
+                } else {
+                    group = new ArrayList<Transaction>(pending.subList(0, groupSize));
+                    pending.subList(0, groupSize).clear();
+                }
+            }
+
+            try {
+                executeGroup(group);
+            } finally {
+                synchronized (this) {
+                    committing = false;
+
+                    for (Transaction committed : group) {
+                        committed.done = true;
+                    }
+
+                    notifyAll();
+                }
+            }
+        }
+
+        if (transaction.interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        totalWaitNanos.addAndGet(System.nanoTime() - transaction.startNanos);
+        logStatistics();
+
+        if (transaction.error != null) {
+            throw transaction.error;
+        }
+    }
+
+    /*
+     * Pending transactions are grouped in order, and a group ends before the next transaction that
+     * can't be retried so that it is committed alone.
+     */
+    private int getNextGroupSize() {
+        int groupSize = 0;
+
+        while (groupSize < pending.size() && groupSize < maxBatchSize) {
+            if (!pending.get(groupSize).retryable) {
+                return groupSize == 0 ? 1 : groupSize;
+            }
+
+            groupSize++;
+        }
+
+        return groupSize;
+    }
+
+    private void executeGroup(List<Transaction> group) {
+        long startNanos = System.nanoTime();
+        boolean durable = false;
+
+        for (Transaction transaction : group) {
+            durable |= transaction.durable;
+        }
+
+        DonkeyDao dao = null;
+
+        try {
+            dao = daoFactory.getDelegateDao();
+
+            try {
+                for (Transaction transaction : group) {
+                    for (DaoTask task : transaction.tasks) {
+                        BufferedDao.executeTask(dao, task);
+                    }
+                }
+
+                dao.commit(durable);
+            } catch (RuntimeException e) {
+                if (group.size() == 1) {
+                    throw e;
+                }
+
+                logger.debug("Group commit of " + group.size() + " transactions failed, retrying each transaction separately", e);
+                retryCount.incrementAndGet();
+                dao.rollback();
+
+                for (Transaction transaction : group) {
+                    try {
+                        for (DaoTask task : transaction.tasks) {
+                            BufferedDao.executeTask(dao, task);
+                        }
+
+                        dao.commit(transaction.durable);
+                    } catch (RuntimeException e2) {
+                        transaction.error = e2;
+                        dao.rollback();
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            RuntimeException error = (t instanceof RuntimeException) ? (RuntimeException) t : new DonkeyDaoException(t);
+
+            for (Transaction transaction : group) {
+                if (transaction.error == null) {
+                    transaction.error = error;
+                }
+            }
+        } finally {
+            if (dao != null) {
+                dao.close();
+            }
+        }
+
+        long commitNanos = System.nanoTime() - startNanos;
+        commitCount.incrementAndGet();
+        transactionCount.addAndGet(group.size());
+        totalCommitNanos.addAndGet(commitNanos);
+
+        long groupSize = group.size();
+        long currentMax;
+        while (groupSize > (currentMax = largestGroupSize.get()) && !largestGroupSize.compareAndSet(currentMax, groupSize)) {}
+    }
+
+    private void logStatistics() {
+        if (logger.isDebugEnabled()) {
+            long now = System.currentTimeMillis();
+            long lastLogged = lastLoggedMillis.get();
+
+            // Only one of the threads committing at the end of an interval logs it
+            if (now - lastLogged >= STATISTICS_LOG_INTERVAL_MILLIS && lastLoggedMillis.compareAndSet(lastLogged, now)) {
+                logger.debug(String.format("Group commit statistics for channel %s: %d transactions in %d commits, average group size %.1f, largest group %d, average commit %.2f ms, average latency %.2f ms, %d groups retried", channelId, getTransactionCount(), getCommitCount(), getAverageGroupSize(), getLargestGroupSize(), getAverageCommitMillis(), getAverageLatencyMillis(), getRetryCount()));
+            }
+        }
+    }
+
+    private class Transaction {
+        private List<DaoTask> tasks;
+        private boolean durable;
+        private boolean retryable = true;
+        private long startNanos = System.nanoTime();
+        private boolean done = false;
+        private boolean interrupted = false;
+        private RuntimeException error;
+
+        public Transaction(List<DaoTask> tasks, boolean durable) {
+            this.tasks = Collections.unmodifiableList(tasks);
+            this.durable = durable;
+
+            for (DaoTask task : tasks) {
+                if (task.getTaskType() == DaoTaskType.INSERT_MESSAGE_ATTACHMENT && ((Attachment) task.getParameters()[2]).hasContentStream()) {
+                    retryable = false;
+                }
+            }
+        }
+    }
+}
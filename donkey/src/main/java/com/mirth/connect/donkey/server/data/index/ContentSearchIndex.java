@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * An in-memory index used to narrow message content searches to the message ids that may contain
+ * the search text. Message ids are grouped into blocks of BLOCK_SIZE, and each block keeps a Bloom
+ * filter of the case-insensitive trigrams of all content written for those messages. A block
+ * whose filter doesn't contain every trigram of the search text can't contain a match, so the
+ * database search only needs to scan the remaining blocks.
+ * 
+ * Content is added to the index before it is encrypted, so encrypted content is indexed as well.
+ * The index of a channel with encrypted content is never saved to disk, since its filters are
+ * derived from the plain text.
+ * Since bits are never removed from a filter, content that is deleted, pruned or overwritten only
+ * causes extra blocks to be scanned. Each channel is only indexed from the message id that followed
+ * its last message when indexing started, and searches always scan message ids below that
+ * completely.
+ */
+public class ContentSearchIndex {
+    public static final int BLOCK_SIZE = 1024;
+    public static final int DEFAULT_MAX_BLOCKS = 1024;
+    public static final int DEFAULT_MAX_TOTAL_BLOCKS = 8192;
+
+    private static final int FILTER_BITS = 1 << 17;
+    private static final int FILTER_MASK = FILTER_BITS - 1;
+    private static final int FILTER_WORDS = FILTER_BITS / 64;
+    private static final int FILE_VERSION = 2;
+    private static final String FILE_EXTENSION = ".idx";
+
+    private int maxBlocks;
+    private int maxTotalBlocks;
+    private Map<String, ChannelIndex> channelIndexes = new ConcurrentHashMap<String, ChannelIndex>();
+    private Logger logger = Logger.getLogger(getClass());
+
+    public ContentSearchIndex(int maxBlocks) {
+        this(maxBlocks, DEFAULT_MAX_TOTAL_BLOCKS);
+    }
+
+    /**
+     * @param maxBlocks
+     *            the maximum number of blocks kept for each channel. When a channel exceeds it,
+     *            the blocks with the lowest message ids are dropped and those messages are no
+     *            longer indexed.
+     * @param maxTotalBlocks
+     *            the maximum number of blocks kept for all channels together. Each channel is
+     *            limited to an equal share of it if that is less than maxBlocks.
+     */
+    public ContentSearchIndex(int maxBlocks, int maxTotalBlocks) {
+        this.maxBlocks = Math.max(1, maxBlocks);
+        this.maxTotalBlocks = Math.max(1, maxTotalBlocks);
+    }
+
+    public boolean isIndexing(String channelId) {
+        return channelIndexes.containsKey(channelId);
+    }
+
+    /**
+     * Starts indexing a channel if it isn't already being indexed. All content written for
+     * messages with an id of at least firstMessageId must be added to the index from now on.
+     */
+    public void startChannel(String channelId, long firstMessageId) {
+        if (!channelIndexes.containsKey(channelId)) {
+            ChannelIndex channelIndex = new ChannelIndex(firstMessageId);
+
+            if (channelIndexes.putIfAbsent(channelId, channelIndex) == null) {
+                logger.debug(channelId + ": indexing content from message " + firstMessageId);
+                evictAllBlocks();
+            }
+        }
+    }
+
+    /**
+     * Stops indexing a channel whose message tables have been removed, and drops its blocks.
+     */
+    public void removeChannel(String channelId) {
+        channelIndexes.remove(channelId);
+    }
+
+    /**
+     * Marks the block of a message as possibly containing any text. This is used when content was
+     * written for the message but couldn't be added to the index.
+     */
+    public void addUnknownContent(String channelId, long messageId) {
+        ChannelIndex channelIndex = channelIndexes.get(channelId);
+
+        if (channelIndex != null) {
+            Block block = channelIndex.getBlock(messageId / BLOCK_SIZE);
+
+            for (int i = 0; i < FILTER_WORDS; i++) {
+                block.bits.set(i, -1L);
+            }
+
+            channelIndex.evictBlocks();
+        }
+    }
+
+    /**
+     * Adds message content to the index. This does nothing if the channel isn't being indexed.
+     *
+     * @param encrypted
+     *            true if the content is stored encrypted, in which case the database can't be
+     *            searched for it directly
+     */
+    public void addContent(String channelId, long messageId, String content, boolean encrypted) {
+        ChannelIndex channelIndex = channelIndexes.get(channelId);
+
+        if (channelIndex == null || content == null) {
+            return;
+        }
+
+        if (encrypted) {
+            channelIndex.encrypted = true;
+        }
+
+        Block block = channelIndex.getBlock(messageId / BLOCK_SIZE);
+        String normalized = normalize(content);
+
+        for (int i = 0; i + 2 < normalized.length(); i++) {
+            long hash = hash(normalized.charAt(i), normalized.charAt(i + 1), normalized.charAt(i + 2));
+            block.set((int) hash & FILTER_MASK);
+            block.set((int) (hash >>> 32) & FILTER_MASK);
+        }
+
+        channelIndex.evictBlocks();
+    }
+
+    /**
+     * Returns true if any content written to the channel since indexing started was stored
+     * encrypted.
+     */
+    public boolean hasEncryptedContent(String channelId) {
+        ChannelIndex channelIndex = channelIndexes.get(channelId);
+        return channelIndex != null && channelIndex.encrypted;
+    }
+
+    /**
+     * Returns the ranges of message ids between minMessageId and maxMessageId that need to be
+     * searched for content containing all of the given strings, in ascending order. The ranges
+     * include the message ids that aren't indexed. Returns null if the index can't narrow the
+     * search, because the channel isn't being indexed or none of the strings contain at least
+     * three consecutive characters that must appear literally in the content.
+     *
+     * The SQL wildcards %, _ and [...] and the escape character \ may be used by the database
+     * searches, so only the text between them is used.
+     */
+    public List<Range> getCandidateRanges(String channelId, long minMessageId, long maxMessageId, Collection<String> searches) {
+        ChannelIndex channelIndex = channelIndexes.get(channelId);
+
+        if (channelIndex == null) {
+            return null;
+        }
+
+        long[] hashes = getSearchHashes(searches);
+
+        if (hashes.length == 0) {
+            return null;
+        }
+
+        if (minMessageId > maxMessageId) {
+            return new ArrayList<Range>();
+        }
+
+        /*
+         * Blocks are dropped after the indexed message ids are moved past them, so if that
+         * happened during the search it needs to be repeated.
+         */
+        while (true) {
+            long indexedFrom = channelIndex.indexedFrom;
+            List<Range> ranges = getCandidateRanges(channelIndex, indexedFrom, minMessageId, maxMessageId, hashes);
+
+            if (channelIndex.indexedFrom == indexedFrom) {
+                return ranges;
+            }
+        }
+    }
+
+    private List<Range> getCandidateRanges(ChannelIndex channelIndex, long indexedFrom, long minMessageId, long maxMessageId, long[] hashes) {
+        List<Range> ranges = new ArrayList<Range>();
+
+        if (minMessageId < indexedFrom) {
+            ranges.add(new Range(minMessageId, Math.min(maxMessageId, indexedFrom - 1), false));
+        }
+
+        long fromBlock = Math.max(minMessageId, indexedFrom) / BLOCK_SIZE;
+        long toBlock = maxMessageId / BLOCK_SIZE;
+
+        if (fromBlock <= toBlock) {
+            for (Entry<Long, Block> entry : channelIndex.blocks.subMap(fromBlock, true, toBlock, true).entrySet()) {
+                if (entry.getValue().containsAll(hashes)) {
+                    long blockNumber = entry.getKey();
+                    long min = Math.max(Math.max(minMessageId, indexedFrom), blockNumber * BLOCK_SIZE);
+                    long max = Math.min(maxMessageId, blockNumber * BLOCK_SIZE + BLOCK_SIZE - 1);
+                    Range last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+
+                    if (last != null && last.isIndexed() && last.getMaxMessageId() + 1 == min) {
+                        ranges.set(ranges.size() - 1, new Range(last.getMinMessageId(), max, true));
+                    } else {
+                        ranges.add(new Range(min, max, true));
+                    }
+                }
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Returns the number of blocks currently held for a channel.
+     */
+    public int getBlockCount(String channelId) {
+        ChannelIndex channelIndex = channelIndexes.get(channelId);
+        return channelIndex == null ? 0 : channelIndex.blockCount.get();
+    }
+
+    /**
+     * Writes each channel's index to a file in the given directory, except for the channels with
+     * encrypted content. Those are indexed again from their next message id after a restart.
+     */
+    public void save(File directory) throws IOException {
+        FileUtils.forceMkdir(directory);
+
+        for (Entry<String, ChannelIndex> entry : channelIndexes.entrySet()) {
+            if (entry.getValue().encrypted) {
+                continue;
+            }
+
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, entry.getKey() + FILE_EXTENSION))));
+
+            try {
+                entry.getValue().write(output);
+            } finally {
+                IOUtils.closeQuietly(output);
+            }
+        }
+    }
+
+    /**
+     * Reads the channel indexes previously written to the given directory, and then deletes the
+     * files. The files are only valid until content is written again, so if the server stops
+     * without saving the index, the channels are indexed again from their next message id.
+     */
+    public void load(File directory) {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (name.endsWith(FILE_EXTENSION)) {
+                DataInputStream input = null;
+
+                try {
+                    input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    ChannelIndex channelIndex = readChannelIndex(input);
+
+                    if (channelIndex != null) {
+                        channelIndexes.put(name.substring(0, name.length() - FILE_EXTENSION.length()), channelIndex);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Failed to load content search index file " + file.getAbsolutePath(), e);
+                } finally {
+                    IOUtils.closeQuietly(input);
+                }
+            }
+
+            FileUtils.deleteQuietly(file);
+        }
+
+        evictAllBlocks();
+    }
+
+    /*
+     * Each channel's share of the total blocks gets smaller as channels are added, so the other
+     * channels may need to drop blocks even if they aren't written to.
+     */
+    private void evictAllBlocks() {
+        for (ChannelIndex channelIndex : channelIndexes.values()) {
+            channelIndex.evictBlocks();
+        }
+    }
+
+    private int getMaxChannelBlocks() {
+        return Math.min(maxBlocks, Math.max(1, maxTotalBlocks / Math.max(1, channelIndexes.size())));
+    }
+
+    /*
+     * Returns null if the file was written by a different version.
+     */
+    private ChannelIndex readChannelIndex(DataInputStream input) throws IOException {
+        if (input.readInt() != FILE_VERSION) {
+            return null;
+        }
+
+        ChannelIndex channelIndex = new ChannelIndex(input.readLong());
+        int blockCount = input.readInt();
+
+        for (int i = 0; i < blockCount; i++) {
+            Block block = channelIndex.getBlock(input.readLong());
+
+            for (int j = 0; j < FILTER_WORDS; j++) {
+                block.bits.set(j, input.readLong());
+            }
+        }
+
+        channelIndex.evictBlocks();
+        return channelIndex;
+    }
+
+    /*
+     * Case and accents are ignored, since databases may match them in a LIKE search depending on
+     * the collation.
+     */
+    static String normalize(String text) {
+        boolean ascii = true;
+
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 128;
+        }
+
+        if (!ascii) {
+            text = Normalizer.normalize(text, Normalizer.Form.NFD);
+        }
+
+        StringBuilder builder = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (c < 128) {
+                builder.append(c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                builder.append(Character.toLowerCase(Character.toUpperCase(c)));
+            }
+        }
+
+        return builder.toString();
+    }
+
+    private static long hash(char first, char second, char third) {
+        long hash = ((long) first << 32) | ((long) second << 16) | third;
+
+        // MurmurHash3 finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private static long[] getSearchHashes(Collection<String> searches) {
+        List<Long> hashes = new ArrayList<Long>();
+
+        if (searches != null) {
+            for (String search : searches) {
+                if (search != null) {
+                    for (String fragment : getLiteralFragments(search)) {
+                        String normalized = normalize(fragment);
+
+                        for (int i = 0; i + 2 < normalized.length(); i++) {
+                            hashes.add(hash(normalized.charAt(i), normalized.charAt(i + 1), normalized.charAt(i + 2)));
+                        }
+                    }
+                }
+            }
+        }
+
+        long[] result = new long[hashes.size()];
+
+        for (int i = 0; i < result.length; i++) {
+            result[i] = hashes.get(i);
+        }
+
+        return result;
+    }
+
+    private static List<String> getLiteralFragments(String search) {
+        List<String> fragments = new ArrayList<String>();
+        StringBuilder fragment = new StringBuilder();
+        boolean inBrackets = false;
+
+        for (int i = 0; i < search.length(); i++) {
+            char c = search.charAt(i);
+
+            if (c == '[') {
+                inBrackets = true;
+            } else if (c == ']') {
+                inBrackets = false;
+            }
+
+            if (c == '%' || c == '_' || c == '\\' || c == '[' || c == ']' || inBrackets) {
+                if (fragment.length() > 0) {
+                    fragments.add(fragment.toString());
+                    fragment.setLength(0);
+                }
+            } else {
+                fragment.append(c);
+            }
+        }
+
+        if (fragment.length() > 0) {
+            fragments.add(fragment.toString());
+        }
+
+        return fragments;
+    }
+
+    /**
+     * An inclusive range of message ids. Ranges that aren't indexed are below the message id the
+     * channel has been indexed from.
+     */
+    public static class Range {
+        private long minMessageId;
+        private long maxMessageId;
+        private boolean indexed;
+
+        public Range(long minMessageId, long maxMessageId, boolean indexed) {
+            this.minMessageId = minMessageId;
+            this.maxMessageId = maxMessageId;
+            this.indexed = indexed;
+        }
+
+        public long getMinMessageId() {
+            return minMessageId;
+        }
+
+        public long getMaxMessageId() {
+            return maxMessageId;
+        }
+
+        public boolean isIndexed() {
+            return indexed;
+        }
+    }
+
+    private class ChannelIndex {
+        private volatile long indexedFrom;
+        private volatile boolean encrypted;
+        private ConcurrentNavigableMap<Long, Block> blocks = new ConcurrentSkipListMap<Long, Block>();
+        private AtomicInteger blockCount = new AtomicInteger();
+
+        public ChannelIndex(long indexedFrom) {
+            this.indexedFrom = indexedFrom;
+        }
+
+        public Block getBlock(long blockNumber) {
+            Block block = blocks.get(blockNumber);
+
+            if (block == null) {
+                Block newBlock = new Block();
+                block = blocks.putIfAbsent(blockNumber, newBlock);
+
+                if (block == null) {
+                    block = newBlock;
+                    blockCount.incrementAndGet();
+                }
+            }
+
+            return block;
+        }
+
+        /*
+         * The message ids of the dropped blocks are no longer indexed, so they are excluded before
+         * the blocks are removed.
+         */
+        public void evictBlocks() {
+            int maxChannelBlocks = getMaxChannelBlocks();
+
+            while (blockCount.get() > maxChannelBlocks) {
+                Entry<Long, Block> first = blocks.firstEntry();
+
+                if (first == null) {
+                    return;
+                }
+
+                synchronized (this) {
+                    indexedFrom = Math.max(indexedFrom, (first.getKey() + 1) * BLOCK_SIZE);
+                }
+
+                if (blocks.remove(first.getKey(), first.getValue())) {
+                    blockCount.decrementAndGet();
+                }
+            }
+        }
+
+        public void write(DataOutputStream output) throws IOException {
+            output.writeInt(FILE_VERSION);
+            output.writeLong(indexedFrom);
+
+            List<Entry<Long, Block>> entries = new ArrayList<Entry<Long, Block>>(blocks.entrySet());
+            output.writeInt(entries.size());
+
+            for (Entry<Long, Block> entry : entries) {
+                output.writeLong(entry.getKey());
+                AtomicLongArray bits = entry.getValue().bits;
+
+                for (int i = 0; i < FILTER_WORDS; i++) {
+                    output.writeLong(bits.get(i));
+                }
+            }
+        }
+    }
+
+    private static class Block {
+        private AtomicLongArray bits = new AtomicLongArray(FILTER_WORDS);
+
+        public void set(int bit) {
+            int index = bit >>> 6;
+            long mask = 1L << bit;
+            long word;
+
+            do {
+                word = bits.get(index);
+
+                if ((word & mask) != 0) {
+                    return;
+                }
+            } while (!bits.compareAndSet(index, word, word | mask));
+        }
+
+        public boolean get(int bit) {
+            return (bits.get(bit >>> 6) & (1L << bit)) != 0;
+        }
+
+        public boolean containsAll(long[] hashes) {
+            for (long hash : hashes) {
+                if (!get((int) hash & FILTER_MASK) || !get((int) (hash >>> 32) & FILTER_MASK)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
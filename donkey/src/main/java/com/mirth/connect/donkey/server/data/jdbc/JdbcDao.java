@@ -10,6 +10,9 @@
 package com.mirth.connect.donkey.server.data.jdbc;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -26,6 +29,7 @@ import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -34,6 +38,7 @@ import java.util.Set;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 
@@ -55,10 +60,25 @@ import com.mirth.connect.donkey.server.data.ChannelDoesNotExistException;
 import com.mirth.connect.donkey.server.data.DonkeyDao;
 import com.mirth.connect.donkey.server.data.DonkeyDaoException;
 import com.mirth.connect.donkey.server.data.StatisticsUpdater;
+import com.mirth.connect.donkey.server.data.index.ContentSearchIndex;
+import com.mirth.connect.donkey.util.CompressionUtil;
 import com.mirth.connect.donkey.util.MapUtil;
 import com.mirth.connect.donkey.util.SerializerProvider;
 
 public class JdbcDao implements DonkeyDao {
+    /*
+     * Pending batches are executed in this order so that rows are always inserted after the rows
+     * their foreign keys reference: D_M, then D_MM, then D_MC and D_MCM.
+     */
+    private static final int MESSAGE_BATCH = 0;
+    private static final int CONNECTOR_MESSAGE_BATCH = 1;
+    private static final int CONTENT_BATCH = 2;
+
+    // The size of each segment of an attachment
+    private static final int ATTACHMENT_SEGMENT_SIZE = 10000000;
+    // The initial size of the buffer used to read or write streamed attachment content
+    private static final int ATTACHMENT_BUFFER_SIZE = 65536;
+
     private Donkey donkey;
     private Connection connection;
     private QuerySource querySource;
@@ -66,9 +86,11 @@ public class JdbcDao implements DonkeyDao {
     private SerializerProvider serializerProvider;
     private boolean encryptData;
     private boolean decryptData;
+    private boolean compressContent;
     private StatisticsUpdater statisticsUpdater;
     private Set<ContentType> alwaysDecrypt = new HashSet<ContentType>();
     private Encryptor encryptor;
+    private ContentSearchIndex contentSearchIndex;
     private Statistics currentStats;
     private Statistics totalStats;
     private Statistics transactionStats = new Statistics(false, true);
@@ -80,6 +102,9 @@ public class JdbcDao implements DonkeyDao {
     private String statsServerId;
     private boolean transactionAlteredChannels = false;
     private char quoteChar = '"';
+    private boolean batchStatements = false;
+    private List<Set<PreparedStatement>> pendingBatches = new ArrayList<Set<PreparedStatement>>();
+    private Map<String, PreparedStatement> uncachedBatchStatements = new HashMap<String, PreparedStatement>();
     private Logger logger = Logger.getLogger(this.getClass());
 
     protected JdbcDao(Donkey donkey, Connection connection, QuerySource querySource, PreparedStatementSource statementSource, SerializerProvider serializerProvider, boolean encryptData, boolean decryptData, StatisticsUpdater statisticsUpdater, Statistics currentStats, Statistics totalStats, String statsServerId) {
@@ -95,9 +120,14 @@ public class JdbcDao implements DonkeyDao {
         this.totalStats = totalStats;
         this.statsServerId = statsServerId;
         encryptor = donkey.getEncryptor();
+        contentSearchIndex = donkey.getContentSearchIndex();
         alwaysDecrypt.addAll(Arrays.asList(ContentType.getMapTypes()));
         alwaysDecrypt.addAll(Arrays.asList(ContentType.getErrorTypes()));
 
+        for (int i = 0; i <= CONTENT_BATCH; i++) {
+            pendingBatches.add(new LinkedHashSet<PreparedStatement>());
+        }
+
         logger.debug("Opened connection");
     }
 
@@ -111,11 +141,34 @@ public class JdbcDao implements DonkeyDao {
         this.decryptData = decryptData;
     }
 
+    @Override
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
+
     @Override
     public void setStatisticsUpdater(StatisticsUpdater statisticsUpdater) {
         this.statisticsUpdater = statisticsUpdater;
     }
 
+    public boolean isBatchStatements() {
+        return batchStatements;
+    }
+
+    /**
+     * When enabled, message, connector message, content and meta data inserts are added to JDBC
+     * batches instead of being executed immediately. Pending batches are executed before any other
+     * statement runs on this connection and before the transaction is committed.
+     */
+    @Override
+    public void setBatchStatements(boolean batchStatements) {
+        if (!batchStatements) {
+            executePendingBatches();
+        }
+
+        this.batchStatements = batchStatements;
+    }
+
     public char getQuoteChar() {
         return quoteChar;
     }
@@ -129,7 +182,7 @@ public class JdbcDao implements DonkeyDao {
         logger.debug(message.getChannelId() + "/" + message.getMessageId() + ": inserting message");
 
         try {
-            PreparedStatement statement = prepareStatement("insertMessage", message.getChannelId());
+            PreparedStatement statement = prepareInsertStatement("insertMessage", message.getChannelId(), MESSAGE_BATCH);
             statement.setLong(1, message.getMessageId());
             statement.setString(2, message.getServerId());
             statement.setTimestamp(3, new Timestamp(message.getReceivedDate().getTimeInMillis()));
@@ -159,7 +212,7 @@ public class JdbcDao implements DonkeyDao {
                 statement.setNull(7, Types.VARCHAR);
             }
 
-            statement.executeUpdate();
+            executeInsert(statement);
         } catch (SQLException e) {
             throw new DonkeyDaoException(e);
         }
@@ -197,17 +250,21 @@ public class JdbcDao implements DonkeyDao {
     public void batchInsertMessageContent(MessageContent messageContent) {
         logger.debug(messageContent.getChannelId() + "/" + messageContent.getMessageId() + "/" + messageContent.getMetaDataId() + ": batch inserting message content (" + messageContent.getContentType().toString() + ")");
 
+        indexContent(messageContent.getChannelId(), messageContent.getMessageId(), messageContent.getContent(), messageContent.isEncrypted());
+
         try {
-            String content;
-            boolean encrypted;
+            String content = messageContent.getContent();
+            boolean encrypted = messageContent.isEncrypted();
+
+            // Compress before encrypting, since encrypted content doesn't compress
+            if (compressContent && !encrypted) {
+                content = CompressionUtil.compressContent(content);
+            }
 
             // Only encrypt if the content is not already encrypted
-            if (encryptData && encryptor != null && !messageContent.isEncrypted()) {
-                content = encryptor.encrypt(messageContent.getContent());
+            if (encryptData && encryptor != null && !encrypted) {
+                content = encryptor.encrypt(content);
                 encrypted = true;
-            } else {
-                content = messageContent.getContent();
-                encrypted = messageContent.isEncrypted();
             }
 
             PreparedStatement statement = prepareStatement("batchInsertMessageContent", messageContent.getChannelId());
@@ -253,14 +310,25 @@ public class JdbcDao implements DonkeyDao {
     }
 
     private void insertContent(String channelId, long messageId, int metaDataId, ContentType contentType, String content, String dataType, boolean encrypted) {
+        indexContent(channelId, messageId, content, encrypted);
+
         try {
+            // Compress before encrypting, since encrypted content doesn't compress
+            if (compressContent && !encrypted) {
+                content = CompressionUtil.compressContent(content);
+            }
+
             // Only encrypt if the content is not already encrypted
             if (encryptData && encryptor != null && !encrypted) {
                 content = encryptor.encrypt(content);
                 encrypted = true;
             }
 
-            PreparedStatement statement = prepareStatement("insertMessageContent", channelId);
+            /*
+             * MIRTH-3597 Batched inserts use the batch statement so that the same prepared
+             * statement object is never used both with and without batching.
+             */
+            PreparedStatement statement = prepareInsertStatement(batchStatements ? "batchInsertMessageContent" : "insertMessageContent", channelId, CONTENT_BATCH);
             statement.setInt(1, metaDataId);
             statement.setLong(2, messageId);
             statement.setInt(3, contentType.getContentTypeCode());
@@ -268,7 +336,7 @@ public class JdbcDao implements DonkeyDao {
             statement.setString(5, dataType);
             statement.setBoolean(6, encrypted);
 
-            statement.executeUpdate();
+            executeInsert(statement);
             statement.clearParameters();
         } catch (SQLException e) {
             throw new DonkeyDaoException(e);
@@ -276,7 +344,14 @@ public class JdbcDao implements DonkeyDao {
     }
 
     public void storeContent(String channelId, long messageId, int metaDataId, ContentType contentType, String content, String dataType, boolean encrypted) {
+        indexContent(channelId, messageId, content, encrypted);
+
         try {
+            // Compress before encrypting, since encrypted content doesn't compress
+            if (compressContent && !encrypted) {
+                content = CompressionUtil.compressContent(content);
+            }
+
             // Only encrypt if the content is not already encrypted
             if (encryptData && encryptor != null && !encrypted) {
                 content = encryptor.encrypt(content);
@@ -301,7 +376,7 @@ public class JdbcDao implements DonkeyDao {
             statement.clearParameters();
 
             if (rowCount == 0) {
-                // This is the same code as insertContent, without going through the encryption process again
+                // This is the same code as insertContent, without going through the compression and encryption process again
                 logger.debug(channelId + "/" + messageId + "/" + metaDataId + ": updating message content (" + contentType.toString() + ")");
 
                 statement = prepareStatement("insertMessageContent", channelId);
@@ -320,6 +395,29 @@ public class JdbcDao implements DonkeyDao {
         }
     }
 
+    /*
+     * Adds content to the search index before it is compressed or encrypted. Channels are only
+     * indexed once their storage has been initialized by the ChannelController.
+     */
+    private void indexContent(String channelId, long messageId, String content, boolean encrypted) {
+        if (contentSearchIndex == null || content == null || !contentSearchIndex.isIndexing(channelId)) {
+            return;
+        }
+
+        try {
+            boolean storeEncrypted = encrypted || (encryptData && encryptor != null);
+
+            if (encrypted) {
+                content = encryptor.decrypt(content);
+            }
+
+            contentSearchIndex.addContent(channelId, messageId, content, storeEncrypted);
+        } catch (Exception e) {
+            logger.warn(channelId + "/" + messageId + ": failed to add content to the search index", e);
+            contentSearchIndex.addUnknownContent(channelId, messageId);
+        }
+    }
+
     @Override
     public void addChannelStatistics(Statistics statistics) {
         Set<String> failedChannelIds = null;
@@ -356,10 +454,7 @@ public class JdbcDao implements DonkeyDao {
                  */
                 if (!connectorStatsToUpdate.isEmpty() || hasUpdatableStatistics(channelStats)) {
                     updateStatistics(channelId, null, channelStats);
-
-                    for (Entry<Integer, Map<Status, Long>> entry : connectorStatsToUpdate.entrySet()) {
-                        updateStatistics(channelId, entry.getKey(), entry.getValue());
-                    }
+                    updateConnectorStatistics(channelId, connectorStatsToUpdate);
                 }
             } catch (ChannelDoesNotExistException e) {
                 if (failedChannelIds == null) {
@@ -379,152 +474,273 @@ public class JdbcDao implements DonkeyDao {
     }
 
     private void updateStatistics(String channelId, Integer metaDataId, Map<Status, Long> stats) {
-        long received = stats.get(Status.RECEIVED);
-        long filtered = stats.get(Status.FILTERED);
-        long sent = stats.get(Status.SENT);
-        long error = stats.get(Status.ERROR);
-
         logger.debug(channelId + "/" + metaDataId + ": saving statistics");
 
-        PreparedStatement statement;
+        try {
+            PreparedStatement statement = prepareStatisticsStatement(channelId, metaDataId);
+            setStatisticsParameters(statement, metaDataId, stats);
+
+            if (statement.executeUpdate() == 0) {
+                insertStatistics(channelId, metaDataId, stats);
+            }
+        } catch (SQLException e) {
+            throw new DonkeyDaoException(e);
+        }
+    }
+
+    /*
+     * Updates the statistics rows of several connectors with one batch. Rows that don't exist yet
+     * are inserted afterwards. If the driver doesn't report the update counts of a batch, the
+     * existing rows are selected instead, which is safe since only the statistics updater inserts
+     * statistics rows for this server.
+     */
+    private void updateConnectorStatistics(String channelId, Map<Integer, Map<Status, Long>> connectorStats) {
+        if (connectorStats.size() < 2) {
+            for (Entry<Integer, Map<Status, Long>> entry : connectorStats.entrySet()) {
+                updateStatistics(channelId, entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+
+        logger.debug(channelId + ": saving statistics for " + connectorStats.size() + " connectors");
 
         try {
-            /*
-             * Indicates whether case statements are used in the update statement, in which case the
-             * number of bound parameters for each statistic will double.
-             */
-            boolean usingCase = false;
+            List<Integer> metaDataIds = new ArrayList<Integer>(connectorStats.keySet());
+            PreparedStatement statement = prepareStatisticsStatement(channelId, metaDataIds.get(0));
+            int[] updateCounts;
 
-            if (metaDataId == null) {
-                if (querySource.queryExists("updateChannelStatisticsWithCase")) {
-                    usingCase = true;
-                    statement = prepareStatement("updateChannelStatisticsWithCase", channelId);
-                } else {
-                    statement = prepareStatement("updateChannelStatistics", channelId);
+            try {
+                for (Integer metaDataId : metaDataIds) {
+                    setStatisticsParameters(statement, metaDataId, connectorStats.get(metaDataId));
+                    statement.addBatch();
                 }
-            } else {
-                if (querySource.queryExists("updateConnectorStatisticsWithCase")) {
-                    usingCase = true;
-                    statement = prepareStatement("updateConnectorStatisticsWithCase", channelId);
+
+                updateCounts = statement.executeBatch();
+            } catch (SQLException e) {
+                statement.clearBatch();
+                throw e;
+            }
+
+            Set<Integer> existingMetaDataIds = null;
+
+            for (int i = 0; i < metaDataIds.size(); i++) {
+                Integer metaDataId = metaDataIds.get(i);
+                boolean updated;
+
+                if (i < updateCounts.length && updateCounts[i] >= 0) {
+                    updated = updateCounts[i] > 0;
                 } else {
-                    statement = prepareStatement("updateConnectorStatistics", channelId);
+                    if (existingMetaDataIds == null) {
+                        existingMetaDataIds = getStatisticsMetaDataIds(channelId);
+                    }
+                    updated = existingMetaDataIds.contains(metaDataId);
+                }
+
+                if (!updated) {
+                    insertStatistics(channelId, metaDataId, connectorStats.get(metaDataId));
                 }
             }
+        } catch (SQLException e) {
+            throw new DonkeyDaoException(e);
+        }
+    }
 
-            // Keep track of the index since it will change depending on whether case statements are used
-            int paramIndex = 1;
-
-            if (usingCase) {
-                statement.setLong(paramIndex++, received);
-                statement.setLong(paramIndex++, received);
-                statement.setLong(paramIndex++, received);
-                statement.setLong(paramIndex++, received);
-                statement.setLong(paramIndex++, filtered);
-                statement.setLong(paramIndex++, filtered);
-                statement.setLong(paramIndex++, filtered);
-                statement.setLong(paramIndex++, filtered);
-                statement.setLong(paramIndex++, sent);
-                statement.setLong(paramIndex++, sent);
-                statement.setLong(paramIndex++, sent);
-                statement.setLong(paramIndex++, sent);
-                statement.setLong(paramIndex++, error);
-                statement.setLong(paramIndex++, error);
-                statement.setLong(paramIndex++, error);
-                statement.setLong(paramIndex++, error);
+    /*
+     * Returns the update statement for the channel or connector statistics row. The statement
+     * parameters are bound by setStatisticsParameters.
+     */
+    private PreparedStatement prepareStatisticsStatement(String channelId, Integer metaDataId) throws SQLException {
+        if (metaDataId == null) {
+            if (querySource.queryExists("updateChannelStatisticsWithCase")) {
+                return prepareStatement("updateChannelStatisticsWithCase", channelId);
             } else {
-                statement.setLong(paramIndex++, received);
-                statement.setLong(paramIndex++, received);
-                statement.setLong(paramIndex++, filtered);
-                statement.setLong(paramIndex++, filtered);
-                statement.setLong(paramIndex++, sent);
-                statement.setLong(paramIndex++, sent);
-                statement.setLong(paramIndex++, error);
-                statement.setLong(paramIndex++, error);
+                return prepareStatement("updateChannelStatistics", channelId);
             }
-
-            if (metaDataId != null) {
-                statement.setInt(paramIndex++, metaDataId);
-                statement.setString(paramIndex++, statsServerId);
+        } else {
+            if (querySource.queryExists("updateConnectorStatisticsWithCase")) {
+                return prepareStatement("updateConnectorStatisticsWithCase", channelId);
             } else {
-                statement.setString(paramIndex++, statsServerId);
+                return prepareStatement("updateConnectorStatistics", channelId);
             }
+        }
+    }
 
-            if (statement.executeUpdate() == 0) {
-                statement = prepareStatement("insertChannelStatistics", channelId);
+    private void setStatisticsParameters(PreparedStatement statement, Integer metaDataId, Map<Status, Long> stats) throws SQLException {
+        long received = stats.get(Status.RECEIVED);
+        long filtered = stats.get(Status.FILTERED);
+        long sent = stats.get(Status.SENT);
+        long error = stats.get(Status.ERROR);
 
-                if (metaDataId == null) {
-                    statement.setNull(1, Types.INTEGER);
-                } else {
-                    statement.setInt(1, metaDataId);
-                }
+        /*
+         * Indicates whether case statements are used in the update statement, in which case the
+         * number of bound parameters for each statistic will double.
+         */
+        boolean usingCase = querySource.queryExists(metaDataId == null ? "updateChannelStatisticsWithCase" : "updateConnectorStatisticsWithCase");
+
+        // Keep track of the index since it will change depending on whether case statements are used
+        int paramIndex = 1;
+
+        if (usingCase) {
+            statement.setLong(paramIndex++, received);
+            statement.setLong(paramIndex++, received);
+            statement.setLong(paramIndex++, received);
+            statement.setLong(paramIndex++, received);
+            statement.setLong(paramIndex++, filtered);
+            statement.setLong(paramIndex++, filtered);
+            statement.setLong(paramIndex++, filtered);
+            statement.setLong(paramIndex++, filtered);
+            statement.setLong(paramIndex++, sent);
+            statement.setLong(paramIndex++, sent);
+            statement.setLong(paramIndex++, sent);
+            statement.setLong(paramIndex++, sent);
+            statement.setLong(paramIndex++, error);
+            statement.setLong(paramIndex++, error);
+            statement.setLong(paramIndex++, error);
+            statement.setLong(paramIndex++, error);
+        } else {
+            statement.setLong(paramIndex++, received);
+            statement.setLong(paramIndex++, received);
+            statement.setLong(paramIndex++, filtered);
+            statement.setLong(paramIndex++, filtered);
+            statement.setLong(paramIndex++, sent);
+            statement.setLong(paramIndex++, sent);
+            statement.setLong(paramIndex++, error);
+            statement.setLong(paramIndex++, error);
+        }
+
+        if (metaDataId != null) {
+            statement.setInt(paramIndex++, metaDataId);
+            statement.setString(paramIndex++, statsServerId);
+        } else {
+            statement.setString(paramIndex++, statsServerId);
+        }
+    }
 
-                statement.setString(2, statsServerId);
-                statement.setLong(3, received);
-                statement.setLong(4, received);
-                statement.setLong(5, filtered);
-                statement.setLong(6, filtered);
-                statement.setLong(7, sent);
-                statement.setLong(8, sent);
-                statement.setLong(9, error);
-                statement.setLong(10, error);
-                statement.executeUpdate();
+    private void insertStatistics(String channelId, Integer metaDataId, Map<Status, Long> stats) throws SQLException {
+        long received = stats.get(Status.RECEIVED);
+        long filtered = stats.get(Status.FILTERED);
+        long sent = stats.get(Status.SENT);
+        long error = stats.get(Status.ERROR);
+
+        PreparedStatement statement = prepareStatement("insertChannelStatistics", channelId);
+
+        if (metaDataId == null) {
+            statement.setNull(1, Types.INTEGER);
+        } else {
+            statement.setInt(1, metaDataId);
+        }
+
+        statement.setString(2, statsServerId);
+        statement.setLong(3, received);
+        statement.setLong(4, received);
+        statement.setLong(5, filtered);
+        statement.setLong(6, filtered);
+        statement.setLong(7, sent);
+        statement.setLong(8, sent);
+        statement.setLong(9, error);
+        statement.setLong(10, error);
+        statement.executeUpdate();
+    }
+
+    private Set<Integer> getStatisticsMetaDataIds(String channelId) throws SQLException {
+        Set<Integer> metaDataIds = new HashSet<Integer>();
+        ResultSet resultSet = null;
+
+        try {
+            PreparedStatement statement = prepareStatement("getChannelStatistics", channelId);
+            statement.setString(1, statsServerId);
+            resultSet = statement.executeQuery();
+
+            while (resultSet.next()) {
+                metaDataIds.add(resultSet.getObject("METADATA_ID") == null ? null : resultSet.getInt("METADATA_ID"));
             }
-        } catch (SQLException e) {
-            throw new DonkeyDaoException(e);
+        } finally {
+            close(resultSet);
         }
+
+        return metaDataIds;
     }
 
     @Override
     public void insertMessageAttachment(String channelId, long messageId, Attachment attachment) {
         logger.debug(channelId + "/" + messageId + ": inserting message attachment");
 
+        InputStream inputStream = null;
+
         try {
             PreparedStatement statement = prepareStatement("insertMessageAttachment", channelId);
             statement.setString(1, attachment.getId());
             statement.setLong(2, messageId);
             statement.setString(3, attachment.getType());
 
-            // The size of each segment of the attachment.
-            int chunkSize = 10000000;
-
-            if (attachment.getContent().length <= chunkSize) {
-                // If there is only one segment, just store it
-                statement.setInt(4, 1);
-                statement.setInt(5, attachment.getContent().length);
-                statement.setBytes(6, attachment.getContent());
-                statement.executeUpdate();
+            if (attachment.hasContentSource()) {
+                inputStream = attachment.getContentStream();
+                insertAttachmentSegments(statement, inputStream);
             } else {
-                // Use an input stream on the attachment content to segment the data.
-                ByteArrayInputStream inputStream = new ByteArrayInputStream(attachment.getContent());
+                byte[] content = attachment.getContent();
                 // The order of the segment
                 int segmentIndex = 1;
+                int offset = 0;
 
-                // As long as there are bytes left
-                while (inputStream.available() > 0) {
-                    // Set the segment number
-                    statement.setInt(4, segmentIndex++);
-                    // Determine the segment size. If there are more bytes left than the chunk size, the size is the chunk size. Otherwise it is the number of remaining bytes
-                    int segmentSize = Math.min(chunkSize, inputStream.available());
-                    // Create a byte array to store the chunk
-                    byte[] segment = new byte[segmentSize];
-                    // Read the chunk from the input stream to the byte array
-                    inputStream.read(segment, 0, segmentSize);
-                    // Set the segment size
-                    statement.setInt(5, segmentSize);
-                    // Set the byte data
-                    statement.setBytes(6, segment);
-                    // Perform the insert
-                    statement.executeUpdate();
-                }
+                // Write each segment directly from the content array rather than copying it
+                do {
+                    int segmentSize = Math.min(ATTACHMENT_SEGMENT_SIZE, content.length - offset);
+                    insertAttachmentSegment(statement, segmentIndex++, content, offset, segmentSize);
+                    offset += segmentSize;
+                } while (offset < content.length);
             }
 
             // Clear the parameters because the data held in memory could be quite large.
             statement.clearParameters();
         } catch (SQLException e) {
             throw new DonkeyDaoException(e);
+        } catch (IOException e) {
+            throw new DonkeyDaoException("Failed to read content for attachment " + attachment.getId(), e);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
         }
     }
 
+    /**
+     * Reads the input stream into segments and inserts each one. A single buffer is used for every
+     * segment, and it only grows up to the segment size as needed.
+     */
+    private void insertAttachmentSegments(PreparedStatement statement, InputStream inputStream) throws SQLException, IOException {
+        byte[] buffer = new byte[ATTACHMENT_BUFFER_SIZE];
+        int segmentIndex = 1;
+        boolean endOfStream = (inputStream == null);
+
+        do {
+            int segmentSize = 0;
+
+            while (!endOfStream && segmentSize < ATTACHMENT_SEGMENT_SIZE) {
+                if (segmentSize == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, ATTACHMENT_SEGMENT_SIZE));
+                }
+
+                int read = inputStream.read(buffer, segmentSize, buffer.length - segmentSize);
+
+                if (read == -1) {
+                    endOfStream = true;
+                } else {
+                    segmentSize += read;
+                }
+            }
+
+            // Always store at least one segment, even if the attachment is empty
+            if (segmentSize > 0 || segmentIndex == 1) {
+                insertAttachmentSegment(statement, segmentIndex++, buffer, 0, segmentSize);
+            }
+        } while (!endOfStream);
+    }
+
+    private void insertAttachmentSegment(PreparedStatement statement, int segmentIndex, byte[] buffer, int offset, int segmentSize) throws SQLException {
+        statement.setInt(4, segmentIndex);
+        statement.setInt(5, segmentSize);
+        statement.setBinaryStream(6, new ByteArrayInputStream(buffer, offset, segmentSize), segmentSize);
+        statement.executeUpdate();
+    }
+
     @Override
     public void insertMetaData(ConnectorMessage connectorMessage, List<MetaDataColumn> metaDataColumns) {
         logger.debug(connectorMessage.getChannelId() + "/" + connectorMessage.getMessageId() + "/" + connectorMessage.getMetaDataId() + ": inserting custom meta data");
@@ -549,7 +765,7 @@ public class JdbcDao implements DonkeyDao {
                 values.put("metaDataColumnNames", quoteChar + StringUtils.join(metaDataColumnNames, quoteChar + "," + quoteChar) + quoteChar);
                 values.put("metaDataColumnPlaceholders", "?" + StringUtils.repeat(", ?", metaDataColumnNames.size() - 1));
 
-                statement = connection.prepareStatement(querySource.getQuery("insertMetaData", values));
+                statement = prepareMetaDataInsertStatement(querySource.getQuery("insertMetaData", values));
                 statement.setInt(1, connectorMessage.getMetaDataId());
                 statement.setLong(2, connectorMessage.getMessageId());
                 int n = 3;
@@ -571,12 +787,15 @@ public class JdbcDao implements DonkeyDao {
                     }
                 }
 
-                statement.executeUpdate();
+                executeInsert(statement);
             }
         } catch (Exception e) {
             throw new DonkeyDaoException("Failed to insert connector message meta data", e);
         } finally {
-            close(statement);
+            // Batched statements are closed once their batch has been executed
+            if (!batchStatements) {
+                close(statement);
+            }
         }
     }
 
@@ -603,7 +822,7 @@ public class JdbcDao implements DonkeyDao {
                 values.put("localChannelId", getLocalChannelId(connectorMessage.getChannelId()));
                 values.put("metaDataColumnPlaceholders", quoteChar + StringUtils.join(metaDataColumnNames, quoteChar + " = ?, " + quoteChar) + quoteChar + " = ?");
 
-                statement = connection.prepareStatement(querySource.getQuery("storeMetaData", values));
+                statement = prepareQuery(querySource.getQuery("storeMetaData", values));
                 int n = 1;
 
                 for (MetaDataColumn metaDataColumn : metaDataColumns) {
@@ -640,7 +859,7 @@ public class JdbcDao implements DonkeyDao {
         logger.debug(connectorMessage.getChannelId() + "/" + connectorMessage.getMessageId() + "/" + connectorMessage.getMetaDataId() + ": inserting connector message with" + (storeMaps ? "" : "out") + " maps");
 
         try {
-            PreparedStatement statement = prepareStatement("insertConnectorMessage", connectorMessage.getChannelId());
+            PreparedStatement statement = prepareInsertStatement("insertConnectorMessage", connectorMessage.getChannelId(), CONNECTOR_MESSAGE_BATCH);
             statement.setInt(1, connectorMessage.getMetaDataId());
             statement.setLong(2, connectorMessage.getMessageId());
             statement.setString(3, connectorMessage.getServerId());
@@ -670,7 +889,7 @@ public class JdbcDao implements DonkeyDao {
             statement.setInt(10, connectorMessage.getErrorCode());
             statement.setInt(11, connectorMessage.getChainId());
             statement.setInt(12, connectorMessage.getOrderId());
-            statement.executeUpdate();
+            executeInsert(statement);
 
             if (storeMaps) {
                 updateSourceMap(connectorMessage);
@@ -729,7 +948,7 @@ public class JdbcDao implements DonkeyDao {
                 PreparedStatement statement = null;
 
                 try {
-                    statement = connection.prepareStatement(querySource.getQuery("deleteConnectorMessagesByMetaDataIds", values));
+                    statement = prepareQuery(querySource.getQuery("deleteConnectorMessagesByMetaDataIds", values));
                     statement.setLong(1, messageId);
                     statement.executeUpdate();
                 } finally {
@@ -981,6 +1200,10 @@ public class JdbcDao implements DonkeyDao {
             prepareStatement("deleteChannel", channelId).executeUpdate();
 
             removedChannelIds.add(channelId);
+
+            if (contentSearchIndex != null) {
+                contentSearchIndex.removeChannel(channelId);
+            }
         } catch (SQLException e) {
             throw new DonkeyDaoException(e);
         }
@@ -1045,7 +1268,7 @@ public class JdbcDao implements DonkeyDao {
             values.put("localChannelId", getLocalChannelId(channelId));
             values.put("metaDataIds", StringUtils.join(metaDataIds, ','));
 
-            PreparedStatement statement = connection.prepareStatement(querySource.getQuery("deleteMessageContentByMetaDataIds", values));
+            PreparedStatement statement = prepareQuery(querySource.getQuery("deleteMessageContentByMetaDataIds", values));
             statement.setLong(1, messageId);
             statement.executeUpdate();
         } catch (SQLException e) {
@@ -1131,7 +1354,7 @@ public class JdbcDao implements DonkeyDao {
             values.put("localChannelId", getLocalChannelId(channelId));
             values.put("columnName", columnName);
 
-            statement = connection.createStatement();
+            statement = createStatement();
 
             if (querySource.queryExists("removeMetaDataColumnIndex")) {
                 statement.executeUpdate(querySource.getQuery("removeMetaDataColumnIndex", values));
@@ -1182,7 +1405,7 @@ public class JdbcDao implements DonkeyDao {
             Map<String, Object> values = new HashMap<String, Object>();
             values.put("localChannelId", getLocalChannelId(channelId));
 
-            statement = connection.createStatement();
+            statement = createStatement();
 
             if (querySource.queryExists("lockMessageSequenceTable")) {
                 statement.executeUpdate(querySource.getQuery("lockMessageSequenceTable", values));
@@ -1348,6 +1571,50 @@ public class JdbcDao implements DonkeyDao {
         }
     }
 
+    @Override
+    public Attachment getMessageAttachment(String channelId, String attachmentId, Long messageId, OutputStream outputStream) {
+        ResultSet resultSet = null;
+        Attachment attachment = new Attachment();
+
+        try {
+            PreparedStatement statement = prepareStatement("selectMessageAttachment", channelId);
+            statement.setString(1, attachmentId);
+            statement.setLong(2, messageId);
+            // Set the number of rows to be fetched into memory at a time. This limits the amount of memory required for the query.
+            statement.setFetchSize(1);
+            resultSet = statement.executeQuery();
+
+            byte[] buffer = null;
+
+            while (resultSet.next()) {
+                if (buffer == null) {
+                    attachment.setId(attachmentId);
+                    attachment.setType(resultSet.getString("type"));
+                    buffer = new byte[ATTACHMENT_BUFFER_SIZE];
+                }
+
+                // Copy each segment straight to the output stream instead of combining them in memory
+                InputStream segment = resultSet.getBinaryStream("content");
+
+                if (segment != null) {
+                    try {
+                        IOUtils.copyLarge(segment, outputStream, buffer);
+                    } finally {
+                        IOUtils.closeQuietly(segment);
+                    }
+                }
+            }
+
+            return attachment;
+        } catch (SQLException e) {
+            throw new DonkeyDaoException(e);
+        } catch (IOException e) {
+            throw new DonkeyDaoException("Failed to write content for attachment " + attachmentId, e);
+        } finally {
+            close(resultSet);
+        }
+    }
+
     @Override
     public List<Message> getUnfinishedMessages(String channelId, String serverId, int limit, Long minMessageId) {
         PreparedStatement statement = null;
@@ -1362,7 +1629,7 @@ public class JdbcDao implements DonkeyDao {
             params.put("localChannelId", getLocalChannelId(channelId));
             params.put("limit", limit);
 
-            statement = connection.prepareStatement(querySource.getQuery("getUnfinishedMessages", params));
+            statement = prepareQuery(querySource.getQuery("getUnfinishedMessages", params));
             statement.setLong(1, minMessageId);
             statement.setString(2, serverId);
             resultSet = statement.executeQuery();
@@ -1382,7 +1649,7 @@ public class JdbcDao implements DonkeyDao {
                 params.put("localChannelId", getLocalChannelId(channelId));
                 params.put("messageIds", StringUtils.join(messageIds, ","));
 
-                statement = connection.prepareStatement(querySource.getQuery("getConnectorMessagesByMessageIds", params));
+                statement = prepareQuery(querySource.getQuery("getConnectorMessagesByMessageIds", params));
                 resultSet = statement.executeQuery();
 
                 while (resultSet.next()) {
@@ -1414,7 +1681,7 @@ public class JdbcDao implements DonkeyDao {
             params.put("localChannelId", getLocalChannelId(channelId));
             params.put("limit", limit);
 
-            statement = connection.prepareStatement(querySource.getQuery("getPendingMessageIds", params));
+            statement = prepareQuery(querySource.getQuery("getPendingMessageIds", params));
             statement.setLong(1, minMessageId);
             statement.setString(2, serverId);
 
@@ -1436,7 +1703,7 @@ public class JdbcDao implements DonkeyDao {
                 params.put("localChannelId", getLocalChannelId(channelId));
                 params.put("messageIds", StringUtils.join(messageIds, ","));
 
-                statement = connection.prepareStatement(querySource.getQuery("getPendingConnectorMessages", params));
+                statement = prepareQuery(querySource.getQuery("getPendingConnectorMessages", params));
                 statement.setString(1, serverId);
 
                 resultSet = statement.executeQuery();
@@ -1471,7 +1738,7 @@ public class JdbcDao implements DonkeyDao {
             params.put("localChannelId", getLocalChannelId(channelId));
             params.put("messageIds", StringUtils.join(messageIds, ","));
 
-            statement = connection.prepareStatement(querySource.getQuery("getMessagesByMessageIds", params));
+            statement = prepareQuery(querySource.getQuery("getMessagesByMessageIds", params));
             resultSet = statement.executeQuery();
 
             // Get all message objects in the list and store them so they are accessible by message Id
@@ -1494,7 +1761,7 @@ public class JdbcDao implements DonkeyDao {
                 params.put("messageIds", StringUtils.join(messageIds, ","));
 
                 // Perform a single query to retrieve all connector messages in the list at once
-                statement = connection.prepareStatement(querySource.getQuery("getConnectorMessagesByMessageIds", params));
+                statement = prepareQuery(querySource.getQuery("getConnectorMessagesByMessageIds", params));
                 resultSet = statement.executeQuery();
 
                 ConnectorMessage sourceConnectorMessage = null;
@@ -1572,12 +1839,12 @@ public class JdbcDao implements DonkeyDao {
             params.put("limit", limit);
 
             if (minMessageId == null || maxMessageId == null) {
-                statement = connection.prepareStatement(querySource.getQuery("getConnectorMessagesByMetaDataIdAndStatusWithLimit", params));
+                statement = prepareQuery(querySource.getQuery("getConnectorMessagesByMetaDataIdAndStatusWithLimit", params));
                 statement.setInt(1, metaDataId);
                 statement.setString(2, Character.toString(status.getStatusCode()));
                 statement.setString(3, serverId);
             } else {
-                statement = connection.prepareStatement(querySource.getQuery("getConnectorMessagesByMetaDataIdAndStatusWithLimitAndRange", params));
+                statement = prepareQuery(querySource.getQuery("getConnectorMessagesByMetaDataIdAndStatusWithLimitAndRange", params));
                 statement.setInt(1, metaDataId);
                 statement.setString(2, Character.toString(status.getStatusCode()));
                 statement.setString(3, serverId);
@@ -1610,7 +1877,7 @@ public class JdbcDao implements DonkeyDao {
             values.put("localChannelId", getLocalChannelId(channelId));
             values.put("metaDataIds", StringUtils.join(metaDataIds, ','));
 
-            statement = connection.prepareStatement(querySource.getQuery("getConnectorMessagesByMessageIdAndMetaDataIds", values));
+            statement = prepareQuery(querySource.getQuery("getConnectorMessagesByMessageIdAndMetaDataIds", values));
             statement.setLong(1, messageId);
             resultSet = statement.executeQuery();
 
@@ -1642,7 +1909,7 @@ public class JdbcDao implements DonkeyDao {
                 params.put("metaDataIds", StringUtils.join(metaDataIds, ','));
             }
 
-            PreparedStatement statement = connection.prepareStatement(querySource.getQuery(includeMetaDataIds ? "getConnectorMessagesByMessageIdAndMetaDataIds" : "getConnectorMessagesByMessageId", params));
+            PreparedStatement statement = prepareQuery(querySource.getQuery(includeMetaDataIds ? "getConnectorMessagesByMessageIdAndMetaDataIds" : "getConnectorMessagesByMessageId", params));
             statement.setLong(1, messageId);
             resultSet = statement.executeQuery();
 
@@ -1690,7 +1957,7 @@ public class JdbcDao implements DonkeyDao {
             ResultSet resultSet = null;
 
             try {
-                PreparedStatement statement = statementSource.getPreparedStatement("getConnectorMessageCountByMetaDataIdAndStatus", getLocalChannelId(channelId));
+                PreparedStatement statement = prepareStatement("getConnectorMessageCountByMetaDataIdAndStatus", channelId);
                 statement.setInt(1, metaDataId);
                 statement.setString(2, Character.toString(status.getStatusCode()));
                 statement.setString(3, serverId);
@@ -1739,7 +2006,7 @@ public class JdbcDao implements DonkeyDao {
 
             String queryName = "addMetaDataColumn" + StringUtils.capitalize(StringUtils.lowerCase(metaDataColumn.getType().toString()));
 
-            statement = connection.createStatement();
+            statement = createStatement();
             statement.executeUpdate(querySource.getQuery(queryName, values));
 
             if (querySource.queryExists(queryName + "Index")) {
@@ -1776,7 +2043,7 @@ public class JdbcDao implements DonkeyDao {
             createTable("createMessageSequence", values);
 
             if (querySource.queryExists("initMessageSequence")) {
-                initSequenceStatement = connection.createStatement();
+                initSequenceStatement = createStatement();
                 initSequenceStatement.executeUpdate(querySource.getQuery("initMessageSequence", values));
             }
         } catch (SQLException e) {
@@ -1792,7 +2059,7 @@ public class JdbcDao implements DonkeyDao {
             int n = 1;
 
             try {
-                statement = connection.createStatement();
+                statement = createStatement();
                 statement.executeUpdate(querySource.getQuery(query, values));
 
                 String sequenceQuery = querySource.getQuery(query + "Sequence", values);
@@ -1849,7 +2116,7 @@ public class JdbcDao implements DonkeyDao {
              */
 
             if (querySource.queryExists("getSequenceMetadata")) {
-                statement = connection.createStatement();
+                statement = createStatement();
                 rs = statement.executeQuery(querySource.getQuery("getSequenceMetadata"));
                 while (rs.next()) {
                     String sequenceName = rs.getString("SEQUENCE_NAME").toLowerCase();
@@ -1872,7 +2139,7 @@ public class JdbcDao implements DonkeyDao {
                 createTable(entry.getValue(), values);
 
                 if (entry.getKey().toLowerCase().contains("d_msq") && querySource.queryExists("initMessageSequence")) {
-                    initSequenceStatement = connection.createStatement();
+                    initSequenceStatement = createStatement();
                     initSequenceStatement.executeUpdate(querySource.getQuery("initMessageSequence", values));
                 }
             } catch (Exception e) {
@@ -1909,7 +2176,7 @@ public class JdbcDao implements DonkeyDao {
             values.put("statuses", builder.toString());
 
             String queryName = (metaDataId == null) ? "resetChannelStatistics" : "resetConnectorStatistics";
-            statement = connection.prepareStatement(querySource.getQuery(queryName, values));
+            statement = prepareQuery(querySource.getQuery(queryName, values));
             statement.setString(1, statsServerId);
 
             if (metaDataId != null) {
@@ -1944,7 +2211,7 @@ public class JdbcDao implements DonkeyDao {
             Map<String, Object> values = new HashMap<String, Object>();
             values.put("localChannelId", getLocalChannelId(channelId));
 
-            statement = connection.prepareStatement(querySource.getQuery("resetAllStatistics", values));
+            statement = prepareQuery(querySource.getQuery("resetAllStatistics", values));
             statement.setString(1, statsServerId);
             statement.executeUpdate();
 
@@ -2039,11 +2306,13 @@ public class JdbcDao implements DonkeyDao {
         logger.debug("Committing transaction" + (durable ? "" : " asynchronously"));
 
         try {
+            executePendingBatches();
+
             if (!durable && asyncCommitCommand != null) {
                 Statement statement = null;
 
                 try {
-                    statement = connection.createStatement();
+                    statement = createStatement();
                     statement.execute(asyncCommitCommand);
                 } finally {
                     close(statement);
@@ -2122,6 +2391,7 @@ public class JdbcDao implements DonkeyDao {
     @Override
     public void rollback() {
         logger.debug("Rolling back transaction");
+        clearPendingBatches();
 
         try {
             connection.rollback();
@@ -2134,6 +2404,7 @@ public class JdbcDao implements DonkeyDao {
     @Override
     public void close() {
         logger.debug("Closing connection");
+        clearPendingBatches();
 
         try {
             if (!connection.isClosed()) {
@@ -2311,6 +2582,10 @@ public class JdbcDao implements DonkeyDao {
                     encrypted = false;
                 }
 
+                if (!encrypted) {
+                    content = CompressionUtil.decompressContent(content);
+                }
+
                 messageContents.add(new MessageContent(channelId, messageId, metaDataId, contentType, content, dataType, encrypted));
             }
         } catch (SQLException e) {
@@ -2336,7 +2611,7 @@ public class JdbcDao implements DonkeyDao {
             params.put("localChannelId", getLocalChannelId(channelId));
             params.put("messageIds", StringUtils.join(messageIds, ","));
 
-            statement = connection.prepareStatement(querySource.getQuery("getMessageContentByMessageIds", params));
+            statement = prepareQuery(querySource.getQuery("getMessageContentByMessageIds", params));
 
             resultSet = statement.executeQuery();
 
@@ -2353,6 +2628,10 @@ public class JdbcDao implements DonkeyDao {
                     encrypted = false;
                 }
 
+                if (!encrypted) {
+                    content = CompressionUtil.decompressContent(content);
+                }
+
                 Map<Integer, List<MessageContent>> connectorMessageContentMap = messageContentMap.get(messageId);
                 if (connectorMessageContentMap == null) {
                     connectorMessageContentMap = new HashMap<Integer, List<MessageContent>>();
@@ -2401,6 +2680,10 @@ public class JdbcDao implements DonkeyDao {
                     encrypted = false;
                 }
 
+                if (!encrypted) {
+                    content = CompressionUtil.decompressContent(content);
+                }
+
                 if (contentType == ContentType.ENCODED) {
                     contentType = ContentType.RAW;
                 }
@@ -2498,7 +2781,7 @@ public class JdbcDao implements DonkeyDao {
             values.put("localChannelId", getLocalChannelId(channelId));
 
             // do not cache this statement since metadata columns may be added/removed
-            statement = connection.prepareStatement(querySource.getQuery("getMetaDataMap", values));
+            statement = prepareQuery(querySource.getQuery("getMetaDataMap", values));
             statement.setLong(1, messageId);
             statement.setInt(2, metaDataId);
 
@@ -2557,7 +2840,7 @@ public class JdbcDao implements DonkeyDao {
             values.put("messageIds", StringUtils.join(messageIds, ","));
 
             // do not cache this statement since metadata columns may be added/removed
-            statement = connection.prepareStatement(querySource.getQuery("getMetaDataMapByMessageId", values));
+            statement = prepareQuery(querySource.getQuery("getMetaDataMapByMessageId", values));
             resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
@@ -2651,7 +2934,7 @@ public class JdbcDao implements DonkeyDao {
             PreparedStatement statement = null;
 
             try {
-                statement = connection.prepareStatement(query);
+                statement = prepareQuery(query);
                 statement.setLong(1, messageId);
                 statement.executeUpdate();
             } finally {
@@ -2664,6 +2947,11 @@ public class JdbcDao implements DonkeyDao {
      * Returns a prepared statement from the statementSource for the given channelId.
      */
     private PreparedStatement prepareStatement(String queryId, String channelId) throws SQLException {
+        executePendingBatches();
+        return getCachedStatement(queryId, channelId);
+    }
+
+    private PreparedStatement getCachedStatement(String queryId, String channelId) throws SQLException {
         Long localChannelId = null;
 
         if (channelId != null) {
@@ -2673,6 +2961,115 @@ public class JdbcDao implements DonkeyDao {
         return statementSource.getPreparedStatement(queryId, localChannelId);
     }
 
+    private PreparedStatement prepareQuery(String query) throws SQLException {
+        executePendingBatches();
+        return connection.prepareStatement(query);
+    }
+
+    private Statement createStatement() throws SQLException {
+        executePendingBatches();
+        return connection.createStatement();
+    }
+
+    /**
+     * Returns the cached statement for an insert. When batching, the statement is added to the
+     * pending batches for the given order instead of any pending batches being executed.
+     */
+    private PreparedStatement prepareInsertStatement(String queryId, String channelId, int batchOrder) throws SQLException {
+        if (!batchStatements) {
+            return prepareStatement(queryId, channelId);
+        }
+
+        PreparedStatement statement = getCachedStatement(queryId, channelId);
+        pendingBatches.get(batchOrder).add(statement);
+        return statement;
+    }
+
+    /**
+     * Returns a statement for the given meta data insert query. Meta data queries depend on which
+     * columns have values, so they aren't cached and batched statements are kept per query until
+     * their batch has been executed.
+     */
+    private PreparedStatement prepareMetaDataInsertStatement(String query) throws SQLException {
+        if (!batchStatements) {
+            return prepareQuery(query);
+        }
+
+        PreparedStatement statement = uncachedBatchStatements.get(query);
+
+        if (statement == null) {
+            statement = connection.prepareStatement(query);
+            uncachedBatchStatements.put(query, statement);
+            pendingBatches.get(CONTENT_BATCH).add(statement);
+        }
+
+        return statement;
+    }
+
+    private void executeInsert(PreparedStatement statement) throws SQLException {
+        if (batchStatements) {
+            statement.addBatch();
+        } else {
+            statement.executeUpdate();
+        }
+    }
+
+    private boolean hasPendingBatches() {
+        for (Set<PreparedStatement> statements : pendingBatches) {
+            if (!statements.isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Executes all pending batches in foreign key order.
+     */
+    private void executePendingBatches() {
+        if (!hasPendingBatches()) {
+            return;
+        }
+
+        logger.debug("Executing pending statement batches");
+
+        try {
+            for (Set<PreparedStatement> statements : pendingBatches) {
+                for (PreparedStatement statement : statements) {
+                    statement.executeBatch();
+                    statement.clearBatch();
+                }
+            }
+        } catch (SQLException e) {
+            throw new DonkeyDaoException(e);
+        } finally {
+            clearPendingBatches();
+        }
+    }
+
+    private void clearPendingBatches() {
+        for (Set<PreparedStatement> statements : pendingBatches) {
+            for (PreparedStatement statement : statements) {
+                try {
+                    if (!statement.isClosed()) {
+                        statement.clearBatch();
+                    }
+                } catch (SQLException e) {
+                    logger.warn("Failed to clear JDBC statement batch", e);
+                }
+            }
+
+            statements.clear();
+        }
+
+        for (PreparedStatement statement : uncachedBatchStatements.values()) {
+            close(statement);
+        }
+
+        uncachedBatchStatements.clear();
+    }
+
     private void close(Statement statement) {
         try {
             DbUtils.close(statement);
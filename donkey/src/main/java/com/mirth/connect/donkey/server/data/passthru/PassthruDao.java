@@ -9,6 +9,7 @@
 
 package com.mirth.connect.donkey.server.data.passthru;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -65,6 +66,12 @@ public class PassthruDao implements DonkeyDao {
     @Override
     public void setDecryptData(boolean decryptData) {}
 
+    @Override
+    public void setCompressContent(boolean compressContent) {}
+
+    @Override
+    public void setBatchStatements(boolean batchStatements) {}
+
     @Override
     public void commit() {
         commit(false);
@@ -266,6 +273,11 @@ public class PassthruDao implements DonkeyDao {
         return new Attachment();
     }
 
+    @Override
+    public Attachment getMessageAttachment(String channelId, String attachmentId, Long messageId, OutputStream outputStream) {
+        return new Attachment();
+    }
+
     @Override
     public List<Message> getMessages(String channelId, List<Long> messageIds) {
         return new ArrayList<Message>();
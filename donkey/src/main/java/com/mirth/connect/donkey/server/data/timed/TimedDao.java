@@ -9,6 +9,7 @@
 
 package com.mirth.connect.donkey.server.data.timed;
 
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,6 +59,16 @@ public class TimedDao implements DonkeyDao {
     public void setDecryptData(boolean decryptData) {
         dao.setDecryptData(decryptData);
     }
+
+    @Override
+    public void setCompressContent(boolean compressContent) {
+        dao.setCompressContent(compressContent);
+    }
+
+    @Override
+    public void setBatchStatements(boolean batchStatements) {
+        dao.setBatchStatements(batchStatements);
+    }
     
     @Override
     public void setStatisticsUpdater(StatisticsUpdater statisticsUpdater) {
@@ -518,6 +529,17 @@ public class TimedDao implements DonkeyDao {
         }
     }
 
+    @Override
+    public Attachment getMessageAttachment(String channelId, String attachmentId, Long messageId, OutputStream outputStream) {
+        long startTime = System.currentTimeMillis();
+
+        try {
+            return dao.getMessageAttachment(channelId, attachmentId, messageId, outputStream);
+        } finally {
+            timer.log("getMessageAttachment", System.currentTimeMillis() - startTime);
+        }
+    }
+
     @Override
     public List<Message> getPendingConnectorMessages(String channelId, String serverId, int limit, Long minMessageId) {
         long startTime = System.currentTimeMillis();
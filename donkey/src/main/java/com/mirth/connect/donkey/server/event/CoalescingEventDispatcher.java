@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.event;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import com.mirth.connect.donkey.model.event.Event;
+import com.mirth.connect.donkey.model.event.MessageEventType;
+
+/**
+ * Dispatches events to another dispatcher, coalescing message events of the given types. Message
+ * events carry the current count for a connector rather than a delta, so only the latest event for
+ * each channel, connector and type needs to be delivered. Those events are kept in a map until the
+ * next flush, which means producers such as the queues only replace a map entry, and listeners get
+ * at most one event per key each interval. All other events are dispatched immediately so they
+ * are never lost.
+ */
+public class CoalescingEventDispatcher extends Thread implements EventDispatcher {
+
+    public static final int DEFAULT_FLUSH_INTERVAL = 250;
+
+    private EventDispatcher eventDispatcher;
+    private int flushInterval;
+    private Set<MessageEventType> coalescedTypes;
+    private ConcurrentMap<EventKey, MessageEvent> pendingEvents = new ConcurrentHashMap<EventKey, MessageEvent>();
+    private Logger logger = Logger.getLogger(getClass());
+
+    public CoalescingEventDispatcher(EventDispatcher eventDispatcher, int flushInterval) {
+        this(eventDispatcher, flushInterval, EnumSet.allOf(MessageEventType.class));
+    }
+
+    public CoalescingEventDispatcher(EventDispatcher eventDispatcher, int flushInterval, Set<MessageEventType> coalescedTypes) {
+        this.eventDispatcher = eventDispatcher;
+        this.flushInterval = flushInterval;
+        this.coalescedTypes = EnumSet.copyOf(coalescedTypes);
+        setName("Event Coalescing Thread");
+        setDaemon(true);
+    }
+
+    @Override
+    public void dispatchEvent(Event event) {
+        if (event instanceof MessageEvent && coalescedTypes.contains(((MessageEvent) event).getType())) {
+            MessageEvent messageEvent = (MessageEvent) event;
+            EventKey key = new EventKey(messageEvent);
+
+            /*
+             * If a replaced event was a stat update then the flag is kept, so listeners still know
+             * that the count was corrected since the last event they received. The flag is set on
+             * a copy before it is published, and the replacement is retried if the pending event
+             * was flushed or replaced in the meantime.
+             */
+            while (true) {
+                MessageEvent previousEvent = pendingEvents.get(key);
+                MessageEvent pendingEvent = messageEvent;
+
+                if (previousEvent != null && previousEvent.isStatUpdate() && !messageEvent.isStatUpdate()) {
+                    pendingEvent = new MessageEvent(messageEvent.getChannelId(), messageEvent.getMetaDataId(), messageEvent.getType(), messageEvent.getCount(), true);
+                }
+
+                if (previousEvent == null ? pendingEvents.putIfAbsent(key, pendingEvent) == null : pendingEvents.replace(key, previousEvent, pendingEvent)) {
+                    break;
+                }
+            }
+        } else {
+            eventDispatcher.dispatchEvent(event);
+        }
+    }
+
+    @Override
+    public void run() {
+        boolean done = false;
+
+        while (!done) {
+            try {
+                Thread.sleep(flushInterval);
+                flush();
+            } catch (InterruptedException e) {
+                // Deliver the latest values before stopping
+                flush();
+                Thread.currentThread().interrupt();
+                done = true;
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (isAlive()) {
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * Dispatches the pending events. An event published for the same key while flushing stays in
+     * the map until the next flush.
+     */
+    public void flush() {
+        for (EventKey key : pendingEvents.keySet()) {
+            MessageEvent event = pendingEvents.remove(key);
+
+            if (event != null) {
+                try {
+                    eventDispatcher.dispatchEvent(event);
+                } catch (Throwable t) {
+                    logger.error("Unable to dispatch event.", t);
+                }
+            }
+        }
+    }
+
+    private static class EventKey {
+        private String channelId;
+        private Integer metaDataId;
+        private MessageEventType type;
+        private int hashCode;
+
+        public EventKey(MessageEvent event) {
+            channelId = event.getChannelId();
+            metaDataId = event.getMetaDataId();
+            type = event.getType();
+            hashCode = Objects.hash(channelId, metaDataId, type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EventKey)) {
+                return false;
+            }
+
+            EventKey other = (EventKey) obj;
+            return Objects.equals(channelId, other.channelId) && Objects.equals(metaDataId, other.metaDataId) && type == other.type;
+        }
+    }
+}
@@ -37,6 +37,24 @@ public abstract class ConnectorMessageQueue {
 
     protected void reset() {}
 
+    /**
+     * Replaces the contents of the buffer with the given items, which are in queue order.
+     */
+    protected void setBuffer(Map<Long, ConnectorMessage> items) {
+        buffer = items;
+    }
+
+    /**
+     * Appends a single newly queued message to the end of the buffer.
+     */
+    protected void putBuffer(ConnectorMessage connectorMessage) {
+        buffer.put(connectorMessage.getMessageId(), connectorMessage);
+    }
+
+    protected void clearBuffer() {
+        buffer.clear();
+    }
+
     public int getBufferSize() {
         return buffer.size();
     }
@@ -48,7 +66,7 @@ public abstract class ConnectorMessageQueue {
     public synchronized void setBufferCapacity(int bufferCapacity) {
         if (bufferCapacity > 0) {
             if (bufferCapacity < this.bufferCapacity) {
-                buffer.clear();
+                clearBuffer();
             }
 
             this.bufferCapacity = bufferCapacity;
@@ -72,7 +90,7 @@ public abstract class ConnectorMessageQueue {
     }
 
     public synchronized void invalidate(boolean updateSize, boolean reset) {
-        buffer.clear();
+        clearBuffer();
 
         if (reset) {
             reset();
@@ -134,7 +152,7 @@ public abstract class ConnectorMessageQueue {
             }
             if (!reachedCapacity) {
                 if (size < bufferCapacity && !dataSource.isQueueRotated()) {
-                    buffer.put(connectorMessage.getMessageId(), connectorMessage);
+                    putBuffer(connectorMessage);
 
                     // If there is a poll with timeout waiting, notify that an item was added to the buffer.
                     if (timeoutLock.get()) {
@@ -159,7 +177,7 @@ public abstract class ConnectorMessageQueue {
         }
 
         invalidated = false;
-        buffer = dataSource.getItems(0, Math.min(bufferCapacity, size));
+        setBuffer(dataSource.getItems(0, Math.min(bufferCapacity, size)));
 
         if (buffer.size() == size) {
             reachedCapacity = false;
@@ -10,6 +10,8 @@
 package com.mirth.connect.donkey.server.queue;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -17,6 +19,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -39,7 +42,7 @@ public class DestinationQueue extends ConnectorMessageQueue {
     private boolean regenerateTemplate;
     private Serializer serializer;
     private MessageMaps messageMaps;
-    private Set<Long> checkedOut = new HashSet<Long>();
+    private Set<Long> checkedOut = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
     private Set<Long> deleted = new HashSet<Long>();
     private boolean rotate = false;
     private int queueBuckets = 1;
@@ -47,6 +50,18 @@ public class DestinationQueue extends ConnectorMessageQueue {
     private HashFunction hashFunction;
     private Map<String, Integer> initialThreadAssignmentMap;
 
+    /*
+     * When bucket buffering is enabled, each queue bucket gets its own concurrent deque, filled in
+     * queue order whenever the buffer is refilled from the data source. The buffer map is still the
+     * source of truth for which messages are available: a queue thread polls its own deque and then
+     * claims the message by removing it from the (concurrent) buffer map. Deque entries whose
+     * message has already been removed from the buffer are stale and simply skipped. This allows
+     * queue threads to acquire messages without obtaining the queue monitor or scanning the buffer.
+     */
+    private boolean bucketBuffered;
+    private List<Deque<ConnectorMessage>> bucketBuffers;
+    private Map<Long, Integer> threadBuckets;
+
     /*
      * After deleting queued messages, the queue will get invalidated. When a queue thread is
      * processing a message, there is a short period of time between the point the non-QUEUED status
@@ -66,6 +81,10 @@ public class DestinationQueue extends ConnectorMessageQueue {
     private ReentrantReadWriteLock statusUpdateLock = new ReentrantReadWriteLock(true);
 
     public DestinationQueue(String groupBy, int threadCount, boolean regenerateTemplate, Serializer serializer, MessageMaps messageMaps) {
+        this(groupBy, threadCount, regenerateTemplate, serializer, messageMaps, false);
+    }
+
+    public DestinationQueue(String groupBy, int threadCount, boolean regenerateTemplate, Serializer serializer, MessageMaps messageMaps, boolean bucketBuffered) {
         this.groupBy = StringUtils.defaultString(groupBy);
         this.regenerateTemplate = regenerateTemplate;
         this.serializer = serializer;
@@ -80,6 +99,54 @@ public class DestinationQueue extends ConnectorMessageQueue {
                 initialThreadAssignmentMap = new ConcurrentHashMap<String, Integer>(queueBuckets);
             }
         }
+
+        this.bucketBuffered = bucketBuffered;
+
+        if (bucketBuffered) {
+            buffer = new ConcurrentHashMap<Long, ConnectorMessage>();
+            bucketBuffers = new ArrayList<Deque<ConnectorMessage>>(queueBuckets);
+            for (int i = 0; i < queueBuckets; i++) {
+                bucketBuffers.add(new ConcurrentLinkedDeque<ConnectorMessage>());
+            }
+            threadBuckets = new ConcurrentHashMap<Long, Integer>(queueBuckets);
+        }
+    }
+
+    public boolean isBucketBuffered() {
+        return bucketBuffered;
+    }
+
+    @Override
+    protected void setBuffer(Map<Long, ConnectorMessage> items) {
+        if (bucketBuffered) {
+            clearBuffer();
+
+            for (ConnectorMessage connectorMessage : items.values()) {
+                putBuffer(connectorMessage);
+            }
+        } else {
+            super.setBuffer(items);
+        }
+    }
+
+    @Override
+    protected void putBuffer(ConnectorMessage connectorMessage) {
+        super.putBuffer(connectorMessage);
+
+        if (bucketBuffered) {
+            bucketBuffers.get(queueBuckets > 1 ? getBucket(connectorMessage) : 0).offerLast(connectorMessage);
+        }
+    }
+
+    @Override
+    protected void clearBuffer() {
+        super.clearBuffer();
+
+        if (bucketBuffered) {
+            for (Deque<ConnectorMessage> bucketBuffer : bucketBuffers) {
+                bucketBuffer.clear();
+            }
+        }
     }
 
     @Override
@@ -125,6 +192,9 @@ public class DestinationQueue extends ConnectorMessageQueue {
         if (queueBuckets > 1) {
             queueThreadIds.clear();
         }
+        if (bucketBuffered) {
+            threadBuckets.clear();
+        }
         if (rotate) {
             dataSource.getRotateThreadMap().clear();
         }
@@ -141,6 +211,10 @@ public class DestinationQueue extends ConnectorMessageQueue {
     public synchronized void registerThreadId() {
         Long threadId = Thread.currentThread().getId();
 
+        if (bucketBuffered) {
+            threadBuckets.put(threadId, queueBuckets > 1 ? queueThreadIds.size() : 0);
+        }
+
         if (queueBuckets > 1) {
             queueThreadIds.add(threadId);
         }
@@ -167,7 +241,15 @@ public class DestinationQueue extends ConnectorMessageQueue {
         return false;
     }
 
-    public synchronized ConnectorMessage acquire() {
+    public ConnectorMessage acquire() {
+        if (bucketBuffered) {
+            return acquireFromBucket();
+        }
+
+        return acquireFromBuffer();
+    }
+
+    private synchronized ConnectorMessage acquireFromBuffer() {
         ConnectorMessage connectorMessage = null;
 
         if (size() - checkedOut.size() > 0) {
@@ -212,7 +294,85 @@ public class DestinationQueue extends ConnectorMessageQueue {
         return connectorMessage;
     }
 
-    public synchronized void release(ConnectorMessage connectorMessage, boolean finished) {
+    private ConnectorMessage acquireFromBucket() {
+        Integer bucket = threadBuckets.get(Thread.currentThread().getId());
+
+        // Threads that were never registered have no bucket to poll from
+        if (bucket == null) {
+            return null;
+        }
+
+        Deque<ConnectorMessage> bucketBuffer = bucketBuffers.get(bucket);
+        ConnectorMessage connectorMessage = pollBucket(bucketBuffer);
+
+        if (connectorMessage == null) {
+            synchronized (this) {
+                /*
+                 * Same as the scanning mode, only go to the database when the entire buffer has
+                 * been drained. If it isn't empty, the remaining messages are in buckets for other
+                 * queue threads.
+                 */
+                if (buffer.isEmpty() && size() - checkedOut.size() > 0) {
+                    fillBuffer();
+                }
+            }
+
+            connectorMessage = pollBucket(bucketBuffer);
+        }
+
+        if (connectorMessage != null && rotate) {
+            synchronized (this) {
+                dataSource.setLastItem(connectorMessage);
+            }
+        }
+
+        return connectorMessage;
+    }
+
+    private ConnectorMessage pollBucket(Deque<ConnectorMessage> bucketBuffer) {
+        ConnectorMessage polled;
+
+        while ((polled = bucketBuffer.pollFirst()) != null) {
+            /*
+             * Claim the message by removing it from the buffer. If it was already removed (or the
+             * buffer was refilled and another thread got to it first), the entry is stale. If the
+             * message is still checked out by another thread (possible after a refill), drop it
+             * just like the scanning mode does.
+             */
+            ConnectorMessage connectorMessage = buffer.remove(polled.getMessageId());
+
+            if (connectorMessage != null && checkedOut.add(connectorMessage.getMessageId())) {
+                return connectorMessage;
+            }
+        }
+
+        return null;
+    }
+
+    public void release(ConnectorMessage connectorMessage, boolean finished) {
+        if (bucketBuffered && finished && connectorMessage != null) {
+            /*
+             * The message must leave the buffer and the checked out set together under the
+             * monitor, otherwise a concurrent fillBuffer could put it back into the buffer after
+             * it was removed and before it stopped being checked out.
+             */
+            Long messageId = connectorMessage.getMessageId();
+
+            synchronized (this) {
+                if (size != null) {
+                    size--;
+                }
+
+                buffer.remove(messageId);
+                checkedOut.remove(messageId);
+                eventDispatcher.dispatchEvent(new MessageEvent(channelId, metaDataId, MessageEventType.QUEUED, (long) size(), true));
+            }
+        } else {
+            releaseToBuffer(connectorMessage, finished);
+        }
+    }
+
+    private synchronized void releaseToBuffer(ConnectorMessage connectorMessage, boolean finished) {
         if (connectorMessage != null) {
             if (size != null) {
                 Long messageId = connectorMessage.getMessageId();
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.StringUtils;
+
+/**
+ * Compresses message content so that it can still be stored in a text column. Compressed content
+ * is deflated, base64 encoded and prefixed with COMPRESSED_PREFIX, so rows written with and
+ * without compression can be read the same way: content without the prefix is returned as is.
+ */
+public class CompressionUtil {
+    /**
+     * Marks compressed content. It starts with a control character so it isn't expected at the
+     * start of a message.
+     */
+    public static final String COMPRESSED_PREFIX = "\u0001deflate:";
+
+    /**
+     * Content shorter than this is stored as is, since it rarely gets smaller.
+     */
+    public static final int MIN_LENGTH = 256;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Deflaters and inflaters hold native buffers that are expensive to create for every message
+    private static ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    private static ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Returns the compressed form of the content, or the content itself if it is too short or
+     * wouldn't get any smaller. Content that already starts with COMPRESSED_PREFIX is always
+     * compressed, so that it can't be mistaken for compressed content when it is read back.
+     */
+    public static String compressContent(String content) {
+        if (content == null) {
+            return null;
+        }
+
+        boolean prefixed = content.startsWith(COMPRESSED_PREFIX);
+        if (content.length() < MIN_LENGTH && !prefixed) {
+            return content;
+        }
+
+        byte[] bytes = StringUtils.getBytesUtf8(content);
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+
+        String compressed = COMPRESSED_PREFIX + Base64.encodeBase64String(output.toByteArray());
+        return compressed.length() < content.length() || prefixed ? compressed : content;
+    }
+
+    /**
+     * Returns the original content if it was compressed by compressContent, or the content itself
+     * otherwise.
+     */
+    public static String decompressContent(String content) {
+        if (!isCompressed(content)) {
+            return content;
+        }
+
+        byte[] bytes = Base64.decodeBase64(content.substring(COMPRESSED_PREFIX.length()));
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(bytes);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 4);
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Compressed content is truncated");
+                }
+
+                output.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            // Content stored before compression was enabled may happen to start with the prefix
+            return content;
+        }
+
+        return StringUtils.newStringUtf8(output.toByteArray());
+    }
+
+    public static boolean isCompressed(String content) {
+        return content != null && content.startsWith(COMPRESSED_PREFIX);
+    }
+}
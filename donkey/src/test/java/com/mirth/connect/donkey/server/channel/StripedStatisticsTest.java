@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.message.Status;
+
+public class StripedStatisticsTest {
+    private static final String CHANNEL_ID = "StripedStatisticsTest";
+    private static final String OTHER_CHANNEL_ID = "OtherChannel";
+
+    @Test
+    public void testChannelStatistics() {
+        StripedStatistics stripedStatistics = new StripedStatistics();
+        Statistics transactionStats = new Statistics(false, true);
+        transactionStats.update(CHANNEL_ID, 0, Status.RECEIVED, null);
+        transactionStats.update(CHANNEL_ID, 1, Status.RECEIVED, null);
+        transactionStats.update(CHANNEL_ID, 1, Status.SENT, Status.RECEIVED);
+        transactionStats.update(CHANNEL_ID, 2, Status.ERROR, null);
+        stripedStatistics.update(transactionStats);
+
+        Statistics changed = stripedStatistics.getChangedStatistics();
+        assertStats(changed.getConnectorStats(CHANNEL_ID, 0), 1, 0, 0, 0);
+        assertStats(changed.getConnectorStats(CHANNEL_ID, 1), 0, 0, 1, 0);
+        assertStats(changed.getConnectorStats(CHANNEL_ID, 2), 0, 0, 0, 1);
+
+        // The channel counts received on the source and sent on the destinations
+        assertStats(changed.getConnectorStats(CHANNEL_ID, null), 1, 0, 1, 1);
+    }
+
+    @Test
+    public void testOnlyChangedConnectors() {
+        StripedStatistics stripedStatistics = new StripedStatistics();
+        stripedStatistics.update(createStats(CHANNEL_ID, 1, Status.SENT, 5));
+        stripedStatistics.update(createStats(OTHER_CHANNEL_ID, 1, Status.SENT, 5));
+        stripedStatistics.subtract(stripedStatistics.getChangedStatistics());
+
+        assertTrue(stripedStatistics.getChangedStatistics().getStats().isEmpty());
+
+        stripedStatistics.update(createStats(CHANNEL_ID, 2, Status.FILTERED, 3));
+        Map<String, Map<Integer, Map<Status, Long>>> stats = stripedStatistics.getChangedStatistics().getStats();
+
+        assertEquals(1, stats.size());
+        assertEquals(2, stats.get(CHANNEL_ID).size());
+        assertNull(stats.get(CHANNEL_ID).get(1));
+        assertStats(stats.get(CHANNEL_ID).get(2), 0, 3, 0, 0);
+        assertStats(stats.get(CHANNEL_ID).get(null), 0, 3, 0, 0);
+    }
+
+    @Test
+    public void testSubtractKeepsNewDeltas() {
+        StripedStatistics stripedStatistics = new StripedStatistics();
+        stripedStatistics.update(createStats(CHANNEL_ID, 1, Status.SENT, 5));
+        Statistics changed = stripedStatistics.getChangedStatistics();
+
+        // Added while the changed values are being written
+        stripedStatistics.update(createStats(CHANNEL_ID, 1, Status.SENT, 2));
+        stripedStatistics.subtract(changed);
+
+        assertStats(stripedStatistics.getChangedStatistics().getConnectorStats(CHANNEL_ID, 1), 0, 0, 2, 0);
+    }
+
+    @Test
+    public void testMarkChanged() {
+        StripedStatistics stripedStatistics = new StripedStatistics();
+        stripedStatistics.update(createStats(CHANNEL_ID, 1, Status.ERROR, 4));
+        Statistics changed = stripedStatistics.getChangedStatistics();
+        assertTrue(stripedStatistics.getChangedStatistics().isEmpty());
+
+        // Writing failed, so the same values are returned again
+        stripedStatistics.markChanged(changed);
+        assertStats(stripedStatistics.getChangedStatistics().getConnectorStats(CHANNEL_ID, 1), 0, 0, 0, 4);
+
+        stripedStatistics.remove(CHANNEL_ID);
+        stripedStatistics.markChanged(changed);
+        assertTrue(stripedStatistics.getChangedStatistics().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final StripedStatistics stripedStatistics = new StripedStatistics();
+        final int updates = 10000;
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            final int metaDataId = i % 4 + 1;
+
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    Statistics transactionStats = new Statistics(false, true);
+                    transactionStats.update(CHANNEL_ID, metaDataId, Status.SENT, null);
+
+                    for (int j = 0; j < updates; j++) {
+                        stripedStatistics.update(transactionStats);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        // Flush while the threads are still updating
+        long sent = 0;
+        boolean done = false;
+
+        while (!done) {
+            done = true;
+            for (Thread thread : threads) {
+                done &= !thread.isAlive();
+            }
+
+            Statistics changed = stripedStatistics.getChangedStatistics();
+            stripedStatistics.subtract(changed);
+
+            if (!changed.isEmpty()) {
+                sent += changed.getConnectorStats(CHANNEL_ID, null).get(Status.SENT);
+            }
+        }
+
+        assertEquals(8L * updates, sent);
+        assertTrue(stripedStatistics.getChangedStatistics().isEmpty());
+    }
+
+    private Statistics createStats(String channelId, int metaDataId, Status status, long count) {
+        Statistics statistics = new Statistics(false, true);
+
+        for (int i = 0; i < count; i++) {
+            statistics.update(channelId, metaDataId, status, null);
+        }
+
+        return statistics;
+    }
+
+    private void assertStats(Map<Status, Long> stats, long received, long filtered, long sent, long error) {
+        assertEquals(received, stats.get(Status.RECEIVED).longValue());
+        assertEquals(filtered, stats.get(Status.FILTERED).longValue());
+        assertEquals(sent, stats.get(Status.SENT).longValue());
+        assertEquals(error, stats.get(Status.ERROR).longValue());
+    }
+}
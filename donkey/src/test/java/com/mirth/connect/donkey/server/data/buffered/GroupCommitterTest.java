@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.buffered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.message.Message;
+import com.mirth.connect.donkey.model.message.attachment.Attachment;
+import com.mirth.connect.donkey.server.data.DonkeyDao;
+import com.mirth.connect.donkey.server.data.DonkeyDaoException;
+import com.mirth.connect.donkey.server.data.DonkeyDaoFactory;
+import com.mirth.connect.donkey.server.data.StatisticsUpdater;
+import com.mirth.connect.donkey.util.SerializerProvider;
+
+public class GroupCommitterTest {
+    private final static String CHANNEL_ID = "GroupCommitterTest";
+    private final static long FAILING_MESSAGE_ID = -1;
+
+    private List<Long> committedMessageIds;
+    private AtomicInteger delegateCommits;
+    private GroupCommitDaoFactory daoFactory;
+
+    @Before
+    public void setup() {
+        committedMessageIds = Collections.synchronizedList(new ArrayList<Long>());
+        delegateCommits = new AtomicInteger();
+        daoFactory = new GroupCommitDaoFactory(new RecordingDaoFactory(), null, null);
+    }
+
+    @Test
+    public void commit_SingleThread_ShouldCommitEachTransaction() {
+        for (long messageId = 1; messageId <= 10; messageId++) {
+            DonkeyDao dao = daoFactory.getDao();
+            dao.insertMessage(createMessage(messageId));
+            dao.commit();
+            dao.close();
+
+            assertTrue(committedMessageIds.contains(messageId));
+        }
+
+        assertEquals(10, delegateCommits.get());
+        assertEquals(10, daoFactory.getCommitter().getTransactionCount());
+    }
+
+    @Test
+    public void commit_DebugEnabled_ShouldLogStatistics() {
+        final List<String> messages = new ArrayList<String>();
+        AppenderSkeleton appender = new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event) {
+                messages.add(event.getRenderedMessage());
+            }
+
+            @Override
+            public void close() {}
+
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            }
+        };
+
+        Logger logger = Logger.getLogger(GroupCommitter.class);
+        Level level = logger.getLevel();
+        logger.setLevel(Level.DEBUG);
+        logger.addAppender(appender);
+        daoFactory.setChannelId(CHANNEL_ID);
+
+        try {
+            for (long messageId = 1; messageId <= 3; messageId++) {
+                DonkeyDao dao = daoFactory.getDao();
+                dao.insertMessage(createMessage(messageId));
+                dao.commit();
+                dao.close();
+            }
+        } finally {
+            logger.removeAppender(appender);
+            logger.setLevel(level);
+        }
+
+        // The first commit is logged, and the rest wait for the next interval
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0), messages.get(0).startsWith("Group commit statistics for channel " + CHANNEL_ID + ": 1 transactions in 1 commits, average group size 1.0, largest group 1"));
+    }
+
+    @Test
+    public void commit_ConcurrentThreads_ShouldShareCommits() throws Exception {
+        final int threadCount = 16;
+        final int messagesPerThread = 50;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger missing = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < threadCount; i++) {
+            final long firstMessageId = i * messagesPerThread + 1;
+
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (long messageId = firstMessageId; messageId < firstMessageId + messagesPerThread; messageId++) {
+                        DonkeyDao dao = daoFactory.getDao();
+                        dao.insertMessage(createMessage(messageId));
+                        dao.commit(false);
+                        dao.close();
+
+                        // The transaction must be committed by the time commit returns
+                        if (!committedMessageIds.contains(messageId)) {
+                            missing.incrementAndGet();
+                        }
+                    }
+                }
+            };
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        GroupCommitter committer = daoFactory.getCommitter();
+
+        assertEquals(0, missing.get());
+        assertEquals(threadCount * messagesPerThread, committedMessageIds.size());
+        assertEquals(threadCount * messagesPerThread, committer.getTransactionCount());
+        assertEquals(delegateCommits.get(), committer.getCommitCount());
+        assertTrue(committer.getCommitCount() < committer.getTransactionCount());
+        assertTrue(committer.getLargestGroupSize() <= committer.getMaxBatchSize());
+    }
+
+    @Test
+    public void commit_FailingTransaction_ShouldOnlyFailCaller() throws Exception {
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger unexpectedSuccesses = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < threadCount; i++) {
+            final long messageId = (i == 0) ? FAILING_MESSAGE_ID : i;
+
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    DonkeyDao dao = daoFactory.getDao();
+
+                    try {
+                        dao.insertMessage(createMessage(messageId));
+                        dao.commit();
+
+                        if (messageId == FAILING_MESSAGE_ID) {
+                            unexpectedSuccesses.incrementAndGet();
+                        }
+                    } catch (DonkeyDaoException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        dao.close();
+                    }
+                }
+            };
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, failures.get());
+        assertEquals(0, unexpectedSuccesses.get());
+        assertEquals(threadCount - 1, committedMessageIds.size());
+    }
+
+    @Test
+    public void commit_StreamAttachment_ShouldNotBeRetried() throws Exception {
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < threadCount; i++) {
+            final long messageId = (i == 0) ? FAILING_MESSAGE_ID : i;
+
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    DonkeyDao dao = daoFactory.getDao();
+
+                    try {
+                        // Each transaction's attachment stream can only be read once
+                        dao.insertMessageAttachment(CHANNEL_ID, messageId, new Attachment("attachment" + messageId, new ByteArrayInputStream(new byte[] { 1 }), "application/octet-stream"));
+                        dao.insertMessage(createMessage(messageId));
+                        dao.commit();
+                    } catch (DonkeyDaoException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        dao.close();
+                    }
+                }
+            };
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, failures.get());
+        assertEquals(threadCount - 1, committedMessageIds.size());
+        assertEquals(threadCount, daoFactory.getCommitter().getTransactionCount());
+        assertEquals(threadCount, daoFactory.getCommitter().getCommitCount());
+    }
+
+    private Message createMessage(long messageId) {
+        Message message = new Message();
+        message.setChannelId(CHANNEL_ID);
+        message.setMessageId(messageId);
+        return message;
+    }
+
+    /*
+     * Creates delegate DAOs that keep inserted message IDs in a pending list until commit.
+     */
+    private class RecordingDaoFactory implements DonkeyDaoFactory {
+        @Override
+        public DonkeyDao getDao() {
+            return getDao(null);
+        }
+
+        @Override
+        public DonkeyDao getDao(SerializerProvider serializerProvider) {
+            return (DonkeyDao) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DonkeyDao.class }, new InvocationHandler() {
+                private List<Long> pending = new ArrayList<Long>();
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+
+                    if (name.equals("insertMessage")) {
+                        long messageId = ((Message) args[0]).getMessageId();
+
+                        if (messageId == FAILING_MESSAGE_ID) {
+                            throw new DonkeyDaoException("Failed to insert message");
+                        }
+
+                        pending.add(messageId);
+                    } else if (name.equals("insertMessageAttachment")) {
+                        IOUtils.toByteArray(((Attachment) args[2]).getContentStream());
+                    } else if (name.equals("commit")) {
+                        // Make commits slow enough that concurrent callers pile up behind them
+                        Thread.sleep(2);
+                        committedMessageIds.addAll(pending);
+                        pending.clear();
+                        delegateCommits.incrementAndGet();
+                    } else if (name.equals("rollback")) {
+                        pending.clear();
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public void setEncryptData(boolean encryptData) {}
+
+        @Override
+        public void setDecryptData(boolean decryptData) {}
+
+        @Override
+        public void setStatisticsUpdater(StatisticsUpdater statisticsUpdater) {}
+    }
+}
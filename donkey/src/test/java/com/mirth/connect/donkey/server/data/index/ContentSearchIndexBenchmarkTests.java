@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.index;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.mirth.connect.donkey.server.data.index.ContentSearchIndex.Range;
+
+/**
+ * Indexes 1M and 10M generated HL7 messages and prints the time taken to build the index, the
+ * memory it uses, the time taken to find the candidate ranges for a few searches, and the number
+ * of rows the database would still need to verify compared to a full scan of the content table.
+ * The message counts can be changed with -Dmessages=1000000,10000000.
+ */
+public class ContentSearchIndexBenchmarkTests {
+    private static final String CHANNEL_ID = "benchmark";
+    private static final String[] LAST_NAMES = new String[] { "SMITH", "JOHNSON", "WILLIAMS", "BROWN", "JONES", "GARCIA", "MILLER", "DAVIS", "RODRIGUEZ", "MARTINEZ", "HERNANDEZ", "LOPEZ", "GONZALEZ", "WILSON", "ANDERSON", "THOMAS", "TAYLOR", "MOORE", "JACKSON", "MARTIN" };
+    private static final String[] FIRST_NAMES = new String[] { "JAMES", "MARY", "ROBERT", "PATRICIA", "JOHN", "JENNIFER", "MICHAEL", "LINDA", "DAVID", "ELIZABETH" };
+    private static final String[] EVENTS = new String[] { "A01", "A02", "A03", "A04", "A08" };
+    private static final int LOOKUPS = 100;
+
+    @Test
+    public void testSearch() throws Exception {
+        for (String count : System.getProperty("messages", "1000000,10000000").split(",")) {
+            run(Long.parseLong(count.trim()));
+        }
+    }
+
+    private void run(long messageCount) {
+        int blocks = (int) (messageCount / ContentSearchIndex.BLOCK_SIZE + 1);
+        ContentSearchIndex index = new ContentSearchIndex(blocks);
+        index.startChannel(CHANNEL_ID, 1);
+        Random random = new Random(0);
+
+        long startNanos = System.nanoTime();
+        for (long messageId = 1; messageId <= messageCount; messageId++) {
+            index.addContent(CHANNEL_ID, messageId, createMessage(messageId, random), false);
+        }
+        long buildNanos = System.nanoTime() - startNanos;
+
+        System.out.println(String.format("%d messages: indexed in %d ms (%.0f msg/s), %d blocks, %d MB", messageCount, buildNanos / 1000000, messageCount / (buildNanos / 1000000000d), index.getBlockCount(CHANNEL_ID), (long) index.getBlockCount(CHANNEL_ID) * 16 / 1024));
+        System.out.println(String.format("%-30s %15s %15s %15s", "search", "lookup ms", "rows to scan", "full scan"));
+
+        // A unique control id, a patient id shared by a few messages, and text found in every block
+        search(index, messageCount, "MSG" + (messageCount / 2));
+        search(index, messageCount, "PAT" + (messageCount / 2 % 50000));
+        search(index, messageCount, "SMITH^JAMES");
+        search(index, messageCount, "A04|");
+    }
+
+    private void search(ContentSearchIndex index, long messageCount, String search) {
+        List<Range> ranges = null;
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            ranges = index.getCandidateRanges(CHANNEL_ID, 1, messageCount, Collections.singletonList(search));
+        }
+        long lookupNanos = (System.nanoTime() - startNanos) / LOOKUPS;
+
+        long rows = 0;
+        for (Range range : ranges) {
+            rows += range.getMaxMessageId() - range.getMinMessageId() + 1;
+        }
+
+        assertTrue(rows > 0);
+        System.out.println(String.format("%-30s %15.3f %15d %15d", search, lookupNanos / 1000000d, rows, messageCount));
+    }
+
+    private String createMessage(long messageId, Random random) {
+        StringBuilder builder = new StringBuilder(300);
+        String event = EVENTS[random.nextInt(EVENTS.length)];
+        builder.append("MSH|^~\\&|ADT1|SHM|SHMADT|SHM|201801011200||ADT^").append(event).append("|MSG").append(messageId).append("|P|2.5\r");
+        builder.append("EVN|").append(event).append("|201801011200\r");
+        builder.append("PID|1||PAT").append(messageId % 50000).append("^^^SHM^MR||").append(LAST_NAMES[random.nextInt(LAST_NAMES.length)]).append('^').append(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]).append("||19800101|F|||").append(random.nextInt(9999)).append(" MAIN ST^^NEWPORT BEACH^CA^92660\r");
+        builder.append("PV1|1|I|").append(random.nextInt(500)).append("^").append(random.nextInt(50)).append("^01\r");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.server.data.index.ContentSearchIndex.Range;
+
+public class ContentSearchIndexTest {
+    private static final String CHANNEL_ID = "channel";
+    private static final String OTHER_CHANNEL_ID = "otherChannel";
+    private static final String ENCRYPTED_CHANNEL_ID = "encryptedChannel";
+    private static final int BLOCK_SIZE = ContentSearchIndex.BLOCK_SIZE;
+
+    @Test
+    public void testCandidateBlocks() throws Exception {
+        ContentSearchIndex index = createIndex(10);
+        index.addContent(CHANNEL_ID, 5, "PID|1||1001||SMITH^JOHN", false);
+        index.addContent(CHANNEL_ID, BLOCK_SIZE + 5, "PID|1||1002||JONES^MARY", false);
+        index.addContent(CHANNEL_ID, 2 * BLOCK_SIZE + 5, "PID|1||1003||SMITH^ANNE", false);
+
+        List<Range> ranges = index.getCandidateRanges(CHANNEL_ID, 1, 3 * BLOCK_SIZE, Collections.singletonList("SMITH"));
+        assertRanges(ranges, 1, BLOCK_SIZE - 1, true, 2 * BLOCK_SIZE, 3 * BLOCK_SIZE - 1, true);
+
+        ranges = index.getCandidateRanges(CHANNEL_ID, 1, 3 * BLOCK_SIZE, Arrays.asList("SMITH", "ANNE"));
+        assertRanges(ranges, 2 * BLOCK_SIZE, 3 * BLOCK_SIZE - 1, true);
+
+        // Adjacent candidate blocks are merged, and the ranges don't exceed the requested ids
+        ranges = index.getCandidateRanges(CHANNEL_ID, 10, 2 * BLOCK_SIZE + 10, Collections.singletonList("PID|1"));
+        assertRanges(ranges, 10, 2 * BLOCK_SIZE + 10, true);
+
+        assertTrue(index.getCandidateRanges(CHANNEL_ID, 1, 3 * BLOCK_SIZE, Collections.singletonList("DOE^JANE")).isEmpty());
+    }
+
+    @Test
+    public void testUnindexedMessages() throws Exception {
+        ContentSearchIndex index = new ContentSearchIndex(10);
+        assertNull(index.getCandidateRanges(CHANNEL_ID, 1, 100, Collections.singletonList("SMITH")));
+
+        index.startChannel(CHANNEL_ID, BLOCK_SIZE + 100);
+        index.addContent(CHANNEL_ID, BLOCK_SIZE + 100, "SMITH", false);
+
+        // Messages before indexing started are always searched
+        List<Range> ranges = index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("SMITH"));
+        assertRanges(ranges, 1, BLOCK_SIZE + 99, false, BLOCK_SIZE + 100, 2 * BLOCK_SIZE - 1, true);
+
+        ranges = index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("JONES"));
+        assertRanges(ranges, 1, BLOCK_SIZE + 99, false);
+
+        index.removeChannel(CHANNEL_ID);
+        assertFalse(index.isIndexing(CHANNEL_ID));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        ContentSearchIndex index = createIndex(2);
+        index.addContent(CHANNEL_ID, 1, "SMITH", false);
+        index.addContent(CHANNEL_ID, BLOCK_SIZE, "SMITH", false);
+        index.addContent(CHANNEL_ID, 2 * BLOCK_SIZE, "JONES", false);
+        assertEquals(2, index.getBlockCount(CHANNEL_ID));
+
+        // The first block was dropped, so its messages are no longer indexed
+        List<Range> ranges = index.getCandidateRanges(CHANNEL_ID, 1, 3 * BLOCK_SIZE - 1, Collections.singletonList("SMITH"));
+        assertRanges(ranges, 1, BLOCK_SIZE - 1, false, BLOCK_SIZE, 2 * BLOCK_SIZE - 1, true);
+    }
+
+    @Test
+    public void testTotalEviction() throws Exception {
+        ContentSearchIndex index = new ContentSearchIndex(4, 4);
+        index.startChannel(CHANNEL_ID, 0);
+
+        for (int i = 0; i < 4; i++) {
+            index.addContent(CHANNEL_ID, i * BLOCK_SIZE, "SMITH", false);
+        }
+
+        assertEquals(4, index.getBlockCount(CHANNEL_ID));
+
+        // Each channel is limited to an equal share of the total blocks
+        index.startChannel(OTHER_CHANNEL_ID, 0);
+        assertEquals(2, index.getBlockCount(CHANNEL_ID));
+
+        for (int i = 0; i < 4; i++) {
+            index.addContent(OTHER_CHANNEL_ID, i * BLOCK_SIZE, "JONES", false);
+        }
+
+        assertEquals(2, index.getBlockCount(OTHER_CHANNEL_ID));
+
+        List<Range> ranges = index.getCandidateRanges(CHANNEL_ID, 0, 4 * BLOCK_SIZE - 1, Collections.singletonList("SMITH"));
+        assertRanges(ranges, 0, 2 * BLOCK_SIZE - 1, false, 2 * BLOCK_SIZE, 4 * BLOCK_SIZE - 1, true);
+    }
+
+    @Test
+    public void testSearchText() throws Exception {
+        ContentSearchIndex index = createIndex(10);
+        index.addContent(CHANNEL_ID, 1, "PID|1||1001||Müller^José", false);
+        index.addContent(CHANNEL_ID, BLOCK_SIZE, "PID|1||1002||Jones^Mary", false);
+
+        // Case and accents are ignored
+        assertRanges(index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("muller^jose")), 1, BLOCK_SIZE - 1, true);
+        assertRanges(index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("JONES")), BLOCK_SIZE, 2 * BLOCK_SIZE - 1, true);
+
+        // Only the literal text between wildcards is used
+        assertRanges(index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("mül%jo_é")), 1, BLOCK_SIZE - 1, true);
+        assertRanges(index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("Jon[aeiou]s^Mary")), BLOCK_SIZE, 2 * BLOCK_SIZE - 1, true);
+
+        // Searches without three literal characters can't be narrowed
+        assertNull(index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("PI")));
+        assertNull(index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE, Collections.singletonList("J%o%n")));
+    }
+
+    @Test
+    public void testUnknownAndEncryptedContent() throws Exception {
+        ContentSearchIndex index = createIndex(10);
+        index.addUnknownContent(CHANNEL_ID, BLOCK_SIZE);
+        assertRanges(index.getCandidateRanges(CHANNEL_ID, 1, 2 * BLOCK_SIZE - 1, Collections.singletonList("anything")), BLOCK_SIZE, 2 * BLOCK_SIZE - 1, true);
+
+        assertFalse(index.hasEncryptedContent(CHANNEL_ID));
+        index.addContent(CHANNEL_ID, 1, "SMITH", true);
+        assertTrue(index.hasEncryptedContent(CHANNEL_ID));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File directory = new File(FileUtils.getTempDirectory(), "contentsearchindextest");
+        FileUtils.deleteQuietly(directory);
+
+        try {
+            ContentSearchIndex index = createIndex(10);
+            index.addContent(CHANNEL_ID, BLOCK_SIZE, "SMITH", false);
+            index.startChannel(ENCRYPTED_CHANNEL_ID, 1);
+            index.addContent(ENCRYPTED_CHANNEL_ID, 1, "SMITH", true);
+            index.save(directory);
+
+            // Channels with encrypted content aren't saved
+            assertEquals(1, directory.listFiles().length);
+
+            ContentSearchIndex loadedIndex = new ContentSearchIndex(10);
+            loadedIndex.load(directory);
+            assertFalse(loadedIndex.isIndexing(ENCRYPTED_CHANNEL_ID));
+            assertFalse(loadedIndex.hasEncryptedContent(CHANNEL_ID));
+            assertRanges(loadedIndex.getCandidateRanges(CHANNEL_ID, 1, 3 * BLOCK_SIZE, Collections.singletonList("SMITH")), BLOCK_SIZE, 2 * BLOCK_SIZE - 1, true);
+            assertTrue(loadedIndex.getCandidateRanges(CHANNEL_ID, 1, 3 * BLOCK_SIZE, Collections.singletonList("JONES")).isEmpty());
+
+            // The files are deleted once loaded, so they're never used after content changes
+            assertEquals(0, directory.listFiles().length);
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    private ContentSearchIndex createIndex(int maxBlocks) {
+        ContentSearchIndex index = new ContentSearchIndex(maxBlocks);
+        index.startChannel(CHANNEL_ID, 1);
+        return index;
+    }
+
+    /*
+     * The expected ranges are given as min, max and indexed for each range.
+     */
+    private void assertRanges(List<Range> ranges, Object... expected) {
+        assertEquals(expected.length / 3, ranges.size());
+
+        for (int i = 0; i < ranges.size(); i++) {
+            assertEquals(((Number) expected[i * 3]).longValue(), ranges.get(i).getMinMessageId());
+            assertEquals(((Number) expected[i * 3 + 1]).longValue(), ranges.get(i).getMaxMessageId());
+            assertEquals(expected[i * 3 + 2], ranges.get(i).isIndexed());
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.message.Message;
+import com.mirth.connect.donkey.model.message.attachment.Attachment;
+import com.mirth.connect.donkey.server.data.DonkeyDao;
+
+public class JdbcDaoAttachmentTest {
+    private final static String CHANNEL_ID = "attachmentChannel";
+    private final static long LOCAL_CHANNEL_ID = 1;
+    private final static String SERVER_ID = "server";
+    private final static String TYPE = "application/octet-stream";
+    // Large enough to be split into three segments
+    private final static int LARGE_ATTACHMENT_SIZE = 25000000;
+
+    private static JdbcDaoFactory jdbcDaoFactory;
+    private static long nextMessageId = 1;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        XmlQuerySource querySource = new XmlQuerySource();
+        querySource.load("default.xml");
+        querySource.load("derby.xml");
+
+        jdbcDaoFactory = JdbcDaoFactory.getInstance("derby");
+        jdbcDaoFactory.setStatsServerId(SERVER_ID);
+        jdbcDaoFactory.setConnectionPool(new HikariConnectionPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:JdbcDaoAttachmentTest;create=true", "", "", 2, true, null));
+        jdbcDaoFactory.setQuerySource(querySource);
+
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            dao.initTableStructure();
+            dao.createChannel(CHANNEL_ID, LOCAL_CHANNEL_ID);
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    public void testStreamedAttachment() throws Exception {
+        Attachment attachment = new Attachment("streamed", new GeneratedInputStream(LARGE_ATTACHMENT_SIZE), TYPE);
+        long messageId = insertAttachment(attachment);
+
+        assertEquals(3, countSegments(messageId, "streamed"));
+
+        // Read it back whole, then through the streaming reader
+        Attachment storedAttachment = getAttachment(messageId, "streamed");
+        assertEquals(TYPE, storedAttachment.getType());
+        assertEquals(LARGE_ATTACHMENT_SIZE, storedAttachment.getContent().length);
+        assertEquals(checksum(new GeneratedInputStream(LARGE_ATTACHMENT_SIZE)), checksum(new ByteArrayInputStream(storedAttachment.getContent())));
+        storedAttachment = null;
+
+        CRC32 crc = new CRC32();
+        DonkeyDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            Attachment streamedAttachment = dao.getMessageAttachment(CHANNEL_ID, "streamed", messageId, new CheckedOutputStream(new NullOutputStream(), crc));
+            assertEquals("streamed", streamedAttachment.getId());
+            assertEquals(TYPE, streamedAttachment.getType());
+            assertNull(streamedAttachment.getContent());
+        } finally {
+            dao.close();
+        }
+
+        assertEquals(checksum(new GeneratedInputStream(LARGE_ATTACHMENT_SIZE)), crc.getValue());
+    }
+
+    @Test
+    public void testByteArrayAttachment() throws Exception {
+        byte[] content = "byte array content".getBytes();
+        long messageId = insertAttachment(new Attachment("bytes", content, TYPE));
+
+        assertEquals(1, countSegments(messageId, "bytes"));
+        assertArrayEquals(content, getAttachment(messageId, "bytes").getContent());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DonkeyDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            dao.getMessageAttachment(CHANNEL_ID, "bytes", messageId, outputStream);
+        } finally {
+            dao.close();
+        }
+
+        assertArrayEquals(content, outputStream.toByteArray());
+    }
+
+    @Test
+    public void testEmptyAttachment() throws Exception {
+        long messageId = insertAttachment(new Attachment("emptyBytes", new byte[0], TYPE));
+        assertEquals(1, countSegments(messageId, "emptyBytes"));
+        assertEquals(0, getAttachment(messageId, "emptyBytes").getContent().length);
+
+        messageId = insertAttachment(new Attachment("emptyStream", new ByteArrayInputStream(new byte[0]), TYPE));
+        assertEquals(1, countSegments(messageId, "emptyStream"));
+        assertEquals(0, getAttachment(messageId, "emptyStream").getContent().length);
+    }
+
+    @Test
+    public void testFileAttachment() throws Exception {
+        File file = File.createTempFile("attachment", ".dat");
+
+        try {
+            byte[] content = "file content".getBytes();
+            FileUtils.writeByteArrayToFile(file, content);
+
+            Attachment attachment = new Attachment("file", file, TYPE);
+            long messageId = insertAttachment(attachment);
+            assertArrayEquals(content, getAttachment(messageId, "file").getContent());
+
+            // File-backed content can be read more than once
+            assertArrayEquals(content, attachment.getContent());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreamCanOnlyBeReadOnce() throws Exception {
+        Attachment attachment = new Attachment("once", new ByteArrayInputStream("content".getBytes()), TYPE);
+        insertAttachment(attachment);
+
+        try {
+            attachment.getContentStream();
+            fail("The content stream should only be readable once");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private long insertAttachment(Attachment attachment) {
+        long messageId = nextMessageId++;
+
+        Message message = new Message();
+        message.setChannelId(CHANNEL_ID);
+        message.setMessageId(messageId);
+        message.setServerId(SERVER_ID);
+        message.setReceivedDate(Calendar.getInstance());
+
+        DonkeyDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            dao.insertMessage(message);
+            dao.insertMessageAttachment(CHANNEL_ID, messageId, attachment);
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+
+        return messageId;
+    }
+
+    private Attachment getAttachment(long messageId, String attachmentId) {
+        DonkeyDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            return dao.getMessageAttachment(CHANNEL_ID, attachmentId, messageId);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private int countSegments(long messageId, String attachmentId) throws Exception {
+        Connection connection = jdbcDaoFactory.getConnectionPool().getConnection().getConnection();
+        Statement statement = null;
+        ResultSet resultSet = null;
+
+        try {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery("SELECT COUNT(*) FROM D_MA" + LOCAL_CHANNEL_ID + " WHERE MESSAGE_ID = " + messageId + " AND ID = '" + attachmentId + "'");
+            resultSet.next();
+            return resultSet.getInt(1);
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+
+            if (statement != null) {
+                statement.close();
+            }
+
+            connection.close();
+        }
+    }
+
+    private long checksum(InputStream inputStream) throws Exception {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+        }
+
+        return crc.getValue();
+    }
+
+    /*
+     * Generates deterministic content without holding it in memory, and returns it in small reads
+     * the way a network or file stream would.
+     */
+    private class GeneratedInputStream extends InputStream {
+        private int size;
+        private int position = 0;
+
+        public GeneratedInputStream(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            if (position >= size) {
+                return -1;
+            }
+
+            return valueAt(position++);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= size) {
+                return -1;
+            }
+
+            int count = Math.min(Math.min(length, 4096), size - position);
+
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) valueAt(position++);
+            }
+
+            return count;
+        }
+
+        private int valueAt(int index) {
+            return (index * 31 + (index >>> 8)) & 0xFF;
+        }
+    }
+}
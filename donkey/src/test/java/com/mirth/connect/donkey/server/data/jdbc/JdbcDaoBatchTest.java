@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.channel.MetaDataColumn;
+import com.mirth.connect.donkey.model.channel.MetaDataColumnType;
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.ContentType;
+import com.mirth.connect.donkey.model.message.Message;
+import com.mirth.connect.donkey.model.message.MessageContent;
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.model.message.attachment.Attachment;
+import com.mirth.connect.donkey.server.data.DonkeyDao;
+import com.mirth.connect.donkey.server.data.DonkeyDaoException;
+import com.mirth.connect.donkey.server.data.buffered.BufferedDaoFactory;
+import com.mirth.connect.donkey.util.Serializer;
+import com.mirth.connect.donkey.util.SerializerProvider;
+import com.mirth.connect.donkey.util.xstream.XStreamSerializer;
+
+/**
+ * Writes the same messages through the buffered DAO with and without statement batching, each to
+ * its own channel, and verifies that both channels end up with identical rows.
+ */
+public class JdbcDaoBatchTest {
+    private final static String UNBATCHED_CHANNEL_ID = "unbatchedChannel";
+    private final static String BATCHED_CHANNEL_ID = "batchedChannel";
+    private final static long UNBATCHED_LOCAL_CHANNEL_ID = 1;
+    private final static long BATCHED_LOCAL_CHANNEL_ID = 2;
+    private final static String SERVER_ID = "server";
+    private final static int TEST_SIZE = 20;
+    private final static int MESSAGES_PER_TRANSACTION = 5;
+
+    private static JdbcDaoFactory jdbcDaoFactory;
+    private static SerializerProvider serializerProvider;
+    private static List<MetaDataColumn> metaDataColumns;
+    private static Calendar receivedDate;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final Serializer serializer = new XStreamSerializer();
+        XmlQuerySource querySource = new XmlQuerySource();
+        querySource.load("default.xml");
+        querySource.load("derby.xml");
+
+        jdbcDaoFactory = JdbcDaoFactory.getInstance("derby");
+        jdbcDaoFactory.setStatsServerId(SERVER_ID);
+        jdbcDaoFactory.setConnectionPool(new HikariConnectionPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:JdbcDaoBatchTest;create=true", "", "", 2, true, null));
+        jdbcDaoFactory.setQuerySource(querySource);
+        serializerProvider = new SerializerProvider() {
+            @Override
+            public Serializer getSerializer(Integer metaDataId) {
+                return serializer;
+            }
+        };
+        jdbcDaoFactory.setSerializerProvider(serializerProvider);
+
+        metaDataColumns = new ArrayList<MetaDataColumn>();
+        metaDataColumns.add(new MetaDataColumn("SOURCE", MetaDataColumnType.STRING, "mirth_source"));
+        metaDataColumns.add(new MetaDataColumn("AMOUNT", MetaDataColumnType.NUMBER, "amount"));
+        metaDataColumns.add(new MetaDataColumn("FLAGGED", MetaDataColumnType.BOOLEAN, "flagged"));
+
+        receivedDate = Calendar.getInstance();
+        receivedDate.setTimeInMillis(1500000000000L);
+
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            dao.initTableStructure();
+            dao.createChannel(UNBATCHED_CHANNEL_ID, UNBATCHED_LOCAL_CHANNEL_ID);
+            dao.createChannel(BATCHED_CHANNEL_ID, BATCHED_LOCAL_CHANNEL_ID);
+            dao.commit();
+
+            for (MetaDataColumn metaDataColumn : metaDataColumns) {
+                dao.addMetaDataColumn(UNBATCHED_CHANNEL_ID, metaDataColumn);
+                dao.addMetaDataColumn(BATCHED_CHANNEL_ID, metaDataColumn);
+            }
+
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+
+        writeMessages(UNBATCHED_CHANNEL_ID, false);
+        writeMessages(BATCHED_CHANNEL_ID, true);
+    }
+
+    @Test
+    public void testMessageRows() throws Exception {
+        assertSameRows("SELECT * FROM D_M${localChannelId} ORDER BY ID", TEST_SIZE);
+    }
+
+    @Test
+    public void testConnectorMessageRows() throws Exception {
+        assertSameRows("SELECT * FROM D_MM${localChannelId} ORDER BY MESSAGE_ID, ID", TEST_SIZE * 2);
+    }
+
+    @Test
+    public void testMessageContentRows() throws Exception {
+        assertSameRows("SELECT * FROM D_MC${localChannelId} ORDER BY MESSAGE_ID, METADATA_ID, CONTENT_TYPE", TEST_SIZE * 9);
+    }
+
+    @Test
+    public void testMetaDataRows() throws Exception {
+        assertSameRows("SELECT * FROM D_MCM${localChannelId} ORDER BY MESSAGE_ID, METADATA_ID", TEST_SIZE);
+    }
+
+    @Test
+    public void testAttachmentRows() throws Exception {
+        assertSameRows("SELECT * FROM D_MA${localChannelId} ORDER BY MESSAGE_ID, ID", TEST_SIZE);
+    }
+
+    @Test
+    public void testFailedBatchRollsBackTransaction() throws Exception {
+        BufferedDaoFactory daoFactory = new BufferedDaoFactory(jdbcDaoFactory, serializerProvider, null);
+        daoFactory.setBatchStatements(true);
+
+        DonkeyDao dao = daoFactory.getDao();
+
+        try {
+            // The first message is new, the second already exists so its batched insert fails
+            dao.insertMessage(createMessage(BATCHED_CHANNEL_ID, TEST_SIZE + 1));
+            dao.insertMessage(createMessage(BATCHED_CHANNEL_ID, 1));
+            dao.commit();
+            fail("Commit should have failed with a duplicate message ID");
+        } catch (DonkeyDaoException e) {
+            // expected
+        } finally {
+            dao.close();
+        }
+
+        assertEquals(TEST_SIZE, selectRows("SELECT * FROM D_M" + BATCHED_LOCAL_CHANNEL_ID).size());
+    }
+
+    private static void writeMessages(String channelId, boolean batchStatements) {
+        BufferedDaoFactory daoFactory = new BufferedDaoFactory(jdbcDaoFactory, serializerProvider, null);
+        daoFactory.setBatchStatements(batchStatements);
+
+        List<ConnectorMessage> destinationMessages = new ArrayList<ConnectorMessage>();
+
+        for (long firstMessageId = 1; firstMessageId <= TEST_SIZE; firstMessageId += MESSAGES_PER_TRANSACTION) {
+            DonkeyDao dao = daoFactory.getDao();
+
+            try {
+                // Interleave the writes for several messages in the same transaction
+                for (long messageId = firstMessageId; messageId < firstMessageId + MESSAGES_PER_TRANSACTION; messageId++) {
+                    Message message = createMessage(channelId, messageId);
+                    dao.insertMessage(message);
+                    dao.insertMessageAttachment(channelId, messageId, new Attachment("attachment" + messageId, ("attachment content " + messageId).getBytes(), "text/plain"));
+
+                    ConnectorMessage sourceMessage = new ConnectorMessage(channelId, channelId, messageId, 0, SERVER_ID, receivedDate, Status.RECEIVED);
+                    sourceMessage.setConnectorName("Source");
+                    sourceMessage.getSourceMap().put("source", "value" + messageId);
+                    sourceMessage.getChannelMap().put("channel", "value" + messageId);
+                    sourceMessage.getMetaDataMap().put("SOURCE", "source" + messageId);
+                    sourceMessage.getMetaDataMap().put("AMOUNT", new BigDecimal(messageId * 10));
+
+                    if (messageId % 2 == 0) {
+                        sourceMessage.getMetaDataMap().put("FLAGGED", true);
+                    }
+
+                    dao.insertConnectorMessage(sourceMessage, true, true);
+                    dao.insertMessageContent(new MessageContent(channelId, messageId, 0, ContentType.RAW, "raw " + messageId, "HL7V2", false));
+                    dao.insertMessageContent(new MessageContent(channelId, messageId, 0, ContentType.TRANSFORMED, "transformed " + messageId, "XML", false));
+                    dao.insertMetaData(sourceMessage, metaDataColumns);
+
+                    ConnectorMessage destinationMessage = new ConnectorMessage(channelId, channelId, messageId, 1, SERVER_ID, receivedDate, Status.RECEIVED);
+                    destinationMessage.setConnectorName("Destination 1");
+                    destinationMessage.getChannelMap().put("channel", "value" + messageId);
+                    destinationMessage.setProcessingError("error " + messageId);
+
+                    dao.insertConnectorMessage(destinationMessage, true, true);
+                    dao.insertMessageContent(new MessageContent(channelId, messageId, 1, ContentType.ENCODED, "encoded " + messageId, "HL7V2", false));
+                    destinationMessages.add(destinationMessage);
+                }
+
+                dao.commit();
+            } finally {
+                dao.close();
+            }
+        }
+
+        // Update the persisted rows, which requires any pending batches to run first
+        DonkeyDao dao = daoFactory.getDao();
+
+        try {
+            for (ConnectorMessage destinationMessage : destinationMessages) {
+                destinationMessage.setStatus(Status.SENT);
+                destinationMessage.getResponseMap().put("response", "value" + destinationMessage.getMessageId());
+                destinationMessage.getChannelMap().put("channel", "updated" + destinationMessage.getMessageId());
+
+                dao.updateStatus(destinationMessage, Status.RECEIVED);
+                dao.updateMaps(destinationMessage);
+                dao.insertMessageContent(new MessageContent(channelId, destinationMessage.getMessageId(), 1, ContentType.SENT, "sent " + destinationMessage.getMessageId(), "HL7V2", false));
+                dao.markAsProcessed(channelId, destinationMessage.getMessageId());
+            }
+
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static Message createMessage(String channelId, long messageId) {
+        Message message = new Message();
+        message.setChannelId(channelId);
+        message.setMessageId(messageId);
+        message.setServerId(SERVER_ID);
+        message.setReceivedDate(receivedDate);
+        message.setProcessed(false);
+        return message;
+    }
+
+    private void assertSameRows(String query, int expectedRowCount) throws SQLException {
+        List<List<String>> unbatchedRows = selectRows(query.replace("${localChannelId}", String.valueOf(UNBATCHED_LOCAL_CHANNEL_ID)));
+        List<List<String>> batchedRows = selectRows(query.replace("${localChannelId}", String.valueOf(BATCHED_LOCAL_CHANNEL_ID)));
+
+        assertEquals(expectedRowCount, unbatchedRows.size());
+        assertEquals(unbatchedRows.size(), batchedRows.size());
+
+        for (int i = 0; i < unbatchedRows.size(); i++) {
+            assertEquals("Row " + i + " differs", unbatchedRows.get(i), batchedRows.get(i));
+        }
+    }
+
+    private static List<List<String>> selectRows(String query) throws SQLException {
+        List<List<String>> rows = new ArrayList<List<String>>();
+        Connection connection = jdbcDaoFactory.getConnectionPool().getConnection().getConnection();
+        Statement statement = null;
+        ResultSet resultSet = null;
+
+        try {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery(query);
+            int columnCount = resultSet.getMetaData().getColumnCount();
+
+            while (resultSet.next()) {
+                List<String> row = new ArrayList<String>();
+
+                for (int i = 1; i <= columnCount; i++) {
+                    row.add(resultSet.getString(i));
+                }
+
+                rows.add(row);
+            }
+        } finally {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+
+            if (statement != null) {
+                statement.close();
+            }
+
+            connection.close();
+        }
+
+        return rows;
+    }
+}
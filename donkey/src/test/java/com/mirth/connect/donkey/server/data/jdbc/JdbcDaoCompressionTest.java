@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.ContentType;
+import com.mirth.connect.donkey.model.message.Message;
+import com.mirth.connect.donkey.model.message.MessageContent;
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.server.data.DonkeyDao;
+import com.mirth.connect.donkey.server.data.buffered.BufferedDaoFactory;
+import com.mirth.connect.donkey.util.CompressionUtil;
+import com.mirth.connect.donkey.util.Serializer;
+import com.mirth.connect.donkey.util.SerializerProvider;
+import com.mirth.connect.donkey.util.xstream.XStreamSerializer;
+
+/**
+ * Writes messages with and without content compression to the same channel, and verifies that the
+ * content of both reads back unchanged.
+ */
+public class JdbcDaoCompressionTest {
+    private final static String CHANNEL_ID = "compressionChannel";
+    private final static long LOCAL_CHANNEL_ID = 1;
+    private final static String SERVER_ID = "server";
+    private final static String SEGMENTS = "PID|1||PAT12345^^^MRN||DOE^JOHN^Q||19700101|M|||123 MAIN ST^^SPRINGFIELD^IL^62701||555-555-5555\rPV1|1|I|ICU^101^A|||||||MED\r";
+
+    private static JdbcDaoFactory jdbcDaoFactory;
+    private static SerializerProvider serializerProvider;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final Serializer serializer = new XStreamSerializer();
+        XmlQuerySource querySource = new XmlQuerySource();
+        querySource.load("default.xml");
+        querySource.load("derby.xml");
+
+        jdbcDaoFactory = JdbcDaoFactory.getInstance("derby");
+        jdbcDaoFactory.setStatsServerId(SERVER_ID);
+        jdbcDaoFactory.setConnectionPool(new HikariConnectionPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:JdbcDaoCompressionTest;create=true", "", "", 2, true, null));
+        jdbcDaoFactory.setQuerySource(querySource);
+        serializerProvider = new SerializerProvider() {
+            @Override
+            public Serializer getSerializer(Integer metaDataId) {
+                return serializer;
+            }
+        };
+        jdbcDaoFactory.setSerializerProvider(serializerProvider);
+
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            dao.initTableStructure();
+            dao.createChannel(CHANNEL_ID, LOCAL_CHANNEL_ID);
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+
+        // Messages written before compression was enabled are stored as they were
+        writeMessage(1, false, false);
+        writeMessage(2, true, false);
+        writeMessage(3, true, true);
+    }
+
+    @Test
+    public void testStoredContent() throws Exception {
+        assertFalse(CompressionUtil.isCompressed(selectContent(1, 0, ContentType.RAW)));
+        assertTrue(CompressionUtil.isCompressed(selectContent(2, 0, ContentType.RAW)));
+        assertTrue(CompressionUtil.isCompressed(selectContent(2, 0, ContentType.SOURCE_MAP)));
+        assertTrue(CompressionUtil.isCompressed(selectContent(2, 1, ContentType.ENCODED)));
+
+        // Short content is left as is
+        assertEquals("transformed 2", selectContent(2, 0, ContentType.TRANSFORMED));
+
+        // Batched inserts are compressed the same way
+        assertTrue(CompressionUtil.isCompressed(selectContent(3, 0, ContentType.RAW)));
+        assertTrue(CompressionUtil.isCompressed(selectContent(3, 1, ContentType.ENCODED)));
+    }
+
+    @Test
+    public void testReadContent() throws Exception {
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            for (long messageId = 1; messageId <= 3; messageId++) {
+                Map<Integer, ConnectorMessage> connectorMessages = dao.getConnectorMessages(CHANNEL_ID, messageId, Arrays.asList(0, 1));
+                ConnectorMessage sourceMessage = connectorMessages.get(0);
+                ConnectorMessage destinationMessage = connectorMessages.get(1);
+
+                assertEquals(createContent(messageId, "raw"), sourceMessage.getRaw().getContent());
+                assertEquals("transformed " + messageId, sourceMessage.getTransformed().getContent());
+                assertEquals(createContent(messageId, "source"), sourceMessage.getSourceMap().get("source"));
+                assertEquals(createContent(messageId, "updated"), destinationMessage.getEncoded().getContent());
+            }
+
+            // The encoded content of the source is read as the raw content of the destination
+            for (Message message : dao.getMessages(CHANNEL_ID, Arrays.asList(1L, 2L, 3L))) {
+                assertEquals(createContent(message.getMessageId(), "raw"), message.getConnectorMessages().get(0).getRaw().getContent());
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    public void testUncompressedContentWithPrefix() throws Exception {
+        String content = CompressionUtil.COMPRESSED_PREFIX + "not compressed";
+        Connection connection = jdbcDaoFactory.getConnectionPool().getConnection().getConnection();
+
+        try {
+            PreparedStatement statement = connection.prepareStatement("INSERT INTO D_MC" + LOCAL_CHANNEL_ID + " (METADATA_ID, MESSAGE_ID, CONTENT_TYPE, CONTENT, IS_ENCRYPTED) VALUES (0, 1, ?, ?, ?)");
+            statement.setInt(1, ContentType.PROCESSED_RAW.getContentTypeCode());
+            statement.setString(2, content);
+            statement.setBoolean(3, false);
+            statement.executeUpdate();
+            statement.close();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            assertEquals(content, dao.getConnectorMessages(CHANNEL_ID, 1, Arrays.asList(0)).get(0).getProcessedRaw().getContent());
+        } finally {
+            dao.close();
+        }
+
+        // When it is written by a channel that compresses its content, it is compressed
+        writeContent(2, ContentType.PROCESSED_RAW, content);
+        assertTrue(CompressionUtil.isCompressed(selectContent(2, 0, ContentType.PROCESSED_RAW)));
+        assertFalse(content.equals(selectContent(2, 0, ContentType.PROCESSED_RAW)));
+
+        dao = jdbcDaoFactory.getDao();
+
+        try {
+            assertEquals(content, dao.getConnectorMessages(CHANNEL_ID, 2, Arrays.asList(0)).get(0).getProcessedRaw().getContent());
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static void writeMessage(long messageId, boolean compressContent, boolean batchStatements) {
+        BufferedDaoFactory daoFactory = new BufferedDaoFactory(jdbcDaoFactory, serializerProvider, null);
+        daoFactory.setCompressContent(compressContent);
+        daoFactory.setBatchStatements(batchStatements);
+        Calendar receivedDate = Calendar.getInstance();
+
+        DonkeyDao dao = daoFactory.getDao();
+
+        try {
+            Message message = new Message();
+            message.setChannelId(CHANNEL_ID);
+            message.setMessageId(messageId);
+            message.setServerId(SERVER_ID);
+            message.setReceivedDate(receivedDate);
+            dao.insertMessage(message);
+
+            ConnectorMessage sourceMessage = new ConnectorMessage(CHANNEL_ID, CHANNEL_ID, messageId, 0, SERVER_ID, receivedDate, Status.TRANSFORMED);
+            sourceMessage.setConnectorName("Source");
+            sourceMessage.getSourceMap().put("source", createContent(messageId, "source"));
+            dao.insertConnectorMessage(sourceMessage, true, true);
+            dao.insertMessageContent(new MessageContent(CHANNEL_ID, messageId, 0, ContentType.RAW, createContent(messageId, "raw"), "HL7V2", false));
+            dao.insertMessageContent(new MessageContent(CHANNEL_ID, messageId, 0, ContentType.TRANSFORMED, "transformed " + messageId, "XML", false));
+            dao.insertMessageContent(new MessageContent(CHANNEL_ID, messageId, 0, ContentType.ENCODED, createContent(messageId, "raw"), "HL7V2", false));
+
+            ConnectorMessage destinationMessage = new ConnectorMessage(CHANNEL_ID, CHANNEL_ID, messageId, 1, SERVER_ID, receivedDate, Status.RECEIVED);
+            destinationMessage.setConnectorName("Destination 1");
+            dao.insertConnectorMessage(destinationMessage, true, true);
+            dao.insertMessageContent(new MessageContent(CHANNEL_ID, messageId, 1, ContentType.ENCODED, createContent(messageId, "encoded"), "HL7V2", false));
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+
+        // Updated content goes through storeContent
+        writeContent(messageId, 1, ContentType.ENCODED, createContent(messageId, "updated"), compressContent);
+    }
+
+    private static void writeContent(long messageId, ContentType contentType, String content) {
+        writeContent(messageId, 0, contentType, content, true);
+    }
+
+    private static void writeContent(long messageId, int metaDataId, ContentType contentType, String content, boolean compressContent) {
+        BufferedDaoFactory daoFactory = new BufferedDaoFactory(jdbcDaoFactory, serializerProvider, null);
+        daoFactory.setCompressContent(compressContent);
+        DonkeyDao dao = daoFactory.getDao();
+
+        try {
+            dao.storeMessageContent(new MessageContent(CHANNEL_ID, messageId, metaDataId, contentType, content, "HL7V2", false));
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static String createContent(long messageId, String type) {
+        StringBuilder content = new StringBuilder("MSH|^~\\&|" + type + "|message " + messageId + "\r");
+        for (int i = 0; i < 10; i++) {
+            content.append(SEGMENTS);
+        }
+        return content.toString();
+    }
+
+    private String selectContent(long messageId, int metaDataId, ContentType contentType) throws Exception {
+        Connection connection = jdbcDaoFactory.getConnectionPool().getConnection().getConnection();
+
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT CONTENT FROM D_MC" + LOCAL_CHANNEL_ID + " WHERE MESSAGE_ID = ? AND METADATA_ID = ? AND CONTENT_TYPE = ?");
+            statement.setLong(1, messageId);
+            statement.setInt(2, metaDataId);
+            statement.setInt(3, contentType.getContentTypeCode());
+            ResultSet resultSet = statement.executeQuery();
+
+            try {
+                assertTrue(resultSet.next());
+                return resultSet.getString(1);
+            } finally {
+                resultSet.close();
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
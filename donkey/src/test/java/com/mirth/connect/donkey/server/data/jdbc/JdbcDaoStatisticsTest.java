@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.data.jdbc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.server.channel.Statistics;
+import com.mirth.connect.donkey.server.channel.StripedStatistics;
+
+/**
+ * Writes statistics for several connectors at once, which updates the connector rows with one
+ * batch and inserts the rows that don't exist yet.
+ */
+public class JdbcDaoStatisticsTest {
+    private final static String CHANNEL_ID = "statisticsChannel";
+    private final static String SERVER_ID = "server";
+
+    private static JdbcDaoFactory jdbcDaoFactory;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        XmlQuerySource querySource = new XmlQuerySource();
+        querySource.load("default.xml");
+        querySource.load("derby.xml");
+
+        jdbcDaoFactory = JdbcDaoFactory.getInstance("derby");
+        jdbcDaoFactory.setStatsServerId(SERVER_ID);
+        jdbcDaoFactory.setConnectionPool(new HikariConnectionPool("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:JdbcDaoStatisticsTest;create=true", "", "", 2, true, null));
+        jdbcDaoFactory.setQuerySource(querySource);
+
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            dao.initTableStructure();
+            dao.createChannel(CHANNEL_ID, 1);
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    public void testAddChannelStatistics() throws Exception {
+        StripedStatistics stripedStatistics = new StripedStatistics();
+
+        // The first write inserts rows for the channel and the source and first destination
+        Statistics transactionStats = new Statistics(false, true);
+        transactionStats.update(CHANNEL_ID, 0, Status.RECEIVED, null);
+        transactionStats.update(CHANNEL_ID, 1, Status.SENT, null);
+        stripedStatistics.update(transactionStats);
+        addChannelStatistics(stripedStatistics);
+
+        // The second write updates those rows and inserts a row for the second destination
+        transactionStats = new Statistics(false, true);
+        transactionStats.update(CHANNEL_ID, 0, Status.RECEIVED, null);
+        transactionStats.update(CHANNEL_ID, 1, Status.SENT, null);
+        transactionStats.update(CHANNEL_ID, 2, Status.ERROR, null);
+        stripedStatistics.update(transactionStats);
+        stripedStatistics.update(transactionStats);
+        addChannelStatistics(stripedStatistics);
+
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            Statistics statistics = dao.getChannelStatistics(SERVER_ID);
+            assertStats(statistics.getConnectorStats(CHANNEL_ID, null), 3, 0, 3, 2);
+            assertStats(statistics.getConnectorStats(CHANNEL_ID, 0), 3, 0, 0, 0);
+            assertStats(statistics.getConnectorStats(CHANNEL_ID, 1), 0, 0, 3, 0);
+            assertStats(statistics.getConnectorStats(CHANNEL_ID, 2), 0, 0, 0, 2);
+
+            assertStats(dao.getChannelTotalStatistics(SERVER_ID).getConnectorStats(CHANNEL_ID, 1), 0, 0, 3, 0);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private void addChannelStatistics(StripedStatistics stripedStatistics) {
+        Statistics changed = stripedStatistics.getChangedStatistics();
+        JdbcDao dao = jdbcDaoFactory.getDao();
+
+        try {
+            dao.addChannelStatistics(changed);
+            dao.commit();
+        } finally {
+            dao.close();
+        }
+
+        stripedStatistics.subtract(changed);
+    }
+
+    private void assertStats(Map<Status, Long> stats, long received, long filtered, long sent, long error) {
+        assertEquals(received, stats.get(Status.RECEIVED).longValue());
+        assertEquals(filtered, stats.get(Status.FILTERED).longValue());
+        assertEquals(sent, stats.get(Status.SENT).longValue());
+        assertEquals(error, stats.get(Status.ERROR).longValue());
+    }
+}
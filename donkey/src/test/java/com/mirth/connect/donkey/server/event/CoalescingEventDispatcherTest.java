@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.event.ErrorEventType;
+import com.mirth.connect.donkey.model.event.Event;
+import com.mirth.connect.donkey.model.event.MessageEventType;
+
+public class CoalescingEventDispatcherTest {
+    private static final String CHANNEL_ID = "CoalescingEventDispatcherTest";
+
+    @Test
+    public void testCoalesceLatestValue() {
+        RecordingEventDispatcher recorder = new RecordingEventDispatcher();
+        CoalescingEventDispatcher dispatcher = new CoalescingEventDispatcher(recorder, 1000);
+
+        for (long count = 1; count <= 1000; count++) {
+            dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 1, MessageEventType.QUEUED, count, false));
+            dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 2, MessageEventType.QUEUED, count * 2, false));
+        }
+        dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 1, MessageEventType.SENT, 5L, false));
+
+        assertTrue(recorder.events.isEmpty());
+        dispatcher.flush();
+
+        // One event for each channel, connector and type, with the latest count
+        assertEquals(3, recorder.events.size());
+        assertEquals(1000L, getEvent(recorder, 1, MessageEventType.QUEUED).getCount().longValue());
+        assertEquals(2000L, getEvent(recorder, 2, MessageEventType.QUEUED).getCount().longValue());
+        assertEquals(5L, getEvent(recorder, 1, MessageEventType.SENT).getCount().longValue());
+
+        recorder.events.clear();
+        dispatcher.flush();
+        assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test
+    public void testLosslessEvents() {
+        RecordingEventDispatcher recorder = new RecordingEventDispatcher();
+        CoalescingEventDispatcher dispatcher = new CoalescingEventDispatcher(recorder, 1000, EnumSet.of(MessageEventType.QUEUED));
+
+        dispatcher.dispatchEvent(new ErrorEvent(CHANNEL_ID, 1, 1L, ErrorEventType.DESTINATION_CONNECTOR, "Destination 1", null, "error", null));
+        dispatcher.dispatchEvent(new ErrorEvent(CHANNEL_ID, 1, 2L, ErrorEventType.DESTINATION_CONNECTOR, "Destination 1", null, "error", null));
+        dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 1, MessageEventType.SENT, 1L, false));
+        dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 1, MessageEventType.SENT, 2L, false));
+
+        // Events of other types are dispatched immediately and never coalesced
+        assertEquals(4, recorder.events.size());
+    }
+
+    @Test
+    public void testStatUpdateKept() {
+        RecordingEventDispatcher recorder = new RecordingEventDispatcher();
+        CoalescingEventDispatcher dispatcher = new CoalescingEventDispatcher(recorder, 1000);
+
+        MessageEvent latestEvent = new MessageEvent(CHANNEL_ID, 1, MessageEventType.QUEUED, 11L, false);
+        dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 1, MessageEventType.QUEUED, 10L, true));
+        dispatcher.dispatchEvent(latestEvent);
+        dispatcher.flush();
+
+        MessageEvent event = getEvent(recorder, 1, MessageEventType.QUEUED);
+        assertEquals(11L, event.getCount().longValue());
+        assertTrue(event.isStatUpdate());
+
+        // The dispatched event is left as it was
+        assertFalse(latestEvent.isStatUpdate());
+
+        recorder.events.clear();
+        dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 1, MessageEventType.QUEUED, 12L, false));
+        dispatcher.flush();
+        assertFalse(getEvent(recorder, 1, MessageEventType.QUEUED).isStatUpdate());
+    }
+
+    @Test
+    public void testShutdownFlushes() throws Exception {
+        RecordingEventDispatcher recorder = new RecordingEventDispatcher();
+        CoalescingEventDispatcher dispatcher = new CoalescingEventDispatcher(recorder, 60000);
+        dispatcher.start();
+
+        dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, 1, MessageEventType.QUEUED, 3L, false));
+        dispatcher.shutdown();
+
+        assertFalse(dispatcher.isAlive());
+        assertEquals(3L, getEvent(recorder, 1, MessageEventType.QUEUED).getCount().longValue());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        RecordingEventDispatcher recorder = new RecordingEventDispatcher();
+        final CoalescingEventDispatcher dispatcher = new CoalescingEventDispatcher(recorder, 1);
+        final int events = 100000;
+        List<Thread> threads = new ArrayList<Thread>();
+        dispatcher.start();
+
+        for (int i = 1; i <= 4; i++) {
+            final int metaDataId = i;
+
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (long count = 1; count <= events; count++) {
+                        dispatcher.dispatchEvent(new MessageEvent(CHANNEL_ID, metaDataId, MessageEventType.QUEUED, count, false));
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        dispatcher.shutdown();
+
+        // Far fewer events reach the listeners, and the last one for each connector has the final count
+        assertTrue(recorder.events.size() < 4 * events);
+
+        for (int metaDataId = 1; metaDataId <= 4; metaDataId++) {
+            MessageEvent last = null;
+
+            for (Event event : recorder.events) {
+                if (((MessageEvent) event).getMetaDataId() == metaDataId) {
+                    last = (MessageEvent) event;
+                }
+            }
+
+            assertEquals((long) events, last.getCount().longValue());
+        }
+    }
+
+    private MessageEvent getEvent(RecordingEventDispatcher recorder, Integer metaDataId, MessageEventType type) {
+        for (Event event : recorder.events) {
+            MessageEvent messageEvent = (MessageEvent) event;
+
+            if (messageEvent.getMetaDataId().equals(metaDataId) && messageEvent.getType() == type) {
+                return messageEvent;
+            }
+        }
+
+        return null;
+    }
+
+    private class RecordingEventDispatcher implements EventDispatcher {
+        private List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+
+        @Override
+        public void dispatchEvent(Event event) {
+            events.add(event);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.server.queue;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.event.Event;
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.server.event.EventDispatcher;
+import com.mirth.connect.donkey.util.MessageMaps;
+
+/**
+ * Contention benchmark for the destination queue. Runs the same workload through the scanning
+ * buffer and the bucket buffer with 1 to 32 queue threads, each with its own thread assignment
+ * bucket, and prints the throughput of each run. The "database" is an in-memory map, so the numbers
+ * reflect only the cost of acquiring and releasing messages.
+ */
+public class DestinationQueueContentionTests {
+    private final static String CHANNEL_ID = "DestinationQueueContentionTests";
+    private final static String SERVER_ID = "server";
+    private final static String GROUP_BY = "groupKey";
+    private final static int TEST_SIZE = 20000;
+    private final static int BUFFER_CAPACITY = 1000;
+    private final static int GROUP_KEYS = 64;
+    private final static int[] THREAD_COUNTS = new int[] { 1, 2, 4, 8, 16, 32 };
+
+    @Test
+    public final void testBucketBufferedProcessesEachMessageOnce() throws Exception {
+        for (int threadCount : THREAD_COUNTS) {
+            assertEquals(TEST_SIZE, runQueue(threadCount, true).processed);
+        }
+    }
+
+    @Test
+    public final void testContention() throws Exception {
+        // Warm up both modes before measuring
+        runQueue(8, false);
+        runQueue(8, true);
+
+        System.out.println(String.format("%-8s %15s %15s", "threads", "scan msg/s", "bucket msg/s"));
+
+        for (int threadCount : THREAD_COUNTS) {
+            QueueResult scanResult = runQueue(threadCount, false);
+            QueueResult bucketResult = runQueue(threadCount, true);
+
+            assertEquals(TEST_SIZE, scanResult.processed);
+            assertEquals(TEST_SIZE, bucketResult.processed);
+
+            System.out.println(String.format("%-8d %15d %15d", threadCount, scanResult.getThroughput(), bucketResult.getThroughput()));
+        }
+    }
+
+    private QueueResult runQueue(final int threadCount, boolean bucketBuffered) throws Exception {
+        final InMemoryDataSource dataSource = new InMemoryDataSource();
+
+        for (long messageId = 1; messageId <= TEST_SIZE; messageId++) {
+            ConnectorMessage connectorMessage = new ConnectorMessage(CHANNEL_ID, CHANNEL_ID, messageId, 1, SERVER_ID, Calendar.getInstance(), Status.QUEUED);
+            Map<String, Object> channelMap = new HashMap<String, Object>();
+            channelMap.put(GROUP_BY, String.valueOf(messageId % GROUP_KEYS));
+            connectorMessage.setChannelMap(channelMap);
+            dataSource.messages.put(messageId, connectorMessage);
+        }
+
+        final DestinationQueue queue = new DestinationQueue(GROUP_BY, threadCount, true, null, new MessageMaps(), bucketBuffered);
+        queue.eventDispatcher = new EventDispatcher() {
+            @Override
+            public void dispatchEvent(Event event) {}
+        };
+        queue.setBufferCapacity(BUFFER_CAPACITY);
+        queue.setDataSource(dataSource);
+
+        final Set<Long> processedIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch registered = new CountDownLatch(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    queue.registerThreadId();
+                    registered.countDown();
+
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    while (!dataSource.messages.isEmpty()) {
+                        ConnectorMessage connectorMessage = queue.acquire();
+
+                        if (connectorMessage == null) {
+                            Thread.yield();
+                            continue;
+                        }
+
+                        // Commit the sent status, then release the message from the queue
+                        dataSource.messages.remove(connectorMessage.getMessageId());
+                        connectorMessage.setStatus(Status.SENT);
+
+                        if (!processedIds.add(connectorMessage.getMessageId())) {
+                            duplicates.incrementAndGet();
+                        }
+
+                        queue.release(connectorMessage, true);
+                    }
+                }
+            };
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        registered.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, duplicates.get());
+
+        return new QueueResult(processedIds.size(), System.nanoTime() - startTime);
+    }
+
+    private class QueueResult {
+        private int processed;
+        private long elapsedNanos;
+
+        public QueueResult(int processed, long elapsedNanos) {
+            this.processed = processed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getThroughput() {
+            return processed * 1000000000L / Math.max(elapsedNanos, 1);
+        }
+    }
+
+    private class InMemoryDataSource extends ConnectorMessageQueueDataSource {
+        private ConcurrentSkipListMap<Long, ConnectorMessage> messages = new ConcurrentSkipListMap<Long, ConnectorMessage>();
+
+        public InMemoryDataSource() {
+            super(CHANNEL_ID, SERVER_ID, 1, Status.QUEUED, false, null);
+        }
+
+        @Override
+        public int getSize() {
+            return messages.size();
+        }
+
+        @Override
+        public Map<Long, ConnectorMessage> getItems(int offset, int limit) {
+            Map<Long, ConnectorMessage> map = new LinkedHashMap<Long, ConnectorMessage>();
+
+            for (ConnectorMessage connectorMessage : messages.values()) {
+                if (map.size() >= limit) {
+                    break;
+                }
+
+                map.put(connectorMessage.getMessageId(), connectorMessage);
+            }
+
+            return map;
+        }
+    }
+}
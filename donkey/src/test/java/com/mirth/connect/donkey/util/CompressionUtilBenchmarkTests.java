@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compresses generated HL7 and XML messages of a few sizes and prints the compression ratio and
+ * the CPU time each message adds when it is stored and when it is read. The number of messages
+ * per size can be changed with -Dmessages=10000.
+ */
+public class CompressionUtilBenchmarkTests {
+    private static final String[] LAST_NAMES = new String[] { "SMITH", "JOHNSON", "WILLIAMS", "BROWN", "JONES", "GARCIA", "MILLER", "DAVIS", "RODRIGUEZ", "MARTINEZ" };
+    private static final String[] FIRST_NAMES = new String[] { "JAMES", "MARY", "ROBERT", "PATRICIA", "JOHN", "JENNIFER", "MICHAEL", "LINDA", "DAVID", "ELIZABETH" };
+    private static final int[] OBSERVATIONS = new int[] { 2, 20, 200 };
+
+    private ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void testCompression() throws Exception {
+        int messageCount = Integer.parseInt(System.getProperty("messages", "10000"));
+        System.out.println(String.format("%-6s %12s %12s %10s %15s %15s", "type", "avg bytes", "stored", "ratio", "compress us", "decompress us"));
+
+        for (int observations : OBSERVATIONS) {
+            run("HL7", messageCount, observations, false);
+            run("XML", messageCount, observations, true);
+        }
+    }
+
+    private void run(String type, int messageCount, int observations, boolean xml) {
+        Random random = new Random(0);
+        String[] messages = new String[messageCount];
+        String[] compressed = new String[messageCount];
+        long length = 0;
+        long compressedLength = 0;
+
+        for (int i = 0; i < messageCount; i++) {
+            messages[i] = createMessage(i, observations, random, xml);
+            length += messages[i].length();
+        }
+
+        // Warm up before measuring
+        for (int i = 0; i < Math.min(messageCount, 1000); i++) {
+            CompressionUtil.decompressContent(CompressionUtil.compressContent(messages[i]));
+        }
+
+        long startNanos = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < messageCount; i++) {
+            compressed[i] = CompressionUtil.compressContent(messages[i]);
+        }
+        long compressNanos = threadMXBean.getCurrentThreadCpuTime() - startNanos;
+
+        startNanos = threadMXBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < messageCount; i++) {
+            compressedLength += compressed[i].length();
+            assertEquals(messages[i].length(), CompressionUtil.decompressContent(compressed[i]).length());
+        }
+        long decompressNanos = threadMXBean.getCurrentThreadCpuTime() - startNanos;
+
+        System.out.println(String.format("%-6s %12d %12d %10.2f %15.1f %15.1f", type, length / messageCount, compressedLength / messageCount, (double) length / compressedLength, compressNanos / 1000d / messageCount, decompressNanos / 1000d / messageCount));
+    }
+
+    private String createMessage(long messageId, int observations, Random random, boolean xml) {
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        StringBuilder builder = new StringBuilder();
+
+        if (xml) {
+            builder.append("<HL7Message><MSH><MSH.1>|</MSH.1><MSH.2>^~\\&amp;</MSH.2><MSH.3><MSH.3.1>SENDING</MSH.3.1></MSH.3><MSH.10><MSH.10.1>MSG").append(messageId).append("</MSH.10.1></MSH.10></MSH>");
+            builder.append("<PID><PID.3><PID.3.1>PAT").append(random.nextInt(50000)).append("</PID.3.1></PID.3><PID.5><PID.5.1>").append(lastName).append("</PID.5.1><PID.5.2>").append(firstName).append("</PID.5.2></PID.5></PID>");
+            for (int i = 0; i < observations; i++) {
+                builder.append("<OBX><OBX.1><OBX.1.1>").append(i + 1).append("</OBX.1.1></OBX.1><OBX.3><OBX.3.1>8867-4</OBX.3.1><OBX.3.2>Heart rate</OBX.3.2></OBX.3><OBX.5><OBX.5.1>").append(50 + random.nextInt(100)).append("</OBX.5.1></OBX.5></OBX>");
+            }
+            builder.append("</HL7Message>");
+        } else {
+            builder.append("MSH|^~\\&|SENDING|FACILITY|RECEIVING|FACILITY|20170101120000||ORU^R01|MSG").append(messageId).append("|P|2.5\r");
+            builder.append("PID|1||PAT").append(random.nextInt(50000)).append("^^^MRN||").append(lastName).append('^').append(firstName).append("||19700101|M\r");
+            for (int i = 0; i < observations; i++) {
+                builder.append("OBX|").append(i + 1).append("|NM|8867-4^Heart rate||").append(50 + random.nextInt(100)).append("|/min|||||F\r");
+            }
+        }
+
+        return builder.toString();
+    }
+}
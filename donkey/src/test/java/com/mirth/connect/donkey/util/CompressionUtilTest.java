@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.donkey.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressionUtilTest {
+    private static final String SEGMENTS = "MSH|^~\\&|SENDING|FACILITY|RECEIVING|FACILITY|20170101120000||ADT^A01|MSG00001|P|2.5\rEVN|A01|20170101120000\rPID|1||PAT12345^^^MRN||DOE^JOHN^Q||19700101|M|||123 MAIN ST^^SPRINGFIELD^IL^62701||555-555-5555\rPV1|1|I|ICU^101^A|||||||MED\r";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            message.append(SEGMENTS).append("OBX|").append(i).append("|NM|8867-4^Heart rate||").append(60 + i).append("|/min\r");
+        }
+
+        String content = message.toString();
+        String compressed = CompressionUtil.compressContent(content);
+
+        assertTrue(CompressionUtil.isCompressed(compressed));
+        assertTrue(compressed.length() < content.length() / 4);
+        assertEquals(content, CompressionUtil.decompressContent(compressed));
+
+        // Multi-byte characters
+        content = "<name>José Müller 日本</name>" + content;
+        assertEquals(content, CompressionUtil.decompressContent(CompressionUtil.compressContent(content)));
+    }
+
+    @Test
+    public void testStoredAsIs() throws Exception {
+        assertNull(CompressionUtil.compressContent(null));
+        assertNull(CompressionUtil.decompressContent(null));
+        assertEquals("", CompressionUtil.compressContent(""));
+
+        // Too short to be worth compressing
+        assertEquals(SEGMENTS.substring(0, 100), CompressionUtil.compressContent(SEGMENTS.substring(0, 100)));
+
+        // Random data doesn't get any smaller
+        Random random = new Random(0);
+        StringBuilder noise = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            noise.append((char) ('!' + random.nextInt(90)));
+        }
+        assertEquals(noise.toString(), CompressionUtil.compressContent(noise.toString()));
+
+        // Content that isn't compressed is returned as is
+        assertEquals(SEGMENTS, CompressionUtil.decompressContent(SEGMENTS));
+    }
+
+    @Test
+    public void testPrefixedContent() throws Exception {
+        // Content that looks compressed is always compressed, so it reads back the same
+        String content = CompressionUtil.COMPRESSED_PREFIX + "abc";
+        String compressed = CompressionUtil.compressContent(content);
+        assertFalse(content.equals(compressed));
+        assertEquals(content, CompressionUtil.decompressContent(compressed));
+
+        // Content stored before compression that happens to start with the prefix
+        assertEquals(content, CompressionUtil.decompressContent(content));
+
+        String truncated = CompressionUtil.compressContent(SEGMENTS + SEGMENTS);
+        truncated = truncated.substring(0, truncated.length() / 2);
+        assertEquals(truncated, CompressionUtil.decompressContent(truncated));
+    }
+}
@@ -9,22 +9,44 @@
 
 package com.mirth.connect.connectors.file;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.Stack;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.collections.MapUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -41,6 +63,8 @@ import com.mirth.connect.donkey.model.message.BatchRawMessage;
 import com.mirth.connect.donkey.model.message.RawMessage;
 import com.mirth.connect.donkey.model.message.Response;
 import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.model.message.attachment.Attachment;
+import com.mirth.connect.donkey.server.Constants;
 import com.mirth.connect.donkey.server.ConnectorTaskException;
 import com.mirth.connect.donkey.server.channel.DispatchResult;
 import com.mirth.connect.donkey.server.channel.PollConnector;
@@ -50,10 +74,87 @@ import com.mirth.connect.donkey.server.message.batch.BatchMessageReader;
 import com.mirth.connect.server.controllers.ConfigurationController;
 import com.mirth.connect.server.controllers.ControllerFactory;
 import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.util.ServerUUIDGenerator;
 import com.mirth.connect.server.util.TemplateValueReplacer;
 import com.mirth.connect.util.CharsetUtils;
+import com.mirth.connect.util.PropertyLoader;
 
 public class FileReceiver extends PollConnector {
+    private static long largeFileThreshold = 0;
+    private static int largeFilePreviewSize = 65536;
+    private static boolean parallelMode = false;
+    private static Pattern orderKeyPattern = null;
+
+    static {
+        /*
+         * Checks mirth.properties for the file.receiver.largefilethreshold property. Files at least
+         * this many bytes long are not read into memory. Instead their content is streamed into
+         * an attachment, the message is the attachment token, and only the first
+         * file.receiver.largefilepreview characters are kept in the source map for filters.
+         * 
+         * This only bounds the memory used by the source. Destinations still replace the token
+         * with the whole attachment when they send, since every destination connector takes its
+         * content from the attachment handler as a String or byte array, so each destination
+         * holds one copy of the file while it sends.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            largeFileThreshold = NumberUtils.toLong(properties.getProperty("file.receiver.largefilethreshold"), largeFileThreshold);
+            largeFilePreviewSize = NumberUtils.toInt(properties.getProperty("file.receiver.largefilepreview"), largeFilePreviewSize);
+        }
+
+        /*
+         * Checks mirth.properties for the file.receiver.parallel property. When enabled, the files
+         * from each listing are processed by as many worker threads as the channel has processing
+         * threads, while the poll thread goes on listing directories. If file.receiver.orderkey is
+         * set to a regular expression, files whose names give the same key (the first group of the
+         * match, or the whole match if there are no groups) are still processed one at a time in
+         * sorted order.
+         */
+        if (MapUtils.isNotEmpty(properties)) {
+            parallelMode = BooleanUtils.toBoolean(properties.getProperty("file.receiver.parallel"));
+
+            try {
+                setOrderKey(properties.getProperty("file.receiver.orderkey"));
+            } catch (PatternSyntaxException e) {
+                LogFactory.getLog(FileReceiver.class).error("Invalid file.receiver.orderkey, files will be processed in any order.", e);
+            }
+        }
+    }
+
+    /**
+     * Sets the size in bytes from which files are read in large-file mode, or 0 to disable it.
+     * This is read from file.receiver.largefilethreshold at startup.
+     */
+    public static void setLargeFileThreshold(long largeFileThreshold) {
+        FileReceiver.largeFileThreshold = largeFileThreshold;
+    }
+
+    /**
+     * Sets the number of characters of a large file kept in the source map. This is read from
+     * file.receiver.largefilepreview at startup.
+     */
+    public static void setLargeFilePreviewSize(int largeFilePreviewSize) {
+        FileReceiver.largeFilePreviewSize = largeFilePreviewSize;
+    }
+
+    /**
+     * Enables or disables processing the files from a listing on worker threads. This is read
+     * from file.receiver.parallel at startup.
+     */
+    public static void setParallelMode(boolean parallelMode) {
+        FileReceiver.parallelMode = parallelMode;
+    }
+
+    /**
+     * Sets the regular expression that gives the ordering key of a file name in parallel mode, or
+     * blank to process files in any order. This is read from file.receiver.orderkey at startup.
+     */
+    public static void setOrderKey(String orderKey) {
+        FileReceiver.orderKeyPattern = StringUtils.isNotBlank(orderKey) ? Pattern.compile(orderKey) : null;
+    }
+
     protected transient Log logger = LogFactory.getLog(getClass());
 
     private String moveToDirectory = null;
@@ -69,7 +170,11 @@ public class FileReceiver extends PollConnector {
     private FileConfiguration configuration = null;
     private FileConnector fileConnector = null;
 
-    private String originalFilename = null;
+    private volatile ExecutorService[] workers = null;
+    private Pattern workerOrderKeyPattern = null;
+    private AtomicInteger nextWorker = new AtomicInteger();
+    private Semaphore pendingFiles = null;
+    private int maxPendingFiles;
 
     private FileReceiverProperties connectorProperties;
     private String charsetEncoding;
@@ -145,10 +250,53 @@ public class FileReceiver extends PollConnector {
         } catch (Exception e) {
             throw new ConnectorTaskException(e.getMessage(), e);
         }
+
+        if (parallelMode) {
+            startWorkers();
+        }
+    }
+
+    /*
+     * Without an ordering key the workers share one pool. With one, each worker has its own queue
+     * and all files with the same key go to the same worker, so they're processed in the order
+     * they were submitted.
+     */
+    private void startWorkers() {
+        int threads = Math.max(getChannel().getProcessingThreads(), 1);
+        workerOrderKeyPattern = orderKeyPattern;
+
+        if (workerOrderKeyPattern != null) {
+            workers = new ExecutorService[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = Executors.newSingleThreadExecutor();
+            }
+        } else {
+            workers = new ExecutorService[] { Executors.newFixedThreadPool(threads) };
+        }
+
+        // Limits how far listing can run ahead of processing
+        maxPendingFiles = threads * 2;
+        pendingFiles = new Semaphore(maxPendingFiles);
+    }
+
+    private void stopWorkers(boolean interrupt) {
+        if (workers != null) {
+            for (ExecutorService worker : workers) {
+                if (interrupt) {
+                    worker.shutdownNow();
+                } else {
+                    worker.shutdown();
+                }
+            }
+
+            workers = null;
+        }
     }
 
     @Override
     public void onStop() throws ConnectorTaskException {
+        stopWorkers(false);
+
         try {
             fileConnector.doStop();
         } catch (FileConnectorException e) {
@@ -160,13 +308,15 @@ public class FileReceiver extends PollConnector {
 
     @Override
     public void onHalt() throws ConnectorTaskException {
+        stopWorkers(true);
         fileConnector.disconnect();
         onStop();
     }
 
     @Override
-    protected void poll() {
+    protected void poll() throws InterruptedException {
         eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.POLLING));
+        boolean interrupted = false;
         try {
             String channelId = getChannelId();
             String channelName = getChannel().getName();
@@ -202,11 +352,21 @@ public class FileReceiver extends PollConnector {
             } else {
                 processFiles(listFiles(readDir));
             }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            throw e;
         } catch (Throwable t) {
             eventController.dispatchEvent(new ErrorEvent(getChannelId(), getMetaDataId(), null, ErrorEventType.SOURCE_CONNECTOR, getSourceName(), connectorProperties.getName(), null, t));
             logger.error("Error polling in channel: " + getChannelId(), t);
         } finally {
-            eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
+            try {
+                // Files already handed to the workers are still waited for if the poll failed
+                if (!interrupted) {
+                    awaitPendingFiles();
+                }
+            } finally {
+                eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
+            }
         }
     }
 
@@ -233,9 +393,10 @@ public class FileReceiver extends PollConnector {
         return null;
     }
 
-    private void processFiles(FileInfo[] files) {
+    private void processFiles(FileInfo[] files) throws InterruptedException {
         // sort files by specified attribute before processing
         sortFiles(files);
+        ExecutorService[] workers = this.workers;
 
         for (int i = 0; i < files.length; i++) {
             if (isTerminated()) {
@@ -243,13 +404,80 @@ public class FileReceiver extends PollConnector {
             }
 
             if (!files[i].isDirectory()) {
-                eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.READING));
-                processFile(files[i]);
-                eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
+                if (workers != null) {
+                    submitFile(workers, files[i]);
+                } else {
+                    readFile(files[i]);
+                }
+            }
+        }
+    }
+
+    private void readFile(FileInfo file) {
+        eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.READING));
+        processFile(file);
+        eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
+    }
+
+    /*
+     * Hands the file to a worker, waiting while too many files are already pending. The file is
+     * skipped if the connector is stopped before a worker gets to it.
+     */
+    private void submitFile(ExecutorService[] workers, final FileInfo file) throws InterruptedException {
+        pendingFiles.acquire();
+
+        try {
+            getWorker(workers, file).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!isTerminated()) {
+                            readFile(file);
+                        }
+                    } catch (Throwable t) {
+                        logger.error("Error processing file in channel: " + getChannelId(), t);
+                    } finally {
+                        pendingFiles.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingFiles.release();
+
+            // The workers were shut down because the connector was halted
+            if (!isTerminated()) {
+                throw e;
             }
         }
     }
 
+    private ExecutorService getWorker(ExecutorService[] workers, FileInfo file) {
+        if (workers.length == 1) {
+            return workers[0];
+        }
+
+        String orderKey = null;
+        Matcher matcher = workerOrderKeyPattern.matcher(file.getName());
+        if (matcher.find()) {
+            orderKey = matcher.groupCount() > 0 ? matcher.group(1) : matcher.group();
+        }
+
+        // Files without a key aren't ordered with any other file
+        int index = orderKey != null ? orderKey.hashCode() : nextWorker.getAndIncrement();
+        return workers[(index & Integer.MAX_VALUE) % workers.length];
+    }
+
+    /*
+     * Waits until the workers have processed every file submitted by this poll, so the next poll
+     * doesn't list them again.
+     */
+    private void awaitPendingFiles() throws InterruptedException {
+        if (pendingFiles != null) {
+            pendingFiles.acquire(maxPendingFiles);
+            pendingFiles.release(maxPendingFiles);
+        }
+    }
+
     public void sortFiles(FileInfo[] files) {
         String sortAttribute = connectorProperties.getSortBy();
 
@@ -274,7 +502,11 @@ public class FileReceiver extends PollConnector {
         }
     }
 
-    public synchronized void processFile(FileInfo file) {
+    /**
+     * Reads the file, dispatches it to the channel and then moves or deletes it according to the
+     * file actions. In parallel mode this is called by several worker threads at once.
+     */
+    public void processFile(FileInfo file) {
         try {
             boolean checkFileAge = connectorProperties.isCheckFileAge();
             if (checkFileAge) {
@@ -295,7 +527,7 @@ public class FileReceiver extends PollConnector {
             }
 
             // Add the original filename to the channel map
-            originalFilename = file.getName();
+            String originalFilename = file.getName();
             Map<String, Object> sourceMap = new HashMap<String, Object>();
             sourceMap.put("originalFilename", originalFilename);
             sourceMap.put("fileDirectory", file.getParent());
@@ -341,7 +573,11 @@ public class FileReceiver extends PollConnector {
                         }
                     } else {
                         RawMessage rawMessage;
-                        if (connectorProperties.isBinary()) {
+                        List<File> tempFiles = new ArrayList<File>();
+
+                        if (isLargeFile(fileSize)) {
+                            rawMessage = getLargeFileMessage(file, sourceMap, tempFiles);
+                        } else if (connectorProperties.isBinary()) {
                             rawMessage = new RawMessage(getBytesFromFile(file));
                         } else {
                             rawMessage = new RawMessage(new String(getBytesFromFile(file), charsetEncoding));
@@ -354,6 +590,10 @@ public class FileReceiver extends PollConnector {
                             dispatchResult = dispatchRawMessage(rawMessage);
                         } finally {
                             finishDispatch(dispatchResult);
+
+                            for (File tempFile : tempFiles) {
+                                tempFile.delete();
+                            }
                         }
 
                         response = dispatchResult.getSelectedResponse();
@@ -492,6 +732,116 @@ public class FileReceiver extends PollConnector {
         }
     }
 
+    /*
+     * Large files are only read as attachments if the channel stores them, since otherwise
+     * destinations would have nothing to replace the attachment token with.
+     */
+    private boolean isLargeFile(long fileSize) {
+        return largeFileThreshold > 0 && fileSize >= largeFileThreshold && getChannel().getStorageSettings().isStoreAttachments();
+    }
+
+    /**
+     * Returns a message for a large file without reading the file into memory. The file content is
+     * stored as an attachment, the same as the Entire Message attachment handler would store it,
+     * and the message is the attachment token, so destinations reattach the full content when
+     * they send. That content is read into memory for the send, so it's the source, its raw,
+     * transformed and encoded content, and the stored message that stay small. Text files are
+     * converted to the attachment charset and binary files are Base64 encoded while they're copied
+     * to a temp file, which is added to tempFiles. A local text file that is already in the
+     * attachment charset is attached without being copied.
+     * 
+     * The first characters of a text file are put in the source map as filePreview, so filters can
+     * still check the content, and largeFile is set to true.
+     */
+    private RawMessage getLargeFileMessage(FileInfo file, Map<String, Object> sourceMap, List<File> tempFiles) throws Exception {
+        boolean binary = connectorProperties.isBinary();
+        File contentFile = null;
+        String preview = null;
+
+        if (!binary && fileConnector.getScheme() == FileScheme.FILE && Charset.forName(charsetEncoding).name().equals(Constants.ATTACHMENT_CHARSET)) {
+            contentFile = new File(file.getAbsolutePath());
+            Reader reader = new InputStreamReader(new FileInputStream(contentFile), charsetEncoding);
+
+            try {
+                preview = readPreview(reader, null);
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        } else {
+            contentFile = File.createTempFile("FileReceiver", ".tmp");
+            tempFiles.add(contentFile);
+
+            FileSystemConnection con = fileConnector.getConnection(fileSystemOptions);
+
+            try {
+                InputStream is = null;
+                OutputStream os = null;
+                Writer writer = null;
+
+                try {
+                    is = con.readFile(file.getName(), file.getParent());
+                    os = new BufferedOutputStream(new FileOutputStream(contentFile));
+
+                    if (binary) {
+                        // Chunked the same as Base64Util.encodeBase64, which the channel uses for binary messages
+                        os = new Base64OutputStream(os);
+                        IOUtils.copyLarge(is, os);
+                        os.close();
+                    } else {
+                        writer = new OutputStreamWriter(os, Constants.ATTACHMENT_CHARSET);
+                        preview = readPreview(new InputStreamReader(is, charsetEncoding), writer);
+                        writer.close();
+                    }
+                } finally {
+                    IOUtils.closeQuietly(writer);
+                    IOUtils.closeQuietly(os);
+                    IOUtils.closeQuietly(is);
+                }
+
+                // Verify the download was complete
+                con.closeReadFile();
+            } finally {
+                fileConnector.releaseConnection(con, fileSystemOptions);
+            }
+        }
+
+        Attachment attachment = new Attachment(ServerUUIDGenerator.getUUID(), contentFile, binary ? "application/octet-stream" : "text/plain");
+
+        RawMessage rawMessage = new RawMessage(attachment.getAttachmentId());
+        rawMessage.setAttachments(Collections.singletonList(attachment));
+
+        sourceMap.put("largeFile", true);
+        if (preview != null) {
+            sourceMap.put("filePreview", preview);
+        }
+
+        return rawMessage;
+    }
+
+    /*
+     * Reads the first characters of the reader into the preview. If a writer is given, the rest of
+     * the reader is copied to it as well.
+     */
+    private String readPreview(Reader reader, Writer writer) throws IOException {
+        StringBuilder preview = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+
+        while ((read = reader.read(buffer)) >= 0) {
+            if (preview.length() < largeFilePreviewSize) {
+                preview.append(buffer, 0, Math.min(read, largeFilePreviewSize - preview.length()));
+            }
+
+            if (writer != null) {
+                writer.write(buffer, 0, read);
+            } else if (preview.length() >= largeFilePreviewSize) {
+                break;
+            }
+        }
+
+        return preview.toString();
+    }
+
     // Returns the contents of the file in a byte array.
     private byte[] getBytesFromFile(FileInfo file) throws Exception {
         FileSystemConnection con = fileConnector.getConnection(fileSystemOptions);
@@ -17,8 +17,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -27,11 +29,13 @@ import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.collections.MapUtils;
 import org.apache.commons.collections.map.CaseInsensitiveMap;
 import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -62,6 +66,7 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.routing.HttpRoute;
@@ -83,7 +88,9 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.log4j.Logger;
@@ -107,6 +114,7 @@ import com.mirth.connect.userutil.MessageHeaders;
 import com.mirth.connect.util.CharsetUtils;
 import com.mirth.connect.util.ErrorMessageBuilder;
 import com.mirth.connect.util.HttpUtil;
+import com.mirth.connect.util.PropertyLoader;
 
 public class HttpDispatcher extends DestinationConnector {
 
@@ -114,6 +122,54 @@ public class HttpDispatcher extends DestinationConnector {
     private static final Pattern AUTH_HEADER_PATTERN = Pattern.compile("([^\\s=,]+)\\s*=\\s*([^=,;\"\\s]+|\"([^\"]|\\\\[\\s\\S])*(?<!\\\\)\")");
     private static final int MAX_MAP_SIZE = 100;
 
+    private static boolean pooledMode = false;
+    private static int poolMaxTotal = 200;
+    private static int poolMaxPerRoute = 0;
+    private static int poolIdleTimeout = 60000;
+    private static int poolValidateAfterInactivity = 2000;
+
+    static {
+        /*
+         * Checks mirth.properties for the http.dispatcher.pooled property. When enabled, all queue
+         * threads of an HTTP Sender share one pool of keep-alive connections instead of each
+         * thread holding its own connection. The pool is limited to http.dispatcher.pool.maxtotal
+         * connections, and http.dispatcher.pool.maxperroute connections per host, which defaults
+         * to the connector's thread count. Connections idle for http.dispatcher.pool.idletimeout
+         * milliseconds are closed, and connections idle for more than
+         * http.dispatcher.pool.validateafterinactivity milliseconds are checked before reuse.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            pooledMode = BooleanUtils.toBoolean(properties.getProperty("http.dispatcher.pooled"));
+            poolMaxTotal = NumberUtils.toInt(properties.getProperty("http.dispatcher.pool.maxtotal"), poolMaxTotal);
+            poolMaxPerRoute = NumberUtils.toInt(properties.getProperty("http.dispatcher.pool.maxperroute"), poolMaxPerRoute);
+            poolIdleTimeout = NumberUtils.toInt(properties.getProperty("http.dispatcher.pool.idletimeout"), poolIdleTimeout);
+            poolValidateAfterInactivity = NumberUtils.toInt(properties.getProperty("http.dispatcher.pool.validateafterinactivity"), poolValidateAfterInactivity);
+        }
+    }
+
+    /**
+     * Enables or disables pooled mode for HTTP Senders deployed after this is called. This is read
+     * from http.dispatcher.pooled at startup.
+     */
+    public static void setPooledMode(boolean pooledMode) {
+        HttpDispatcher.pooledMode = pooledMode;
+    }
+
+    public static boolean isPooledMode() {
+        return pooledMode;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections to each host for HTTP Senders deployed after
+     * this is called, or 0 to use the connector's thread count. This is read from
+     * http.dispatcher.pool.maxperroute at startup.
+     */
+    public static void setPoolMaxPerRoute(int poolMaxPerRoute) {
+        HttpDispatcher.poolMaxPerRoute = poolMaxPerRoute;
+    }
+
     private Logger logger = Logger.getLogger(this.getClass());
     private HttpDispatcherProperties connectorProperties;
 
@@ -122,6 +178,9 @@ public class HttpDispatcher extends DestinationConnector {
     private TemplateValueReplacer replacer = new TemplateValueReplacer();
 
     private Map<Long, CloseableHttpClient> clients = new ConcurrentHashMap<Long, CloseableHttpClient>();
+    private boolean pooled;
+    private volatile CloseableHttpClient pooledClient;
+    private volatile PooledConnectionManager pooledConnectionManager;
     private HttpConfiguration configuration;
     private RegistryBuilder<ConnectionSocketFactory> socketFactoryRegistry;
     private Map<String, String[]> binaryMimeTypesArrayMap;
@@ -153,6 +212,8 @@ public class HttpDispatcher extends DestinationConnector {
         } else {
             binaryMimeTypesArrayMap = new ConcurrentHashMap<String, String[]>();
         }
+
+        pooled = pooledMode;
     }
 
     @Override
@@ -165,20 +226,26 @@ public class HttpDispatcher extends DestinationConnector {
 
     @Override
     public void onStop() throws ConnectorTaskException {
-        for (CloseableHttpClient client : clients.values().toArray(new CloseableHttpClient[clients.size()])) {
-            HttpClientUtils.closeQuietly(client);
-        }
-
-        clients.clear();
+        closeClients();
     }
 
     @Override
     public void onHalt() throws ConnectorTaskException {
+        closeClients();
+    }
+
+    private void closeClients() {
         for (CloseableHttpClient client : clients.values().toArray(new CloseableHttpClient[clients.size()])) {
             HttpClientUtils.closeQuietly(client);
         }
 
         clients.clear();
+
+        synchronized (this) {
+            HttpClientUtils.closeQuietly(pooledClient);
+            pooledClient = null;
+            pooledConnectionManager = null;
+        }
     }
 
     @Override
@@ -228,19 +295,23 @@ public class HttpDispatcher extends DestinationConnector {
         try {
             configuration.configureDispatcher(this, httpDispatcherProperties);
 
-            client = clients.get(dispatcherId);
-            if (client == null) {
-                BasicHttpClientConnectionManager httpClientConnectionManager = new BasicHttpClientConnectionManager(socketFactoryRegistry.build());
-                httpClientConnectionManager.setSocketConfig(SocketConfig.custom().setSoTimeout(socketTimeout).build());
-                HttpClientBuilder clientBuilder = HttpClients.custom().setConnectionManager(httpClientConnectionManager);
-                HttpUtil.configureClientBuilder(clientBuilder);
+            if (pooled) {
+                client = getPooledClient(httpDispatcherProperties, socketTimeout);
+            } else {
+                client = clients.get(dispatcherId);
+                if (client == null) {
+                    BasicHttpClientConnectionManager httpClientConnectionManager = new BasicHttpClientConnectionManager(socketFactoryRegistry.build());
+                    httpClientConnectionManager.setSocketConfig(SocketConfig.custom().setSoTimeout(socketTimeout).build());
+                    HttpClientBuilder clientBuilder = HttpClients.custom().setConnectionManager(httpClientConnectionManager);
+                    HttpUtil.configureClientBuilder(clientBuilder);
+
+                    if (httpDispatcherProperties.isUseProxyServer()) {
+                        clientBuilder.setRoutePlanner(new DynamicProxyRoutePlanner());
+                    }
 
-                if (httpDispatcherProperties.isUseProxyServer()) {
-                    clientBuilder.setRoutePlanner(new DynamicProxyRoutePlanner());
+                    client = clientBuilder.build();
+                    clients.put(dispatcherId, client);
                 }
-
-                client = clientBuilder.build();
-                clients.put(dispatcherId, client);
             }
 
             URI hostURI = new URI(httpDispatcherProperties.getHost());
@@ -306,7 +377,11 @@ public class HttpDispatcher extends DestinationConnector {
                 logger.debug("using authentication with credentials: " + credentials);
             }
 
-            RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(socketTimeout).setSocketTimeout(socketTimeout).setStaleConnectionCheckEnabled(true).build();
+            /*
+             * Pooled connections are validated by the pool after being idle, so they don't need
+             * the stale check, which blocks on a read before every request.
+             */
+            RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(socketTimeout).setSocketTimeout(socketTimeout).setConnectionRequestTimeout(socketTimeout).setStaleConnectionCheckEnabled(!pooled).build();
             context.setRequestConfig(requestConfig);
 
             // Set proxy information
@@ -404,13 +479,24 @@ public class HttpDispatcher extends DestinationConnector {
             if (t instanceof Error || t instanceof IllegalStateException) {
                 // If an error occurred we can't guarantee the state of the client, so close it
                 HttpUtil.closeVeryQuietly(httpResponse);
-                HttpClientUtils.closeQuietly(client);
-                clients.remove(dispatcherId);
+
+                /*
+                 * The pooled client is shared with the other queue threads, so only the failed
+                 * connection is closed. If the pool was shut down, it's replaced on the next send.
+                 */
+                if (!pooled) {
+                    HttpClientUtils.closeQuietly(client);
+                    clients.remove(dispatcherId);
+                }
             }
         } finally {
             try {
                 HttpUtil.closeVeryQuietly(httpResponse);
 
+                if (pooled && logger.isDebugEnabled()) {
+                    logger.debug("connection pool: " + getConnectionPoolStats());
+                }
+
                 // Delete temp files if we created them
                 if (tempFile != null) {
                     tempFile.delete();
@@ -428,6 +514,59 @@ public class HttpDispatcher extends DestinationConnector {
         return socketFactoryRegistry;
     }
 
+    /**
+     * Returns the number of leased, pending and available connections in the connector's pool, or
+     * null if pooled mode isn't enabled or no request has been sent yet.
+     */
+    public PoolStats getConnectionPoolStats() {
+        PoolingHttpClientConnectionManager connectionManager = pooledConnectionManager;
+        return connectionManager != null ? connectionManager.getTotalStats() : null;
+    }
+
+    /**
+     * Returns the client shared by all queue threads in pooled mode, creating it and its
+     * connection pool the first time it's used, or after the pool was shut down.
+     */
+    private CloseableHttpClient getPooledClient(HttpDispatcherProperties httpDispatcherProperties, int socketTimeout) {
+        CloseableHttpClient client = pooledClient;
+
+        if (client == null || isPoolShutdown()) {
+            synchronized (this) {
+                client = pooledClient;
+
+                if (client == null || isPoolShutdown()) {
+                    HttpClientUtils.closeQuietly(client);
+                    int maxPerRoute = poolMaxPerRoute > 0 ? poolMaxPerRoute : Math.max(httpDispatcherProperties.getDestinationConnectorProperties().getThreadCount(), 1);
+
+                    PooledConnectionManager connectionManager = new PooledConnectionManager(socketFactoryRegistry.build());
+                    connectionManager.setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(socketTimeout).build());
+                    connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+                    connectionManager.setMaxTotal(Math.max(poolMaxTotal, maxPerRoute));
+                    connectionManager.setValidateAfterInactivity(poolValidateAfterInactivity);
+
+                    HttpClientBuilder clientBuilder = HttpClients.custom().setConnectionManager(connectionManager);
+                    HttpUtil.configureClientBuilder(clientBuilder);
+                    clientBuilder.evictExpiredConnections().evictIdleConnections((long) poolIdleTimeout, TimeUnit.MILLISECONDS);
+
+                    if (httpDispatcherProperties.isUseProxyServer()) {
+                        clientBuilder.setRoutePlanner(new DynamicProxyRoutePlanner());
+                    }
+
+                    client = clientBuilder.build();
+                    pooledConnectionManager = connectionManager;
+                    pooledClient = client;
+                }
+            }
+        }
+
+        return client;
+    }
+
+    private boolean isPoolShutdown() {
+        PooledConnectionManager connectionManager = pooledConnectionManager;
+        return connectionManager == null || connectionManager.isShutdown();
+    }
+
     private HttpRequestBase buildHttpRequest(URI hostURI, HttpDispatcherProperties httpDispatcherProperties, ConnectorMessage connectorMessage, File tempFile, ContentType contentType, Charset charset) throws Exception {
         String method = httpDispatcherProperties.getMethod();
         boolean isMultipart = httpDispatcherProperties.isMultipart();
@@ -647,4 +786,26 @@ public class HttpDispatcher extends DestinationConnector {
             return StringUtils.startsWithAny(mimeType, binaryMimeTypesArray);
         }
     }
+
+    /**
+     * The client shuts the connection manager down if an Error is thrown while a request is being
+     * executed, after which every request fails. This lets the dispatcher notice and replace it.
+     */
+    private static class PooledConnectionManager extends PoolingHttpClientConnectionManager {
+        private volatile boolean shutdown;
+
+        public PooledConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry) {
+            super(socketFactoryRegistry);
+        }
+
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            super.shutdown();
+        }
+    }
 }
\ No newline at end of file
@@ -10,6 +10,7 @@
 package com.mirth.connect.connectors.http;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -29,7 +30,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.zip.GZIPInputStream;
@@ -39,7 +48,10 @@ import javax.mail.MessagingException;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 import javax.security.auth.Subject;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
@@ -48,10 +60,12 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.ListUtils;
+import org.apache.commons.collections.MapUtils;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.http.NameValuePair;
@@ -111,12 +125,60 @@ import com.mirth.connect.server.controllers.ChannelController;
 import com.mirth.connect.server.controllers.ConfigurationController;
 import com.mirth.connect.server.controllers.ControllerFactory;
 import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.util.RequestTracker;
 import com.mirth.connect.server.util.TemplateValueReplacer;
 import com.mirth.connect.userutil.MessageHeaders;
 import com.mirth.connect.userutil.MessageParameters;
 import com.mirth.connect.util.CharsetUtils;
+import com.mirth.connect.util.PropertyLoader;
 
 public class HttpReceiver extends SourceConnector implements BinaryContentTypeResolver {
+
+    private static boolean asyncMode = false;
+    private static int maxInFlight = 200;
+    private static int busyStatusCode = HttpStatus.SC_SERVICE_UNAVAILABLE;
+    private static int busyRetryAfter = 0;
+
+    static {
+        /*
+         * Checks mirth.properties for the http.receiver.async property. When enabled, HTTP
+         * Listeners suspend each request with an AsyncContext and read the body as it arrives, then
+         * dispatch the message and write the response on a separate pool of threads, so the
+         * server's own threads aren't held while channels process messages. At most
+         * http.receiver.maxinflight requests (0 for no limit) are worked on at once. Requests over
+         * the limit get the http.receiver.busystatus status code right away, with a Retry-After
+         * header if http.receiver.retryafter is set to a number of seconds.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            asyncMode = BooleanUtils.toBoolean(properties.getProperty("http.receiver.async"));
+            maxInFlight = NumberUtils.toInt(properties.getProperty("http.receiver.maxinflight"), maxInFlight);
+            busyStatusCode = NumberUtils.toInt(properties.getProperty("http.receiver.busystatus"), busyStatusCode);
+            busyRetryAfter = NumberUtils.toInt(properties.getProperty("http.receiver.retryafter"), busyRetryAfter);
+        }
+    }
+
+    /**
+     * Enables or disables async mode for HTTP Listeners deployed after this is called. This is
+     * read from http.receiver.async at startup.
+     */
+    public static void setAsyncMode(boolean asyncMode) {
+        HttpReceiver.asyncMode = asyncMode;
+    }
+
+    public static boolean isAsyncMode() {
+        return asyncMode;
+    }
+
+    /**
+     * Sets how many requests HTTP Listeners deployed after this is called work on at once in async
+     * mode, or 0 for no limit. This is read from http.receiver.maxinflight at startup.
+     */
+    public static void setMaxInFlight(int maxInFlight) {
+        HttpReceiver.maxInFlight = maxInFlight;
+    }
+
     private Logger logger = Logger.getLogger(this.getClass());
     private HttpReceiverProperties connectorProperties;
     private ConfigurationController configurationController = ControllerFactory.getFactory().createConfigurationController();
@@ -131,10 +193,15 @@ public class HttpReceiver extends SourceConnector implements BinaryContentTypeRe
     private Pattern binaryMimeTypesRegex;
     private HttpAuthConnectorPluginProperties authProps;
     private AuthenticatorProvider authenticatorProvider;
+    private boolean async;
+    private RequestTracker requestTracker = new RequestTracker(0);
+    private ExecutorService dispatchExecutor;
 
     @Override
     public void onDeploy() throws ConnectorTaskException {
         this.connectorProperties = (HttpReceiverProperties) getConnectorProperties();
+        async = asyncMode;
+        requestTracker = new RequestTracker(async ? maxInFlight : 0);
 
         if (connectorProperties.isXmlBody() && isProcessBatch()) {
             throw new ConnectorTaskException("Batch processing is not supported for Xml Body.");
@@ -293,6 +360,18 @@ public class HttpReceiver extends SourceConnector implements BinaryContentTypeRe
             }
             server.setHandler(serverHandler);
 
+            if (async) {
+                int maxThreads = requestTracker.getMaxInFlight();
+
+                if (maxThreads > 0) {
+                    ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+                    threadPoolExecutor.allowCoreThreadTimeOut(true);
+                    dispatchExecutor = threadPoolExecutor;
+                } else {
+                    dispatchExecutor = Executors.newCachedThreadPool();
+                }
+            }
+
             logger.debug("starting HTTP server with address: " + host + ":" + port);
             server.start();
             eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
@@ -315,6 +394,11 @@ public class HttpReceiver extends SourceConnector implements BinaryContentTypeRe
             }
         }
 
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdown();
+            dispatchExecutor = null;
+        }
+
         if (firstCause != null) {
             throw firstCause;
         }
@@ -325,13 +409,30 @@ public class HttpReceiver extends SourceConnector implements BinaryContentTypeRe
         onStop();
     }
 
+    /**
+     * Returns the in-flight limit and the time spent in each stage by requests to this listener.
+     */
+    public RequestTracker getRequestTracker() {
+        return requestTracker;
+    }
+
     private class RequestHandler extends AbstractHandler {
         @Override
         public void handle(String target, Request baseRequest, HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException, ServletException {
+            if (async) {
+                handleAsync(baseRequest, servletResponse);
+            } else {
+                processRequest(baseRequest, servletResponse);
+            }
+            baseRequest.setHandled(true);
+        }
+
+        private void processRequest(Request baseRequest, HttpServletResponse servletResponse) throws IOException, ServletException {
             logger.debug("received HTTP request");
             eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.CONNECTED));
             DispatchResult dispatchResult = null;
             String originalThreadName = Thread.currentThread().getName();
+            long startTime = System.nanoTime();
 
             try {
                 Thread.currentThread().setName("HTTP Receiver Thread on " + getChannel().getName() + " (" + getChannelId() + ") < " + originalThreadName);
@@ -358,7 +459,11 @@ public class HttpReceiver extends SourceConnector implements BinaryContentTypeRe
                                 dispatchBatchMessage(batchRawMessage, responseHandler);
 
                                 dispatchResult = responseHandler.getResultForResponse();
+
+                                long responseTime = System.nanoTime();
+                                requestTracker.record(RequestTracker.DISPATCH, responseTime - startTime);
                                 sendResponse(baseRequest, servletResponse, dispatchResult);
+                                requestTracker.record(RequestTracker.RESPONSE, System.nanoTime() - responseTime);
                             } catch (Throwable t) {
                                 sendErrorResponse(servletResponse, dispatchResult, t);
                             }
@@ -374,7 +479,10 @@ public class HttpReceiver extends SourceConnector implements BinaryContentTypeRe
 
                             dispatchResult = dispatchRawMessage(rawMessage);
 
+                            long responseTime = System.nanoTime();
+                            requestTracker.record(RequestTracker.DISPATCH, responseTime - startTime);
                             sendResponse(baseRequest, servletResponse, dispatchResult);
+                            requestTracker.record(RequestTracker.RESPONSE, System.nanoTime() - responseTime);
                         } catch (Throwable t) {
                             sendErrorResponse(servletResponse, dispatchResult, t);
                         } finally {
@@ -386,8 +494,145 @@ public class HttpReceiver extends SourceConnector implements BinaryContentTypeRe
                 eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
                 Thread.currentThread().setName(originalThreadName);
             }
-            baseRequest.setHandled(true);
         }
+
+        /*
+         * Suspends the request and reads its body as it arrives, without holding one of the
+         * server's threads. Once the whole body has been read, the message is dispatched and the
+         * response is written on the dispatch executor, which then completes the request.
+         */
+        private void handleAsync(final Request baseRequest, final HttpServletResponse servletResponse) throws IOException {
+            if (!requestTracker.tryStart()) {
+                sendBusyResponse(servletResponse);
+                return;
+            }
+
+            final long acceptTime = System.nanoTime();
+            final AsyncContext asyncContext = baseRequest.startAsync();
+            final AtomicBoolean completed = new AtomicBoolean();
+            // Channels can take as long as they need, the same as when requests aren't suspended
+            asyncContext.setTimeout(0);
+
+            try {
+                /*
+                 * The body was already read if a security handler needed it. Form parameters are
+                 * read from the body by the request itself, so those requests are dispatched
+                 * before the body is read, which is the same as when requests aren't suspended.
+                 */
+                if (baseRequest.getAttribute(EntityProvider.ATTRIBUTE_NAME) != null || StringUtils.startsWithIgnoreCase(baseRequest.getContentType(), "application/x-www-form-urlencoded")) {
+                    dispatchAsync(asyncContext, completed, baseRequest, servletResponse);
+                    return;
+                }
+
+                final ServletInputStream inputStream = baseRequest.getInputStream();
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+                inputStream.setReadListener(new ReadListener() {
+                    private byte[] buffer = new byte[8192];
+
+                    @Override
+                    public void onDataAvailable() throws IOException {
+                        while (inputStream.isReady()) {
+                            int length = inputStream.read(buffer);
+                            if (length == -1) {
+                                return;
+                            }
+                            body.write(buffer, 0, length);
+                        }
+                    }
+
+                    @Override
+                    public void onAllDataRead() throws IOException {
+                        requestTracker.record(RequestTracker.BODY, System.nanoTime() - acceptTime);
+                        baseRequest.setAttribute(EntityProvider.ATTRIBUTE_NAME, body.toByteArray());
+                        dispatchAsync(asyncContext, completed, baseRequest, servletResponse);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        failAsync(asyncContext, completed, servletResponse, t);
+                    }
+                });
+            } catch (Throwable t) {
+                failAsync(asyncContext, completed, servletResponse, t);
+            }
+        }
+
+        private void dispatchAsync(final AsyncContext asyncContext, final AtomicBoolean completed, final Request baseRequest, final HttpServletResponse servletResponse) {
+            final long queuedTime = System.nanoTime();
+
+            try {
+                dispatchExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        requestTracker.record(RequestTracker.QUEUED, System.nanoTime() - queuedTime);
+
+                        try {
+                            processRequest(baseRequest, servletResponse);
+                            completeAsync(asyncContext, completed);
+                        } catch (Throwable t) {
+                            failAsync(asyncContext, completed, servletResponse, t);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The listener is stopping
+                try {
+                    sendBusyResponse(servletResponse);
+                } catch (IOException e2) {
+                    logger.debug("Error sending busy response.", e2);
+                } finally {
+                    completeAsync(asyncContext, completed);
+                }
+            }
+        }
+
+        private void failAsync(AsyncContext asyncContext, AtomicBoolean completed, HttpServletResponse servletResponse, Throwable t) {
+            try {
+                logger.error("Error receiving message (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", t);
+                eventController.dispatchEvent(new ErrorEvent(getChannelId(), getMetaDataId(), null, ErrorEventType.SOURCE_CONNECTOR, getSourceName(), connectorProperties.getName(), "Error receiving message", t));
+
+                if (!servletResponse.isCommitted()) {
+                    servletResponse.reset();
+                    servletResponse.setContentType(ContentType.TEXT_PLAIN.toString());
+                    servletResponse.setStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+                }
+            } finally {
+                completeAsync(asyncContext, completed);
+            }
+        }
+
+        /*
+         * Completes the request and releases its permit. A request can still fail after this was
+         * called, for example if completing it threw because the client disconnected, so this only
+         * does anything the first time it's called for a request.
+         */
+        private void completeAsync(AsyncContext asyncContext, AtomicBoolean completed) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                asyncContext.complete();
+            } finally {
+                requestTracker.finish();
+
+                if (logger.isDebugEnabled()) {
+                    logger.debug("HTTP Listener requests on channel " + getChannelId() + ": " + requestTracker);
+                }
+            }
+        }
+    }
+
+    private void sendBusyResponse(HttpServletResponse servletResponse) throws IOException {
+        logger.debug("Too many requests in flight, responding with status " + busyStatusCode + " (channel: " + getChannelId() + ").");
+
+        if (busyRetryAfter > 0) {
+            servletResponse.setHeader("Retry-After", String.valueOf(busyRetryAfter));
+        }
+        servletResponse.setContentType(ContentType.TEXT_PLAIN.toString());
+        servletResponse.setStatus(busyStatusCode);
+        servletResponse.getOutputStream().write("Too many requests are in progress, try again later.".getBytes("US-ASCII"));
     }
 
     private void sendResponse(Request baseRequest, HttpServletResponse servletResponse, DispatchResult dispatchResult) throws Exception {
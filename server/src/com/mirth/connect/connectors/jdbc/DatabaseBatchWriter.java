@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Executes one parameterized INSERT statement for several threads at once. While a thread is
+ * writing to the database, the statements of other threads sending the same query to the same
+ * connection pool are queued, and the next thread to get a turn executes up to batchSize of them
+ * with a single executeBatch in one transaction. If the batch fails it is rolled back and each
+ * statement is executed again on its own, so only the messages that caused the error fail.
+ */
+public class DatabaseBatchWriter {
+    private DatabaseConnectionPool connectionPool;
+    private String query;
+    private int batchSize;
+    private LinkedList<PendingStatement> pendingStatements = new LinkedList<PendingStatement>();
+    private boolean executing;
+    private long executeCount;
+    private Logger logger = Logger.getLogger(getClass());
+
+    public DatabaseBatchWriter(DatabaseConnectionPool connectionPool, String query, int batchSize) {
+        this.connectionPool = connectionPool;
+        this.query = query;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Executes the query with the given parameters, possibly in the same batch as the parameters
+     * of other threads, and returns the number of rows updated by this statement, or a negative
+     * number if the driver didn't report it.
+     */
+    public int write(Object[] parameters) throws SQLException, InterruptedException {
+        PendingStatement statement = new PendingStatement(parameters);
+        boolean interrupted = false;
+
+        synchronized (this) {
+            pendingStatements.add(statement);
+        }
+
+        try {
+            while (true) {
+                List<PendingStatement> batch;
+
+                synchronized (this) {
+                    while (executing && !statement.done) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // Only give up if the statement hasn't been taken by another thread yet
+                            if (pendingStatements.remove(statement)) {
+                                throw e;
+                            }
+                            interrupted = true;
+                        }
+                    }
+
+                    if (statement.done) {
+                        return statement.getResult();
+                    }
+
+                    executing = true;
+                    batch = new ArrayList<PendingStatement>();
+
+                    while (batch.size() < batchSize && !pendingStatements.isEmpty()) {
+                        batch.add(pendingStatements.removeFirst());
+                    }
+                }
+
+                try {
+                    execute(batch);
+                } finally {
+                    synchronized (this) {
+                        executing = false;
+                        notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of times a statement or batch was sent to the database.
+     */
+    public synchronized long getExecuteCount() {
+        return executeCount;
+    }
+
+    private void execute(List<PendingStatement> batch) {
+        Connection connection = null;
+        boolean valid = true;
+
+        try {
+            connection = connectionPool.getConnection();
+
+            if (batch.size() == 1 || !executeBatch(connection, batch)) {
+                for (PendingStatement statement : batch) {
+                    if (!executeStatement(connection, statement)) {
+                        valid = false;
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            valid = false;
+
+            for (PendingStatement statement : batch) {
+                if (!statement.done) {
+                    statement.setError(t);
+                }
+            }
+        } finally {
+            if (connection != null) {
+                connectionPool.returnConnection(connection, valid);
+            }
+        }
+    }
+
+    /*
+     * Returns false if the batch was rolled back, in which case the statements still need to be
+     * executed individually.
+     */
+    private boolean executeBatch(Connection connection, List<PendingStatement> batch) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        connection.setAutoCommit(false);
+
+        try {
+            preparedStatement = connection.prepareStatement(query);
+
+            for (PendingStatement statement : batch) {
+                statement.setParameters(preparedStatement);
+                preparedStatement.addBatch();
+            }
+
+            incrementExecuteCount();
+            int[] updateCounts = preparedStatement.executeBatch();
+            connection.commit();
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).setResult(i < updateCounts.length ? updateCounts[i] : PreparedStatement.SUCCESS_NO_INFO);
+            }
+
+            return true;
+        } catch (SQLException e) {
+            logger.debug("Batch of " + batch.size() + " statements failed, executing them individually.", e);
+
+            try {
+                connection.rollback();
+            } catch (SQLException e2) {
+                logger.debug("Failed to roll back batch.", e2);
+            }
+
+            return false;
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /*
+     * Returns false if the statement failed.
+     */
+    private boolean executeStatement(Connection connection, PendingStatement statement) {
+        PreparedStatement preparedStatement = null;
+
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            statement.setParameters(preparedStatement);
+            incrementExecuteCount();
+            preparedStatement.execute();
+            statement.setResult(preparedStatement.getUpdateCount());
+            return true;
+        } catch (Throwable t) {
+            statement.setError(t);
+            return false;
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    private synchronized void incrementExecuteCount() {
+        executeCount++;
+    }
+
+    private static class PendingStatement {
+        private Object[] parameters;
+        private volatile boolean done;
+        private int updateCount;
+        private Throwable error;
+
+        public PendingStatement(Object[] parameters) {
+            this.parameters = parameters;
+        }
+
+        public void setParameters(PreparedStatement preparedStatement) throws SQLException {
+            int i = 1;
+
+            for (Object parameter : parameters) {
+                preparedStatement.setObject(i++, parameter);
+            }
+        }
+
+        public void setResult(int updateCount) {
+            this.updateCount = updateCount;
+            done = true;
+        }
+
+        public void setError(Throwable error) {
+            this.error = error;
+            done = true;
+        }
+
+        public int getResult() throws SQLException {
+            if (error instanceof SQLException) {
+                throw (SQLException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) {
+                throw new SQLException(error);
+            }
+
+            return updateCount;
+        }
+    }
+}
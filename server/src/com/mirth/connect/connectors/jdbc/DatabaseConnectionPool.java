@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * A pool of connections to a single database URL and user, shared by all queue and processing
+ * threads of a Database Writer. A connection is only used by one thread at a time. Connections are
+ * created with the connector's custom driver if one was loaded from the channel's resources,
+ * otherwise with the DriverManager. The pool doesn't limit the number of open connections, since
+ * that is already limited by the number of threads sending to the destination.
+ */
+public class DatabaseConnectionPool {
+    private final static long MAX_CONNECTION_IDLE_TIME_NS = 300_000_000_000L;
+
+    private CustomDriver customDriver;
+    private String url;
+    private String username;
+    private String password;
+    private Deque<IdleConnection> idleConnections = new ArrayDeque<IdleConnection>();
+    private int activeCount;
+    private long lastAccessTime = System.nanoTime();
+    private long createdCount;
+    private boolean closed;
+    private Logger logger = Logger.getLogger(getClass());
+
+    public DatabaseConnectionPool(CustomDriver customDriver, String url, String username, String password) {
+        this.customDriver = customDriver;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Returns the most recently used idle connection, or a new connection if there are none.
+     * Connections that have been idle for more than five minutes are closed instead of being
+     * reused. The connection must be given back with returnConnection once the caller is done
+     * with it.
+     */
+    public Connection getConnection() throws SQLException {
+        List<Connection> expiredConnections = new ArrayList<Connection>();
+        Connection connection = null;
+
+        synchronized (this) {
+            removeExpiredConnections(expiredConnections);
+            IdleConnection idleConnection = idleConnections.pollFirst();
+
+            if (idleConnection != null) {
+                connection = idleConnection.connection;
+            }
+
+            activeCount++;
+            lastAccessTime = System.nanoTime();
+        }
+
+        closeQuietly(expiredConnections);
+
+        try {
+            if (connection == null || connection.isClosed()) {
+                connection = createConnection();
+            }
+
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            DbUtils.closeQuietly(connection);
+
+            synchronized (this) {
+                activeCount--;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a connection back to the pool. Connections that are no longer valid are closed, as are
+     * all connections returned after the pool has been closed.
+     *
+     * @param valid
+     *            false if an error occurred while using the connection, in which case it is only
+     *            kept if the driver reports that it is still valid
+     */
+    public void returnConnection(Connection connection, boolean valid) {
+        List<Connection> expiredConnections = new ArrayList<Connection>();
+        boolean keep = valid || JdbcUtils.isValidConnection(connection);
+
+        synchronized (this) {
+            activeCount--;
+            lastAccessTime = System.nanoTime();
+
+            if (keep && !closed) {
+                idleConnections.addFirst(new IdleConnection(connection, lastAccessTime));
+                connection = null;
+            }
+
+            removeExpiredConnections(expiredConnections);
+        }
+
+        if (connection != null) {
+            expiredConnections.add(connection);
+        }
+
+        closeQuietly(expiredConnections);
+    }
+
+    /**
+     * Returns true if no connections are in use and the pool hasn't been used in the last five
+     * minutes, in which case all of its idle connections have expired.
+     */
+    public synchronized boolean isExpired() {
+        return activeCount == 0 && lastAccessTime < System.nanoTime() - MAX_CONNECTION_IDLE_TIME_NS;
+    }
+
+    /**
+     * Closes all idle connections. Connections that are currently in use are closed when they are
+     * returned to the pool.
+     */
+    public void close() throws SQLException {
+        List<IdleConnection> connections;
+
+        synchronized (this) {
+            closed = true;
+            connections = new ArrayList<IdleConnection>(idleConnections);
+            idleConnections.clear();
+        }
+
+        SQLException firstException = null;
+
+        for (IdleConnection idleConnection : connections) {
+            try {
+                if (!idleConnection.connection.isClosed()) {
+                    idleConnection.connection.close();
+                }
+            } catch (SQLException e) {
+                if (firstException == null) {
+                    firstException = e;
+                }
+            }
+        }
+
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
+    /**
+     * Returns the number of connections this pool has opened.
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    private Connection createConnection() throws SQLException {
+        logger.debug("Creating connection to " + url);
+        Connection connection;
+
+        if (customDriver != null) {
+            connection = customDriver.connect(url, username, password);
+        } else {
+            connection = DriverManager.getConnection(url, username, password);
+        }
+
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException | RuntimeException e) {
+            DbUtils.closeQuietly(connection);
+            throw e;
+        }
+
+        synchronized (this) {
+            createdCount++;
+        }
+
+        return connection;
+    }
+
+    /*
+     * Idle connections are kept in the order they were returned, so the expired ones are always at
+     * the end of the deque.
+     */
+    private void removeExpiredConnections(List<Connection> expiredConnections) {
+        long expiryTime = System.nanoTime() - MAX_CONNECTION_IDLE_TIME_NS;
+
+        while (!idleConnections.isEmpty() && idleConnections.peekLast().returnTime < expiryTime) {
+            expiredConnections.add(idleConnections.pollLast().connection);
+        }
+    }
+
+    private void closeQuietly(List<Connection> connections) {
+        for (Connection connection : connections) {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    private static class IdleConnection {
+        private Connection connection;
+        private long returnTime;
+
+        public IdleConnection(Connection connection, long returnTime) {
+            this.connection = connection;
+            this.returnTime = returnTime;
+        }
+    }
+}
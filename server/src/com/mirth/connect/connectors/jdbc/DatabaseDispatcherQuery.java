@@ -10,13 +10,18 @@
 package com.mirth.connect.connectors.jdbc;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.collections.MapUtils;
 import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.log4j.Logger;
 
 import com.mirth.connect.donkey.model.message.ConnectorMessage;
@@ -26,14 +31,39 @@ import com.mirth.connect.donkey.server.ConnectorTaskException;
 import com.mirth.connect.server.controllers.ContextFactoryController;
 import com.mirth.connect.server.controllers.ControllerFactory;
 import com.mirth.connect.server.util.javascript.MirthContextFactory;
+import com.mirth.connect.util.PropertyLoader;
 
 public class DatabaseDispatcherQuery implements DatabaseDispatcherDelegate {
-    private final static long MAX_CONNECTION_IDLE_TIME_NS = 300_000_000_000L;
+    private static int batchSize = 1;
+
+    static {
+        /*
+         * Checks mirth.properties for the databasewriter.batchsize property. When it is greater
+         * than one, INSERT statements sent concurrently by the queue or processing threads of a
+         * Database Writer are executed together in batches of up to that many statements.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            batchSize = NumberUtils.toInt(properties.getProperty("databasewriter.batchsize"), batchSize);
+        }
+    }
+
+    /**
+     * Sets the maximum number of INSERT statements executed in one batch by Database Writers
+     * deployed after this is called. A value of one or less disables batching. This is read from
+     * databasewriter.batchsize at startup.
+     */
+    public static void setBatchSize(int batchSize) {
+        DatabaseDispatcherQuery.batchSize = batchSize;
+    }
 
     private DatabaseDispatcher connector;
-    private Map<Long, SimpleDataSource> dataSources = new ConcurrentHashMap<>();
+    private Map<ImmutableTriple<String, String, String>, DatabaseConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private Map<ImmutablePair<DatabaseConnectionPool, String>, DatabaseBatchWriter> batchWriters = new ConcurrentHashMap<>();
     private ContextFactoryController contextFactoryController = ControllerFactory.getFactory().createContextFactoryController();
     private CustomDriver customDriver;
+    private int maxBatchSize;
     private Logger logger = Logger.getLogger(getClass());
     private volatile String contextFactoryId;
 
@@ -56,6 +86,8 @@ public class DatabaseDispatcherQuery implements DatabaseDispatcherDelegate {
         } catch (Exception e) {
             throw new ConnectorTaskException(e);
         }
+
+        maxBatchSize = batchSize;
     }
 
     @Override
@@ -66,23 +98,11 @@ public class DatabaseDispatcherQuery implements DatabaseDispatcherDelegate {
 
     @Override
     public void stop() throws ConnectorTaskException {
-        Throwable firstThrowable = null;
-
-        for (SimpleDataSource dataSource : dataSources.values()) {
-            try {
-                dataSource.closeConnection();
-            } catch (Throwable t) {
-                if (firstThrowable == null) {
-                    firstThrowable = t;
-                }
-            }
-        }
-
-        if (firstThrowable != null) {
-            throw new ConnectorTaskException("Failed to close one or more connections.", firstThrowable);
+        try {
+            closeConnectionPools();
+        } catch (Throwable t) {
+            throw new ConnectorTaskException("Failed to close one or more connections.", t);
         }
-
-        dataSources.clear();
     }
 
     @Override
@@ -91,19 +111,31 @@ public class DatabaseDispatcherQuery implements DatabaseDispatcherDelegate {
     }
 
     @Override
-    public Response send(DatabaseDispatcherProperties connectorProperties, ConnectorMessage connectorMessage) throws DatabaseDispatcherException {
-        long dispatcherId = connectorMessage.getDispatcherId();
-        SimpleDataSource dataSource = dataSources.get(dispatcherId);
+    public Response send(DatabaseDispatcherProperties connectorProperties, ConnectorMessage connectorMessage) throws DatabaseDispatcherException, InterruptedException {
+        DatabaseConnectionPool connectionPool;
+
+        try {
+            connectionPool = getConnectionPool(connectorProperties);
+        } catch (Exception e) {
+            throw new DatabaseDispatcherException("Failed to write to database", e);
+        }
 
-        if (dataSource == null) {
-            dataSource = new SimpleDataSource();
-            dataSources.put(dispatcherId, dataSource);
+        if (maxBatchSize > 1 && isInsert(connectorProperties.getQuery())) {
+            try {
+                return createResponse(getBatchWriter(connectionPool, connectorProperties.getQuery()).write(connectorProperties.getParameters()));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new DatabaseDispatcherException("Failed to write to database", e);
+            }
         }
 
+        Connection connection = null;
         PreparedStatement statement = null;
+        boolean valid = false;
 
         try {
-            Connection connection = dataSource.getConnection(connectorProperties);
+            connection = connectionPool.getConnection();
             statement = connection.prepareStatement(connectorProperties.getQuery());
             int i = 1;
 
@@ -119,23 +151,34 @@ public class DatabaseDispatcherQuery implements DatabaseDispatcherDelegate {
              */
             statement.execute();
             int numRows = statement.getUpdateCount();
-            String responseData = null;
-            String responseMessageStatus = null;
-
-            if (numRows == -1) {
-                responseMessageStatus = "Database write success";
-            } else {
-                responseMessageStatus = "Database write success, " + numRows + " rows updated";
-            }
+            valid = true;
 
-            return new Response(Status.SENT, responseData, responseMessageStatus);
+            return createResponse(numRows);
         } catch (Exception e) {
             throw new DatabaseDispatcherException("Failed to write to database", e);
         } finally {
             DbUtils.closeQuietly(statement);
+
+            if (connection != null) {
+                connectionPool.returnConnection(connection, valid);
+            }
         }
     }
 
+    private Response createResponse(int numRows) {
+        String responseData = null;
+        String responseMessageStatus = null;
+
+        // Batched statements report SUCCESS_NO_INFO when the driver doesn't return the row counts
+        if (numRows < 0) {
+            responseMessageStatus = "Database write success";
+        } else {
+            responseMessageStatus = "Database write success, " + numRows + " rows updated";
+        }
+
+        return new Response(Status.SENT, responseData, responseMessageStatus);
+    }
+
     private void initDriver(MirthContextFactory contextFactory) throws Exception {
         customDriver = null;
         DatabaseDispatcherProperties props = (DatabaseDispatcherProperties) connector.getConnectorProperties();
@@ -163,12 +206,11 @@ public class DatabaseDispatcherQuery implements DatabaseDispatcherDelegate {
         MirthContextFactory contextFactory = contextFactoryController.getContextFactory(connector.getResourceIds());
 
         if (!contextFactoryId.equals(contextFactory.getId())) {
-            contextFactoryChanged = true;
-
             synchronized (this) {
                 contextFactory = contextFactoryController.getContextFactory(connector.getResourceIds());
 
                 if (!contextFactoryId.equals(contextFactory.getId())) {
+                    contextFactoryChanged = true;
                     initDriver(contextFactory);
                     contextFactoryId = contextFactory.getId();
                 }
@@ -178,47 +220,100 @@ public class DatabaseDispatcherQuery implements DatabaseDispatcherDelegate {
         return contextFactoryChanged;
     }
 
-    private class SimpleDataSource {
-        private Connection connection;
-        private String username;
-        private String password;
-        private String url;
-        private long lastAccessTime;
+    /*
+     * Connections are pooled by URL, username and password, since those can be different for each
+     * message. All pools are recreated when the channel's resources are reloaded, so that new
+     * connections are made with the new custom driver.
+     */
+    private DatabaseConnectionPool getConnectionPool(DatabaseDispatcherProperties properties) throws Exception {
+        if (checkContextFactory()) {
+            closeConnectionPools();
+        }
 
-        // TODO cache the PreparedStatement also
+        ImmutableTriple<String, String, String> key = ImmutableTriple.of(properties.getUrl(), properties.getUsername(), properties.getPassword());
+        DatabaseConnectionPool connectionPool = connectionPools.get(key);
 
-        public Connection getConnection(DatabaseDispatcherProperties properties) throws Exception {
-            boolean contextFactoryChanged = checkContextFactory();
+        if (connectionPool == null) {
+            removeExpiredConnectionPools();
 
-            /*
-             * If a connection hasn't been initialized yet, or if the connection is stale, or if the
-             * connection url/username/password have changed, then close the old connection (if
-             * applicable) and create a new one.
-             */
-            if (contextFactoryChanged || connection == null || connection.isClosed() || lastAccessTime < (System.nanoTime() - MAX_CONNECTION_IDLE_TIME_NS) || !properties.getUsername().equals(username) || !properties.getPassword().equals(password) || !properties.getUrl().equals(url)) {
-                closeConnection();
-
-                logger.debug("Creating connection to " + properties.getUrl());
-                if (customDriver != null) {
-                    connection = customDriver.connect(properties.getUrl(), properties.getUsername(), properties.getPassword());
-                } else {
-                    connection = DriverManager.getConnection(properties.getUrl(), properties.getUsername(), properties.getPassword());
-                }
-                connection.setAutoCommit(true);
+            DatabaseConnectionPool newConnectionPool = new DatabaseConnectionPool(customDriver, properties.getUrl(), properties.getUsername(), properties.getPassword());
+            connectionPool = connectionPools.putIfAbsent(key, newConnectionPool);
+
+            if (connectionPool == null) {
+                connectionPool = newConnectionPool;
+            }
+        }
+
+        return connectionPool;
+    }
+
+    private DatabaseBatchWriter getBatchWriter(DatabaseConnectionPool connectionPool, String query) {
+        ImmutablePair<DatabaseConnectionPool, String> key = ImmutablePair.of(connectionPool, query);
+        DatabaseBatchWriter batchWriter = batchWriters.get(key);
+
+        if (batchWriter == null) {
+            DatabaseBatchWriter newBatchWriter = new DatabaseBatchWriter(connectionPool, query, maxBatchSize);
+            batchWriter = batchWriters.putIfAbsent(key, newBatchWriter);
+
+            if (batchWriter == null) {
+                batchWriter = newBatchWriter;
+            }
+        }
 
-                username = properties.getUsername();
-                password = properties.getPassword();
-                url = properties.getUrl();
+        return batchWriter;
+    }
+
+    /*
+     * Pools for a URL or user that hasn't been used in a while are removed so that they don't
+     * accumulate when the connection properties change.
+     */
+    private void removeExpiredConnectionPools() {
+        for (Iterator<DatabaseConnectionPool> iterator = connectionPools.values().iterator(); iterator.hasNext();) {
+            DatabaseConnectionPool connectionPool = iterator.next();
+
+            if (connectionPool.isExpired()) {
+                iterator.remove();
+                removeBatchWriters(connectionPool);
+                try {
+                    connectionPool.close();
+                } catch (Exception e) {
+                    logger.debug("Failed to close expired connection pool.", e);
+                }
             }
+        }
+    }
 
-            lastAccessTime = System.nanoTime();
-            return connection;
+    private void removeBatchWriters(DatabaseConnectionPool connectionPool) {
+        for (Iterator<ImmutablePair<DatabaseConnectionPool, String>> iterator = batchWriters.keySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().getLeft() == connectionPool) {
+                iterator.remove();
+            }
         }
+    }
+
+    private void closeConnectionPools() throws Exception {
+        Exception firstException = null;
 
-        public void closeConnection() throws SQLException {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
+        for (Iterator<DatabaseConnectionPool> iterator = connectionPools.values().iterator(); iterator.hasNext();) {
+            DatabaseConnectionPool connectionPool = iterator.next();
+            iterator.remove();
+            removeBatchWriters(connectionPool);
+
+            try {
+                connectionPool.close();
+            } catch (Exception e) {
+                if (firstException == null) {
+                    firstException = e;
+                }
             }
         }
+
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
+    private boolean isInsert(String query) {
+        return StringUtils.startsWithIgnoreCase(StringUtils.trim(query), "INSERT");
     }
 }
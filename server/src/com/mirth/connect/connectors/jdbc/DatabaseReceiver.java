@@ -26,7 +26,9 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.dbutils.BasicRowProcessor;
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -48,6 +50,7 @@ import com.mirth.connect.model.converters.DocumentSerializer;
 import com.mirth.connect.server.controllers.ChannelController;
 import com.mirth.connect.server.controllers.ControllerFactory;
 import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.util.TemplateValueReplacer;
 import com.mirth.connect.util.CharsetUtils;
 
 public class DatabaseReceiver extends PollConnector {
@@ -55,12 +58,26 @@ public class DatabaseReceiver extends PollConnector {
     private DatabaseReceiverProperties connectorProperties;
     private DatabaseReceiverDelegate delegate;
     private EventController eventController = ControllerFactory.getFactory().createEventController();
+    private final TemplateValueReplacer replacer = new TemplateValueReplacer();
     private Logger logger = Logger.getLogger(getClass());
+    private int rowsPerMessage;
+    private String checkpointColumn;
+    private volatile Object checkpoint;
 
     @Override
     public void onDeploy() throws ConnectorTaskException {
         connectorProperties = (DatabaseReceiverProperties) getConnectorProperties();
 
+        String channelName = getChannel().getName();
+        rowsPerMessage = NumberUtils.toInt(replacer.replaceValues(connectorProperties.getRowsPerMessage(), getChannelId(), channelName));
+        checkpointColumn = null;
+        checkpoint = null;
+
+        // Checkpoints are only available to the select query, a script can keep track of its own position
+        if (!connectorProperties.isUseScript()) {
+            checkpointColumn = StringUtils.trimToNull(replacer.replaceValues(connectorProperties.getCheckpointColumn(), getChannelId(), channelName));
+        }
+
         /*
          * A delegate object is used to handle the polling operations, since the polling logic is
          * very different depending on whether JavaScript is enabled or not
@@ -101,6 +118,14 @@ public class DatabaseReceiver extends PollConnector {
         finishDispatch(dispatchResult);
     }
 
+    /**
+     * Returns the checkpoint column's value in the last row that was dispatched successfully, or
+     * null if no row has been dispatched since the connector was deployed.
+     */
+    public Object getCheckpoint() {
+        return checkpoint;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected void poll() throws InterruptedException {
@@ -149,7 +174,9 @@ public class DatabaseReceiver extends PollConnector {
 
     /**
      * For each record in the given ResultSet, convert it to XML and dispatch it as a raw message to
-     * the channel. Then run the post-process if applicable.
+     * the channel. Then run the post-process if applicable. Rows are dispatched as they are read,
+     * so unless the results are cached or aggregated without a row limit, only the rows fetched
+     * by the driver are held in memory.
      */
     @SuppressWarnings("unchecked")
     private void processResultSet(ResultSet resultSet) throws SQLException, InterruptedException, DatabaseReceiverException {
@@ -161,6 +188,9 @@ public class DatabaseReceiver extends PollConnector {
                 resultsList = new ArrayList<Map<String, Object>>();
             }
 
+            // The checkpoint stops advancing at the first row that fails, so it will be read again
+            boolean advanceCheckpoint = true;
+
             // loop through the ResultSet rows and convert them into hash maps for processing
             while (resultSet.next()) {
                 if (isTerminated()) {
@@ -171,8 +201,17 @@ public class DatabaseReceiver extends PollConnector {
 
                 if (connectorProperties.isAggregateResults()) {
                     resultsList.add(resultMap);
+
+                    // Dispatch each full message as soon as its rows are read, instead of holding all rows
+                    if (rowsPerMessage > 0 && resultsList.size() >= rowsPerMessage) {
+                        processAggregateRecord(resultsList);
+                        updateCheckpoint(resultsList.get(resultsList.size() - 1));
+                        resultsList = new ArrayList<Map<String, Object>>();
+                    }
+                } else if (processRecord(resultMap) && advanceCheckpoint) {
+                    updateCheckpoint(resultMap);
                 } else {
-                    processRecord(resultMap);
+                    advanceCheckpoint = false;
                 }
             }
 
@@ -181,6 +220,7 @@ public class DatabaseReceiver extends PollConnector {
                     return;
                 }
                 processAggregateRecord(resultsList);
+                updateCheckpoint(resultsList.get(resultsList.size() - 1));
             }
         } catch (Exception e) {
             if (e instanceof DatabaseReceiverException) {
@@ -212,11 +252,21 @@ public class DatabaseReceiver extends PollConnector {
         }
     }
 
+    private void updateCheckpoint(Map<String, Object> resultMap) {
+        if (checkpointColumn != null) {
+            Object value = resultMap.get(checkpointColumn);
+
+            if (value != null) {
+                checkpoint = value;
+            }
+        }
+    }
+
     /**
      * Convert the given resultMap into XML and dispatch it as a raw message to the channel. Then
-     * run the post-process if applicable.
+     * run the post-process if applicable. Returns false if the record could not be processed.
      */
-    private void processRecord(Map<String, Object> resultMap) throws InterruptedException, DatabaseReceiverException {
+    private boolean processRecord(Map<String, Object> resultMap) throws InterruptedException, DatabaseReceiverException {
         try {
             if (isProcessBatch()) {
                 BatchRawMessage batchRawMessage = new BatchRawMessage(new BatchMessageReader(resultMapToXml(resultMap)));
@@ -240,10 +290,13 @@ public class DatabaseReceiver extends PollConnector {
                     }
                 }
             }
+
+            return true;
         } catch (Exception e) {
             String errorMessage = "Failed to process row retrieved from the database in channel \"" + ChannelController.getInstance().getDeployedChannelById(getChannelId()).getName() + "\"";
             logger.error(errorMessage, e);
             eventController.dispatchEvent(new ErrorEvent(getChannelId(), getMetaDataId(), null, ErrorEventType.SOURCE_CONNECTOR, getSourceName(), connectorProperties.getName(), errorMessage, e));
+            return false;
         }
     }
 
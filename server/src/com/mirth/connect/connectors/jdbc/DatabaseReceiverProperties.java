@@ -11,6 +11,7 @@ package com.mirth.connect.connectors.jdbc;
 
 import java.util.Map;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 
 import com.mirth.connect.donkey.model.channel.ConnectorProperties;
@@ -45,6 +46,8 @@ public class DatabaseReceiverProperties extends ConnectorProperties implements P
     private String retryCount;
     private String retryInterval;
     private String fetchSize;
+    private String rowsPerMessage;
+    private String checkpointColumn;
     private String encoding;
 
     public DatabaseReceiverProperties() {
@@ -64,6 +67,8 @@ public class DatabaseReceiverProperties extends ConnectorProperties implements P
         retryCount = "3";
         retryInterval = "10000";
         fetchSize = "1000";
+        rowsPerMessage = "0";
+        checkpointColumn = "";
         encoding = CharsetUtils.DEFAULT_ENCODING;
     }
 
@@ -199,6 +204,30 @@ public class DatabaseReceiverProperties extends ConnectorProperties implements P
         this.fetchSize = fetchSize;
     }
 
+    /**
+     * The maximum number of rows aggregated into one message, or 0 to aggregate all rows returned
+     * by a poll.
+     */
+    public String getRowsPerMessage() {
+        return rowsPerMessage;
+    }
+
+    public void setRowsPerMessage(String rowsPerMessage) {
+        this.rowsPerMessage = rowsPerMessage;
+    }
+
+    /**
+     * The column whose value in the last dispatched row is available to the select query as
+     * ${checkpoint}, so the next poll can resume after it.
+     */
+    public String getCheckpointColumn() {
+        return checkpointColumn;
+    }
+
+    public void setCheckpointColumn(String checkpointColumn) {
+        this.checkpointColumn = checkpointColumn;
+    }
+
     public String getEncoding() {
         return encoding;
     }
@@ -263,6 +292,8 @@ public class DatabaseReceiverProperties extends ConnectorProperties implements P
         purgedProperties.put("retryCount", PurgeUtil.getNumericValue(retryCount));
         purgedProperties.put("retryInterval", PurgeUtil.getNumericValue(retryInterval));
         purgedProperties.put("fetchSize", PurgeUtil.getNumericValue(fetchSize));
+        purgedProperties.put("rowsPerMessage", PurgeUtil.getNumericValue(rowsPerMessage));
+        purgedProperties.put("checkpointColumn", StringUtils.isNotBlank(checkpointColumn));
         purgedProperties.put("encoding", encoding);
         return purgedProperties;
     }
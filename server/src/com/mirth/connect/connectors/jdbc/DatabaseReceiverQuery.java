@@ -15,6 +15,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -177,13 +178,24 @@ public class DatabaseReceiverQuery implements DatabaseReceiverDelegate {
 
                 int objectIndex = 1;
 
+                /*
+                 * Once a row has been dispatched, ${checkpoint} is the checkpoint column's value in
+                 * the last dispatched row. It is passed as is, so it keeps the column's type. Until
+                 * then it is looked up like any other variable.
+                 */
+                Map<String, Object> checkpointMap = null;
+                Object checkpoint = connector.getCheckpoint();
+                if (checkpoint != null) {
+                    checkpointMap = Collections.singletonMap("checkpoint", checkpoint);
+                }
+
                 /*
                  * Using the list of placeholder keys found in the select statement (selectParams),
                  * get the corresponding values from JdbcUtils.getParameters() which uses a
                  * TemplateValueReplacer to to look up values from a default context based on the
                  * given channel id
                  */
-                for (Object param : JdbcUtils.getParameters(selectParams, connector.getChannelId(), connector.getChannel().getName(), null, null, null, true)) {
+                for (Object param : JdbcUtils.getParameters(selectParams, connector.getChannelId(), connector.getChannel().getName(), null, checkpointMap, null, true)) {
                     selectStatement.setObject(objectIndex++, param);
                 }
 
@@ -203,6 +215,14 @@ public class DatabaseReceiverQuery implements DatabaseReceiverDelegate {
                 DbUtils.closeQuietly(resultSet);
                 DbUtils.closeQuietly(cachedRowSet);
 
+                // End the failed transaction so the select connection can be used again
+                if (!connectorProperties.isCacheResults()) {
+                    try {
+                        DbUtils.rollback(selectConnection);
+                    } catch (SQLException e1) {
+                    }
+                }
+
                 if (attempts++ < maxRetryCount && !connector.isTerminated()) {
                     logger.error("An error occurred while polling for messages, retrying after " + retryInterval + " ms...", e);
 
@@ -242,6 +262,8 @@ public class DatabaseReceiverQuery implements DatabaseReceiverDelegate {
 
     @Override
     public void afterPoll() throws DatabaseReceiverException {
+        commitSelectConnection();
+
         if (connectorProperties.getUpdateMode() == DatabaseReceiverProperties.UPDATE_ONCE) {
             try {
                 initUpdateConnection();
@@ -339,7 +361,13 @@ public class DatabaseReceiverQuery implements DatabaseReceiverDelegate {
         } else {
             selectConnection = DriverManager.getConnection(url, username, password);
         }
-        selectConnection.setAutoCommit(true);
+        /*
+         * When the results aren't cached, some drivers (e.g. PostgreSQL) only fetch rows from a
+         * cursor as they are read if the query runs in a transaction. Otherwise the whole result
+         * set is read into memory when the query is executed. The transaction is committed in
+         * afterPoll().
+         */
+        selectConnection.setAutoCommit(connectorProperties.isCacheResults());
 
         /*
          * Before preparing the select statement, we extract the Apache velocity variables from the
@@ -348,13 +376,23 @@ public class DatabaseReceiverQuery implements DatabaseReceiverDelegate {
          * what values to set on the prepared statement (see JdbcUtils.getParameters()).
          */
         selectParams.clear();
-        selectStatement = selectConnection.prepareStatement(JdbcUtils.extractParameters(connectorProperties.getSelect(), selectParams));
+        selectStatement = selectConnection.prepareStatement(JdbcUtils.extractParameters(connectorProperties.getSelect(), selectParams), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 
         if (!connectorProperties.isCacheResults()) {
             selectStatement.setFetchSize(NumberUtils.toInt(replacer.replaceValues(connectorProperties.getFetchSize(), channelId, channelName)));
         }
     }
 
+    private void commitSelectConnection() {
+        try {
+            if (selectConnection != null && !selectConnection.isClosed() && !selectConnection.getAutoCommit()) {
+                selectConnection.commit();
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to commit the select transaction", e);
+        }
+    }
+
     private void closeSelectConnection() {
         DbUtils.closeQuietly(selectStatement);
 
@@ -21,16 +21,27 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -38,6 +49,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.log4j.Logger;
 
@@ -73,12 +86,53 @@ import com.mirth.connect.server.controllers.ExtensionController;
 import com.mirth.connect.server.util.TemplateValueReplacer;
 import com.mirth.connect.util.CharsetUtils;
 import com.mirth.connect.util.ErrorMessageBuilder;
+import com.mirth.connect.util.PropertyLoader;
 import com.mirth.connect.util.TcpUtil;
 
 public class TcpReceiver extends SourceConnector {
     // This determines how many client requests can queue up while waiting for the server socket to accept
     private static final int DEFAULT_BACKLOG = 256;
 
+    // How often the selector thread checks parked connections for the receive timeout
+    private static final int SELECTOR_TIMEOUT_CHECK_INTERVAL = 1000;
+
+    private static boolean selectorMode = false;
+    private static int selectorThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    static {
+        /*
+         * Checks mirth.properties for the tcp.selectormode property. When enabled, TCP Listeners in
+         * server mode park idle connections in a Selector instead of giving each connection its
+         * own thread, and messages are read by a pool of tcp.selectorthreads threads.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            selectorMode = BooleanUtils.toBoolean(properties.getProperty("tcp.selectormode"));
+            selectorThreads = NumberUtils.toInt(properties.getProperty("tcp.selectorthreads"), selectorThreads);
+        }
+    }
+
+    /**
+     * Enables or disables selector mode for TCP Listeners deployed after this is called. This is
+     * read from tcp.selectormode at startup.
+     */
+    public static void setSelectorMode(boolean selectorMode) {
+        TcpReceiver.selectorMode = selectorMode;
+    }
+
+    public static boolean isSelectorMode() {
+        return selectorMode;
+    }
+
+    /**
+     * Sets the number of threads each TCP Listener uses to read messages in selector mode. This is
+     * read from tcp.selectorthreads at startup.
+     */
+    public static void setSelectorThreads(int selectorThreads) {
+        TcpReceiver.selectorThreads = selectorThreads;
+    }
+
     private Logger logger = Logger.getLogger(this.getClass());
     private ConfigurationController configurationController = ControllerFactory.getFactory().createConfigurationController();
     private EventController eventController = ControllerFactory.getFactory().createEventController();
@@ -91,9 +145,12 @@ public class TcpReceiver extends SourceConnector {
     private Socket recoveryResponseSocket;
     private Thread thread;
     private ExecutorService executor;
-    private Set<Future<Throwable>> results = new HashSet<Future<Throwable>>();
+    private Set<Future<Throwable>> results = Collections.newSetFromMap(new ConcurrentHashMap<Future<Throwable>, Boolean>());
     private Set<TcpReader> clientReaders = new HashSet<TcpReader>();
     private AtomicBoolean disposing;
+    private boolean useSelector;
+    private int selectorPoolSize;
+    private SocketSelector socketSelector;
 
     private int maxConnections;
     private int timeout;
@@ -150,6 +207,15 @@ public class TcpReceiver extends SourceConnector {
             throw new ConnectorTaskException("Unable to find data type plugin: " + getInboundDataType().getType());
         }
 
+        useSelector = selectorMode && connectorProperties.isServerMode();
+        selectorPoolSize = Math.max(1, Math.min(selectorThreads, maxConnections));
+
+        if (useSelector && configuration.getClass() != DefaultTcpConfiguration.class) {
+            // Custom configurations may wrap the sockets they create, so they can't be used with a Selector
+            logger.warn("Selector mode is not supported with TCP configuration " + configuration.getClass().getName() + ", using a thread for each connection (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").");
+            useSelector = false;
+        }
+
         disposing = new AtomicBoolean(false);
 
         eventController.dispatchEvent(new ConnectorCountEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE, null, maxConnections));
@@ -164,7 +230,12 @@ public class TcpReceiver extends SourceConnector {
         results.clear();
         clientReaders.clear();
 
-        if (connectorProperties.isServerMode()) {
+        if (useSelector) {
+            // Idle connections are parked in the selector, so only connections with data to read need a thread
+            ThreadPoolExecutor selectorExecutor = new ThreadPoolExecutor(selectorPoolSize, selectorPoolSize, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            selectorExecutor.allowCoreThreadTimeOut(true);
+            executor = selectorExecutor;
+        } else if (connectorProperties.isServerMode()) {
             // If we're in server mode, use the max connections property to initialize the thread pool
             executor = new ThreadPoolExecutor(0, maxConnections, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
         } else {
@@ -172,14 +243,30 @@ public class TcpReceiver extends SourceConnector {
             executor = Executors.newSingleThreadExecutor();
         }
 
+        if (useSelector) {
+            try {
+                socketSelector = new SocketSelector();
+            } catch (IOException e) {
+                throw new ConnectorTaskException("Failed to open selector (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
+            }
+        }
+
         if (connectorProperties.isServerMode()) {
             try {
                 createServerSocket();
             } catch (IOException e) {
+                if (socketSelector != null) {
+                    socketSelector.shutdown();
+                    socketSelector = null;
+                }
                 throw new ConnectorTaskException("Failed to create server socket (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
             }
         }
 
+        if (socketSelector != null) {
+            socketSelector.start();
+        }
+
         // Create the acceptor thread
         thread = new Thread("TCP Receiver Server Acceptor Thread on " + getChannel().getName() + " (" + getChannelId() + ")") {
             @Override
@@ -192,6 +279,10 @@ public class TcpReceiver extends SourceConnector {
                         try {
                             logger.debug("Waiting for new client socket (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").");
                             socket = serverSocket.accept();
+
+                            if (socketSelector != null) {
+                                socket = new SelectableSocket(socket.getChannel());
+                            }
                             logger.trace("Accepted new socket: " + socket.getRemoteSocketAddress().toString() + " -> " + socket.getLocalSocketAddress());
                         } catch (java.io.InterruptedIOException e) {
                             logger.debug("Interruption during server socket accept operation (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
@@ -229,6 +320,12 @@ public class TcpReceiver extends SourceConnector {
                                     if (disposing.get()) {
                                         return;
                                     }
+
+                                    // In selector mode the thread pool doesn't limit the number of connections
+                                    if (socketSelector != null && clientReaders.size() >= maxConnections) {
+                                        throw new RejectedExecutionException("Maximum number of connections reached.");
+                                    }
+
                                     reader = new TcpReader(socket);
                                     clientReaders.add(reader);
                                     results.add(executor.submit(reader));
@@ -309,6 +406,8 @@ public class TcpReceiver extends SourceConnector {
             throw new ConnectorTaskException("Thread join operation interrupted (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
         }
 
+        closeParkedReaders();
+
         synchronized (clientReaders) {
             for (TcpReader reader : clientReaders) {
                 try {
@@ -423,6 +522,8 @@ public class TcpReceiver extends SourceConnector {
             }
         }
 
+        closeParkedReaders();
+
         // Close all client sockets before interrupting tasks
         synchronized (clientReaders) {
             for (TcpReader reader : clientReaders) {
@@ -509,6 +610,9 @@ public class TcpReceiver extends SourceConnector {
         private AtomicBoolean reading = null;
         private AtomicBoolean canRead = null;
         private StreamHandler streamHandler = null;
+        private boolean connected = false;
+        private boolean selected = false;
+        private long idleSince;
 
         public TcpReader(Socket socket) throws SocketException {
             this.socket = socket;
@@ -537,8 +641,13 @@ public class TcpReceiver extends SourceConnector {
         public Throwable call() {
             Throwable t = null;
             boolean done = false;
+            boolean parked = false;
 
-            eventController.dispatchEvent(new ConnectorCountEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.CONNECTED, SocketUtil.getLocalAddress(socket) + " -> " + SocketUtil.getInetAddress(socket), true));
+            // In selector mode the same reader is called again each time the connection becomes readable
+            if (!connected) {
+                connected = true;
+                eventController.dispatchEvent(new ConnectorCountEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.CONNECTED, SocketUtil.getLocalAddress(socket) + " -> " + SocketUtil.getInetAddress(socket), true));
+            }
             String originalThreadName = Thread.currentThread().getName();
 
             try {
@@ -548,6 +657,18 @@ public class TcpReceiver extends SourceConnector {
                     ThreadUtils.checkInterruptedStatus();
                     streamHandler = null;
 
+                    /*
+                     * In selector mode, give the thread back instead of blocking in read() when no
+                     * bytes are waiting. The selector calls this reader again once the remote side
+                     * sends more data or closes the connection.
+                     */
+                    if (socketSelector != null && !selected && !((SelectableSocket) socket).hasBufferedInput()) {
+                        parked = true;
+                        break;
+                    }
+                    selected = false;
+                    boolean messageReceived = false;
+
                     try {
                         // Add the socket information to the channelMap
                         Map<String, Object> sourceMap = new HashMap<String, Object>();
@@ -618,6 +739,7 @@ public class TcpReceiver extends SourceConnector {
                             }
 
                             if (bytes != null) {
+                                messageReceived = true;
                                 logger.debug("Bytes returned from socket, length: " + bytes.length + " (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ")");
                                 eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.RECEIVING, "Message received from " + SocketUtil.getLocalAddress(socket) + ", processing... "));
 
@@ -709,8 +831,13 @@ public class TcpReceiver extends SourceConnector {
 
                         logger.debug("Done with socket input stream (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").");
 
-                        // If we're not keeping the connection open or if the remote side has already closed the connection, then we're done with the socket
-                        if (checkSocket(socket)) {
+                        /*
+                         * If we're not keeping the connection open or if the remote side has already
+                         * closed the connection, then we're done with the socket. In selector mode
+                         * the selector reports a closed connection as readable, so the remote side
+                         * only needs to be checked when nothing was read.
+                         */
+                        if (checkSocket(socket, socketSelector == null || !messageReceived)) {
                             done = true;
                         }
                     } catch (IOException e) {
@@ -756,18 +883,8 @@ public class TcpReceiver extends SourceConnector {
                 eventController.dispatchEvent(new ErrorEvent(getChannelId(), getMetaDataId(), null, ErrorEventType.SOURCE_CONNECTOR, getSourceName(), connectorProperties.getName(), "Error receiving message", e));
                 eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.FAILURE, "Error receiving message from " + SocketUtil.getLocalAddress(socket) + ": " + e.getMessage()));
             } finally {
-                logger.debug("Done with socket, closing (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ")...");
-
-                // We're done reading, so close everything up
-                closeSocketQuietly(socket);
-                if (connectorProperties.getRespondOnNewConnection() == TcpReceiverProperties.NEW_CONNECTION) {
-                    closeSocketQuietly(responseSocket);
-                }
-
-                eventController.dispatchEvent(new ConnectorCountEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.DISCONNECTED, SocketUtil.getLocalAddress(socket) + " -> " + SocketUtil.getInetAddress(socket), false));
-
-                synchronized (clientReaders) {
-                    clientReaders.remove(this);
+                if (!parked || !socketSelector.park(this)) {
+                    close();
                 }
 
                 Thread.currentThread().setName(originalThreadName);
@@ -776,6 +893,38 @@ public class TcpReceiver extends SourceConnector {
             return t;
         }
 
+        public void close() {
+            logger.debug("Done with socket, closing (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ")...");
+
+            // We're done reading, so close everything up
+            closeSocketQuietly(socket);
+            if (connectorProperties.getRespondOnNewConnection() == TcpReceiverProperties.NEW_CONNECTION) {
+                closeSocketQuietly(responseSocket);
+            }
+
+            eventController.dispatchEvent(new ConnectorCountEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.DISCONNECTED, SocketUtil.getLocalAddress(socket) + " -> " + SocketUtil.getInetAddress(socket), false));
+
+            synchronized (clientReaders) {
+                clientReaders.remove(this);
+            }
+        }
+
+        /*
+         * Called by the selector when a parked connection has been idle for longer than the receive
+         * timeout. This dispatches the same events as a read timeout in a dedicated thread, and
+         * returns false if the connection should be closed.
+         */
+        public boolean idleTimeout() {
+            if (connectorProperties.isKeepConnectionOpen()) {
+                logger.debug("Timeout reading from socket input stream (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").");
+                eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.INFO, "Timeout waiting for message from " + SocketUtil.getLocalAddress(socket) + ". "));
+                return true;
+            } else {
+                eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.FAILURE, "Timeout waiting for message from " + SocketUtil.getLocalAddress(socket) + ". "));
+                return false;
+            }
+        }
+
         @Override
         public boolean canRead() {
             /*
@@ -868,6 +1017,210 @@ public class TcpReceiver extends SourceConnector {
         }
     }
 
+    /**
+     * Parks idle connections in a Selector when the TCP Listener is in selector mode. When a parked
+     * connection becomes readable, or the remote side closes it, its TcpReader is submitted to the
+     * executor again. Connections that stay idle for longer than the receive timeout are handled
+     * the same way as a read timeout in a dedicated thread.
+     */
+    private class SocketSelector implements Runnable {
+        private Selector selector;
+        private Thread thread;
+        private Queue<TcpReader> pendingReaders = new ConcurrentLinkedQueue<TcpReader>();
+        private volatile boolean running = true;
+
+        public SocketSelector() throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "TCP Receiver Selector Thread on " + getChannel().getName() + " (" + getChannelId() + ")");
+        }
+
+        public void start() {
+            thread.start();
+        }
+
+        /**
+         * Switches the reader's channel to non-blocking mode and queues it to be registered with the
+         * selector. Returns false if the selector has been shut down or the channel could not be
+         * switched, in which case the caller should close the connection.
+         */
+        public synchronized boolean park(TcpReader reader) {
+            if (!running) {
+                return false;
+            }
+
+            try {
+                reader.getSocket().getChannel().configureBlocking(false);
+            } catch (IOException e) {
+                logger.debug("Error parking client socket (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
+                return false;
+            }
+
+            reader.idleSince = System.currentTimeMillis();
+            pendingReaders.add(reader);
+            selector.wakeup();
+            return true;
+        }
+
+        /**
+         * Stops the selector thread and returns the readers of all connections that were still
+         * parked.
+         */
+        public List<TcpReader> shutdown() {
+            synchronized (this) {
+                running = false;
+            }
+
+            selector.wakeup();
+
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<TcpReader> readers = new ArrayList<TcpReader>(pendingReaders);
+            pendingReaders.clear();
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    readers.add((TcpReader) key.attachment());
+                }
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Error closing selector (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
+            }
+
+            return readers;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                List<TcpReader> readyReaders = new ArrayList<TcpReader>();
+                List<TcpReader> closedReaders = new ArrayList<TcpReader>();
+
+                try {
+                    selector.select(timeout > 0 ? Math.min(timeout, SELECTOR_TIMEOUT_CHECK_INTERVAL) : 0);
+
+                    if (!running) {
+                        return;
+                    }
+
+                    registerPendingReaders(closedReaders);
+                    takeSelectedReaders(readyReaders);
+
+                    if (timeout > 0) {
+                        checkIdleReaders(closedReaders);
+                    }
+
+                    // Deregister the cancelled keys so that the channels can be switched back to blocking mode
+                    do {
+                        selector.selectNow();
+                    } while (takeSelectedReaders(readyReaders));
+                } catch (IOException e) {
+                    logger.error("Error selecting client sockets (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
+                }
+
+                for (TcpReader reader : readyReaders) {
+                    resume(reader);
+                }
+
+                for (TcpReader reader : closedReaders) {
+                    reader.close();
+                }
+
+                try {
+                    // Remove the completed tasks, since the acceptor thread only does this when a new connection is accepted
+                    cleanup(false, false, true);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void registerPendingReaders(List<TcpReader> closedReaders) {
+            TcpReader reader;
+
+            while ((reader = pendingReaders.poll()) != null) {
+                try {
+                    reader.getSocket().getChannel().register(selector, SelectionKey.OP_READ, reader);
+                } catch (IOException e) {
+                    logger.debug("Error registering client socket (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
+                    closedReaders.add(reader);
+                }
+            }
+        }
+
+        private boolean takeSelectedReaders(List<TcpReader> readyReaders) {
+            Set<SelectionKey> selectedKeys = selector.selectedKeys();
+
+            if (selectedKeys.isEmpty()) {
+                return false;
+            }
+
+            for (Iterator<SelectionKey> it = selectedKeys.iterator(); it.hasNext();) {
+                SelectionKey key = it.next();
+                it.remove();
+                key.cancel();
+                readyReaders.add((TcpReader) key.attachment());
+            }
+
+            return true;
+        }
+
+        private void checkIdleReaders(List<TcpReader> closedReaders) {
+            long now = System.currentTimeMillis();
+
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    TcpReader reader = (TcpReader) key.attachment();
+
+                    if (now - reader.idleSince >= timeout) {
+                        if (reader.idleTimeout()) {
+                            reader.idleSince = now;
+                        } else {
+                            key.cancel();
+                            closedReaders.add(reader);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void resume(TcpReader reader) {
+            boolean submitted = false;
+
+            try {
+                reader.getSocket().getChannel().configureBlocking(true);
+                reader.selected = true;
+
+                synchronized (clientReaders) {
+                    // Only allow worker threads to be submitted if we're not currently trying to stop the connector
+                    if (!disposing.get()) {
+                        results.add(executor.submit(reader));
+                        submitted = true;
+                    }
+                }
+            } catch (IOException | RejectedExecutionException e) {
+                logger.debug("Error resuming client socket (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").", e);
+            }
+
+            if (!submitted) {
+                reader.close();
+            }
+        }
+    }
+
     private void createServerSocket() throws IOException {
         // Create the server socket
         int backlog = DEFAULT_BACKLOG;
@@ -890,7 +1243,9 @@ public class TcpReceiver extends SourceConnector {
                     logger.warn("Failed to determine if '" + hostAddress.getHostAddress() + "' is a loopback address. Could not resolve the system's host name to an address.", e);
                 }
 
-                if (isLoopback) {
+                if (useSelector) {
+                    serverSocket = createServerSocketChannel(port, backlog, isLoopback ? null : hostAddress);
+                } else if (isLoopback) {
                     serverSocket = configuration.createServerSocket(port, backlog);
                 } else {
                     serverSocket = configuration.createServerSocket(port, backlog, hostAddress);
@@ -910,6 +1265,23 @@ public class TcpReceiver extends SourceConnector {
         }
     }
 
+    /*
+     * In selector mode the server socket is created from a ServerSocketChannel, so that each
+     * accepted socket has a channel that can be registered with the selector.
+     */
+    private ServerSocket createServerSocketChannel(int port, int backlog, InetAddress bindAddr) throws IOException {
+        ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+
+        try {
+            serverSocketChannel.socket().bind(new InetSocketAddress(bindAddr, port), backlog);
+        } catch (IOException e) {
+            serverSocketChannel.close();
+            throw e;
+        }
+
+        return serverSocketChannel.socket();
+    }
+
     private Socket createResponseSocket() throws IOException {
         logger.debug("Creating response socket (" + connectorProperties.getName() + " \"Source\" on channel " + getChannelId() + ").");
         return SocketUtil.createResponseSocket(configuration);
@@ -945,8 +1317,8 @@ public class TcpReceiver extends SourceConnector {
         }
     }
 
-    private boolean checkSocket(Socket socket) throws IOException {
-        return !connectorProperties.isKeepConnectionOpen() || socket.isClosed() || (socket instanceof StateAwareSocketInterface && ((StateAwareSocketInterface) socket).remoteSideHasClosed());
+    private boolean checkSocket(Socket socket, boolean checkRemoteSide) throws IOException {
+        return !connectorProperties.isKeepConnectionOpen() || socket.isClosed() || (checkRemoteSide && socket instanceof StateAwareSocketInterface && ((StateAwareSocketInterface) socket).remoteSideHasClosed());
     }
 
     private void closeSocketQuietly(Socket socket) {
@@ -960,6 +1332,19 @@ public class TcpReceiver extends SourceConnector {
         }
     }
 
+    /*
+     * Connections that are parked in the selector have no thread reading from them, so they are
+     * closed here when the connector is stopped or halted.
+     */
+    private void closeParkedReaders() {
+        if (socketSelector != null) {
+            for (TcpReader reader : socketSelector.shutdown()) {
+                reader.close();
+            }
+            socketSelector = null;
+        }
+    }
+
     private void disposeThread(boolean interrupt) throws InterruptedException {
         if (thread != null && thread.isAlive()) {
             if (interrupt) {
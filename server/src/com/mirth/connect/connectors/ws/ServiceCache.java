@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.ws;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.Dispatch;
+import javax.xml.ws.Service;
+import javax.xml.ws.handler.MessageContext;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds the JAX-WS services created by a Web Service Sender, keyed by the WSDL URL, credentials,
+ * service and port used to create them. Creating a service downloads and parses the WSDL, so each
+ * service is only created once and then shared by all queue threads. A Dispatch is not
+ * thread-safe, so each send borrows one from the service's pool and returns it afterwards.
+ */
+public class ServiceCache {
+    private Logger logger = Logger.getLogger(this.getClass());
+    private ConcurrentMap<ServiceKey, CachedService> services = new ConcurrentHashMap<ServiceKey, CachedService>();
+    private long timeToLive;
+    private int maxSize;
+
+    /**
+     * @param timeToLive
+     *            The number of milliseconds after which a service is created again, or 0 to keep
+     *            services until the cache is cleared
+     * @param maxSize
+     *            The maximum number of services to keep, after which the oldest service is
+     *            removed
+     */
+    public ServiceCache(long timeToLive, int maxSize) {
+        this.timeToLive = timeToLive;
+        this.maxSize = Math.max(maxSize, 1);
+    }
+
+    /**
+     * Returns a Dispatch that may only be used by the current thread until it is passed to
+     * returnDispatch. The service is created with the factory the first time the key is used, and
+     * again after it expires.
+     */
+    public PooledDispatch borrowDispatch(ServiceKey key, ServiceFactory factory) throws Exception {
+        CachedService cachedService = services.get(key);
+
+        if (cachedService != null && cachedService.isExpired()) {
+            logger.debug("Web service expired, creating it again: " + key);
+            remove(key, cachedService);
+            cachedService = null;
+        }
+
+        if (cachedService == null) {
+            if (services.size() >= maxSize) {
+                removeOldest();
+            }
+
+            cachedService = new CachedService();
+            CachedService existing = services.putIfAbsent(key, cachedService);
+            if (existing != null) {
+                cachedService = existing;
+            }
+        }
+
+        try {
+            return cachedService.borrowDispatch(key, factory);
+        } catch (Exception e) {
+            // Don't keep a service that couldn't be created, so the next send tries again
+            remove(key, cachedService);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a Dispatch to its service's pool, unless the service has since been removed.
+     */
+    public void returnDispatch(PooledDispatch dispatch) {
+        if (dispatch != null && !dispatch.cachedService.closed) {
+            dispatch.cachedService.idleDispatches.offer(dispatch);
+        }
+    }
+
+    /**
+     * Removes all services and deletes the WSDL files downloaded to create them.
+     */
+    public void clear() {
+        for (Map.Entry<ServiceKey, CachedService> entry : services.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int size() {
+        return services.size();
+    }
+
+    private void remove(ServiceKey key, CachedService cachedService) {
+        if (services.remove(key, cachedService)) {
+            cachedService.close();
+        }
+    }
+
+    private void removeOldest() {
+        Map.Entry<ServiceKey, CachedService> oldest = null;
+
+        for (Map.Entry<ServiceKey, CachedService> entry : services.entrySet()) {
+            if (oldest == null || entry.getValue().created < oldest.getValue().created) {
+                oldest = entry;
+            }
+        }
+
+        if (oldest != null) {
+            remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /**
+     * Creates the services and dispatches held by the cache.
+     */
+    public interface ServiceFactory {
+        /**
+         * Creates the service for the key. Any files downloaded to create it should be added to
+         * tempFiles, and are deleted when the service is removed from the cache.
+         */
+        public Service createService(ServiceKey key, List<File> tempFiles) throws Exception;
+
+        public Dispatch<SOAPMessage> createDispatch(ServiceKey key, Service service) throws Exception;
+    }
+
+    public static class ServiceKey {
+        private String wsdlUrl;
+        private String username;
+        private String password;
+        private String serviceName;
+        private String portName;
+        private int hashCode;
+
+        public ServiceKey(String wsdlUrl, String username, String password, String serviceName, String portName) {
+            this.wsdlUrl = wsdlUrl;
+            this.username = username;
+            this.password = password;
+            this.serviceName = serviceName;
+            this.portName = portName;
+            hashCode = Objects.hash(wsdlUrl, username, password, serviceName, portName);
+        }
+
+        public String getWsdlUrl() {
+            return wsdlUrl;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        public String getPortName() {
+            return portName;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ServiceKey)) {
+                return false;
+            }
+
+            ServiceKey other = (ServiceKey) obj;
+            return Objects.equals(wsdlUrl, other.wsdlUrl) && Objects.equals(username, other.username) && Objects.equals(password, other.password) && Objects.equals(serviceName, other.serviceName) && Objects.equals(portName, other.portName);
+        }
+
+        @Override
+        public String toString() {
+            // The password is left out so it isn't logged
+            return "url=" + wsdlUrl + ", service=" + serviceName + ", port=" + portName;
+        }
+    }
+
+    public static class PooledDispatch {
+        private CachedService cachedService;
+        private Dispatch<SOAPMessage> dispatch;
+        private Map<String, List<String>> defaultRequestHeaders;
+
+        @SuppressWarnings("unchecked")
+        private PooledDispatch(CachedService cachedService, Dispatch<SOAPMessage> dispatch) {
+            this.cachedService = cachedService;
+            this.dispatch = dispatch;
+
+            Map<String, List<String>> requestHeaders = (Map<String, List<String>>) dispatch.getRequestContext().get(MessageContext.HTTP_REQUEST_HEADERS);
+            defaultRequestHeaders = requestHeaders != null ? new HashMap<String, List<String>>(requestHeaders) : new HashMap<String, List<String>>();
+        }
+
+        public Dispatch<SOAPMessage> getDispatch() {
+            return dispatch;
+        }
+
+        /**
+         * Returns the request headers the dispatch had when it was created, before any send
+         * replaced them.
+         */
+        public Map<String, List<String>> getDefaultRequestHeaders() {
+            return defaultRequestHeaders;
+        }
+    }
+
+    private class CachedService {
+        private long created = System.currentTimeMillis();
+        private Service service;
+        private List<File> tempFiles = new ArrayList<File>();
+        private Queue<PooledDispatch> idleDispatches = new ConcurrentLinkedQueue<PooledDispatch>();
+        private volatile boolean closed;
+
+        public boolean isExpired() {
+            return timeToLive > 0 && System.currentTimeMillis() - created >= timeToLive;
+        }
+
+        public PooledDispatch borrowDispatch(ServiceKey key, ServiceFactory factory) throws Exception {
+            PooledDispatch dispatch = idleDispatches.poll();
+
+            if (dispatch == null) {
+                dispatch = new PooledDispatch(this, factory.createDispatch(key, getService(key, factory)));
+            }
+
+            return dispatch;
+        }
+
+        /*
+         * Threads sending with a new key wait for the first one to create the service, instead of
+         * each downloading the WSDL.
+         */
+        private synchronized Service getService(ServiceKey key, ServiceFactory factory) throws Exception {
+            if (service == null) {
+                service = factory.createService(key, tempFiles);
+
+                // The service was removed while it was being created, so nothing else will delete these
+                if (closed) {
+                    deleteTempFiles();
+                }
+            }
+
+            return service;
+        }
+
+        public synchronized void close() {
+            closed = true;
+            idleDispatches.clear();
+            deleteTempFiles();
+        }
+
+        private void deleteTempFiles() {
+            for (File tempFile : tempFiles) {
+                tempFile.delete();
+            }
+            tempFiles.clear();
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -87,6 +88,9 @@ import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
 import org.apache.log4j.Logger;
 
+import com.mirth.connect.connectors.ws.ServiceCache.PooledDispatch;
+import com.mirth.connect.connectors.ws.ServiceCache.ServiceFactory;
+import com.mirth.connect.connectors.ws.ServiceCache.ServiceKey;
 import com.mirth.connect.donkey.model.channel.ConnectorProperties;
 import com.mirth.connect.donkey.model.event.ConnectionStatusEventType;
 import com.mirth.connect.donkey.model.event.ErrorEventType;
@@ -106,12 +110,32 @@ import com.mirth.connect.server.controllers.EventController;
 import com.mirth.connect.server.util.TemplateValueReplacer;
 import com.mirth.connect.util.ErrorMessageBuilder;
 import com.mirth.connect.util.HttpUtil;
+import com.mirth.connect.util.PropertyLoader;
 
 public class WebServiceDispatcher extends DestinationConnector {
 
     // The system property actually ends up being the maximum request count
     private static final int MAX_REDIRECTS = NumberUtils.toInt(System.getProperty("http.maxRedirects"), 20);
 
+    private static long serviceCacheTimeToLive = 0;
+    private static int serviceCacheMaxSize = 100;
+
+    static {
+        /*
+         * Checks mirth.properties for the ws.dispatcher.servicecache properties. Services are
+         * created again after ws.dispatcher.servicecache.ttl milliseconds, or only when the
+         * connector is restarted if it's 0. At most ws.dispatcher.servicecache.maxsize services are
+         * kept for each connector, which only matters when variables are used for the WSDL URL,
+         * credentials, service or port.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            serviceCacheTimeToLive = NumberUtils.toLong(properties.getProperty("ws.dispatcher.servicecache.ttl"), serviceCacheTimeToLive);
+            serviceCacheMaxSize = NumberUtils.toInt(properties.getProperty("ws.dispatcher.servicecache.maxsize"), serviceCacheMaxSize);
+        }
+    }
+
     private Logger logger = Logger.getLogger(this.getClass());
     protected WebServiceDispatcherProperties connectorProperties;
     private EventController eventController = ControllerFactory.getFactory().createEventController();
@@ -124,10 +148,10 @@ public class WebServiceDispatcher extends DestinationConnector {
     private int timeout;
 
     /*
-     * Dispatch object used for pooling the soap connection, and the current properties used to
-     * create the dispatch object
+     * Services created from the WSDL, and the pooled dispatch objects created from them
      */
-    private Map<Long, DispatchContainer> dispatchContainers = new ConcurrentHashMap<Long, DispatchContainer>();
+    private ServiceCache serviceCache = new ServiceCache(serviceCacheTimeToLive, serviceCacheMaxSize);
+    private ServiceFactory serviceFactory = new DispatchServiceFactory();
 
     /*
      * CloseableHttpClient objects used to request the initial WSDL
@@ -182,12 +206,7 @@ public class WebServiceDispatcher extends DestinationConnector {
             executor.shutdown();
         }
 
-        for (DispatchContainer dispatchContainer : dispatchContainers.values()) {
-            for (File tempFile : dispatchContainer.getTempFiles()) {
-                tempFile.delete();
-            }
-        }
-        dispatchContainers.clear();
+        serviceCache.clear();
     }
 
     @Override
@@ -219,12 +238,7 @@ public class WebServiceDispatcher extends DestinationConnector {
             }
         }
 
-        for (DispatchContainer dispatchContainer : dispatchContainers.values().toArray(new DispatchContainer[dispatchContainers.size()])) {
-            for (File tempFile : dispatchContainer.getTempFiles().toArray(new File[dispatchContainer.getTempFiles().size()])) {
-                tempFile.delete();
-            }
-        }
-        dispatchContainers.clear();
+        serviceCache.clear();
     }
 
     private String sourceToXmlString(Source source) throws TransformerConfigurationException, TransformerException {
@@ -236,34 +250,21 @@ public class WebServiceDispatcher extends DestinationConnector {
         return writer.toString();
     }
 
-    private void createDispatch(WebServiceDispatcherProperties webServiceDispatcherProperties, DispatchContainer dispatchContainer) throws Exception {
-        String wsdlUrl = webServiceDispatcherProperties.getWsdlUrl();
-        String username = webServiceDispatcherProperties.getUsername();
-        String password = webServiceDispatcherProperties.getPassword();
-        String serviceName = webServiceDispatcherProperties.getService();
-        String portName = webServiceDispatcherProperties.getPort();
-
-        /*
-         * The dispatch needs to be created if it hasn't been created yet (null). It needs to be
-         * recreated if any of the above variables are different than what were used to create the
-         * current dispatch object. This could happen if variables are being used for these
-         * properties.
-         */
-        if (dispatchContainer.getDispatch() == null || !StringUtils.equals(wsdlUrl, dispatchContainer.getCurrentWsdlUrl()) || !StringUtils.equals(username, dispatchContainer.getCurrentUsername()) || !StringUtils.equals(password, dispatchContainer.getCurrentPassword()) || !StringUtils.equals(serviceName, dispatchContainer.getCurrentServiceName()) || !StringUtils.equals(portName, dispatchContainer.getCurrentPortName())) {
-            dispatchContainer.setCurrentWsdlUrl(wsdlUrl);
-            dispatchContainer.setCurrentUsername(username);
-            dispatchContainer.setCurrentPassword(password);
-            dispatchContainer.setCurrentServiceName(serviceName);
-            dispatchContainer.setCurrentPortName(portName);
+    private class DispatchServiceFactory implements ServiceFactory {
+        @Override
+        public Service createService(ServiceKey key, List<File> tempFiles) throws Exception {
+            URL endpointUrl = getWsdlUrl(key, tempFiles);
+            QName serviceQName = QName.valueOf(key.getServiceName());
 
-            URL endpointUrl = getWsdlUrl(dispatchContainer);
-            QName serviceQName = QName.valueOf(serviceName);
-            QName portQName = QName.valueOf(portName);
+            logger.debug("Creating web service: url=" + endpointUrl.toString() + ", service=" + serviceQName);
+            return Service.create(endpointUrl, serviceQName);
+        }
 
-            // create the service and dispatch
-            logger.debug("Creating web service: url=" + endpointUrl.toString() + ", service=" + serviceQName + ", port=" + portQName);
-            Service service = Service.create(endpointUrl, serviceQName);
+        @Override
+        public Dispatch<SOAPMessage> createDispatch(ServiceKey key, Service service) throws Exception {
+            QName portQName = QName.valueOf(key.getPortName());
 
+            logger.debug("Creating web service dispatch: service=" + service.getServiceName() + ", port=" + portQName);
             Dispatch<SOAPMessage> dispatch = service.createDispatch(portQName, SOAPMessage.class, Service.Mode.MESSAGE);
 
             if (timeout > 0) {
@@ -273,13 +274,7 @@ public class WebServiceDispatcher extends DestinationConnector {
                 dispatch.getRequestContext().put("com.sun.xml.ws.request.timeout", timeout);
             }
 
-            Map<String, List<String>> requestHeaders = (Map<String, List<String>>) dispatch.getRequestContext().get(MessageContext.HTTP_REQUEST_HEADERS);
-            if (requestHeaders == null) {
-                requestHeaders = new HashMap<String, List<String>>();
-            }
-            dispatchContainer.setDefaultRequestHeaders(requestHeaders);
-
-            dispatchContainer.setDispatch(dispatch);
+            return dispatch;
         }
     }
 
@@ -287,14 +282,13 @@ public class WebServiceDispatcher extends DestinationConnector {
      * Returns the URL for the passed in String. If the URL requires authentication, then the WSDL
      * is saved as a temp file and the URL for that file is returned.
      * 
-     * @param wsdlUrl
-     * @param username
-     * @param password
+     * @param key
+     * @param tempFiles
      * @return
      * @throws Exception
      */
-    private URL getWsdlUrl(DispatchContainer dispatchContainer) throws Exception {
-        URI uri = new URI(dispatchContainer.getCurrentWsdlUrl());
+    private URL getWsdlUrl(ServiceKey key, List<File> tempFiles) throws Exception {
+        URI uri = new URI(key.getWsdlUrl());
 
         // If the URL points to file, just return it
         if (!uri.getScheme().equalsIgnoreCase("file")) {
@@ -308,10 +302,10 @@ public class WebServiceDispatcher extends DestinationConnector {
                 clients.add(client);
                 HttpClientContext context = HttpClientContext.create();
 
-                if (dispatchContainer.getCurrentUsername() != null && dispatchContainer.getCurrentPassword() != null) {
+                if (key.getUsername() != null && key.getPassword() != null) {
                     CredentialsProvider credsProvider = new BasicCredentialsProvider();
                     AuthScope authScope = new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT, AuthScope.ANY_REALM);
-                    Credentials credentials = new UsernamePasswordCredentials(dispatchContainer.getCurrentUsername(), dispatchContainer.getCurrentPassword());
+                    Credentials credentials = new UsernamePasswordCredentials(key.getUsername(), key.getPassword());
                     credsProvider.setCredentials(authScope, credentials);
                     AuthCache authCache = new BasicAuthCache();
                     RegistryBuilder<AuthSchemeProvider> registryBuilder = RegistryBuilder.<AuthSchemeProvider> create();
@@ -325,7 +319,7 @@ public class WebServiceDispatcher extends DestinationConnector {
                 RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout).setStaleConnectionCheckEnabled(true).build();
                 context.setRequestConfig(requestConfig);
 
-                return getWsdl(client, context, dispatchContainer, new HashMap<String, File>(), dispatchContainer.getCurrentWsdlUrl()).toURI().toURL();
+                return getWsdl(client, context, tempFiles, new HashMap<String, File>(), key.getWsdlUrl()).toURI().toURL();
             } finally {
                 HttpClientUtils.closeQuietly(client);
                 clients.remove(client);
@@ -335,7 +329,7 @@ public class WebServiceDispatcher extends DestinationConnector {
         return uri.toURL();
     }
 
-    private File getWsdl(CloseableHttpClient client, HttpContext context, DispatchContainer dispatchContainer, Map<String, File> visitedUrls, String wsdlUrl) throws Exception {
+    private File getWsdl(CloseableHttpClient client, HttpContext context, List<File> tempFiles, Map<String, File> visitedUrls, String wsdlUrl) throws Exception {
         if (visitedUrls.containsKey(wsdlUrl)) {
             return visitedUrls.get(wsdlUrl);
         }
@@ -374,7 +368,7 @@ public class WebServiceDispatcher extends DestinationConnector {
                 for (DonkeyElement child : element.getChildElements()) {
                     if (child.getLocalName().equals("import") && child.hasAttribute("location")) {
                         String location = new URI(wsdlUrl).resolve(child.getAttribute("location")).toString();
-                        child.setAttribute("location", getWsdl(client, context, dispatchContainer, visitedUrls, location).toURI().toURL().toString());
+                        child.setAttribute("location", getWsdl(client, context, tempFiles, visitedUrls, location).toURI().toURL().toString());
                     }
                 }
 
@@ -384,7 +378,7 @@ public class WebServiceDispatcher extends DestinationConnector {
             }
 
             FileUtils.writeStringToFile(tempFile, wsdl);
-            dispatchContainer.getTempFiles().add(tempFile);
+            tempFiles.add(tempFile);
 
             return tempFile;
         } else {
@@ -431,30 +425,25 @@ public class WebServiceDispatcher extends DestinationConnector {
         String responseStatusMessage = null;
         Status responseStatus = Status.QUEUED;
         boolean validateResponse = false;
+        PooledDispatch pooledDispatch = null;
 
         try {
-            long dispatcherId = connectorMessage.getDispatcherId();
-            DispatchContainer dispatchContainer = dispatchContainers.get(dispatcherId);
-            if (dispatchContainer == null) {
-                dispatchContainer = new DispatchContainer();
-                dispatchContainers.put(dispatcherId, dispatchContainer);
-            }
-
             /*
-             * Initialize the dispatch object if it hasn't been initialized yet, or create a new one
-             * if the connector properties have changed due to variables.
+             * Borrow a dispatch object for the service, creating the service if it hasn't been
+             * created yet with these properties, which could differ due to variables.
              */
-            createDispatch(webServiceDispatcherProperties, dispatchContainer);
+            ServiceKey serviceKey = new ServiceKey(webServiceDispatcherProperties.getWsdlUrl(), webServiceDispatcherProperties.getUsername(), webServiceDispatcherProperties.getPassword(), webServiceDispatcherProperties.getService(), webServiceDispatcherProperties.getPort());
+            pooledDispatch = serviceCache.borrowDispatch(serviceKey, serviceFactory);
 
-            Dispatch<SOAPMessage> dispatch = dispatchContainer.getDispatch();
+            Dispatch<SOAPMessage> dispatch = pooledDispatch.getDispatch();
 
             configuration.configureDispatcher(this, webServiceDispatcherProperties, dispatch.getRequestContext());
 
             SOAPBinding soapBinding = (SOAPBinding) dispatch.getBinding();
 
             if (webServiceDispatcherProperties.isUseAuthentication()) {
-                String currentUsername = dispatchContainer.getCurrentUsername();
-                String currentPassword = dispatchContainer.getCurrentPassword();
+                String currentUsername = serviceKey.getUsername();
+                String currentPassword = serviceKey.getPassword();
 
                 dispatch.getRequestContext().put(BindingProvider.USERNAME_PROPERTY, currentUsername);
                 dispatch.getRequestContext().put(BindingProvider.PASSWORD_PROPERTY, currentPassword);
@@ -470,7 +459,7 @@ public class WebServiceDispatcher extends DestinationConnector {
             }
 
             // Get default headers
-            Map<String, List<String>> requestHeaders = new HashMap<String, List<String>>(dispatchContainer.getDefaultRequestHeaders());
+            Map<String, List<String>> requestHeaders = new HashMap<String, List<String>>(pooledDispatch.getDefaultRequestHeaders());
 
             // Add custom headers
             if (MapUtils.isNotEmpty(webServiceDispatcherProperties.getHeaders())) {
@@ -626,87 +615,13 @@ public class WebServiceDispatcher extends DestinationConnector {
             responseError = ErrorMessageBuilder.buildErrorMessage(connectorProperties.getName(), "Error creating web service dispatch", e);
             eventController.dispatchEvent(new ErrorEvent(getChannelId(), getMetaDataId(), connectorMessage.getMessageId(), ErrorEventType.DESTINATION_CONNECTOR, getDestinationName(), connectorProperties.getName(), "Error creating web service dispatch.", e));
         } finally {
+            serviceCache.returnDispatch(pooledDispatch);
             eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getDestinationName(), ConnectionStatusEventType.IDLE));
         }
 
         return new Response(responseStatus, responseData, responseStatusMessage, responseError, validateResponse);
     }
 
-    private class DispatchContainer {
-        /*
-         * Dispatch object used for pooling the soap connection, and the current properties used to
-         * create the dispatch object
-         */
-        private Dispatch<SOAPMessage> dispatch = null;
-        private String currentWsdlUrl = null;
-        private String currentUsername = null;
-        private String currentPassword = null;
-        private String currentServiceName = null;
-        private String currentPortName = null;
-        private List<File> tempFiles = new ArrayList<File>();
-        private Map<String, List<String>> defaultRequestHeaders;
-
-        public Dispatch<SOAPMessage> getDispatch() {
-            return dispatch;
-        }
-
-        public void setDispatch(Dispatch<SOAPMessage> dispatch) {
-            this.dispatch = dispatch;
-        }
-
-        public String getCurrentWsdlUrl() {
-            return currentWsdlUrl;
-        }
-
-        public void setCurrentWsdlUrl(String currentWsdlUrl) {
-            this.currentWsdlUrl = currentWsdlUrl;
-        }
-
-        public String getCurrentUsername() {
-            return currentUsername;
-        }
-
-        public void setCurrentUsername(String currentUsername) {
-            this.currentUsername = currentUsername;
-        }
-
-        public String getCurrentPassword() {
-            return currentPassword;
-        }
-
-        public void setCurrentPassword(String currentPassword) {
-            this.currentPassword = currentPassword;
-        }
-
-        public String getCurrentServiceName() {
-            return currentServiceName;
-        }
-
-        public void setCurrentServiceName(String currentServiceName) {
-            this.currentServiceName = currentServiceName;
-        }
-
-        public String getCurrentPortName() {
-            return currentPortName;
-        }
-
-        public void setCurrentPortName(String currentPortName) {
-            this.currentPortName = currentPortName;
-        }
-
-        public List<File> getTempFiles() {
-            return tempFiles;
-        }
-
-        public Map<String, List<String>> getDefaultRequestHeaders() {
-            return defaultRequestHeaders;
-        }
-
-        public void setDefaultRequestHeaders(Map<String, List<String>> defaultRequestHeaders) {
-            this.defaultRequestHeaders = defaultRequestHeaders;
-        }
-    }
-
     public RegistryBuilder<ConnectionSocketFactory> getSocketFactoryRegistry() {
         return socketFactoryRegistry;
     }
@@ -19,6 +19,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -27,6 +28,7 @@ import javax.xml.ws.Binding;
 import javax.xml.ws.Endpoint;
 import javax.xml.ws.handler.Handler;
 
+import org.apache.commons.collections.MapUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
@@ -61,8 +63,11 @@ import com.mirth.connect.server.controllers.ConfigurationController;
 import com.mirth.connect.server.controllers.ContextFactoryController;
 import com.mirth.connect.server.controllers.ControllerFactory;
 import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.util.RequestTracker;
 import com.mirth.connect.server.util.TemplateValueReplacer;
 import com.mirth.connect.server.util.javascript.MirthContextFactory;
+import com.mirth.connect.util.PropertyLoader;
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpPrincipal;
@@ -72,6 +77,33 @@ public class WebServiceReceiver extends SourceConnector {
     // This determines how many client requests can queue up while waiting for the server socket to accept
     private static final int DEFAULT_BACKLOG = 256;
 
+    private static int maxInFlight = 0;
+    private static int busyStatusCode = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+
+    static {
+        /*
+         * Checks mirth.properties for the ws.receiver.maxinflight property. When it's greater than
+         * 0, Web Service Listeners only work on that many SOAP requests at once, and requests over
+         * the limit get the ws.receiver.busystatus status code right away instead of waiting for a
+         * thread. Requests for the WSDL aren't counted, so they're still answered while channels
+         * are busy.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            maxInFlight = NumberUtils.toInt(properties.getProperty("ws.receiver.maxinflight"), maxInFlight);
+            busyStatusCode = NumberUtils.toInt(properties.getProperty("ws.receiver.busystatus"), busyStatusCode);
+        }
+    }
+
+    /**
+     * Sets how many SOAP requests Web Service Listeners deployed after this is called work on at
+     * once, or 0 for no limit. This is read from ws.receiver.maxinflight at startup.
+     */
+    public static void setMaxInFlight(int maxInFlight) {
+        WebServiceReceiver.maxInFlight = maxInFlight;
+    }
+
     private Logger logger = Logger.getLogger(this.getClass());
     private EventController eventController = ControllerFactory.getFactory().createEventController();
     private ConfigurationController configurationController = ControllerFactory.getFactory().createConfigurationController();
@@ -84,10 +116,12 @@ public class WebServiceReceiver extends SourceConnector {
     private WebServiceReceiverProperties connectorProperties;
     private HttpAuthConnectorPluginProperties authProps;
     private AuthenticatorProvider authenticatorProvider;
+    private RequestTracker requestTracker = new RequestTracker(0);
 
     @Override
     public void onDeploy() throws ConnectorTaskException {
         this.connectorProperties = (WebServiceReceiverProperties) getConnectorProperties();
+        requestTracker = new RequestTracker(maxInFlight);
 
         // load the default configuration
         String configurationClass = configurationController.getProperty(connectorProperties.getProtocol(), "wsConfigurationClass");
@@ -151,6 +185,11 @@ public class WebServiceReceiver extends SourceConnector {
             processingThreads = 1;
         }
 
+        // With a limit, requests over it are turned away, so there only need to be threads for that many
+        if (requestTracker.getMaxInFlight() > 0) {
+            processingThreads = requestTracker.getMaxInFlight();
+        }
+
         // Allow more than the channel processing threads so WDSL requests can be accepted even if all processing threads are busy
         executor = Executors.newFixedThreadPool(processingThreads + 4);
         server.setExecutor(executor);
@@ -200,6 +239,7 @@ public class WebServiceReceiver extends SourceConnector {
             context.setAuthenticator(createAuthenticator());
         }
 
+        context.getFilters().add(new RequestLimitFilter());
         webServiceEndpoint.publish(context);
 
         eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
@@ -270,6 +310,8 @@ public class WebServiceReceiver extends SourceConnector {
         try {
             Thread.currentThread().setName("Web Service Receiver Thread on " + getChannel().getName() + " (" + getChannelId() + ") < " + originalThreadName);
 
+            long startTime = System.nanoTime();
+
             if (isProcessBatch()) {
                 try {
                     if (rawMessage.isBinary()) {
@@ -298,6 +340,8 @@ public class WebServiceReceiver extends SourceConnector {
                     finishDispatch(dispatchResult);
                 }
             }
+
+            requestTracker.record(RequestTracker.DISPATCH, System.nanoTime() - startTime);
         } finally {
             // TODO find a way to call this after the response was sent
             eventController.dispatchEvent(new ConnectionStatusEvent(getChannelId(), getMetaDataId(), getSourceName(), ConnectionStatusEventType.IDLE));
@@ -311,6 +355,59 @@ public class WebServiceReceiver extends SourceConnector {
         this.server = server;
     }
 
+    /**
+     * Returns the in-flight limit and the time spent in each stage by SOAP requests to this
+     * listener.
+     */
+    public RequestTracker getRequestTracker() {
+        return requestTracker;
+    }
+
+    /*
+     * Counts SOAP requests against the in-flight limit, and records how long each exchange takes.
+     * Requests over the limit are answered right away so they don't wait for a thread.
+     */
+    private class RequestLimitFilter extends Filter {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                chain.doFilter(exchange);
+                return;
+            }
+
+            if (!requestTracker.tryStart()) {
+                logger.debug("Too many requests in flight, responding with status " + busyStatusCode + " (channel: " + getChannelId() + ").");
+
+                try {
+                    byte[] body = "Too many requests are in progress, try again later.".getBytes("US-ASCII");
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+                    exchange.sendResponseHeaders(busyStatusCode, body.length);
+                    exchange.getResponseBody().write(body);
+                } finally {
+                    exchange.close();
+                }
+                return;
+            }
+
+            long startTime = System.nanoTime();
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                requestTracker.record(RequestTracker.EXCHANGE, System.nanoTime() - startTime);
+                requestTracker.finish();
+
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Web Service Listener requests on channel " + getChannelId() + ": " + requestTracker);
+                }
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Limits the number of SOAP requests in flight";
+        }
+    }
+
     private com.sun.net.httpserver.Authenticator createAuthenticator() throws ConnectorTaskException {
         final Authenticator authenticator;
         try {
@@ -33,6 +33,7 @@ public class ChannelProperties implements Serializable, Migratable, Purgable {
     private boolean clearGlobalChannelMap;
     private MessageStorageMode messageStorageMode;
     private boolean encryptData;
+    private boolean compressContent;
     private boolean removeContentOnCompletion;
     private boolean removeOnlyFilteredOnCompletion;
     private boolean removeAttachmentsOnCompletion;
@@ -46,6 +47,7 @@ public class ChannelProperties implements Serializable, Migratable, Purgable {
         clearGlobalChannelMap = true;
         messageStorageMode = MessageStorageMode.DEVELOPMENT;
         encryptData = false;
+        compressContent = false;
         initialState = DeployedState.STARTED;
         metaDataColumns = new ArrayList<MetaDataColumn>();
         attachmentProperties = AttachmentHandlerType.NONE.getDefaultProperties();
@@ -77,6 +79,14 @@ public class ChannelProperties implements Serializable, Migratable, Purgable {
         this.encryptData = encryptData;
     }
 
+    public boolean isCompressContent() {
+        return compressContent;
+    }
+
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
+
     public boolean isRemoveContentOnCompletion() {
         return removeContentOnCompletion;
     }
@@ -195,6 +205,7 @@ public class ChannelProperties implements Serializable, Migratable, Purgable {
         purgedProperties.put("clearGlobalChannelMap", clearGlobalChannelMap);
         purgedProperties.put("messageStorageMode", messageStorageMode);
         purgedProperties.put("encryptData", encryptData);
+        purgedProperties.put("compressContent", compressContent);
         purgedProperties.put("removeContentOnCompletion", removeContentOnCompletion);
         purgedProperties.put("removeAttachmentsOnCompletion", removeAttachmentsOnCompletion);
         purgedProperties.put("initialState", initialState);
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.model.converters;
+
+import com.mirth.connect.donkey.model.message.MessageSerializer;
+import com.mirth.connect.donkey.model.message.MessageSerializerException;
+
+/**
+ * A serializer that can give filters and transformers direct access to a message in its own
+ * format, so the message doesn't need to be converted to XML and back.
+ */
+public interface IMessageAccessorSerializer extends IMessageSerializer {
+
+    /**
+     * Returns true if filters and transformers should use an accessor instead of the serialized
+     * message, for messages that are encoded by the given serializer afterward.
+     */
+    public boolean isAccessorEnabled(MessageSerializer outboundSerializer);
+
+    /**
+     * Returns a JavaScript object for the message. Converting it to a string gives the message as
+     * the outbound serializer would encode it.
+     */
+    public Object createAccessor(String message, MessageSerializer outboundSerializer) throws MessageSerializerException;
+}
@@ -9,39 +9,63 @@
 
 package com.mirth.connect.model.transmission.framemode;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketException;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.log4j.Logger;
 
 import com.mirth.connect.donkey.server.message.StreamHandler;
 import com.mirth.connect.donkey.server.message.batch.BatchStreamReader;
 import com.mirth.connect.model.transmission.TransmissionModeProperties;
+import com.mirth.connect.model.transmission.batch.DefaultBatchStreamReader;
 import com.mirth.connect.util.TcpUtil;
 
 public class FrameStreamHandler extends StreamHandler {
 
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /*
+     * The read buffer is only used for the duration of a single read, so it is shared by the
+     * handlers on each thread instead of being allocated for each message.
+     */
+    private static final ThreadLocal<byte[]> readBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
+
     private Logger logger = Logger.getLogger(this.getClass());
 
     protected byte[] startOfMessageBytes;
     protected byte[] endOfMessageBytes;
     protected boolean returnDataOnException; // Determines whether data should be returned if an exception occurs.
 
-    private ByteArrayOutputStream capturedBytes; // The bytes captured so far by the reader, not including any in the end bytes buffer.
-    private List<Byte> endBytesBuffer; // An interim buffer of bytes used to capture the ending byte sequence.
+    private CapturedBytes capturedBytes = new CapturedBytes(); // The bytes captured so far by the reader, not including any in the end bytes buffer.
+    private byte[] endBytesBuffer = new byte[0]; // An interim buffer of bytes used to capture the ending byte sequence.
+    private int endBytesBufferSize;
+    private List<Byte> endBytesBufferList = new EndBytesBufferList(); // A read-only view of the end bytes buffer for the batch stream reader
+    private byte[] firstBytes = new byte[0]; // The first bytes read while looking for the start of message bytes.
+    private int firstBytesSize;
     private byte lastByte; // The last byte returned from getNextByte.
     private boolean streamDone; // This is true if an EOF has been read in, or if the ending byte sequence has been detected.
 
     private boolean checkStartOfMessageBytes;
     private int currentByte;
 
+    private byte[] readBuffer; // A block of bytes read ahead from the input stream, used when blockRead is true.
+    private int readBufferPosition;
+    private int readBufferLimit;
+
     public FrameStreamHandler(InputStream inputStream, OutputStream outputStream, BatchStreamReader batchStreamReader, TransmissionModeProperties transmissionModeProperties) {
         super(inputStream, outputStream, batchStreamReader);
         FrameModeProperties frameModeProperties = (FrameModeProperties) transmissionModeProperties;
@@ -106,23 +130,49 @@ public class FrameStreamHandler extends StreamHandler {
             return null;
         }
 
-        capturedBytes = new ByteArrayOutputStream();
-        List<Byte> firstBytes = new ArrayList<Byte>();
-        // A List is used here to allow the buffer to simulate a "shifting window" of potential bytes.
-        endBytesBuffer = new ArrayList<Byte>();
+        capturedBytes.reset();
+        firstBytesSize = 0;
+        endBytesBufferSize = 0;
+
+        if (firstBytes.length != startOfMessageBytes.length) {
+            firstBytes = new byte[startOfMessageBytes.length];
+        }
+        if (endBytesBuffer.length != endOfMessageBytes.length) {
+            endBytesBuffer = new byte[endOfMessageBytes.length];
+        }
+
+        boolean blockRead = isBlockReadSupported();
+
+        if (blockRead) {
+            readBuffer = readBuffers.get();
+        }
+
+        try {
+            return readFrame(blockRead);
+        } finally {
+            if (blockRead) {
+                // Return any bytes read past the end of this frame to the input stream
+                releaseReadBuffer();
+            }
+        }
+    }
 
+    private byte[] readFrame(boolean blockRead) throws IOException {
         try {
             // Skip to the beginning of the message
             if (checkStartOfMessageBytes) {
                 int i = 0;
 
                 while (i < startOfMessageBytes.length) {
-                    currentByte = inputStream.read();
-                    logger.trace("Checking for start of message bytes, currentByte: " + currentByte);
+                    currentByte = blockRead ? readBufferedByte() : inputStream.read();
+
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Checking for start of message bytes, currentByte: " + currentByte);
+                    }
 
                     if (currentByte != -1) {
-                        if (firstBytes.size() < startOfMessageBytes.length) {
-                            firstBytes.add((byte) currentByte);
+                        if (firstBytesSize < startOfMessageBytes.length) {
+                            firstBytes[firstBytesSize++] = (byte) currentByte;
                         }
 
                         if (currentByte == (int) (startOfMessageBytes[i] & 0xFF)) {
@@ -132,8 +182,8 @@ public class FrameStreamHandler extends StreamHandler {
                         }
                     } else {
                         streamDone = true;
-                        if (firstBytes.size() > 0) {
-                            throw new FrameStreamHandlerException(true, startOfMessageBytes, ArrayUtils.toPrimitive(firstBytes.toArray(new Byte[0])));
+                        if (firstBytesSize > 0) {
+                            throw new FrameStreamHandlerException(true, startOfMessageBytes, Arrays.copyOf(firstBytes, firstBytesSize));
                         } else {
                             // The input stream ended before the begin bytes were detected, so return null
                             return null;
@@ -149,10 +199,10 @@ public class FrameStreamHandler extends StreamHandler {
             batchStreamReader.initialize();
 
             // Iterate while there are still bytes to read, or if we're checking for end bytes and its buffer is not empty
-            while ((currentByte = batchStreamReader.getNextByte()) != -1 || (endOfMessageBytes.length > 0 && !endBytesBuffer.isEmpty())) {
+            while ((currentByte = blockRead ? readBufferedByte() : batchStreamReader.getNextByte()) != -1 || (endOfMessageBytes.length > 0 && endBytesBufferSize > 0)) {
                 // If the input stream is done, get the byte from the buffer instead
                 if (currentByte == -1) {
-                    currentByte = endBytesBuffer.remove(0);
+                    currentByte = removeFirstEndByte();
                     streamDone = true;
                 } else {
                     lastByte = (byte) currentByte;
@@ -160,18 +210,18 @@ public class FrameStreamHandler extends StreamHandler {
 
                 // Check to see if an end frame has been received
                 if (endOfMessageBytes.length > 0 && !streamDone) {
-                    if (endBytesBuffer.size() == endOfMessageBytes.length) {
+                    if (endBytesBufferSize == endOfMessageBytes.length) {
                         // Shift the buffer window over one, popping the first element and writing it to the output stream
-                        capturedBytes.write(endBytesBuffer.remove(0));
+                        capturedBytes.write(removeFirstEndByte());
                     }
 
                     // Add the byte to the buffer
-                    endBytesBuffer.add((byte) currentByte);
+                    endBytesBuffer[endBytesBufferSize++] = (byte) currentByte;
 
                     // Check to see if the current buffer window equals the ending byte sequence
                     boolean endBytesFound = true;
-                    for (int i = 0; i <= endBytesBuffer.size() - 1; i++) {
-                        if (endBytesBuffer.get(i) != endOfMessageBytes[i]) {
+                    for (int i = 0; i <= endBytesBufferSize - 1; i++) {
+                        if (endBytesBuffer[i] != endOfMessageBytes[i]) {
                             endBytesFound = false;
                             break;
                         }
@@ -187,9 +237,10 @@ public class FrameStreamHandler extends StreamHandler {
                     capturedBytes.write(currentByte);
                 }
 
-                if (!streamDone) {
+                // The default batch stream reader never returns intermediate messages
+                if (!streamDone && !blockRead) {
                     // Allow subclass to check the current byte stream and return immediately
-                    byte[] returnBytes = batchStreamReader.checkForIntermediateMessage(capturedBytes, endBytesBuffer, lastByte);
+                    byte[] returnBytes = batchStreamReader.checkForIntermediateMessage(capturedBytes, endBytesBufferList, lastByte);
                     if (returnBytes != null) {
                         return returnBytes;
                     }
@@ -200,11 +251,11 @@ public class FrameStreamHandler extends StreamHandler {
                 if (e instanceof IOException) {
                     // If an IOException occurred and we're not allowing data to return, throw the exception
 
-                    if (checkStartOfMessageBytes && firstBytes.size() > 0) {
+                    if (checkStartOfMessageBytes && firstBytesSize > 0) {
                         // At least some bytes have been read, but the start of message bytes were not detected
-                        throw new FrameStreamHandlerException(true, startOfMessageBytes, ArrayUtils.toPrimitive(firstBytes.toArray(new Byte[0])), e);
+                        throw new FrameStreamHandlerException(true, startOfMessageBytes, Arrays.copyOf(firstBytes, firstBytesSize), e);
                     }
-                    if (capturedBytes.size() + endBytesBuffer.size() > 0 && endOfMessageBytes.length > 0) {
+                    if (capturedBytes.size() + endBytesBufferSize > 0 && endOfMessageBytes.length > 0) {
                         // At least some bytes have been captured, but the end of message bytes were not detected
                         throw new FrameStreamHandlerException(false, endOfMessageBytes, getLastBytes(), e);
                     }
@@ -229,9 +280,8 @@ public class FrameStreamHandler extends StreamHandler {
         }
 
         // Flush the buffer to the main output stream
-        for (Byte bufByte : endBytesBuffer) {
-            capturedBytes.write(bufByte);
-        }
+        capturedBytes.write(endBytesBuffer, 0, endBytesBufferSize);
+        endBytesBufferSize = 0;
 
         return capturedBytes.size() > 0 ? capturedBytes.toByteArray() : null;
     }
@@ -254,9 +304,7 @@ public class FrameStreamHandler extends StreamHandler {
 
         for (byte[] data : dataArrays) {
             if (data != null) {
-                for (byte b : data) {
-                    dos.writeByte(b);
-                }
+                dos.write(data);
             }
         }
 
@@ -267,29 +315,119 @@ public class FrameStreamHandler extends StreamHandler {
         }
     }
 
+    /*
+     * Reading a block at a time is only done when the bytes can be handed back to the input stream
+     * afterwards, since the TCP connectors create a new stream handler for each message read from
+     * the same socket. The stream classes are matched exactly because a subclass may override the
+     * single byte read without overriding the block read. Any other batch stream reader may read
+     * from the stream itself, so those are always read a byte at a time.
+     */
+    private boolean isBlockReadSupported() {
+        Class<?> inputStreamClass = inputStream.getClass();
+        return (inputStreamClass == BufferedInputStream.class || inputStreamClass == ByteArrayInputStream.class) && batchStreamReader != null && batchStreamReader.getClass() == DefaultBatchStreamReader.class && batchStreamReader.getInputStream() == inputStream;
+    }
+
+    private int readBufferedByte() throws IOException {
+        if (readBufferPosition == readBufferLimit) {
+            readBufferPosition = 0;
+            readBufferLimit = 0;
+
+            inputStream.mark(readBuffer.length);
+            int count;
+
+            try {
+                count = inputStream.read(readBuffer, 0, readBuffer.length);
+            } catch (IOException e) {
+                // The block read may have consumed some bytes before failing, so hand them back
+                inputStream.reset();
+                throw e;
+            }
+
+            if (count <= 0) {
+                return -1;
+            }
+
+            readBufferLimit = count;
+        }
+
+        return readBuffer[readBufferPosition++] & 0xFF;
+    }
+
+    private void releaseReadBuffer() throws IOException {
+        if (readBufferPosition < readBufferLimit) {
+            inputStream.reset();
+            long remaining = readBufferPosition;
+
+            while (remaining > 0) {
+                long skipped = inputStream.skip(remaining);
+
+                if (skipped <= 0) {
+                    break;
+                }
+
+                remaining -= skipped;
+            }
+        }
+
+        readBuffer = null;
+        readBufferPosition = 0;
+        readBufferLimit = 0;
+    }
+
+    private byte removeFirstEndByte() {
+        byte firstByte = endBytesBuffer[0];
+
+        for (int i = 1; i < endBytesBufferSize; i++) {
+            endBytesBuffer[i - 1] = endBytesBuffer[i];
+        }
+
+        endBytesBufferSize--;
+        return firstByte;
+    }
+
     private byte[] getLastBytes() {
-        int capturedBytesLength = capturedBytes != null ? capturedBytes.size() : 0;
-        int endBytesBufferLength = endBytesBuffer != null ? endBytesBuffer.size() : 0;
+        int capturedBytesLength = capturedBytes.size();
         // If the total bytes read is less than the number of expected end bytes, use the smaller value
-        byte[] lastBytes = new byte[Math.min(capturedBytesLength + endBytesBufferLength, endOfMessageBytes.length)];
+        byte[] lastBytes = new byte[Math.min(capturedBytesLength + endBytesBufferSize, endOfMessageBytes.length)];
         int index = 0;
 
         // Add any captured bytes, leaving room for the end bytes buffer
-        if (capturedBytes != null) {
-            byte[] capturedByteArray = capturedBytes.toByteArray();
+        byte[] capturedByteArray = capturedBytes.getBuffer();
 
-            for (int i = capturedBytesLength - lastBytes.length + endBytesBufferLength; i >= 0 && i < capturedBytesLength; i++) {
-                lastBytes[index++] = capturedByteArray[i];
-            }
+        for (int i = capturedBytesLength - lastBytes.length + endBytesBufferSize; i >= 0 && i < capturedBytesLength; i++) {
+            lastBytes[index++] = capturedByteArray[i];
         }
 
         // Fill the remainder of the array with the end bytes buffer
-        if (endBytesBuffer != null) {
-            for (byte b : endBytesBuffer) {
-                lastBytes[index++] = b;
-            }
+        for (int i = 0; i < endBytesBufferSize; i++) {
+            lastBytes[index++] = endBytesBuffer[i];
         }
 
         return lastBytes;
     }
+
+    /*
+     * Reused for each frame so the captured bytes can be inspected without copying them.
+     */
+    private static class CapturedBytes extends ByteArrayOutputStream {
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private class EndBytesBufferList extends AbstractList<Byte> {
+        @Override
+        public Byte get(int index) {
+            if (index < 0 || index >= endBytesBufferSize) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + endBytesBufferSize);
+            }
+
+            return endBytesBuffer[index];
+        }
+
+        @Override
+        public int size() {
+            return endBytesBufferSize;
+        }
+    }
 }
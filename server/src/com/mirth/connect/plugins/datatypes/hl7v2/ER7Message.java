@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ER7-encoded HL7 message that is only split up as far as it is used. The segments are indexed
+ * by their offsets in the message the first time they are needed, and fields, repetitions,
+ * components and subcomponents are located by scanning the segment each time they are read. A
+ * segment is only copied once it is edited, so the rest of the message is written out directly
+ * from the original string.
+ *
+ * Fields are numbered the same way as the XML produced by ER7Serializer, so MSH.1 is the field
+ * separator and MSH.2 holds the encoding characters.
+ */
+public class ER7Message {
+    private static final int NONE = -1;
+
+    private String message;
+    private boolean handleRepetitions;
+    private boolean handleSubcomponents;
+    private String segmentDelimiters;
+    private String outputSegmentDelimiter;
+
+    private List<Segment> segments;
+    private char fieldSeparator;
+    private char componentSeparator;
+    private char repetitionSeparator;
+    private int subcomponentSeparator;
+
+    /**
+     * @param segmentDelimiters
+     *            The characters that end a segment. Any one of them ends a segment, and empty
+     *            segments are skipped.
+     * @param outputSegmentDelimiter
+     *            The delimiter written after each segment by toString.
+     */
+    public ER7Message(String message, boolean handleRepetitions, boolean handleSubcomponents, String segmentDelimiters, String outputSegmentDelimiter) {
+        this.message = message;
+        this.handleRepetitions = handleRepetitions;
+        this.handleSubcomponents = handleSubcomponents;
+        this.segmentDelimiters = segmentDelimiters;
+        this.outputSegmentDelimiter = outputSegmentDelimiter;
+    }
+
+    public String getOutputSegmentDelimiter() {
+        return outputSegmentDelimiter;
+    }
+
+    /**
+     * Returns the segments in the message, in order.
+     */
+    public List<Segment> getSegments() {
+        if (segments == null) {
+            index();
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the segments with the given name, in order.
+     */
+    public List<Segment> getSegments(String name) {
+        List<Segment> namedSegments = new ArrayList<Segment>();
+        for (Segment segment : getSegments()) {
+            if (segment.getName().equals(name)) {
+                namedSegments.add(segment);
+            }
+        }
+        return namedSegments;
+    }
+
+    /**
+     * Appends an empty segment with the given name to the end of the message.
+     */
+    public Segment addSegment(String name) {
+        Segment segment = new Segment(name);
+        getSegments().add(segment);
+        return segment;
+    }
+
+    public void removeSegment(Segment segment) {
+        getSegments().remove(segment);
+    }
+
+    /**
+     * Returns the message with each segment followed by the output segment delimiter.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(message.length() + 64);
+        for (Segment segment : getSegments()) {
+            segment.appendTo(builder);
+            builder.append(outputSegmentDelimiter);
+        }
+        return builder.toString();
+    }
+
+    private void index() {
+        segments = new ArrayList<Segment>();
+
+        // Leading and trailing whitespace is ignored, the same as String.trim
+        int start = 0;
+        int end = message.length();
+        while (start < end && message.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && message.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int segmentStart = start;
+        while (segmentStart < end) {
+            int segmentEnd = segmentStart;
+            while (segmentEnd < end && segmentDelimiters.indexOf(message.charAt(segmentEnd)) == -1) {
+                segmentEnd++;
+            }
+
+            if (segmentEnd > segmentStart) {
+                segments.add(new Segment(segmentStart, segmentEnd));
+            }
+
+            segmentStart = segmentEnd + 1;
+        }
+
+        readEncodingCharacters(start, end);
+    }
+
+    /*
+     * Uses the same defaults and header rules as ER7Reader.
+     */
+    private void readEncodingCharacters(int start, int end) {
+        fieldSeparator = '|';
+        componentSeparator = '^';
+        repetitionSeparator = '~';
+        subcomponentSeparator = NONE;
+
+        if (end - start >= 4 && isHeader(message.substring(start, start + 3).toUpperCase())) {
+            fieldSeparator = message.charAt(start + 3);
+
+            int nextDelimiter = message.indexOf(fieldSeparator, start + 4);
+            if (nextDelimiter == -1 || nextDelimiter > end) {
+                nextDelimiter = end;
+            }
+            nextDelimiter -= start;
+
+            if (nextDelimiter > 4) {
+                componentSeparator = message.charAt(start + 4);
+            }
+            if (nextDelimiter > 5) {
+                repetitionSeparator = message.charAt(start + 5);
+            }
+            if (nextDelimiter > 7) {
+                subcomponentSeparator = message.charAt(start + 7);
+            }
+        }
+
+        // Replace the special case of ^~& with ^~\& (MIRTH-1544)
+        if (end - start >= 8 && message.startsWith("^~&|", start + 4)) {
+            subcomponentSeparator = '&';
+            repetitionSeparator = '~';
+            componentSeparator = '^';
+        }
+    }
+
+    private static boolean isHeader(String name) {
+        return name.equals("MSH") || name.equals("FHS") || name.equals("BHS");
+    }
+
+    /**
+     * A segment in the message. Until it is edited, a segment only holds its offsets in the
+     * original message.
+     */
+    public class Segment {
+        private int start;
+        private int end;
+        private String text;
+        private String name;
+
+        private Segment(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private Segment(String name) {
+            this.name = name;
+            this.text = name;
+            this.end = name.length();
+        }
+
+        public String getName() {
+            if (name == null) {
+                CharSequence chars = getChars();
+                int nameEnd = indexOf(chars, fieldSeparator, start, end);
+                name = chars.subSequence(start, nameEnd == -1 ? end : nameEnd).toString().trim();
+            }
+            return name;
+        }
+
+        public String getText() {
+            return getChars().subSequence(start, end).toString();
+        }
+
+        /**
+         * Replaces the whole segment.
+         */
+        public void setText(String text) {
+            this.text = text;
+            this.start = 0;
+            this.end = text.length();
+            this.name = null;
+        }
+
+        /**
+         * Returns the value at the given position, or null if the segment doesn't have one there.
+         *
+         * @param repetition
+         *            The zero-based repetition of the field, or -1 for the whole field.
+         * @param component
+         *            The component number, or 0 for the whole repetition.
+         * @param subcomponent
+         *            The subcomponent number, or 0 for the whole component.
+         */
+        public String getValue(int field, int repetition, int component, int subcomponent) {
+            if (isHeader() && field <= 2) {
+                if (repetition > 0 || component > 0) {
+                    return null;
+                } else if (field == 1) {
+                    return String.valueOf(fieldSeparator);
+                }
+
+                // The encoding characters aren't split up
+                repetition = -1;
+            }
+
+            CharSequence chars = getChars();
+            int[] range = locate(chars, field, repetition, component, subcomponent);
+            return range == null ? null : chars.subSequence(range[0], range[1]).toString();
+        }
+
+        /**
+         * Returns the number of repetitions of the field, or 0 if the segment doesn't have it.
+         */
+        public int getRepetitionCount(int field) {
+            if (isHeader() && field == 1) {
+                return 1;
+            }
+
+            CharSequence chars = getChars();
+            int[] range = locate(chars, field, -1, 0, 0);
+            if (range == null) {
+                return 0;
+            } else if (!handleRepetitions || (isHeader() && field == 2)) {
+                return 1;
+            }
+
+            int count = 1;
+            for (int i = range[0]; i < range[1]; i++) {
+                if (chars.charAt(i) == repetitionSeparator) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Sets the value at the given position, adding separators to the segment as needed. The
+         * positions are the same as for getValue.
+         */
+        public void setValue(int field, int repetition, int component, int subcomponent, String value) {
+            if (isHeader() && field <= 2) {
+                throw new IllegalArgumentException("The encoding characters in " + getName() + "." + field + " cannot be changed.");
+            }
+
+            StringBuilder builder = new StringBuilder(end - start + value.length() + 8);
+            appendTo(builder);
+
+            int[] range = { 0, builder.length() };
+            range = locateOrAdd(builder, range, fieldSeparator, isHeader() ? field - 1 : field);
+            if (repetition >= 0) {
+                range = handleRepetitions ? locateOrAdd(builder, range, repetitionSeparator, repetition) : range;
+            }
+            if (component > 0) {
+                range = locateOrAdd(builder, range, componentSeparator, component - 1);
+                if (subcomponent > 0 && handleSubcomponents && subcomponentSeparator != NONE) {
+                    range = locateOrAdd(builder, range, (char) subcomponentSeparator, subcomponent - 1);
+                }
+            }
+
+            builder.replace(range[0], range[1], value);
+            setText(builder.toString());
+        }
+
+        private boolean isHeader() {
+            return ER7Message.isHeader(getName());
+        }
+
+        private CharSequence getChars() {
+            return text != null ? text : message;
+        }
+
+        private void appendTo(StringBuilder builder) {
+            builder.append(getChars(), start, end);
+        }
+
+        private int[] locate(CharSequence chars, int field, int repetition, int component, int subcomponent) {
+            // The header's field separator is MSH.1, so MSH.2 is the first field after the name
+            int[] range = token(chars, start, end, fieldSeparator, isHeader() ? field - 1 : field);
+
+            if (range != null && repetition >= 0) {
+                if (handleRepetitions) {
+                    range = token(chars, range[0], range[1], repetitionSeparator, repetition);
+                } else if (repetition > 0) {
+                    range = null;
+                }
+            }
+
+            if (range != null && component > 0) {
+                range = token(chars, range[0], range[1], componentSeparator, component - 1);
+
+                if (range != null && subcomponent > 0) {
+                    if (handleSubcomponents && subcomponentSeparator != NONE) {
+                        range = token(chars, range[0], range[1], (char) subcomponentSeparator, subcomponent - 1);
+                    } else if (subcomponent > 1) {
+                        range = null;
+                    }
+                }
+            }
+
+            return range;
+        }
+    }
+
+    /*
+     * Returns the start and end of the token at the given index, or null if there are fewer
+     * tokens than that.
+     */
+    private static int[] token(CharSequence chars, int start, int end, char separator, int index) {
+        int tokenStart = start;
+        for (int i = 0; i < index; i++) {
+            int next = indexOf(chars, separator, tokenStart, end);
+            if (next == -1) {
+                return null;
+            }
+            tokenStart = next + 1;
+        }
+
+        int tokenEnd = indexOf(chars, separator, tokenStart, end);
+        return new int[] { tokenStart, tokenEnd == -1 ? end : tokenEnd };
+    }
+
+    /*
+     * Same as token, except separators are inserted at the end of the range if there are too few
+     * tokens.
+     */
+    private static int[] locateOrAdd(StringBuilder builder, int[] range, char separator, int index) {
+        int[] token = token(builder, range[0], range[1], separator, index);
+        if (token != null) {
+            return token;
+        }
+
+        int count = 1;
+        for (int i = range[0]; i < range[1]; i++) {
+            if (builder.charAt(i) == separator) {
+                count++;
+            }
+        }
+
+        int position = range[1];
+        for (int i = count; i <= index; i++) {
+            builder.insert(position++, separator);
+        }
+        return new int[] { position, position };
+    }
+
+    private static int indexOf(CharSequence chars, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (chars.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import com.mirth.connect.plugins.datatypes.hl7v2.ER7Message.Segment;
+
+/**
+ * Exposes an ER7Message to filter and transformer scripts with the same property names as the
+ * XML produced by ER7Serializer, so msg['PID']['PID.3']['PID.3.1'] reads the first component of
+ * PID.3, and assigning to it edits the message. As with E4X, a segment or field name selects every
+ * repetition, indexing into it selects one, and anything that doesn't exist yet reads as an empty
+ * string and is added when it's assigned. The value of a node is its ER7 text, and unlike E4X,
+ * whitespace around values is kept.
+ *
+ * Only property access, assignment, delete, for each and the toString, text and length functions
+ * are supported. Other E4X features such as XML literals, filters and descendant access are not.
+ */
+public class ER7Node extends ScriptableObject {
+    private static final Map<String, BaseFunction> functions = new HashMap<String, BaseFunction>();
+
+    static {
+        functions.put("toString", new NodeFunction() {
+            @Override
+            protected Object call(ER7Node node) {
+                return node.getText();
+            }
+        });
+        functions.put("text", functions.get("toString"));
+        functions.put("length", new NodeFunction() {
+            @Override
+            protected Object call(ER7Node node) {
+                return node.length();
+            }
+        });
+    }
+
+    private ER7Message message;
+    // null for the message itself
+    private String segmentName;
+    // -1 for every segment with the name
+    private int segmentIndex = -1;
+    // 0 for a segment
+    private int field;
+    // -1 for every repetition of the field
+    private int repetition = -1;
+    private int component;
+    private int subcomponent;
+
+    public ER7Node(ER7Message message) {
+        this.message = message;
+    }
+
+    private ER7Node(ER7Node parent, String segmentName, int segmentIndex, int field, int repetition, int component, int subcomponent) {
+        this.message = parent.message;
+        this.segmentName = segmentName;
+        this.segmentIndex = segmentIndex;
+        this.field = field;
+        this.repetition = repetition;
+        this.component = component;
+        this.subcomponent = subcomponent;
+        setParentScope(parent.getParentScope());
+        setPrototype(parent.getPrototype());
+    }
+
+    public ER7Message getMessage() {
+        return message;
+    }
+
+    @Override
+    public String getClassName() {
+        return "ER7Message";
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        BaseFunction function = functions.get(name);
+        if (function != null) {
+            return function;
+        }
+
+        ER7Node child = getChild(name);
+        return child != null ? child : super.get(name, start);
+    }
+
+    @Override
+    public Object get(int index, Scriptable start) {
+        ER7Node item = getItem(index);
+        return item != null ? item : super.get(index, start);
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+        return functions.containsKey(name) || getChild(name) != null || super.has(name, start);
+    }
+
+    @Override
+    public boolean has(int index, Scriptable start) {
+        return index >= 0 && index < length();
+    }
+
+    @Override
+    public void put(String name, Scriptable start, Object value) {
+        ER7Node child = getChild(name);
+        if (child != null) {
+            child.setText(toText(value));
+        } else {
+            super.put(name, start, value);
+        }
+    }
+
+    @Override
+    public void put(int index, Scriptable start, Object value) {
+        ER7Node item = getItem(index);
+        if (item != null) {
+            item.setText(toText(value));
+        } else {
+            throw Context.reportRuntimeError("Index " + index + " cannot be assigned in " + getPath() + ".");
+        }
+    }
+
+    @Override
+    public void delete(String name) {
+        ER7Node child = getChild(name);
+        if (child != null) {
+            child.remove();
+        } else {
+            super.delete(name);
+        }
+    }
+
+    @Override
+    public void delete(int index) {
+        ER7Node item = getItem(index);
+        if (item != null) {
+            item.remove();
+        }
+    }
+
+    @Override
+    public Object[] getIds() {
+        int length = length();
+        Object[] ids = new Object[length];
+        for (int i = 0; i < length; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+
+    @Override
+    public Object getDefaultValue(Class<?> hint) {
+        return getText();
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+
+    /*
+     * Child names are the segment name followed by one more number than this node has, such as
+     * PID.3 for PID and PID.3.1 for PID.3.
+     */
+    private ER7Node getChild(String name) {
+        if (segmentName == null) {
+            if (name.length() > 0 && name.indexOf('.') == -1 && (Character.isUpperCase(name.charAt(0)) || Character.isDigit(name.charAt(0)))) {
+                return new ER7Node(this, name, -1, 0, -1, 0, 0);
+            }
+            return null;
+        } else if (subcomponent > 0 || !name.startsWith(segmentName + ".")) {
+            return null;
+        }
+
+        String[] numbers = StringUtils.split(name.substring(segmentName.length() + 1), '.');
+        int depth = field == 0 ? 1 : component == 0 ? 2 : 3;
+        if (numbers.length != depth) {
+            return null;
+        }
+
+        int[] values = new int[depth];
+        for (int i = 0; i < depth; i++) {
+            if (!StringUtils.isNumeric(numbers[i]) || numbers[i].length() > 9 || (values[i] = Integer.parseInt(numbers[i])) < 1) {
+                return null;
+            }
+        }
+
+        if (depth == 1) {
+            return new ER7Node(this, segmentName, segmentIndex, values[0], -1, 0, 0);
+        } else if (values[0] != field) {
+            return null;
+        } else if (depth == 2) {
+            return new ER7Node(this, segmentName, segmentIndex, field, Math.max(repetition, 0), values[1], 0);
+        } else if (values[1] != component) {
+            return null;
+        } else {
+            return new ER7Node(this, segmentName, segmentIndex, field, repetition, component, values[2]);
+        }
+    }
+
+    /*
+     * Segment and field names select a list that can be indexed. Anything else is a single item,
+     * which is its own first item.
+     */
+    private ER7Node getItem(int index) {
+        if (index < 0) {
+            return null;
+        } else if (segmentName != null && field == 0 && segmentIndex == -1) {
+            return new ER7Node(this, segmentName, index, 0, -1, 0, 0);
+        } else if (isFieldList()) {
+            return new ER7Node(this, segmentName, segmentIndex, field, index, 0, 0);
+        } else {
+            return index == 0 ? this : null;
+        }
+    }
+
+    private boolean isFieldList() {
+        return field > 0 && repetition == -1;
+    }
+
+    public String getText() {
+        if (segmentName == null) {
+            return message.toString();
+        } else if (field == 0 && segmentIndex == -1) {
+            List<Segment> segments = message.getSegments(segmentName);
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < segments.size(); i++) {
+                if (i > 0) {
+                    builder.append(message.getOutputSegmentDelimiter());
+                }
+                builder.append(segments.get(i).getText());
+            }
+            return builder.toString();
+        }
+
+        Segment segment = getSegment(false);
+        if (segment == null) {
+            return "";
+        } else if (field == 0) {
+            return segment.getText();
+        }
+
+        String value = segment.getValue(field, repetition, component, subcomponent);
+        return value != null ? value : "";
+    }
+
+    public int length() {
+        if (segmentName == null) {
+            return 1;
+        } else if (field == 0 && segmentIndex == -1) {
+            return message.getSegments(segmentName).size();
+        }
+
+        Segment segment = getSegment(false);
+        if (segment == null) {
+            return 0;
+        } else if (field == 0) {
+            return 1;
+        } else if (isFieldList()) {
+            return segment.getRepetitionCount(field);
+        } else {
+            return segment.getValue(field, repetition, component, subcomponent) != null ? 1 : 0;
+        }
+    }
+
+    private void setText(String text) {
+        if (segmentName == null) {
+            throw Context.reportRuntimeError("The message cannot be assigned to directly.");
+        }
+
+        try {
+            if (field == 0) {
+                getSegment(true).setText(text);
+            } else {
+                getSegment(true).setValue(field, repetition, component, subcomponent, text);
+            }
+        } catch (IllegalArgumentException e) {
+            throw Context.reportRuntimeError(e.getMessage());
+        }
+    }
+
+    private void remove() {
+        if (segmentName == null) {
+            return;
+        } else if (field == 0 && segmentIndex == -1) {
+            for (Segment segment : message.getSegments(segmentName)) {
+                message.removeSegment(segment);
+            }
+            return;
+        }
+
+        Segment segment = getSegment(false);
+        if (segment == null) {
+            return;
+        } else if (field == 0) {
+            message.removeSegment(segment);
+        } else if (segment.getValue(field, repetition, component, subcomponent) != null) {
+            setText("");
+        }
+    }
+
+    /*
+     * Returns the selected segment, or the first one if every segment with the name is selected.
+     * Missing segments are appended to the message if create is true.
+     */
+    private Segment getSegment(boolean create) {
+        List<Segment> segments = message.getSegments(segmentName);
+        int index = Math.max(segmentIndex, 0);
+
+        if (index < segments.size()) {
+            return segments.get(index);
+        } else if (!create) {
+            return null;
+        }
+
+        Segment segment = null;
+        for (int i = segments.size(); i <= index; i++) {
+            segment = message.addSegment(segmentName);
+        }
+        return segment;
+    }
+
+    private String getPath() {
+        if (segmentName == null) {
+            return "msg";
+        }
+
+        StringBuilder path = new StringBuilder(segmentName);
+        if (field > 0) {
+            path.append('.').append(field);
+            if (component > 0) {
+                path.append('.').append(component);
+                if (subcomponent > 0) {
+                    path.append('.').append(subcomponent);
+                }
+            }
+        }
+        return path.toString();
+    }
+
+    private static String toText(Object value) {
+        return value instanceof ER7Node ? ((ER7Node) value).getText() : Context.toString(value);
+    }
+
+    private static abstract class NodeFunction extends BaseFunction {
+        @Override
+        public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+            if (!(thisObj instanceof ER7Node)) {
+                throw Context.reportRuntimeError("The function can only be called on an ER7 message.");
+            }
+            return call((ER7Node) thisObj);
+        }
+
+        protected abstract Object call(ER7Node node);
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import org.xml.sax.SAXException;
+
+import com.mirth.connect.util.MirthXmlUtil;
+
+/**
+ * Converts an ER7-encoded HL7 message to XML in a single pass. The XML is written straight into a
+ * StringBuilder, and is the same as what ER7Reader produces when its events are written by an
+ * XMLPrettyPrinter. Segments, fields, repetitions, components and subcomponents are located by
+ * their offsets in the message, so no substrings are created other than the segment names.
+ */
+public class ER7Scanner {
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final int NONE = -1;
+
+    private boolean handleRepetitions;
+    private boolean handleSubcomponents;
+    private String segmentDelimiters;
+
+    private CharSequence message;
+    private StringBuilder output;
+    private int fieldSeparator;
+    private int componentSeparator;
+    private int repetitionSeparator;
+    private int escapeCharacter;
+    private int subcomponentSeparator;
+
+    /**
+     * @param segmentDelimiters
+     *            The characters that end a segment. As with StringUtils.split, any one of them
+     *            ends a segment, and empty segments are skipped.
+     */
+    public ER7Scanner(boolean handleRepetitions, boolean handleSubcomponents, String segmentDelimiters) {
+        this.handleRepetitions = handleRepetitions;
+        this.handleSubcomponents = handleSubcomponents;
+        this.segmentDelimiters = segmentDelimiters;
+    }
+
+    /**
+     * Appends the XML for the message to the output.
+     */
+    public void toXML(CharSequence message, StringBuilder output) throws SAXException {
+        this.message = message;
+        this.output = output;
+
+        try {
+            output.append(XML_DECLARATION);
+
+            // Leading and trailing whitespace is ignored, the same as String.trim
+            int start = 0;
+            int end = message.length();
+            while (start < end && message.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && message.charAt(end - 1) <= ' ') {
+                end--;
+            }
+
+            if (end - start < 6) {
+                throw new SAXException("Unable to parse message. It is NULL or too short. " + message.subSequence(start, end));
+            }
+
+            readEncodingCharacters(start, end);
+
+            boolean rootStarted = false;
+            int segmentStart = start;
+
+            while (segmentStart < end) {
+                int segmentEnd = segmentStart;
+                while (segmentEnd < end && !isSegmentDelimiter(message.charAt(segmentEnd))) {
+                    segmentEnd++;
+                }
+
+                if (segmentEnd > segmentStart) {
+                    if (!rootStarted) {
+                        startElement(ER7Reader.MESSAGE_ROOT_ID);
+                        rootStarted = true;
+                    }
+
+                    handleSegment(segmentStart, segmentEnd);
+                }
+
+                segmentStart = segmentEnd + 1;
+            }
+
+            endElement(rootStarted ? ER7Reader.MESSAGE_ROOT_ID : "");
+        } finally {
+            this.message = null;
+            this.output = null;
+        }
+    }
+
+    private void readEncodingCharacters(int start, int end) {
+        fieldSeparator = '|';
+        componentSeparator = '^';
+        repetitionSeparator = '~';
+        escapeCharacter = NONE;
+        subcomponentSeparator = NONE;
+
+        // If we have a header, grab the actual separators from the message
+        String firstSegment = message.subSequence(start, start + 3).toString();
+        if (firstSegment.equalsIgnoreCase("MSH") || firstSegment.equalsIgnoreCase("FHS") || firstSegment.equalsIgnoreCase("BHS")) {
+            fieldSeparator = message.charAt(start + 3);
+
+            int nextDelimiter = indexOf(fieldSeparator, start + 4, end);
+            if (nextDelimiter == -1) {
+                // If the message is just MSH|^~\&, we still want to extract the encoding characters
+                nextDelimiter = end;
+            }
+            nextDelimiter -= start;
+
+            if (nextDelimiter > 4) {
+                componentSeparator = message.charAt(start + 4);
+            }
+            if (nextDelimiter > 5) {
+                repetitionSeparator = message.charAt(start + 5);
+            }
+            if (nextDelimiter > 6) {
+                escapeCharacter = message.charAt(start + 6);
+            }
+            if (nextDelimiter > 7) {
+                subcomponentSeparator = message.charAt(start + 7);
+            }
+        }
+
+        // Replace the special case of ^~& with ^~\& (MIRTH-1544)
+        if (end - start >= 8 && message.charAt(start + 4) == '^' && message.charAt(start + 5) == '~' && message.charAt(start + 6) == '&' && message.charAt(start + 7) == '|') {
+            escapeCharacter = '\\';
+            subcomponentSeparator = '&';
+            repetitionSeparator = '~';
+            componentSeparator = '^';
+        }
+    }
+
+    private void handleSegment(int start, int end) {
+        // The XML element is named after the first field, or the field separator if the segment starts with one
+        int position;
+        String segmentId;
+
+        if (message.charAt(start) == fieldSeparator) {
+            segmentId = String.valueOf((char) fieldSeparator);
+            position = start + 1;
+        } else {
+            position = indexOf(fieldSeparator, start, end);
+            if (position == -1) {
+                position = end;
+            }
+            segmentId = message.subSequence(start, position).toString().trim();
+        }
+
+        boolean header = segmentId.equals("MSH") || segmentId.equals("FHS") || segmentId.equals("BHS");
+        int fieldId = 0;
+        boolean atLastField = false;
+
+        startElement(segmentId);
+
+        while (position < end) {
+            if (message.charAt(position) == fieldSeparator) {
+                if (atLastField) {
+                    emptyElement(segmentId, fieldId, 0, 0);
+                }
+
+                fieldId++;
+                atLastField = true;
+                position++;
+            } else {
+                int fieldEnd = indexOf(fieldSeparator, position, end);
+                if (fieldEnd == -1) {
+                    fieldEnd = end;
+                }
+                atLastField = false;
+
+                if (header && fieldId == 1) {
+                    // The encoding characters are written as they were found, instead of the field itself
+                    startElement(segmentId, fieldId, 0, 0);
+                    encode((char) fieldSeparator);
+                    endElement(segmentId, fieldId, 0, 0);
+                    fieldId++;
+
+                    startElement(segmentId, fieldId, 0, 0);
+                    encode((char) componentSeparator);
+                    encode((char) repetitionSeparator);
+                    if (escapeCharacter != NONE) {
+                        encode((char) escapeCharacter);
+                    }
+                    if (subcomponentSeparator != NONE) {
+                        encode((char) subcomponentSeparator);
+                    }
+                    endElement(segmentId, fieldId, 0, 0);
+                } else if (header && fieldId == 2) {
+                    // do nothing
+                } else if (handleRepetitions) {
+                    handleFieldRepetitions(segmentId, fieldId, position, fieldEnd);
+                } else {
+                    handleField(segmentId, fieldId, position, fieldEnd);
+                }
+
+                position = fieldEnd;
+            }
+        }
+
+        if (atLastField) {
+            emptyElement(segmentId, fieldId, 0, 0);
+        }
+
+        endElement(segmentId);
+    }
+
+    private void handleFieldRepetitions(String segmentId, int fieldId, int start, int end) {
+        boolean atLastRepetition = true;
+        int position = start;
+
+        while (position < end) {
+            if (message.charAt(position) == repetitionSeparator) {
+                // check for ~~
+                if (atLastRepetition) {
+                    emptyElement(segmentId, fieldId, 0, 0);
+                }
+
+                atLastRepetition = true;
+                position++;
+            } else {
+                int repetitionEnd = indexOf(repetitionSeparator, position, end);
+                if (repetitionEnd == -1) {
+                    repetitionEnd = end;
+                }
+
+                atLastRepetition = false;
+                handleField(segmentId, fieldId, position, repetitionEnd);
+                position = repetitionEnd;
+            }
+        }
+
+        if (atLastRepetition) {
+            emptyElement(segmentId, fieldId, 0, 0);
+        }
+    }
+
+    private void handleField(String segmentId, int fieldId, int start, int end) {
+        startElement(segmentId, fieldId, 0, 0);
+
+        if (indexOf(componentSeparator, start, end) > -1 || (handleSubcomponents && (subcomponentSeparator == NONE || indexOf(subcomponentSeparator, start, end) > -1))) {
+            handleComponents(segmentId, fieldId, start, end);
+        } else {
+            startElement(segmentId, fieldId, 1, 0);
+            encode(start, end);
+            endElement(segmentId, fieldId, 1, 0);
+        }
+
+        endElement(segmentId, fieldId, 0, 0);
+    }
+
+    private void handleComponents(String segmentId, int fieldId, int start, int end) {
+        boolean atLastComponent = true;
+        int componentId = 1;
+        int position = start;
+
+        while (position < end) {
+            if (message.charAt(position) == componentSeparator) {
+                if (atLastComponent) {
+                    emptyElement(segmentId, fieldId, componentId, 0);
+                }
+
+                componentId++;
+                atLastComponent = true;
+                position++;
+            } else {
+                int componentEnd = indexOf(componentSeparator, position, end);
+                if (componentEnd == -1) {
+                    componentEnd = end;
+                }
+
+                atLastComponent = false;
+                handleComponent(segmentId, fieldId, componentId, position, componentEnd);
+                position = componentEnd;
+            }
+        }
+
+        if (atLastComponent) {
+            emptyElement(segmentId, fieldId, componentId, 0);
+        }
+    }
+
+    private void handleComponent(String segmentId, int fieldId, int componentId, int start, int end) {
+        startElement(segmentId, fieldId, componentId, 0);
+
+        if (handleSubcomponents && subcomponentSeparator != NONE && indexOf(subcomponentSeparator, start, end) > -1) {
+            handleSubcomponents(segmentId, fieldId, componentId, start, end);
+        } else {
+            encode(start, end);
+        }
+
+        endElement(segmentId, fieldId, componentId, 0);
+    }
+
+    private void handleSubcomponents(String segmentId, int fieldId, int componentId, int start, int end) {
+        boolean atLastSubcomponent = true;
+        int subcomponentId = 1;
+        int position = start;
+
+        while (position < end) {
+            if (message.charAt(position) == subcomponentSeparator) {
+                if (atLastSubcomponent) {
+                    emptyElement(segmentId, fieldId, componentId, subcomponentId);
+                }
+
+                subcomponentId++;
+                atLastSubcomponent = true;
+                position++;
+            } else {
+                int subcomponentEnd = indexOf(subcomponentSeparator, position, end);
+                if (subcomponentEnd == -1) {
+                    subcomponentEnd = end;
+                }
+
+                atLastSubcomponent = false;
+                startElement(segmentId, fieldId, componentId, subcomponentId);
+                encode(position, subcomponentEnd);
+                endElement(segmentId, fieldId, componentId, subcomponentId);
+                position = subcomponentEnd;
+            }
+        }
+
+        if (atLastSubcomponent) {
+            emptyElement(segmentId, fieldId, componentId, subcomponentId);
+        }
+    }
+
+    private boolean isSegmentDelimiter(char c) {
+        // Same as StringUtils.split, which splits on whitespace when no delimiters are given
+        if (segmentDelimiters == null) {
+            return Character.isWhitespace(c);
+        }
+        return segmentDelimiters.indexOf(c) > -1;
+    }
+
+    private int indexOf(int c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (message.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void startElement(String name) {
+        output.append('<').append(name).append('>');
+    }
+
+    private void endElement(String name) {
+        output.append("</").append(name).append('>');
+    }
+
+    /*
+     * Elements are named SEG.<field#>.<component#>.<subcomponent#>, where 0 leaves out a level.
+     */
+    private void startElement(String segmentId, int fieldId, int componentId, int subcomponentId) {
+        output.append('<');
+        appendName(segmentId, fieldId, componentId, subcomponentId);
+        output.append('>');
+    }
+
+    private void endElement(String segmentId, int fieldId, int componentId, int subcomponentId) {
+        output.append("</");
+        appendName(segmentId, fieldId, componentId, subcomponentId);
+        output.append('>');
+    }
+
+    private void emptyElement(String segmentId, int fieldId, int componentId, int subcomponentId) {
+        startElement(segmentId, fieldId, componentId, subcomponentId);
+        endElement(segmentId, fieldId, componentId, subcomponentId);
+    }
+
+    private void appendName(String segmentId, int fieldId, int componentId, int subcomponentId) {
+        output.append(segmentId).append('.').append(fieldId);
+        if (componentId > 0) {
+            output.append('.').append(componentId);
+            if (subcomponentId > 0) {
+                output.append('.').append(subcomponentId);
+            }
+        }
+    }
+
+    private void encode(char c) {
+        MirthXmlUtil.encode(String.valueOf(c), 0, 1, output);
+    }
+
+    private void encode(int start, int end) {
+        MirthXmlUtil.encode(message, start, end, output);
+    }
+}
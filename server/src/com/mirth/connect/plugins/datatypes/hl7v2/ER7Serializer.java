@@ -19,7 +19,6 @@ import ca.uhn.hl7v2.validation.impl.NoValidation;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -32,14 +31,13 @@ import org.xml.sax.helpers.XMLReaderFactory;
 
 import com.mirth.connect.donkey.model.message.MessageSerializer;
 import com.mirth.connect.donkey.model.message.MessageSerializerException;
-import com.mirth.connect.model.converters.IMessageSerializer;
-import com.mirth.connect.model.converters.XMLPrettyPrinter;
+import com.mirth.connect.model.converters.IMessageAccessorSerializer;
 import com.mirth.connect.model.datatype.SerializerProperties;
 import com.mirth.connect.model.util.DefaultMetaData;
 import com.mirth.connect.util.ErrorMessageBuilder;
 import com.mirth.connect.util.StringUtil;
 
-public class ER7Serializer implements IMessageSerializer {
+public class ER7Serializer implements IMessageAccessorSerializer {
     private Logger logger = Logger.getLogger(this.getClass());
     private PipeParser serializationPipeParser = null;
     private XMLParser serializationXmlParser = null;
@@ -56,6 +54,27 @@ public class ER7Serializer implements IMessageSerializer {
     private static Pattern prettyPattern1 = Pattern.compile("\\s*<([^/][^>]*)>");
     private static Pattern prettyPattern2 = Pattern.compile("<([^>]*/|/[^>]*)>\\s*");
 
+    private static final int BUILDER_SIZE = 8192;
+    private static final int MAX_BUILDER_SIZE = 1024 * 1024;
+
+    /*
+     * The output of a conversion is built in a buffer that is reused by each thread, instead of
+     * growing a new one for every message.
+     */
+    private static final ThreadLocal<StringBuilder> builders = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(BUILDER_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<XMLEncodedHL7Scanner> xmlScanners = new ThreadLocal<XMLEncodedHL7Scanner>() {
+        @Override
+        protected XMLEncodedHL7Scanner initialValue() {
+            return new XMLEncodedHL7Scanner();
+        }
+    };
+
     public ER7Serializer(SerializerProperties properties) {
         serializationProperties = (HL7v2SerializationProperties) properties.getSerializationProperties();
         deserializationProperties = (HL7v2DeserializationProperties) properties.getDeserializationProperties();
@@ -166,6 +185,34 @@ public class ER7Serializer implements IMessageSerializer {
         return null;
     }
 
+    @Override
+    public boolean isAccessorEnabled(MessageSerializer outboundSerializer) {
+        if (!serializationProperties.isUseLazyParser() || serializationProperties.isUseStrictParser() || !(outboundSerializer instanceof ER7Serializer)) {
+            return false;
+        }
+
+        HL7v2DeserializationProperties outboundProperties = ((ER7Serializer) outboundSerializer).deserializationProperties;
+        return outboundProperties != null && !outboundProperties.isUseStrictParser();
+    }
+
+    /**
+     * Returns an ER7Node for the message, which is only parsed as far as the filter or
+     * transformer uses it. The segments are written with the outbound serializer's segment
+     * delimiter, the same as converting the message to XML and back.
+     */
+    @Override
+    public Object createAccessor(String message, MessageSerializer outboundSerializer) throws MessageSerializerException {
+        String segmentDelimiters = serializationSegmentDelimiter;
+
+        if (serializationProperties.isConvertLineBreaks()) {
+            // Every line break would be converted to the segment delimiter, so each one ends a segment
+            segmentDelimiters += "\r\n";
+        }
+
+        String outputSegmentDelimiter = ((ER7Serializer) outboundSerializer).getDeserializationSegmentDelimiter();
+        return new ER7Node(new ER7Message(message, serializationProperties.isHandleRepetitions(), serializationProperties.isHandleSubcomponents(), segmentDelimiters, outputSegmentDelimiter));
+    }
+
     /**
      * Returns an XML-encoded HL7 message given an ER7-encoded HL7 message.
      * 
@@ -176,8 +223,15 @@ public class ER7Serializer implements IMessageSerializer {
     @Override
     public String toXML(String source) throws MessageSerializerException {
         try {
+            String segmentDelimiters = serializationSegmentDelimiter;
+
             if (serializationProperties.isConvertLineBreaks()) {
-                source = StringUtil.convertLineBreaks(source, serializationSegmentDelimiter);
+                if (!serializationProperties.isUseStrictParser() && skipIntermediateDelimiter && isLineBreakConversionSkippable(source)) {
+                    // Every line break ends a segment, so the scanner can split on them directly
+                    segmentDelimiters = "\r\n";
+                } else {
+                    source = StringUtil.convertLineBreaks(source, serializationSegmentDelimiter);
+                }
             }
 
             if (serializationProperties.isUseStrictParser()) {
@@ -205,13 +259,9 @@ public class ER7Serializer implements IMessageSerializer {
 
                 return source;
             } else {
-                ER7Reader er7Reader = new ER7Reader(serializationProperties.isHandleRepetitions(), serializationProperties.isHandleSubcomponents(), serializationSegmentDelimiter);
-                StringWriter stringWriter = new StringWriter();
-                XMLPrettyPrinter serializer = new XMLPrettyPrinter(stringWriter);
-                serializer.setEncodeEntities(true);
-                er7Reader.setContentHandler(serializer);
-                er7Reader.parse(new InputSource(new StringReader(source)));
-                return stringWriter.toString();
+                StringBuilder builder = getBuilder();
+                new ER7Scanner(serializationProperties.isHandleRepetitions(), serializationProperties.isHandleSubcomponents(), segmentDelimiters).toXML(source, builder);
+                return builder.toString();
             }
         } catch (Exception e) {
             throw new MessageSerializerException("Error converting ER7 to XML", e, ErrorMessageBuilder.buildErrorMessage(this.getClass().getSimpleName(), "Error converting ER7 to XML", e));
@@ -265,7 +315,16 @@ public class ER7Serializer implements IMessageSerializer {
                     subcomponentSeparator = separators.substring(3, 4);
                 }
 
-                XMLEncodedHL7Handler handler = new XMLEncodedHL7Handler(deserializationSegmentDelimiter, fieldSeparator, componentSeparator, repetitionSeparator, escapeCharacter, subcomponentSeparator, true);
+                StringBuilder builder = getBuilder();
+                XMLEncodedHL7Handler handler = new XMLEncodedHL7Handler(deserializationSegmentDelimiter, fieldSeparator, componentSeparator, repetitionSeparator, escapeCharacter, subcomponentSeparator, true, builder);
+
+                if (xmlScanners.get().parse(source, handler)) {
+                    return builder.toString();
+                }
+
+                // The scanner doesn't support something in the XML, so start over with the SAX parser
+                builder.setLength(0);
+                handler = new XMLEncodedHL7Handler(deserializationSegmentDelimiter, fieldSeparator, componentSeparator, repetitionSeparator, escapeCharacter, subcomponentSeparator, true, builder);
                 XMLReader reader = XMLReaderFactory.createXMLReader();
                 reader.setContentHandler(handler);
                 reader.setErrorHandler(handler);
@@ -282,6 +341,43 @@ public class ER7Serializer implements IMessageSerializer {
         }
     }
 
+    private static StringBuilder getBuilder() {
+        StringBuilder builder = builders.get();
+
+        // Don't hold on to the memory from an unusually large message
+        if (builder.capacity() > MAX_BUILDER_SIZE) {
+            builder = new StringBuilder(BUILDER_SIZE);
+            builders.set(builder);
+        }
+
+        builder.setLength(0);
+        return builder;
+    }
+
+    /*
+     * Returns true if converting the line breaks before scanning the message wouldn't change the
+     * result. That's the case unless there's a line break within the header's encoding
+     * characters, whose positions are counted from the start of the trimmed message.
+     */
+    private boolean isLineBreakConversionSkippable(String source) {
+        int start = 0;
+        while (start < source.length() && source.charAt(start) <= ' ') {
+            start++;
+        }
+
+        if (source.length() - start < 8) {
+            return false;
+        }
+
+        for (int i = start; i < start + 8; i++) {
+            if (source.charAt(i) == '\r' || source.charAt(i) == '\n') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     private String getNodeValue(String source, String startTag, String endTag) {
         int startIndex = -1;
 
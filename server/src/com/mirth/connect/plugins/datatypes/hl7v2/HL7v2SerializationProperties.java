@@ -26,6 +26,7 @@ public class HL7v2SerializationProperties extends SerializationProperties {
     private boolean stripNamespaces = true;
     private String segmentDelimiter = "\\r";
     private boolean convertLineBreaks = true;
+    private boolean useLazyParser = false;
 
     @Override
     public Map<String, DataTypePropertyDescriptor> getPropertyDescriptors() {
@@ -38,6 +39,7 @@ public class HL7v2SerializationProperties extends SerializationProperties {
         properties.put("stripNamespaces", new DataTypePropertyDescriptor(stripNamespaces, "Strip Namespaces", "Strips namespace definitions from the transformed XML message (applies to Strict Parser only).", PropertyEditorType.BOOLEAN));
         properties.put("segmentDelimiter", new DataTypePropertyDescriptor(segmentDelimiter, "Segment Delimiter", "This is the input delimiter character(s) expected to occur after each segment.", PropertyEditorType.STRING));
         properties.put("convertLineBreaks", new DataTypePropertyDescriptor(convertLineBreaks, "Convert Line Breaks", "Convert all styles of line breaks (CRLF, CR, LF) in the raw message to the segment delimiter. ", PropertyEditorType.BOOLEAN));
+        properties.put("useLazyParser", new DataTypePropertyDescriptor(useLazyParser, "Use Lazy Parser", "Filters and transformers read and edit the ER7 message directly instead of converting it to XML and back. Supports msg['PID']['PID.3']['PID.3.1'] style access, but not other E4X features (applies to Non-Strict Parser only, when the outbound data type is also HL7 v2.x).", PropertyEditorType.BOOLEAN));
 
         return properties;
     }
@@ -72,6 +74,10 @@ public class HL7v2SerializationProperties extends SerializationProperties {
             if (properties.get("convertLineBreaks") != null) {
                 this.convertLineBreaks = (Boolean) properties.get("convertLineBreaks");
             }
+
+            if (properties.get("useLazyParser") != null) {
+                this.useLazyParser = (Boolean) properties.get("useLazyParser");
+            }
         }
     }
 
@@ -131,6 +137,14 @@ public class HL7v2SerializationProperties extends SerializationProperties {
         this.convertLineBreaks = convertLineBreaks;
     }
 
+    public boolean isUseLazyParser() {
+        return useLazyParser;
+    }
+
+    public void setUseLazyParser(boolean useLazyParser) {
+        this.useLazyParser = useLazyParser;
+    }
+
     @Override
     public void migrate3_0_1(DonkeyElement element) {}
 
@@ -160,6 +174,7 @@ public class HL7v2SerializationProperties extends SerializationProperties {
         purgedProperties.put("useStrictParser", useStrictParser);
         purgedProperties.put("stripNamespaces", stripNamespaces);
         purgedProperties.put("convertLineBreaks", convertLineBreaks);
+        purgedProperties.put("useLazyParser", useLazyParser);
         return purgedProperties;
     }
 }
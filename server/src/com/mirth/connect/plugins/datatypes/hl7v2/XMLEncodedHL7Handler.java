@@ -36,10 +36,19 @@ public class XMLEncodedHL7Handler extends DefaultHandler {
     private String[] previousComponentNameArray;
     private String[] previousSubcomponentNameArray;
 
-    private StringBuilder output = new StringBuilder();
+    private StringBuilder output;
 
     public XMLEncodedHL7Handler(String segmentSeparator, String fieldSeparator, String componentSeparator, String repetitionSeparator, String escapeCharacter, String subcomponentSeparator, boolean encodeEntities) {
+        this(segmentSeparator, fieldSeparator, componentSeparator, repetitionSeparator, escapeCharacter, subcomponentSeparator, encodeEntities, new StringBuilder());
+    }
+
+    /**
+     * Creates a handler that appends the ER7 message to the given (empty) builder, so that it can
+     * be reused between messages.
+     */
+    public XMLEncodedHL7Handler(String segmentSeparator, String fieldSeparator, String componentSeparator, String repetitionSeparator, String escapeCharacter, String subcomponentSeparator, boolean encodeEntities, StringBuilder output) {
         super();
+        this.output = output;
         this.segmentSeparator = segmentSeparator;
         this.fieldSeparator = fieldSeparator;
         this.componentSeparator = componentSeparator;
@@ -54,6 +63,10 @@ public class XMLEncodedHL7Handler extends DefaultHandler {
         return output;
     }
 
+    String getFieldSeparator() {
+        return fieldSeparator;
+    }
+
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
         logger.trace("starting element: " + localName);
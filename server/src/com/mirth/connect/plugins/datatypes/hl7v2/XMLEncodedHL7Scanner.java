@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Reads XML-encoded HL7 and passes its elements and text straight to an XMLEncodedHL7Handler,
+ * without the whitespace-stripping regex pass and SAX parser used by ER7Serializer. The handler
+ * receives the same calls it would from that path, with whitespace next to tags removed in the
+ * same way.
+ *
+ * Only the XML that the ER7 serializer and typical pretty printers produce is supported: elements
+ * without namespace prefixes, text, the predefined entities, character references, and an
+ * optional XML declaration. For anything else (comments, CDATA sections, DOCTYPEs, malformed XML,
+ * and so on), parse returns false before the handler has finished, and the caller should start
+ * over with the SAX parser using a new handler.
+ */
+public class XMLEncodedHL7Scanner {
+    private static final Pattern XML_DECLARATION_PATTERN = Pattern.compile("<\\?xml[ \\t\\r\\n]+version[ \\t\\r\\n]*=[ \\t\\r\\n]*([\"'])1\\.0\\1([ \\t\\r\\n]+encoding[ \\t\\r\\n]*=[ \\t\\r\\n]*([\"'])[A-Za-z][A-Za-z0-9._-]*\\3)?([ \\t\\r\\n]+standalone[ \\t\\r\\n]*=[ \\t\\r\\n]*([\"'])(yes|no)\\5)?[ \\t\\r\\n]*\\?>");
+
+    private String xml;
+    private XMLEncodedHL7Handler handler;
+    private int position;
+    private boolean afterEndTag;
+    private List<String> openElements = new ArrayList<String>();
+    private StringBuilder text = new StringBuilder();
+    private char[] textChars = new char[256];
+
+    /**
+     * Passes the XML to the handler. Returns false if the XML uses something this scanner doesn't
+     * support, in which case the handler may have received part of the message.
+     */
+    public boolean parse(String xml, XMLEncodedHL7Handler handler) throws SAXException {
+        this.xml = xml;
+        this.handler = handler;
+        position = 0;
+        afterEndTag = false;
+        openElements.clear();
+
+        try {
+            return parseDocument();
+        } finally {
+            this.xml = null;
+            this.handler = null;
+        }
+    }
+
+    private boolean parseDocument() throws SAXException {
+        int length = xml.length();
+        boolean rootStarted = false;
+
+        while (position < length) {
+            int markupStart = xml.indexOf('<', position);
+            if (markupStart == -1) {
+                markupStart = length;
+            }
+
+            boolean nextIsStartTag = markupStart < length && (markupStart + 1 >= length || xml.charAt(markupStart + 1) != '/');
+
+            if (markupStart > position) {
+                if (openElements.isEmpty()) {
+                    // Outside of the root element only whitespace is allowed
+                    if (!isIgnorable(position, markupStart, nextIsStartTag)) {
+                        return false;
+                    }
+                } else if (!handleText(position, markupStart, nextIsStartTag)) {
+                    return false;
+                }
+            }
+
+            if (markupStart == length) {
+                break;
+            }
+
+            position = markupStart;
+
+            if (xml.startsWith("<?", position)) {
+                // The XML declaration is the only processing instruction supported
+                if (!rootStarted && isDeclarationAllowed() && parseDeclaration()) {
+                    continue;
+                }
+                return false;
+            } else if (xml.startsWith("</", position)) {
+                if (!parseEndTag()) {
+                    return false;
+                }
+            } else {
+                if (openElements.isEmpty() && rootStarted) {
+                    // Only one root element is allowed
+                    return false;
+                }
+                if (!parseStartTag()) {
+                    return false;
+                }
+                rootStarted = true;
+            }
+        }
+
+        return rootStarted && openElements.isEmpty();
+    }
+
+    /*
+     * The declaration has to come first, with only whitespace before it that the regex pass would
+     * have removed.
+     */
+    private boolean isDeclarationAllowed() {
+        for (int i = 0; i < position; i++) {
+            if (!isRegexWhitespace(xml.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean parseDeclaration() {
+        Matcher matcher = XML_DECLARATION_PATTERN.matcher(xml);
+        matcher.region(position, xml.length());
+
+        if (matcher.lookingAt()) {
+            position = matcher.end();
+            afterEndTag = false;
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean parseStartTag() throws SAXException {
+        int nameStart = position + 1;
+        int nameEnd = scanName(nameStart);
+        if (nameEnd == -1) {
+            return false;
+        }
+
+        String name = xml.substring(nameStart, nameEnd);
+        position = nameEnd;
+
+        List<String> attributeNames = null;
+        int length = xml.length();
+
+        while (true) {
+            int whitespaceStart = position;
+            while (position < length && isXmlWhitespace(xml.charAt(position))) {
+                position++;
+            }
+            if (position >= length) {
+                return false;
+            }
+
+            char c = xml.charAt(position);
+
+            if (c == '>') {
+                position++;
+                handler.startElement("", name, name, null);
+                openElements.add(name);
+                afterEndTag = false;
+                return true;
+            } else if (c == '/') {
+                if (position + 1 >= length || xml.charAt(position + 1) != '>') {
+                    return false;
+                }
+                position += 2;
+                handler.startElement("", name, name, null);
+                handler.endElement("", name, name);
+                afterEndTag = true;
+                return true;
+            } else if (position == whitespaceStart) {
+                // Attributes must be separated by whitespace
+                return false;
+            }
+
+            // The handler ignores attributes, but they still need to be well-formed
+            int attributeStart = position;
+            int attributeEnd = scanAttributeName(attributeStart);
+            if (attributeEnd == -1) {
+                return false;
+            }
+
+            String attributeName = xml.substring(attributeStart, attributeEnd);
+            if (attributeNames == null) {
+                attributeNames = new ArrayList<String>();
+            } else if (attributeNames.contains(attributeName)) {
+                return false;
+            }
+            attributeNames.add(attributeName);
+
+            position = attributeEnd;
+            while (position < length && isXmlWhitespace(xml.charAt(position))) {
+                position++;
+            }
+            if (position >= length || xml.charAt(position) != '=') {
+                return false;
+            }
+            position++;
+            while (position < length && isXmlWhitespace(xml.charAt(position))) {
+                position++;
+            }
+            if (position >= length) {
+                return false;
+            }
+
+            char quote = xml.charAt(position);
+            if (quote != '"' && quote != '\'') {
+                return false;
+            }
+
+            int valueEnd = xml.indexOf(quote, position + 1);
+            if (valueEnd == -1) {
+                return false;
+            }
+
+            for (int i = position + 1; i < valueEnd; i++) {
+                char valueChar = xml.charAt(i);
+                if (valueChar == '<' || valueChar == '>' || valueChar == '&' || !isAllowedChar(valueChar)) {
+                    return false;
+                }
+            }
+
+            // Namespace declarations can't bind a prefix to an empty URI
+            if (attributeName.startsWith("xmlns:") && valueEnd == position + 1) {
+                return false;
+            }
+
+            position = valueEnd + 1;
+        }
+    }
+
+    private boolean parseEndTag() throws SAXException {
+        if (openElements.isEmpty()) {
+            return false;
+        }
+
+        String name = openElements.remove(openElements.size() - 1);
+        int nameStart = position + 2;
+
+        if (!xml.startsWith(name, nameStart)) {
+            return false;
+        }
+
+        int length = xml.length();
+        position = nameStart + name.length();
+        while (position < length && isXmlWhitespace(xml.charAt(position))) {
+            position++;
+        }
+        if (position >= length || xml.charAt(position) != '>') {
+            return false;
+        }
+        position++;
+
+        handler.endElement("", name, name);
+        afterEndTag = true;
+        return true;
+    }
+
+    /*
+     * Decodes the text between two tags and passes it to the handler.
+     */
+    private boolean handleText(int start, int end, boolean nextIsStartTag) throws SAXException {
+        // The regex pass removes whitespace after end tags and before start tags
+        if (afterEndTag) {
+            while (start < end && isRegexWhitespace(xml.charAt(start))) {
+                start++;
+            }
+        }
+        if (nextIsStartTag) {
+            while (end > start && isRegexWhitespace(xml.charAt(end - 1))) {
+                end--;
+            }
+        }
+
+        if (start == end) {
+            return true;
+        }
+
+        text.setLength(0);
+
+        for (int i = start; i < end; i++) {
+            char c = xml.charAt(i);
+
+            if (c == '&') {
+                int referenceEnd = xml.indexOf(';', i + 1);
+                if (referenceEnd == -1 || referenceEnd >= end || !appendReference(i + 1, referenceEnd)) {
+                    return false;
+                }
+                i = referenceEnd;
+            } else if (c == '\r') {
+                // Line breaks are normalized the same way the parser does it
+                text.append('\n');
+                if (i + 1 < end && xml.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else if (c == ']' && xml.startsWith("]]>", i)) {
+                return false;
+            } else if (isAllowedChar(c)) {
+                text.append(c);
+            } else {
+                return false;
+            }
+        }
+
+        /*
+         * The SAX parser can split text into several characters calls, and the handler drops any
+         * call that is exactly the field separator. Unless that can't make a difference here, let
+         * the SAX parser handle the message.
+         */
+        String fieldSeparator = handler.getFieldSeparator();
+        if (text.indexOf(fieldSeparator) > -1 && !(fieldSeparator.length() == 1 && text.length() == 1)) {
+            return false;
+        }
+
+        int length = text.length();
+        if (textChars.length < length) {
+            textChars = new char[Math.max(length, textChars.length * 2)];
+        }
+        text.getChars(0, length, textChars, 0);
+        handler.characters(textChars, 0, length);
+        return true;
+    }
+
+    private boolean appendReference(int start, int end) {
+        if (end == start) {
+            return false;
+        }
+
+        if (xml.charAt(start) == '#') {
+            int radix = 10;
+            int digitStart = start + 1;
+            if (digitStart < end && xml.charAt(digitStart) == 'x') {
+                radix = 16;
+                digitStart++;
+            }
+            if (digitStart == end || end - digitStart > 6) {
+                return false;
+            }
+
+            int value = 0;
+            for (int i = digitStart; i < end; i++) {
+                int digit = Character.digit(xml.charAt(i), radix);
+                if (digit == -1 || xml.charAt(i) > 'f') {
+                    return false;
+                }
+                value = value * radix + digit;
+            }
+
+            if (value > 0xFFFF || !isAllowedChar((char) value)) {
+                return false;
+            }
+            text.append((char) value);
+            return true;
+        }
+
+        int length = end - start;
+        if (length == 3 && xml.startsWith("amp", start)) {
+            text.append('&');
+        } else if (length == 2 && xml.startsWith("lt", start)) {
+            text.append('<');
+        } else if (length == 2 && xml.startsWith("gt", start)) {
+            text.append('>');
+        } else if (length == 4 && xml.startsWith("quot", start)) {
+            text.append('"');
+        } else if (length == 4 && xml.startsWith("apos", start)) {
+            text.append('\'');
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Returns true if the text outside of the root element is only whitespace.
+     */
+    private boolean isIgnorable(int start, int end, boolean nextIsStartTag) {
+        if (afterEndTag) {
+            while (start < end && isRegexWhitespace(xml.charAt(start))) {
+                start++;
+            }
+        }
+        if (nextIsStartTag) {
+            while (end > start && isRegexWhitespace(xml.charAt(end - 1))) {
+                end--;
+            }
+        }
+
+        for (int i = start; i < end; i++) {
+            if (!isXmlWhitespace(xml.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the end of the element name starting at the index, or -1 if there isn't a simple
+     * name there. Names with namespace prefixes aren't supported.
+     */
+    private int scanName(int start) {
+        int length = xml.length();
+        if (start >= length || !isNameStartChar(xml.charAt(start))) {
+            return -1;
+        }
+
+        int end = start + 1;
+        while (end < length && isNameChar(xml.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /*
+     * Same as scanName, but allows namespace declarations.
+     */
+    private int scanAttributeName(int start) {
+        int end = scanName(start);
+
+        if (end == start + 5 && xml.startsWith("xmlns", start) && end < xml.length() && xml.charAt(end) == ':') {
+            int prefixEnd = scanName(end + 1);
+            if (prefixEnd == -1 || xml.regionMatches(true, end + 1, "xml", 0, 3)) {
+                return -1;
+            }
+            return prefixEnd;
+        }
+
+        return end;
+    }
+
+    private boolean isNameStartChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_';
+    }
+
+    private boolean isNameChar(char c) {
+        return isNameStartChar(c) || (c >= '0' && c <= '9') || c == '.' || c == '-';
+    }
+
+    private boolean isXmlWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /*
+     * The characters matched by \s in the regex pass.
+     */
+    private boolean isRegexWhitespace(char c) {
+        return isXmlWhitespace(c) || c == '\u000B' || c == '\f';
+    }
+
+    /*
+     * Returns true for characters allowed in XML, excluding surrogates which aren't supported here.
+     */
+    private boolean isAllowedChar(char c) {
+        return c >= ' ' ? (c < '\uD800' || (c >= '\uE000' && c <= '\uFFFD')) : isXmlWhitespace(c);
+    }
+}
@@ -15,8 +15,16 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
@@ -31,8 +39,11 @@ import org.apache.log4j.Logger;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
 import org.xml.sax.InputSource;
 
 import com.mirth.connect.donkey.model.message.BatchRawMessage;
@@ -55,6 +66,8 @@ import com.mirth.connect.server.util.javascript.JavaScriptUtil;
 import com.mirth.connect.server.util.javascript.MirthContextFactory;
 
 public class XMLBatchAdaptor extends BatchAdaptor {
+    private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
     private Logger logger = Logger.getLogger(this.getClass());
     private ContextFactoryController contextFactoryController = ControllerFactory.getFactory().createContextFactoryController();
 
@@ -63,6 +76,15 @@ public class XMLBatchAdaptor extends BatchAdaptor {
     private XMLBatchProperties batchProperties;
     private NodeList nodeList;
     private int currentNode = 0;
+    private Transformer transformer;
+
+    // Used to stream the Element_Name and Level split types
+    private XMLStreamReader streamReader;
+    private DocumentBuilder documentBuilder;
+    private Document document;
+    private LinkedList<Element> openElements = new LinkedList<Element>();
+    private LinkedList<Element> matchedElements = new LinkedList<Element>();
+    private int depth = 0;
 
     public XMLBatchAdaptor(BatchAdaptorFactory factory, SourceConnector sourceConnector, BatchRawMessage batchRawMessage) {
         super(factory, sourceConnector, batchRawMessage);
@@ -77,7 +99,15 @@ public class XMLBatchAdaptor extends BatchAdaptor {
     }
 
     @Override
-    public void cleanup() throws BatchMessageException {}
+    public void cleanup() throws BatchMessageException {
+        if (streamReader != null) {
+            try {
+                streamReader.close();
+            } catch (XMLStreamException e) {
+                throw new BatchMessageException("Failed to close the XML stream reader.", e);
+            }
+        }
+    }
 
     @Override
     protected String getNextMessage(int batchSequenceId) throws Exception {
@@ -114,26 +144,14 @@ public class XMLBatchAdaptor extends BatchAdaptor {
     private String getMessageFromReader() throws Exception {
         SplitType splitType = batchProperties.getSplitType();
 
-        if (splitType == SplitType.Element_Name || splitType == SplitType.Level || splitType == SplitType.XPath_Query) {
+        if (splitType == SplitType.Element_Name || splitType == SplitType.Level) {
+            return getStreamedMessage(splitType);
+        } else if (splitType == SplitType.XPath_Query) {
+            // An arbitrary query can look anywhere in the document, so the whole batch is parsed first
             if (nodeList == null) {
-                StringBuilder query = new StringBuilder();
-                if (splitType == SplitType.Element_Name) {
-                    query.append("//*[local-name()='");
-                    query.append(batchProperties.getElementName());
-                    query.append("']");
-                } else if (splitType == SplitType.Level) {
-                    query.append("/*");
-
-                    for (int i = 0; i < batchProperties.getLevel(); i++) {
-                        query.append("/*");
-                    }
-                } else if (splitType == SplitType.XPath_Query) {
-                    query.append(batchProperties.getQuery());
-                }
-
                 XPath xpath = xPathFactory.newXPath();
 
-                nodeList = (NodeList) xpath.evaluate(query.toString(), new InputSource(bufferedReader), XPathConstants.NODESET);
+                nodeList = (NodeList) xpath.evaluate(batchProperties.getQuery(), new InputSource(bufferedReader), XPathConstants.NODESET);
             }
 
             if (currentNode < nodeList.getLength()) {
@@ -200,13 +218,145 @@ public class XMLBatchAdaptor extends BatchAdaptor {
         return null;
     }
 
+    /*
+     * Reads the batch with a stream reader and returns the next element that has the configured
+     * name or is at the configured level, in the same order and format as the XPath queries that
+     * were used for these split types before. Only matching elements and their contents are built
+     * into a DOM, and each one is returned as soon as it ends, so memory use depends on the size of
+     * a message rather than the size of the batch.
+     * 
+     * Elements with the configured name can be nested inside each other. The outer element comes
+     * first in document order, so the nested ones are kept until it ends and then returned after
+     * it.
+     */
+    private String getStreamedMessage(SplitType splitType) throws Exception {
+        if (streamReader == null) {
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            // The JDK's stream reader only keeps CDATA sections apart from other text if it's asked to
+            if (inputFactory.isPropertySupported(REPORT_CDATA_PROPERTY)) {
+                inputFactory.setProperty(REPORT_CDATA_PROPERTY, true);
+            }
+            streamReader = inputFactory.createXMLStreamReader(bufferedReader);
+
+            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(true);
+            documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        }
+
+        while (matchedElements.isEmpty() || !openElements.isEmpty()) {
+            if (!streamReader.hasNext()) {
+                return null;
+            }
+
+            switch (streamReader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+
+                    boolean matches;
+                    if (splitType == SplitType.Element_Name) {
+                        matches = streamReader.getLocalName().equals(batchProperties.getElementName());
+                    } else {
+                        // The root element is at level 0
+                        matches = depth == batchProperties.getLevel() + 1;
+                    }
+
+                    if (matches || !openElements.isEmpty()) {
+                        if (openElements.isEmpty()) {
+                            document = documentBuilder.newDocument();
+                        }
+
+                        Element element = createElement();
+                        if (openElements.isEmpty()) {
+                            document.appendChild(element);
+                        } else {
+                            openElements.getFirst().appendChild(element);
+                        }
+
+                        openElements.push(element);
+                        if (matches) {
+                            matchedElements.add(element);
+                        }
+                    }
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+
+                    if (!openElements.isEmpty()) {
+                        openElements.pop();
+                    }
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (!openElements.isEmpty()) {
+                        Node lastChild = openElements.getFirst().getLastChild();
+
+                        // The stream reader can split text up, but the DOM parser doesn't
+                        if (lastChild != null && lastChild.getNodeType() == Node.TEXT_NODE) {
+                            ((Text) lastChild).appendData(streamReader.getText());
+                        } else {
+                            openElements.getFirst().appendChild(document.createTextNode(streamReader.getText()));
+                        }
+                    }
+                    break;
+
+                case XMLStreamConstants.CDATA:
+                    if (!openElements.isEmpty()) {
+                        openElements.getFirst().appendChild(document.createCDATASection(streamReader.getText()));
+                    }
+                    break;
+
+                case XMLStreamConstants.COMMENT:
+                    if (!openElements.isEmpty()) {
+                        openElements.getFirst().appendChild(document.createComment(streamReader.getText()));
+                    }
+                    break;
+
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (!openElements.isEmpty()) {
+                        openElements.getFirst().appendChild(document.createProcessingInstruction(streamReader.getPITarget(), streamReader.getPIData()));
+                    }
+                    break;
+            }
+        }
+
+        return toXML(matchedElements.poll());
+    }
+
+    /*
+     * Creates an element for the stream reader's current start tag, including the namespaces it
+     * declares and its attributes.
+     */
+    private Element createElement() {
+        Element element = document.createElementNS(StringUtils.defaultIfEmpty(streamReader.getNamespaceURI(), null), getQualifiedName(streamReader.getPrefix(), streamReader.getLocalName()));
+
+        for (int i = 0; i < streamReader.getNamespaceCount(); i++) {
+            String prefix = streamReader.getNamespacePrefix(i);
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, StringUtils.isEmpty(prefix) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, StringUtils.defaultString(streamReader.getNamespaceURI(i)));
+        }
+
+        for (int i = 0; i < streamReader.getAttributeCount(); i++) {
+            element.setAttributeNS(StringUtils.defaultIfEmpty(streamReader.getAttributeNamespace(i), null), getQualifiedName(streamReader.getAttributePrefix(i), streamReader.getAttributeLocalName(i)), streamReader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    private String getQualifiedName(String prefix, String localName) {
+        return StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName;
+    }
+
     private String toXML(Node node) throws Exception {
         Writer writer = new StringWriter();
 
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
-        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        // The adaptor is only used by one thread, so the transformer is reused for each message
+        if (transformer == null) {
+            transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        }
         transformer.transform(new DOMSource(node), new StreamResult(writer));
 
         return writer.toString();
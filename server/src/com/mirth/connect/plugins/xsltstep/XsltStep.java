@@ -12,6 +12,7 @@ package com.mirth.connect.plugins.xsltstep;
 import java.util.LinkedList;
 import java.util.Map;
 
+import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import com.mirth.connect.donkey.util.purge.PurgeUtil;
@@ -60,14 +61,10 @@ public class XsltStep extends Step implements FilterTransformerIterable<Step> {
 
     private String getTransformationScript() {
         StringBuilder script = new StringBuilder();
-        if (useCustomFactory && StringUtils.isNotEmpty(customFactory)) {
-            script.append("tFactory = Packages.javax.xml.transform.TransformerFactory.newInstance(\"" + customFactory + "\", null);\n");
-        } else {
-            script.append("tFactory = Packages.javax.xml.transform.TransformerFactory.newInstance();\n");
-        }
-
-        script.append("xsltTemplate = new Packages.java.io.StringReader(" + template + ");\n");
-        script.append("transformer = tFactory.newTransformer(new Packages.javax.xml.transform.stream.StreamSource(xsltTemplate));\n");
+        String factory = useCustomFactory && StringUtils.isNotEmpty(customFactory) ? "'" + StringEscapeUtils.escapeEcmaScript(customFactory) + "'" : "null";
+
+        // The stylesheet is compiled once per deploy and each thread reuses its own transformer
+        script.append("transformer = Packages.com.mirth.connect.server.util.XsltTemplateCache.getInstance().getTransformer(connectorMessage.getChannelId(), connectorMessage.getMetaDataId(), '" + StringEscapeUtils.escapeEcmaScript(getSequenceNumber()) + "', " + factory + ", " + template + ");\n");
         script.append("sourceVar = new Packages.java.io.StringReader(" + sourceXml + ");\n");
         script.append("resultVar = new Packages.java.io.StringWriter();\n");
         script.append("transformer.transform(new Packages.javax.xml.transform.stream.StreamSource(sourceVar), new Packages.javax.xml.transform.stream.StreamResult(resultVar));\n");
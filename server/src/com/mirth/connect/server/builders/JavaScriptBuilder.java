@@ -134,10 +134,34 @@ public class JavaScriptBuilder {
     }
 
     public static String generateFilterTransformerScript(Filter filter, Transformer transformer) throws ScriptBuilderException {
+        return generateFilterTransformerScript(filter, transformer, false);
+    }
+
+    /**
+     * @param useMessageAccessors
+     *            If true, msg and tmp are message accessors that the filter/transformer adds to the
+     *            scope, so the script doesn't create them.
+     */
+    public static String generateFilterTransformerScript(Filter filter, Transformer transformer, boolean useMessageAccessors) throws ScriptBuilderException {
         logger.debug("generating script");
 
         StringBuilder builder = new StringBuilder();
 
+        if (!useMessageAccessors) {
+            appendFilterTransformerVariables(builder, transformer);
+        }
+
+        // Append doFilter() function
+        appendFilterScript(builder, filter);
+        // Append doTransform() function
+        appendTransformerScript(builder, transformer, false);
+        // Append doFilter/doTransform execution
+        builder.append("if (doFilter() == true) { doTransform(); return true; } else { return false; }");
+
+        return builder.toString();
+    }
+
+    private static void appendFilterTransformerVariables(StringBuilder builder, Transformer transformer) {
         DataTypeServerPlugin inboundServerPlugin = ExtensionController.getInstance().getDataTypePlugins().get(transformer.getInboundDataType());
 
         switch (inboundServerPlugin.getSerializationType()) {
@@ -176,15 +200,6 @@ public class JavaScriptBuilder {
                     break;
             }
         }
-
-        // Append doFilter() function
-        appendFilterScript(builder, filter);
-        // Append doTransform() function
-        appendTransformerScript(builder, transformer, false);
-        // Append doFilter/doTransform execution
-        builder.append("if (doFilter() == true) { doTransform(); return true; } else { return false; }");
-
-        return builder.toString();
     }
 
     public static String generateResponseTransformerScript(Transformer transformer) throws ScriptBuilderException {
@@ -361,7 +376,7 @@ public class JavaScriptBuilder {
         builder.append("        }\n");
         builder.append("        result = defaultValue;\n");
         builder.append("    }\n");
-        builder.append("    if ('string' === typeof result || result instanceof java.lang.String || 'xml' === typeof result) {\n");
+        builder.append("    if ('string' === typeof result || result instanceof java.lang.String || 'xml' === typeof result || Object.prototype.toString.call(result) == '[object ER7Message]') {\n");
         builder.append("        result = new java.lang.String(result.toString());\n");
         builder.append("        if (replacement != undefined) {\n");
         builder.append("            for (var i = 0; i < replacement.length; i++) { ");
@@ -394,6 +409,9 @@ public class JavaScriptBuilder {
         builder.append("    if (typeof obj == 'xml' || obj instanceof java.lang.String) {\n");
         builder.append("        return obj.length();\n");
         builder.append("    } else if (typeof obj != 'undefined' && obj != null) {\n");
+        builder.append("        if (Object.prototype.toString.call(obj) == '[object ER7Message]') {\n");
+        builder.append("            return obj.length();\n");
+        builder.append("        }\n");
         builder.append("        return obj.length || 0;\n");
         builder.append("    }\n");
         builder.append("    return 0;\n");
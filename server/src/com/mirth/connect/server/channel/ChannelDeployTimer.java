@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.channel;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Records how long each phase of a channel deploy took. A phase ends when phaseEnded is called,
+ * and lasts from the end of the previous phase, or from when the timer was created.
+ */
+public class ChannelDeployTimer {
+
+    public static final String QUEUED = "queued";
+    public static final String CREATE = "create";
+    public static final String COMPILE_SCRIPTS = "compile scripts";
+    public static final String STORAGE = "storage";
+    public static final String DEPENDENCIES = "dependencies";
+    public static final String DEPLOY_SCRIPT = "deploy script";
+    public static final String PLUGINS = "plugins";
+    public static final String CONNECTORS = "connectors";
+    public static final String START = "start";
+
+    private String channelId;
+    private String channelName;
+    private long startTime;
+    private long lastTime;
+    private Map<String, Long> phaseTimes = new LinkedHashMap<String, Long>();
+
+    public ChannelDeployTimer(String channelId) {
+        this.channelId = channelId;
+        startTime = System.currentTimeMillis();
+        lastTime = startTime;
+    }
+
+    public String getChannelId() {
+        return channelId;
+    }
+
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public void setChannelName(String channelName) {
+        this.channelName = channelName;
+    }
+
+    /**
+     * Ends the current phase and returns how long it took in milliseconds. The time is added to
+     * the phase if it was already recorded.
+     */
+    public synchronized long phaseEnded(String phase) {
+        long now = System.currentTimeMillis();
+        long time = now - lastTime;
+        lastTime = now;
+
+        Long total = phaseTimes.get(phase);
+        phaseTimes.put(phase, total != null ? total + time : time);
+        return time;
+    }
+
+    /**
+     * Returns the time in milliseconds from when the timer was created to the end of the last
+     * phase.
+     */
+    public synchronized long getTotalTime() {
+        return lastTime - startTime;
+    }
+
+    public synchronized Map<String, Long> getPhaseTimes() {
+        return new LinkedHashMap<String, Long>(phaseTimes);
+    }
+
+    /**
+     * Adds up the phase times of the timers, keeping the order in which phases were first seen.
+     */
+    public static Map<String, Long> getTotalPhaseTimes(Collection<ChannelDeployTimer> timers) {
+        Map<String, Long> totals = new LinkedHashMap<String, Long>();
+
+        for (ChannelDeployTimer timer : timers) {
+            for (Entry<String, Long> entry : timer.getPhaseTimes().entrySet()) {
+                Long total = totals.get(entry.getKey());
+                totals.put(entry.getKey(), total != null ? total + entry.getValue() : entry.getValue());
+            }
+        }
+
+        return totals;
+    }
+
+    public static String toString(Map<String, Long> phaseTimes) {
+        StringBuilder builder = new StringBuilder();
+
+        for (Entry<String, Long> entry : phaseTimes.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append(" ms");
+        }
+
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return (channelName != null ? channelName + " (" + channelId + ")" : channelId) + " in " + getTotalTime() + " ms: " + toString(getPhaseTimes());
+    }
+}
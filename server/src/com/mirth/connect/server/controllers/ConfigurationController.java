@@ -228,6 +228,55 @@ public abstract class ConfigurationController extends Controller {
 
     public abstract int getStatsUpdateInterval();
 
+    /**
+     * Returns true if destination queues should keep a separate concurrent buffer for each thread
+     * assignment bucket.
+     */
+    public abstract boolean isQueueBucketBuffered();
+
+    /**
+     * Returns the maximum number of message transactions that may be combined into a single
+     * database commit, or 0 if group commit is disabled.
+     */
+    public abstract int getGroupCommitMaxSize();
+
+    /**
+     * Returns true if message inserts should be sent to the database in JDBC batches when a
+     * channel's storage buffer is committed.
+     */
+    public abstract boolean isBatchStatements();
+
+    /**
+     * Returns true if message content should be added to an in-memory index as it is written, so
+     * that message browser content searches only need to scan the message ids that may match.
+     */
+    public abstract boolean isContentSearchIndex();
+
+    /**
+     * Returns the maximum number of message id blocks kept in the content search index for each
+     * channel.
+     */
+    public abstract int getContentSearchIndexMaxBlocks();
+
+    /**
+     * Returns the maximum number of message id blocks kept in the content search index for all
+     * channels together.
+     */
+    public abstract int getContentSearchIndexMaxTotalBlocks();
+
+    /**
+     * Returns the interval in milliseconds at which message events are delivered to listeners,
+     * keeping only the latest event for each channel, connector and type, or 0 if every message
+     * event is dispatched as it happens.
+     */
+    public abstract int getEventCoalesceInterval();
+
+    /**
+     * Returns the number of channels that may be created and have their scripts compiled at the
+     * same time while channels are deployed.
+     */
+    public abstract int getDeployThreads();
+
     /**
      * Returns the server configuration, which contains:
      * <ul>
@@ -86,6 +86,8 @@ import com.mirth.connect.client.core.ControllerException;
 import com.mirth.connect.donkey.server.StartException;
 import com.mirth.connect.donkey.server.StopException;
 import com.mirth.connect.donkey.server.data.DonkeyStatisticsUpdater;
+import com.mirth.connect.donkey.server.data.index.ContentSearchIndex;
+import com.mirth.connect.donkey.server.event.CoalescingEventDispatcher;
 import com.mirth.connect.donkey.util.DonkeyElement;
 import com.mirth.connect.model.Channel;
 import com.mirth.connect.model.ChannelDependency;
@@ -159,6 +161,14 @@ public class DefaultConfigurationController extends ConfigurationController {
     private static DatabaseSettings databaseConfig;
     private static String apiBypassword;
     private static int statsUpdateInterval;
+    private static boolean queueBucketBuffered;
+    private static int groupCommitMaxSize;
+    private static boolean batchStatements;
+    private static boolean contentSearchIndex;
+    private static int contentSearchIndexMaxBlocks;
+    private static int contentSearchIndexMaxTotalBlocks;
+    private static int eventCoalesceInterval;
+    private static int deployThreads;
 
     private static KeyEncryptor encryptor = null;
     private static Digester digester = null;
@@ -173,6 +183,14 @@ public class DefaultConfigurationController extends ConfigurationController {
     private static final String STARTUP_DEPLOY = "server.startupdeploy";
     private static final String API_BYPASSWORD = "server.api.bypassword";
     private static final String STATS_UPDATE_INTERVAL = "donkey.statsupdateinterval";
+    private static final String QUEUE_BUCKET_BUFFERED = "donkey.queuebucketbuffered";
+    private static final String GROUP_COMMIT_MAX_SIZE = "donkey.groupcommitmaxsize";
+    private static final String BATCH_STATEMENTS = "donkey.batchstatements";
+    private static final String CONTENT_SEARCH_INDEX = "donkey.contentsearchindex";
+    private static final String CONTENT_SEARCH_INDEX_MAX_BLOCKS = "donkey.contentsearchindex.maxblocks";
+    private static final String CONTENT_SEARCH_INDEX_MAX_TOTAL_BLOCKS = "donkey.contentsearchindex.maxtotalblocks";
+    private static final String EVENT_COALESCE_INTERVAL = "donkey.eventcoalesceinterval";
+    private static final String DEPLOY_THREADS = "server.deploythreads";
 
     // singleton pattern
     private static ConfigurationController instance = null;
@@ -314,6 +332,14 @@ public class DefaultConfigurationController extends ConfigurationController {
             }
 
             statsUpdateInterval = NumberUtils.toInt(mirthConfig.getString(STATS_UPDATE_INTERVAL), DonkeyStatisticsUpdater.DEFAULT_UPDATE_INTERVAL);
+            queueBucketBuffered = mirthConfig.getBoolean(QUEUE_BUCKET_BUFFERED, false);
+            groupCommitMaxSize = NumberUtils.toInt(mirthConfig.getString(GROUP_COMMIT_MAX_SIZE), 0);
+            batchStatements = mirthConfig.getBoolean(BATCH_STATEMENTS, false);
+            contentSearchIndex = mirthConfig.getBoolean(CONTENT_SEARCH_INDEX, false);
+            contentSearchIndexMaxBlocks = NumberUtils.toInt(mirthConfig.getString(CONTENT_SEARCH_INDEX_MAX_BLOCKS), ContentSearchIndex.DEFAULT_MAX_BLOCKS);
+            contentSearchIndexMaxTotalBlocks = NumberUtils.toInt(mirthConfig.getString(CONTENT_SEARCH_INDEX_MAX_TOTAL_BLOCKS), ContentSearchIndex.DEFAULT_MAX_TOTAL_BLOCKS);
+            eventCoalesceInterval = NumberUtils.toInt(mirthConfig.getString(EVENT_COALESCE_INTERVAL), CoalescingEventDispatcher.DEFAULT_FLUSH_INTERVAL);
+            deployThreads = NumberUtils.toInt(mirthConfig.getString(DEPLOY_THREADS), Runtime.getRuntime().availableProcessors() * 2);
 
             // Check for configuration map properties
             if (mirthConfig.getString(CONFIGURATION_MAP_PATH) != null) {
@@ -545,6 +571,46 @@ public class DefaultConfigurationController extends ConfigurationController {
         return statsUpdateInterval;
     }
 
+    @Override
+    public boolean isQueueBucketBuffered() {
+        return queueBucketBuffered;
+    }
+
+    @Override
+    public int getGroupCommitMaxSize() {
+        return groupCommitMaxSize;
+    }
+
+    @Override
+    public boolean isBatchStatements() {
+        return batchStatements;
+    }
+
+    @Override
+    public boolean isContentSearchIndex() {
+        return contentSearchIndex;
+    }
+
+    @Override
+    public int getContentSearchIndexMaxBlocks() {
+        return contentSearchIndexMaxBlocks;
+    }
+
+    @Override
+    public int getContentSearchIndexMaxTotalBlocks() {
+        return contentSearchIndexMaxTotalBlocks;
+    }
+
+    @Override
+    public int getEventCoalesceInterval() {
+        return eventCoalesceInterval;
+    }
+
+    @Override
+    public int getDeployThreads() {
+        return deployThreads;
+    }
+
     @Override
     public int getStatus() {
         return getStatus(true);
@@ -28,6 +28,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -80,7 +81,9 @@ import com.mirth.connect.donkey.server.channel.StorageSettings;
 import com.mirth.connect.donkey.server.channel.components.PostProcessor;
 import com.mirth.connect.donkey.server.channel.components.PreProcessor;
 import com.mirth.connect.donkey.server.data.DonkeyDao;
+import com.mirth.connect.donkey.server.data.DonkeyDaoFactory;
 import com.mirth.connect.donkey.server.data.buffered.BufferedDaoFactory;
+import com.mirth.connect.donkey.server.data.buffered.GroupCommitDaoFactory;
 import com.mirth.connect.donkey.server.data.passthru.PassthruDaoFactory;
 import com.mirth.connect.donkey.server.event.ErrorEvent;
 import com.mirth.connect.donkey.server.event.EventDispatcher;
@@ -108,6 +111,7 @@ import com.mirth.connect.model.MessageStorageMode;
 import com.mirth.connect.model.ServerEventContext;
 import com.mirth.connect.model.Transformer;
 import com.mirth.connect.model.attachments.AttachmentHandlerType;
+import com.mirth.connect.model.converters.IMessageAccessorSerializer;
 import com.mirth.connect.model.converters.ObjectXMLSerializer;
 import com.mirth.connect.model.datatype.BatchProperties;
 import com.mirth.connect.model.datatype.DataTypeProperties;
@@ -118,6 +122,7 @@ import com.mirth.connect.server.ExtensionLoader;
 import com.mirth.connect.server.attachments.MirthAttachmentHandlerProvider;
 import com.mirth.connect.server.attachments.passthru.PassthruAttachmentHandlerProvider;
 import com.mirth.connect.server.builders.JavaScriptBuilder;
+import com.mirth.connect.server.channel.ChannelDeployTimer;
 import com.mirth.connect.server.channel.ChannelFuture;
 import com.mirth.connect.server.channel.ChannelTask;
 import com.mirth.connect.server.channel.ChannelTaskHandler;
@@ -216,6 +221,10 @@ public class DonkeyEngineController implements EngineController {
 
         Properties donkeyProperties = configurationController.getDatabaseSettings().getProperties();
         donkeyProperties.setProperty("donkey.statsupdateinterval", String.valueOf(configurationController.getStatsUpdateInterval()));
+        donkeyProperties.setProperty("donkey.contentsearchindex", String.valueOf(configurationController.isContentSearchIndex()));
+        donkeyProperties.setProperty("donkey.contentsearchindex.maxblocks", String.valueOf(configurationController.getContentSearchIndexMaxBlocks()));
+        donkeyProperties.setProperty("donkey.contentsearchindex.maxtotalblocks", String.valueOf(configurationController.getContentSearchIndexMaxTotalBlocks()));
+        donkeyProperties.setProperty("donkey.eventcoalesceinterval", String.valueOf(configurationController.getEventCoalesceInterval()));
 
         donkey.startEngine(new DonkeyConfiguration(configurationController.getApplicationDataDir(), donkeyProperties, donkeyEncryptor, eventDispatcher, configurationController.getServerId()));
     }
@@ -335,6 +344,32 @@ public class DonkeyEngineController implements EngineController {
             executeGlobalDeployScript();
             executeChannelPluginOnDeploy(context);
 
+            long deployStartTime = System.currentTimeMillis();
+            List<DeployTask> allDeployTasks = new ArrayList<DeployTask>();
+            for (List<ChannelTask> taskList : orderedDeployTasks) {
+                for (ChannelTask task : taskList) {
+                    allDeployTasks.add((DeployTask) task);
+                }
+            }
+            for (ChannelTask task : unorderedDeployTasks) {
+                allDeployTasks.add((DeployTask) task);
+            }
+
+            /*
+             * Create every channel and compile its scripts before its deploy task runs, so channels
+             * in later tiers are prepared while earlier tiers are still deploying. The prepare
+             * tasks run on each channel's own executor, so a channel is always prepared before its
+             * deploy task starts. Channels in the first tiers are submitted first.
+             */
+            Semaphore preparePermits = new Semaphore(Math.max(configurationController.getDeployThreads(), 1), true);
+            List<ChannelTask> prepareTasks = new ArrayList<ChannelTask>();
+            for (DeployTask task : allDeployTasks) {
+                PrepareTask prepareTask = new PrepareTask(task.getChannelId(), preparePermits);
+                task.setPrepareTask(prepareTask);
+                prepareTasks.add(prepareTask);
+            }
+            submitTasks(prepareTasks, null);
+
             // First submit deploy tasks for all unordered channels; don't wait for them yet.
             List<ChannelFuture> unorderedDeployFutures = null;
             if (CollectionUtils.isNotEmpty(unorderedDeployTasks)) {
@@ -364,6 +399,8 @@ public class DonkeyEngineController implements EngineController {
                         }
 
                         if (CollectionUtils.isNotEmpty(dependentIdsToRemove)) {
+                            List<ChannelTask> discardTasks = new ArrayList<ChannelTask>();
+
                             // Iterate through the remaining tiers
                             for (int j = i + 1; j < orderedDeployTasks.size(); j++) {
                                 List<ChannelTask> nextTaskList = orderedDeployTasks.get(j);
@@ -373,6 +410,9 @@ public class DonkeyEngineController implements EngineController {
                                     ChannelTask task = it.next();
                                     if (dependentIdsToRemove.contains(task.getChannelId())) {
                                         it.remove();
+
+                                        // The channel may already have been prepared
+                                        discardTasks.add(new DiscardPreparedTask(task.getChannelId()));
                                     }
                                 }
 
@@ -382,6 +422,8 @@ public class DonkeyEngineController implements EngineController {
                                     j--;
                                 }
                             }
+
+                            submitTasks(discardTasks, null);
                         }
                     }
                 }
@@ -391,9 +433,45 @@ public class DonkeyEngineController implements EngineController {
             if (CollectionUtils.isNotEmpty(unorderedDeployFutures)) {
                 waitForTasks(unorderedDeployFutures);
             }
+
+            logDeployTimes(allDeployTasks, System.currentTimeMillis() - deployStartTime);
         }
     }
 
+    /*
+     * Logs how much time all deployed channels spent in each phase, and which channels took the
+     * longest, so it's possible to tell where startup time goes. The times for every channel are
+     * logged at debug level by its deploy task.
+     */
+    private void logDeployTimes(List<DeployTask> deployTasks, long deployTime) {
+        List<ChannelDeployTimer> timers = new ArrayList<ChannelDeployTimer>();
+        for (DeployTask task : deployTasks) {
+            if (task.getDeployTimer() != null) {
+                timers.add(task.getDeployTimer());
+            }
+        }
+
+        if (timers.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(timers, new Comparator<ChannelDeployTimer>() {
+            @Override
+            public int compare(ChannelDeployTimer timer1, ChannelDeployTimer timer2) {
+                return Long.compare(timer2.getTotalTime(), timer1.getTotalTime());
+            }
+        });
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("Deployed ").append(timers.size()).append(" channel(s) in ").append(deployTime).append(" ms. Time spent in each phase by all channels: ");
+        builder.append(ChannelDeployTimer.toString(ChannelDeployTimer.getTotalPhaseTimes(timers))).append(". Slowest channels:");
+        for (ChannelDeployTimer timer : timers.subList(0, Math.min(timers.size(), 5))) {
+            builder.append("\n\t").append(timer);
+        }
+
+        logger.info(builder.toString());
+    }
+
     @Override
     public void undeployChannels(Set<String> channelIds, ServerEventContext context, ChannelTaskHandler handler) {
         List<ChannelTask> unorderedUndeployTasks = new ArrayList<ChannelTask>();
@@ -1117,7 +1195,23 @@ public class DonkeyEngineController implements EngineController {
 
         if (storageSettings.isEnabled()) {
             SerializerProvider serializerProvider = createSerializerProvider(channelModel);
-            BufferedDaoFactory bufferedDaoFactory = new BufferedDaoFactory(donkey.getDaoFactory(), serializerProvider, donkey.getStatisticsUpdater());
+            DonkeyDaoFactory bufferedDaoFactory;
+            int groupCommitMaxSize = configurationController.getGroupCommitMaxSize();
+
+            if (groupCommitMaxSize > 0) {
+                GroupCommitDaoFactory groupCommitDaoFactory = new GroupCommitDaoFactory(donkey.getDaoFactory(), serializerProvider, donkey.getStatisticsUpdater());
+                groupCommitDaoFactory.setMaxBatchSize(groupCommitMaxSize);
+                groupCommitDaoFactory.setChannelId(channelModel.getId());
+                groupCommitDaoFactory.setBatchStatements(configurationController.isBatchStatements());
+                groupCommitDaoFactory.setCompressContent(storageSettings.isCompressContent());
+                bufferedDaoFactory = groupCommitDaoFactory;
+            } else {
+                BufferedDaoFactory defaultDaoFactory = new BufferedDaoFactory(donkey.getDaoFactory(), serializerProvider, donkey.getStatisticsUpdater());
+                defaultDaoFactory.setBatchStatements(configurationController.isBatchStatements());
+                defaultDaoFactory.setCompressContent(storageSettings.isCompressContent());
+                bufferedDaoFactory = defaultDaoFactory;
+            }
+
             bufferedDaoFactory.setEncryptData(channelProperties.isEncryptData());
 
             channel.setDaoFactory(bufferedDaoFactory);
@@ -1190,6 +1284,7 @@ public class DonkeyEngineController implements EngineController {
         storageSettings.setRemoveOnlyFilteredOnCompletion(channelProperties.isRemoveOnlyFilteredOnCompletion());
         storageSettings.setRemoveAttachmentsOnCompletion(channelProperties.isRemoveAttachmentsOnCompletion());
         storageSettings.setStoreAttachments(channelProperties.isStoreAttachments());
+        storageSettings.setCompressContent(channelProperties.isCompressContent());
 
         // we assume that all storage settings are enabled by default
         switch (messageStorageMode) {
@@ -1349,13 +1444,16 @@ public class DonkeyEngineController implements EngineController {
             runFilterTransformer = outboundDataType.getSerializer().isSerializationRequired(false);
         }
 
+        // Ask the inbound serializer if the filter/transformer can use message accessors instead of serializing
+        boolean useMessageAccessors = inboundDataType.getSerializer() instanceof IMessageAccessorSerializer && outboundDataType.getSerializer() instanceof IMessageAccessorSerializer && ((IMessageAccessorSerializer) inboundDataType.getSerializer()).isAccessorEnabled(outboundDataType.getSerializer());
+
         // Serialize the outbound template if needed
         if (StringUtils.isNotBlank(transformer.getOutboundTemplate())) {
             DataTypeServerPlugin outboundServerPlugin = ExtensionController.getInstance().getDataTypePlugins().get(transformer.getOutboundDataType());
             MessageSerializer serializer = outboundServerPlugin.getSerializer(transformer.getOutboundProperties().getSerializerProperties());
 
             // Serialize template to XML only if serialization type is XML
-            if (outboundServerPlugin.isBinary() || outboundServerPlugin.getSerializationType() != SerializationType.XML) {
+            if (useMessageAccessors || outboundServerPlugin.isBinary() || outboundServerPlugin.getSerializationType() != SerializationType.XML) {
                 template = transformer.getOutboundTemplate();
             } else {
                 try {
@@ -1368,11 +1466,22 @@ public class DonkeyEngineController implements EngineController {
             runFilterTransformer = true;
         }
 
+        if (runFilterTransformer && useMessageAccessors) {
+            // The accessors read the raw message and produce the encoded message, so nothing is serialized
+            inboundDataType = new DataType(inboundDataType.getType(), inboundDataType.getSerializer(), inboundDataType.getAutoResponder(), SerializationType.RAW);
+            outboundDataType = new DataType(outboundDataType.getType(), outboundDataType.getSerializer(), outboundDataType.getAutoResponder(), SerializationType.RAW);
+        }
+
         FilterTransformerExecutor filterTransformerExecutor = new FilterTransformerExecutor(inboundDataType, outboundDataType);
 
         if (runFilterTransformer) {
-            String script = JavaScriptBuilder.generateFilterTransformerScript(filter, transformer);
-            filterTransformerExecutor.setFilterTransformer(new JavaScriptFilterTransformer(connector, connectorModel.getName(), script, template));
+            if (useMessageAccessors) {
+                String script = JavaScriptBuilder.generateFilterTransformerScript(filter, transformer, true);
+                filterTransformerExecutor.setFilterTransformer(new JavaScriptFilterTransformer(connector, connectorModel.getName(), script, template, (IMessageAccessorSerializer) inboundDataType.getSerializer(), (IMessageAccessorSerializer) outboundDataType.getSerializer()));
+            } else {
+                String script = JavaScriptBuilder.generateFilterTransformerScript(filter, transformer);
+                filterTransformerExecutor.setFilterTransformer(new JavaScriptFilterTransformer(connector, connectorModel.getName(), script, template));
+            }
         }
 
         return filterTransformerExecutor;
@@ -1471,7 +1580,7 @@ public class DonkeyEngineController implements EngineController {
         destinationConnector.setResponseValidator(responseValidator);
         destinationConnector.setResponseTransformerExecutor(createResponseTransformerExecutor(destinationConnector, connectorModel, destinationIdMap));
 
-        DestinationQueue queue = new DestinationQueue(destinationConnectorProperties.getThreadAssignmentVariable(), destinationConnectorProperties.getThreadCount(), destinationConnectorProperties.isRegenerateTemplate(), destinationConnector.getSerializer(), destinationConnector.getMessageMaps());
+        DestinationQueue queue = new DestinationQueue(destinationConnectorProperties.getThreadAssignmentVariable(), destinationConnectorProperties.getThreadCount(), destinationConnectorProperties.isRegenerateTemplate(), destinationConnector.getSerializer(), destinationConnector.getMessageMaps(), configurationController.isQueueBucketBuffered());
         queue.setRotate(destinationConnector.isQueueRotate());
 
         if (destinationConnectorProperties.getQueueBufferSize() > 0) {
@@ -1713,11 +1822,138 @@ public class DonkeyEngineController implements EngineController {
         }
     }
 
+    /*
+     * Creates the channel, compiles its scripts and creates its message tables if needed. None of
+     * these depend on other channels being deployed. Returns null if the channel shouldn't be
+     * deployed.
+     */
+    private PreparedChannel prepareChannel(com.mirth.connect.model.Channel channelModel, ChannelDeployTimer timer) throws Exception {
+        if (channelModel == null || channelModel instanceof InvalidChannel) {
+            return null;
+        }
+        ChannelMetadata metadata = configurationController.getChannelMetadata().get(channelModel.getId());
+        if (metadata == null || !metadata.isEnabled() || isDeployed(channelModel.getId())) {
+            return null;
+        }
+
+        String channelId = channelModel.getId();
+        timer.setChannelName(channelModel.getName());
+        Channel channel = null;
+
+        try {
+            channel = createChannelFromModel(channelModel);
+        } catch (Exception e) {
+            throw new DeployException(e.getMessage(), e);
+        }
+        timer.phaseEnded(ChannelDeployTimer.CREATE);
+
+        MirthContextFactory contextFactory;
+
+        try {
+            contextFactory = contextFactoryController.getContextFactory(channelModel.getProperties().getResourceIds().keySet());
+        } catch (Exception e) {
+            throw new DeployException("Failed to deploy channel " + channelId + ".", e);
+        }
+
+        try {
+            scriptController.compileChannelScripts(contextFactory, channelModel);
+        } catch (ScriptCompileException e) {
+            scriptController.removeChannelScriptsFromCache(channelId);
+            throw new DeployException("Failed to deploy channel " + channelId + ".", e);
+        }
+        timer.phaseEnded(ChannelDeployTimer.COMPILE_SCRIPTS);
+
+        donkeyChannelController.initChannelStorage(channelId);
+        timer.phaseEnded(ChannelDeployTimer.STORAGE);
+
+        return new PreparedChannel(channelModel, channel, contextFactory, timer);
+    }
+
+    private static class PreparedChannel {
+
+        private com.mirth.connect.model.Channel channelModel;
+        private Channel channel;
+        private MirthContextFactory contextFactory;
+        private ChannelDeployTimer timer;
+
+        public PreparedChannel(com.mirth.connect.model.Channel channelModel, Channel channel, MirthContextFactory contextFactory, ChannelDeployTimer timer) {
+            this.channelModel = channelModel;
+            this.channel = channel;
+            this.contextFactory = contextFactory;
+            this.timer = timer;
+        }
+    }
+
+    /**
+     * Prepares a channel ahead of its deploy task, which is submitted to the same executor
+     * afterwards. At most as many channels as there are permits are prepared at once. Any error is
+     * kept and thrown by the deploy task, so it is handled the same as any other deploy error.
+     */
+    protected class PrepareTask extends ChannelTask {
+
+        private Semaphore permits;
+        private PreparedChannel preparedChannel;
+        private Exception exception;
+
+        public PrepareTask(String channelId, Semaphore permits) {
+            super(channelId);
+            this.permits = permits;
+        }
+
+        @Override
+        public Void execute() throws Exception {
+            ChannelDeployTimer timer = new ChannelDeployTimer(channelId);
+
+            try {
+                permits.acquire();
+
+                try {
+                    timer.phaseEnded(ChannelDeployTimer.QUEUED);
+                    preparedChannel = prepareChannel(channelController.getChannelById(channelId), timer);
+                } finally {
+                    permits.release();
+                }
+            } catch (Exception e) {
+                exception = e;
+            }
+
+            return null;
+        }
+
+        public PreparedChannel getPreparedChannel() throws Exception {
+            if (exception != null) {
+                throw exception;
+            }
+            return preparedChannel;
+        }
+    }
+
+    /**
+     * Removes the scripts compiled for a channel whose deploy task was removed because a channel
+     * it depends on failed to deploy.
+     */
+    protected class DiscardPreparedTask extends ChannelTask {
+
+        public DiscardPreparedTask(String channelId) {
+            super(channelId);
+        }
+
+        @Override
+        public Void execute() throws Exception {
+            if (!isDeployed(channelId)) {
+                scriptController.removeChannelScriptsFromCache(channelId);
+            }
+            return null;
+        }
+    }
+
     protected class DeployTask extends ChannelTask {
 
         private DeployedState initialState;
         private Set<Integer> connectorsToStart;
         private ServerEventContext context;
+        private PrepareTask prepareTask;
+        private volatile ChannelDeployTimer deployTimer;
 
         public DeployTask(String channelId, DeployedState initialState, Set<Integer> connectorsToStart, ServerEventContext context) {
             super(channelId);
@@ -1726,27 +1962,51 @@ public class DonkeyEngineController implements EngineController {
             this.context = context;
         }
 
+        /**
+         * Sets the task that prepares the channel before this one runs. Without one, the channel
+         * is prepared by this task.
+         */
+        public void setPrepareTask(PrepareTask prepareTask) {
+            this.prepareTask = prepareTask;
+        }
+
+        /**
+         * Returns the times spent in each deploy phase, or null if the channel wasn't deployed.
+         */
+        public ChannelDeployTimer getDeployTimer() {
+            return deployTimer;
+        }
+
         @Override
         public Void execute() throws Exception {
-            doDeploy(channelController.getChannelById(channelId));
-            return null;
-        }
+            PreparedChannel preparedChannel;
 
-        protected void doDeploy(com.mirth.connect.model.Channel channelModel) throws Exception {
-            if (channelModel == null || channelModel instanceof InvalidChannel) {
-                return;
+            if (prepareTask != null) {
+                preparedChannel = prepareTask.getPreparedChannel();
+
+                if (preparedChannel != null) {
+                    // Time spent waiting for earlier tiers to deploy
+                    preparedChannel.timer.phaseEnded(ChannelDeployTimer.DEPENDENCIES);
+                }
+            } else {
+                preparedChannel = prepareChannel(channelController.getChannelById(channelId), new ChannelDeployTimer(channelId));
             }
-            ChannelMetadata metadata = configurationController.getChannelMetadata().get(channelModel.getId());
-            if (metadata == null || !metadata.isEnabled() || isDeployed(channelId)) {
-                return;
+
+            if (preparedChannel != null) {
+                doDeploy(preparedChannel);
             }
+            return null;
+        }
 
-            Channel channel = null;
+        protected void doDeploy(PreparedChannel preparedChannel) throws Exception {
+            com.mirth.connect.model.Channel channelModel = preparedChannel.channelModel;
+            Channel channel = preparedChannel.channel;
+            MirthContextFactory contextFactory = preparedChannel.contextFactory;
+            ChannelDeployTimer timer = preparedChannel.timer;
 
-            try {
-                channel = createChannelFromModel(channelModel);
-            } catch (Exception e) {
-                throw new DeployException(e.getMessage(), e);
+            // Another task may have deployed the channel after it was prepared
+            if (isDeployed(channelId)) {
+                return;
             }
 
             try {
@@ -1754,20 +2014,6 @@ public class DonkeyEngineController implements EngineController {
                 deployingChannels.add(channel);
                 channelController.putDeployedChannelInCache(channelModel);
 
-                MirthContextFactory contextFactory;
-
-                try {
-                    contextFactory = contextFactoryController.getContextFactory(channelModel.getProperties().getResourceIds().keySet());
-                } catch (Exception e) {
-                    throw new DeployException("Failed to deploy channel " + channelId + ".", e);
-                }
-
-                try {
-                    scriptController.compileChannelScripts(contextFactory, channelModel);
-                } catch (ScriptCompileException e) {
-                    throw new DeployException("Failed to deploy channel " + channelId + ".", e);
-                }
-
                 clearGlobalChannelMap(channelModel);
 
                 try {
@@ -1781,11 +2027,13 @@ public class DonkeyEngineController implements EngineController {
                     eventController.dispatchEvent(new ErrorEvent(channelModel.getId(), null, null, ErrorEventType.DEPLOY_SCRIPT, null, null, "Error running channel deploy script", t));
                     throw new DeployException("Failed to deploy channel " + channelId + ".", e);
                 }
+                timer.phaseEnded(ChannelDeployTimer.DEPLOY_SCRIPT);
 
                 // Execute the individual channel plugin deploy hook
                 for (ChannelPlugin channelPlugin : extensionController.getChannelPlugins().values()) {
                     channelPlugin.deploy(channelModel, context);
                 }
+                timer.phaseEnded(ChannelDeployTimer.PLUGINS);
 
                 // TODO This may not be necessary anymore
                 channel.setRevision(channelModel.getRevision());
@@ -1799,6 +2047,7 @@ public class DonkeyEngineController implements EngineController {
                     donkey.getDeployedChannels().remove(channelId);
                     throw e;
                 }
+                timer.phaseEnded(ChannelDeployTimer.CONNECTORS);
 
                 // Use the initial state from the channel settings if none are provided
                 if (initialState == null) {
@@ -1837,6 +2086,12 @@ public class DonkeyEngineController implements EngineController {
                     // Unless the initial state is stopped, always start the channel
                     channel.start(connectorsToStart);
                 }
+                timer.phaseEnded(ChannelDeployTimer.START);
+
+                deployTimer = timer;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Deployed channel " + timer);
+                }
             } catch (DeployException e) {
                 // Remove the channel from the deployed channel cache if an exception occurred on deploy.
                 channelController.removeDeployedChannelFromCache(channelId);
@@ -10,6 +10,7 @@
 package com.mirth.connect.server.controllers;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,9 +24,12 @@ import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.log4j.Logger;
 
@@ -45,7 +49,9 @@ import com.mirth.connect.donkey.server.channel.Channel;
 import com.mirth.connect.donkey.server.channel.ChannelException;
 import com.mirth.connect.donkey.server.controllers.ChannelController;
 import com.mirth.connect.donkey.server.data.DonkeyDao;
+import com.mirth.connect.donkey.server.data.index.ContentSearchIndex;
 import com.mirth.connect.donkey.server.message.DataType;
+import com.mirth.connect.donkey.util.CompressionUtil;
 import com.mirth.connect.donkey.util.MapUtil;
 import com.mirth.connect.donkey.util.xstream.SerializerException;
 import com.mirth.connect.model.MessageImportResult;
@@ -398,6 +404,8 @@ public class DonkeyMessageController extends MessageController {
                         rawContent.setEncrypted(false);
                     }
 
+                    rawContent.setContent(CompressionUtil.decompressContent(rawContent.getContent()));
+
                     ConnectorMessage connectorMessage = new ConnectorMessage();
                     connectorMessage.setChannelId(channelId);
                     connectorMessage.setMessageId(messageId);
@@ -424,6 +432,8 @@ public class DonkeyMessageController extends MessageController {
                                 sourceMapContent.setEncrypted(false);
                             }
 
+                            sourceMapContent.setContent(CompressionUtil.decompressContent(sourceMapContent.getContent()));
+
                             /*
                              * We do putAll instead of setting the source map directly here because
                              * the previously stored map will be unmodifiable. We need to set the
@@ -503,7 +513,20 @@ public class DonkeyMessageController extends MessageController {
 
     @Override
     public void exportAttachment(String channelId, String attachmentId, Long messageId, String filePath, boolean binary) throws IOException {
-        AttachmentUtil.writeToFile(filePath, getMessageAttachment(channelId, attachmentId, messageId), binary);
+        OutputStream outputStream = AttachmentUtil.getFileOutputStream(filePath, binary);
+
+        try {
+            DonkeyDao dao = donkey.getDaoFactory().getDao();
+
+            try {
+                // Stream the attachment segments straight to the file
+                dao.getMessageAttachment(channelId, attachmentId, messageId, outputStream);
+            } finally {
+                dao.close();
+            }
+        } finally {
+            outputStream.close();
+        }
     }
 
     @Override
@@ -783,7 +806,7 @@ public class DonkeyMessageController extends MessageController {
                 if (searchContent) {
                     Map<Long, MessageSearchResult> contentMessages = new HashMap<Long, MessageSearchResult>();
                     // Perform the content search
-                    searchContent(session, new HashMap<String, Object>(contentParams), potentialMessages, contentMessages, filter.getContentSearch());
+                    searchContent(session, new HashMap<String, Object>(contentParams), filterOptions.getChannelId(), potentialMessages, contentMessages, filter.getContentSearch());
 
                     if (tempMessages == null) {
                         /*
@@ -810,7 +833,7 @@ public class DonkeyMessageController extends MessageController {
                 }
                 if (searchText) {
                     // Perform the text search
-                    searchText(session, new HashMap<String, Object>(contentParams), potentialMessages, textMessages, filter.getTextSearchRegex(), filter.getTextSearch(), filter.getTextSearchMetaDataColumns());
+                    searchText(session, new HashMap<String, Object>(contentParams), filterOptions.getChannelId(), potentialMessages, textMessages, filter.getTextSearchRegex(), filter.getTextSearch(), filter.getTextSearchMetaDataColumns());
 
                     if (tempMessages == null) {
                         /*
@@ -892,7 +915,7 @@ public class DonkeyMessageController extends MessageController {
         }
     }
 
-    private void searchContent(SqlSession session, Map<String, Object> params, Map<Long, MessageSearchResult> potentialMessages, Map<Long, MessageSearchResult> contentMessages, List<ContentSearchElement> contentSearchElements) {
+    private void searchContent(SqlSession session, Map<String, Object> params, String channelId, Map<Long, MessageSearchResult> potentialMessages, Map<Long, MessageSearchResult> contentMessages, List<ContentSearchElement> contentSearchElements) {
         int index = 0;
 
         while (index < contentSearchElements.size() && (index == 0 || !contentMessages.isEmpty())) {
@@ -906,7 +929,7 @@ public class DonkeyMessageController extends MessageController {
                  * Search the content table for message and metadata ids matching the content search
                  * criteria
                  */
-                List<MessageTextResult> results = session.selectList("Message.searchContentTable", params);
+                List<MessageTextResult> results = searchContentTable(session, params, channelId);
 
                 Map<Long, MessageSearchResult> tempMessages = new HashMap<Long, MessageSearchResult>();
 
@@ -946,7 +969,7 @@ public class DonkeyMessageController extends MessageController {
                     params.put("metaDataId", 0);
                     params.put("contentType", ContentType.ENCODED.getContentTypeCode());
 
-                    results = session.selectList("Message.searchContentTable", params);
+                    results = searchContentTable(session, params, channelId);
                     params.remove("metaDataId");
 
                     for (MessageTextResult result : results) {
@@ -994,7 +1017,7 @@ public class DonkeyMessageController extends MessageController {
         }
     }
 
-    private void searchText(SqlSession session, Map<String, Object> params, Map<Long, MessageSearchResult> potentialMessages, Map<Long, MessageSearchResult> textMessages, Boolean textSearchRegex, String text, List<String> textSearchMetaDataColumns) {
+    private void searchText(SqlSession session, Map<String, Object> params, String channelId, Map<Long, MessageSearchResult> potentialMessages, Map<Long, MessageSearchResult> textMessages, Boolean textSearchRegex, String text, List<String> textSearchMetaDataColumns) {
         params.put("contents", Collections.singletonList(text));
         params.put("textSearch", text);
         params.put("textSearchRegex", textSearchRegex);
@@ -1028,7 +1051,7 @@ public class DonkeyMessageController extends MessageController {
         /*
          * Search the content table for message and metadata ids matching the text search criteria
          */
-        results = session.selectList("Message.searchContentTable", params);
+        results = searchContentTable(session, params, channelId);
 
         for (MessageTextResult result : results) {
             Long messageId = result.getMessageId();
@@ -1058,6 +1081,137 @@ public class DonkeyMessageController extends MessageController {
         }
     }
 
+    /**
+     * Searches the content table for the contents in params. If the content search index is
+     * enabled, only the ranges of message ids that may contain the contents are searched. Encrypted
+     * content in the indexed ranges is decrypted and matched here, since the database can only
+     * compare it in its encrypted form. Compressed content is always left out of the database
+     * search and is decompressed and matched here, whether or not the channel still compresses its
+     * content.
+     */
+    private List<MessageTextResult> searchContentTable(SqlSession session, Map<String, Object> params, String channelId) {
+        ContentSearchIndex contentSearchIndex = donkey.getContentSearchIndex();
+        @SuppressWarnings("unchecked")
+        List<String> contents = (List<String>) params.get("contents");
+        boolean regex = Boolean.TRUE.equals(params.get("textSearchRegex"));
+
+        params = new HashMap<String, Object>(params);
+        params.put("compressedContent", CompressionUtil.COMPRESSED_PREFIX + "%");
+
+        List<ContentSearchIndex.Range> ranges = null;
+
+        if (contentSearchIndex != null && !regex) {
+            ranges = contentSearchIndex.getCandidateRanges(channelId, (Long) params.get("minMessageId"), (Long) params.get("maxMessageId"), contents);
+        }
+
+        if (ranges == null) {
+            List<MessageTextResult> results = session.selectList("Message.searchContentTable", params);
+            results.addAll(searchDecodedContent(session, params, contents, regex));
+            return results;
+        }
+
+        boolean encrypted = contentSearchIndex.hasEncryptedContent(channelId);
+        List<MessageTextResult> results = new ArrayList<MessageTextResult>();
+
+        for (ContentSearchIndex.Range range : ranges) {
+            Map<String, Object> rangeParams = new HashMap<String, Object>(params);
+            rangeParams.put("minMessageId", range.getMinMessageId());
+            rangeParams.put("maxMessageId", range.getMaxMessageId());
+
+            List<MessageTextResult> rangeResults = session.selectList("Message.searchContentTable", rangeParams);
+            results.addAll(rangeResults);
+
+            if (encrypted && range.isIndexed()) {
+                rangeParams.put("encrypted", true);
+            }
+
+            results.addAll(searchDecodedContent(session, rangeParams, contents, false));
+        }
+
+        return results;
+    }
+
+    /*
+     * Matches the encrypted and/or compressed content selected by params once it has been
+     * decrypted and decompressed. The rows are handled one at a time as they are read, so only the
+     * matching ids are kept in memory.
+     */
+    private List<MessageTextResult> searchDecodedContent(SqlSession session, Map<String, Object> params, List<String> contents, boolean regex) {
+        final Encryptor encryptor = ConfigurationController.getInstance().getEncryptor();
+        final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        for (String content : contents) {
+            patterns.add(regex ? Pattern.compile(content) : getContentSearchPattern(content));
+        }
+
+        final List<MessageTextResult> results = new ArrayList<MessageTextResult>();
+
+        session.select("Message.searchEncryptedContentTable", params, new ResultHandler() {
+            @Override
+            public void handleResult(ResultContext context) {
+                MessageContent messageContent = (MessageContent) context.getResultObject();
+                String content = messageContent.getContent();
+
+                if (content == null) {
+                    return;
+                }
+
+                if (messageContent.isEncrypted()) {
+                    try {
+                        content = encryptor.decrypt(content);
+                    } catch (Exception e) {
+                        logger.warn("Unable to decrypt content for message " + messageContent.getMessageId() + " while searching.", e);
+                        return;
+                    }
+                }
+
+                content = CompressionUtil.decompressContent(content);
+
+                for (Pattern pattern : patterns) {
+                    if (!pattern.matcher(content).find()) {
+                        return;
+                    }
+                }
+
+                MessageTextResult result = new MessageTextResult();
+                result.setMessageId(messageContent.getMessageId());
+                result.setMetaDataId(messageContent.getMetaDataId());
+                result.setContentType(messageContent.getContentType().getContentTypeCode());
+                results.add(result);
+            }
+        });
+
+        return results;
+    }
+
+    /**
+     * Returns a pattern that finds the same content as a case-insensitive LIKE '%search%'.
+     */
+    private Pattern getContentSearchPattern(String search) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < search.length(); i++) {
+            char c = search.charAt(i);
+
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+
     private void addMessageToMap(Map<Long, MessageSearchResult> messages, Long messageId, Integer metaDataId) {
         MessageSearchResult result = messages.get(messageId);
 
@@ -1126,6 +1280,7 @@ public class DonkeyMessageController extends MessageController {
     }
 
     private class FilterOptions {
+        private String channelId;
         private long minMessageId;
         private long maxMessageId;
         private boolean searchCustomMetaData;
@@ -1133,6 +1288,8 @@ public class DonkeyMessageController extends MessageController {
         private boolean searchText;
 
         public FilterOptions(MessageFilter filter, String channelId) {
+            this.channelId = channelId;
+
             if (filter.getMinMessageId() != null && filter.getMaxMessageId() != null && filter.getMinMessageId() > filter.getMaxMessageId()) {
                 /*
                  * If the min message id is greater than the max, use them directly so they fail at
@@ -1163,6 +1320,10 @@ public class DonkeyMessageController extends MessageController {
             searchText = filter.getTextSearch() != null;
         }
 
+        public String getChannelId() {
+            return channelId;
+        }
+
         public long getMinMessageId() {
             return minMessageId;
         }
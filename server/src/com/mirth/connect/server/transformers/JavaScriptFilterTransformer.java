@@ -25,6 +25,7 @@ import com.mirth.connect.donkey.server.channel.components.FilterTransformer;
 import com.mirth.connect.donkey.server.channel.components.FilterTransformerException;
 import com.mirth.connect.donkey.server.event.ErrorEvent;
 import com.mirth.connect.model.codetemplates.ContextType;
+import com.mirth.connect.model.converters.IMessageAccessorSerializer;
 import com.mirth.connect.server.MirthJavascriptTransformerException;
 import com.mirth.connect.server.controllers.ContextFactoryController;
 import com.mirth.connect.server.controllers.ControllerFactory;
@@ -50,11 +51,23 @@ public class JavaScriptFilterTransformer implements FilterTransformer {
     private String template;
     private String scriptId;
     private volatile String contextFactoryId;
+    private IMessageAccessorSerializer inboundSerializer;
+    private IMessageAccessorSerializer outboundSerializer;
 
     public JavaScriptFilterTransformer(Connector connector, String connectorName, String script, String template) throws JavaScriptInitializationException {
+        this(connector, connectorName, script, template, null, null);
+    }
+
+    /**
+     * If the serializers are not null, msg and tmp are message accessors created from the raw
+     * message and the template, and the script is expected not to create them itself.
+     */
+    public JavaScriptFilterTransformer(Connector connector, String connectorName, String script, String template, IMessageAccessorSerializer inboundSerializer, IMessageAccessorSerializer outboundSerializer) throws JavaScriptInitializationException {
         this.connector = connector;
         this.connectorName = connectorName;
         this.template = template;
+        this.inboundSerializer = inboundSerializer;
+        this.outboundSerializer = outboundSerializer;
         initialize(script);
     }
 
@@ -140,6 +153,13 @@ public class JavaScriptFilterTransformer implements FilterTransformer {
                 try {
                     // TODO: Get rid of template and phase
                     Scriptable scope = JavaScriptScopeUtil.getFilterTransformerScope(getContextFactory(), scriptLogger, new ImmutableConnectorMessage(message, true, connector.getDestinationIdMap()), template, phase);
+
+                    if (inboundSerializer != null) {
+                        String content = message.getProcessedRaw() != null ? message.getProcessedRaw().getContent() : message.getRaw().getContent();
+                        Object templateAccessor = StringUtils.isNotBlank(template) ? outboundSerializer.createAccessor(template, outboundSerializer) : null;
+                        JavaScriptScopeUtil.addMessageAccessors(scope, inboundSerializer.createAccessor(content, outboundSerializer), templateAccessor);
+                    }
+
                     Object result = executeScript(compiledScript, scope);
 
                     String transformedData = JavaScriptScopeUtil.getTransformedDataFromScope(scope, StringUtils.isNotBlank(template));
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.util;
+
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many requests a listener works on at once, and records how long each stage of a
+ * request takes. A request is started with tryStart, which returns false once the limit is
+ * reached so the listener can turn the request away, and every started request must be finished
+ * with finish.
+ */
+public class RequestTracker {
+
+    public static final String BODY = "body";
+    public static final String QUEUED = "queued";
+    public static final String DISPATCH = "dispatch";
+    public static final String RESPONSE = "response";
+    public static final String EXCHANGE = "exchange";
+
+    private int maxInFlight;
+    private Semaphore permits;
+    private AtomicLong rejected = new AtomicLong();
+    private ConcurrentMap<String, StageTimes> stages = new ConcurrentHashMap<String, StageTimes>();
+
+    /**
+     * @param maxInFlight
+     *            The number of requests that can be in flight at once, or 0 for no limit.
+     */
+    public RequestTracker(int maxInFlight) {
+        this.maxInFlight = Math.max(maxInFlight, 0);
+        permits = new Semaphore(this.maxInFlight > 0 ? this.maxInFlight : Integer.MAX_VALUE);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Returns true if the request can be processed now, or false if the limit has been reached.
+     */
+    public boolean tryStart() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void finish() {
+        permits.release();
+    }
+
+    public int getInFlight() {
+        return maxInFlight > 0 ? maxInFlight - permits.availablePermits() : Integer.MAX_VALUE - permits.availablePermits();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Adds the time a request spent in a stage.
+     */
+    public void record(String stage, long nanos) {
+        StageTimes times = stages.get(stage);
+        if (times == null) {
+            StageTimes newTimes = new StageTimes();
+            times = stages.putIfAbsent(stage, newTimes);
+            if (times == null) {
+                times = newTimes;
+            }
+        }
+        times.add(nanos);
+    }
+
+    public long getCount(String stage) {
+        StageTimes times = stages.get(stage);
+        return times != null ? times.count.get() : 0;
+    }
+
+    public long getTotalNanos(String stage) {
+        StageTimes times = stages.get(stage);
+        return times != null ? times.totalNanos.get() : 0;
+    }
+
+    public long getMaxNanos(String stage) {
+        StageTimes times = stages.get(stage);
+        return times != null ? times.maxNanos.get() : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(getInFlight()).append(" in flight, ").append(getRejected()).append(" rejected");
+
+        for (Entry<String, StageTimes> entry : new TreeMap<String, StageTimes>(stages).entrySet()) {
+            StageTimes times = entry.getValue();
+            long count = times.count.get();
+            builder.append(", ").append(entry.getKey()).append(' ').append(count).append(" x ");
+            builder.append(count > 0 ? times.totalNanos.get() / count / 1000 : 0).append(" us avg ");
+            builder.append(times.maxNanos.get() / 1000).append(" us max");
+        }
+
+        return builder.toString();
+    }
+
+    private static class StageTimes {
+        private AtomicLong count = new AtomicLong();
+        private AtomicLong totalNanos = new AtomicLong();
+        private AtomicLong maxNanos = new AtomicLong();
+
+        private void add(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {}
+        }
+    }
+}
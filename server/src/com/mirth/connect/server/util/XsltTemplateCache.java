@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Holds the compiled stylesheets used by XSLT transformer steps. Each stylesheet is compiled once
+ * into a thread-safe Templates object, and each thread that executes the step is given its own
+ * Transformer created from it. Entries are cached per channel and removed when the channel is
+ * undeployed.
+ */
+public class XsltTemplateCache {
+    /*
+     * A step whose template is built dynamically could otherwise fill the cache with a new
+     * stylesheet for every message.
+     */
+    private static final int MAX_TEMPLATES_PER_CHANNEL = 100;
+
+    private Logger logger = Logger.getLogger(this.getClass());
+    private ConcurrentMap<String, ConcurrentMap<TemplateKey, CachedTemplates>> channelTemplates = new ConcurrentHashMap<String, ConcurrentMap<TemplateKey, CachedTemplates>>();
+    private AtomicLong hitCount = new AtomicLong();
+    private AtomicLong compileCount = new AtomicLong();
+    private AtomicLong totalCompileNanos = new AtomicLong();
+
+    // singleton pattern
+    private static XsltTemplateCache instance = null;
+
+    private XsltTemplateCache() {
+
+    }
+
+    public static XsltTemplateCache getInstance() {
+        synchronized (XsltTemplateCache.class) {
+            if (instance == null)
+                instance = new XsltTemplateCache();
+
+            return instance;
+        }
+    }
+
+    /**
+     * Returns a Transformer for the given stylesheet that may only be used by the current thread.
+     * The stylesheet is compiled the first time it is requested for the step, and again whenever
+     * the step requests a different stylesheet or factory.
+     *
+     * @param channelId
+     *            The ID of the channel the step belongs to
+     * @param metaDataId
+     *            The metadata ID of the connector the step belongs to
+     * @param stepId
+     *            Identifies the step within the connector's filter or transformer
+     * @param customFactory
+     *            The TransformerFactory class name to use, or blank for the default factory
+     * @param template
+     *            The XSLT stylesheet
+     */
+    public Transformer getTransformer(String channelId, int metaDataId, String stepId, String customFactory, String template) throws TransformerConfigurationException {
+        channelId = StringUtils.defaultString(channelId);
+        ConcurrentMap<TemplateKey, CachedTemplates> templatesMap = channelTemplates.get(channelId);
+
+        if (templatesMap == null) {
+            templatesMap = new ConcurrentHashMap<TemplateKey, CachedTemplates>();
+            ConcurrentMap<TemplateKey, CachedTemplates> existingMap = channelTemplates.putIfAbsent(channelId, templatesMap);
+
+            if (existingMap != null) {
+                templatesMap = existingMap;
+            }
+        }
+
+        TemplateKey key = new TemplateKey(metaDataId, stepId, StringUtils.trimToNull(customFactory), template);
+        CachedTemplates cachedTemplates = templatesMap.get(key);
+
+        if (cachedTemplates == null) {
+            if (templatesMap.size() >= MAX_TEMPLATES_PER_CHANNEL) {
+                logger.debug("XSLT template cache for channel " + channelId + " is full, clearing it");
+                templatesMap.clear();
+            }
+
+            cachedTemplates = new CachedTemplates(key);
+            CachedTemplates existingTemplates = templatesMap.putIfAbsent(key, cachedTemplates);
+
+            if (existingTemplates != null) {
+                cachedTemplates = existingTemplates;
+            }
+        }
+
+        return cachedTemplates.getTransformer();
+    }
+
+    public void removeChannel(String channelId) {
+        if (channelId != null) {
+            channelTemplates.remove(channelId);
+        }
+    }
+
+    /**
+     * Returns the number of times a cached stylesheet was reused instead of being compiled.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getCompileCount() {
+        return compileCount.get();
+    }
+
+    /**
+     * Returns the total time spent compiling stylesheets.
+     */
+    public long getCompileTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalCompileNanos.get());
+    }
+
+    /**
+     * Returns the hit count and compile time of each stylesheet currently cached for the given
+     * channel.
+     */
+    public List<TemplateStatistics> getStatistics(String channelId) {
+        List<TemplateStatistics> statistics = new ArrayList<TemplateStatistics>();
+        Map<TemplateKey, CachedTemplates> templatesMap = channelTemplates.get(channelId);
+
+        if (templatesMap != null) {
+            for (CachedTemplates cachedTemplates : templatesMap.values()) {
+                statistics.add(new TemplateStatistics(cachedTemplates));
+            }
+        }
+
+        return statistics;
+    }
+
+    public void resetStatistics() {
+        hitCount.set(0);
+        compileCount.set(0);
+        totalCompileNanos.set(0);
+    }
+
+    public static class TemplateStatistics {
+        private int metaDataId;
+        private String stepId;
+        private long hitCount;
+        private long compileTimeMillis;
+
+        private TemplateStatistics(CachedTemplates cachedTemplates) {
+            metaDataId = cachedTemplates.key.metaDataId;
+            stepId = cachedTemplates.key.stepId;
+            hitCount = cachedTemplates.hits.get();
+            compileTimeMillis = TimeUnit.NANOSECONDS.toMillis(cachedTemplates.compileNanos);
+        }
+
+        public int getMetaDataId() {
+            return metaDataId;
+        }
+
+        public String getStepId() {
+            return stepId;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getCompileTimeMillis() {
+            return compileTimeMillis;
+        }
+    }
+
+    private class CachedTemplates {
+        private TemplateKey key;
+        private volatile Templates templates;
+        private long compileNanos;
+        private AtomicLong hits = new AtomicLong();
+
+        // Transformers are not thread-safe, so each thread reuses its own
+        private ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>();
+
+        public CachedTemplates(TemplateKey key) {
+            this.key = key;
+        }
+
+        public Transformer getTransformer() throws TransformerConfigurationException {
+            Transformer transformer = transformers.get();
+
+            if (transformer != null) {
+                recordHit();
+                // Not every implementation clears parameters on reset
+                transformer.reset();
+                transformer.clearParameters();
+                return transformer;
+            }
+
+            if (templates == null) {
+                compile();
+            } else {
+                recordHit();
+            }
+
+            transformer = templates.newTransformer();
+            transformers.set(transformer);
+            return transformer;
+        }
+
+        /*
+         * Threads that request the stylesheet while it is being compiled wait for the result
+         * instead of compiling it again.
+         */
+        private void recordHit() {
+            hits.incrementAndGet();
+            hitCount.incrementAndGet();
+        }
+
+        private synchronized void compile() throws TransformerConfigurationException {
+            if (templates != null) {
+                recordHit();
+                return;
+            }
+
+            long startNanos = System.nanoTime();
+            TransformerFactory factory;
+
+            if (key.customFactory != null) {
+                factory = TransformerFactory.newInstance(key.customFactory, null);
+            } else {
+                factory = TransformerFactory.newInstance();
+            }
+
+            Templates compiledTemplates = factory.newTemplates(new StreamSource(new StringReader(key.template)));
+
+            compileNanos = System.nanoTime() - startNanos;
+            compileCount.incrementAndGet();
+            totalCompileNanos.addAndGet(compileNanos);
+            templates = compiledTemplates;
+            logger.debug("Compiled XSLT template for step " + key.stepId + " on connector " + key.metaDataId + " in " + TimeUnit.NANOSECONDS.toMillis(compileNanos) + " ms");
+        }
+    }
+
+    private static class TemplateKey {
+        private int metaDataId;
+        private String stepId;
+        private String customFactory;
+        private String template;
+        private int hashCode;
+
+        public TemplateKey(int metaDataId, String stepId, String customFactory, String template) {
+            this.metaDataId = metaDataId;
+            this.stepId = stepId;
+            this.customFactory = customFactory;
+            this.template = StringUtils.defaultString(template);
+            hashCode = Objects.hash(metaDataId, stepId, customFactory, this.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof TemplateKey)) {
+                return false;
+            }
+
+            TemplateKey other = (TemplateKey) obj;
+            return metaDataId == other.metaDataId && Objects.equals(stepId, other.stepId) && Objects.equals(customFactory, other.customFactory) && template.equals(other.template);
+        }
+    }
+}
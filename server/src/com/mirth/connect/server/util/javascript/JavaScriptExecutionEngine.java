@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.util.javascript;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.mozilla.javascript.Context;
+
+/**
+ * Runs JavaScript tasks in one of three modes:
+ * 
+ * UNBOUNDED submits each task to a cached thread pool with no upper limit and blocks the caller
+ * until it completes. This is the default.
+ * 
+ * INLINE runs each task on the calling thread. If the calling thread is interrupted, the context is
+ * halted the same way it would be for a pooled task, and the caller receives an
+ * InterruptedException.
+ * 
+ * POOLED submits each task to a fixed size pool, either shared globally or created for each channel.
+ * Once the pool's threads are busy and its queue is full, callers block until a task completes.
+ * 
+ * A task started from a thread that is already executing a script (for example a script that routes
+ * a message to another channel) always uses the unbounded pool, since it cannot reuse the caller's
+ * context and waiting on a bounded pool from inside it could deadlock.
+ */
+public class JavaScriptExecutionEngine {
+    public enum Mode {
+        UNBOUNDED, INLINE, POOLED;
+
+        public static Mode fromString(String value) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(StringUtils.trim(value))) {
+                    return mode;
+                }
+            }
+
+            return UNBOUNDED;
+        }
+    }
+
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final String GLOBAL_POOL_ID = "";
+
+    private Mode mode;
+    private int poolSize;
+    private int queueSize;
+    private boolean poolPerChannel;
+    private ExecutorService unboundedExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new MirthJavaScriptThreadFactory(), new AbortPolicy());
+    private Map<String, BoundedExecutor> boundedExecutors = new ConcurrentHashMap<String, BoundedExecutor>();
+    private Map<String, ScriptLatencyHistogram> histograms = new ConcurrentHashMap<String, ScriptLatencyHistogram>();
+    private AtomicInteger inlineActiveCount = new AtomicInteger();
+
+    public JavaScriptExecutionEngine() {
+        this(Mode.UNBOUNDED, DEFAULT_POOL_SIZE, DEFAULT_QUEUE_SIZE, false);
+    }
+
+    public JavaScriptExecutionEngine(Mode mode, int poolSize, int queueSize, boolean poolPerChannel) {
+        this.mode = mode;
+        this.poolSize = poolSize > 0 ? poolSize : DEFAULT_POOL_SIZE;
+        this.queueSize = Math.max(queueSize, 0);
+        this.poolPerChannel = poolPerChannel;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public <T> T execute(JavaScriptTask<T> task) throws JavaScriptExecutorException, InterruptedException {
+        long startNanos = System.nanoTime();
+
+        try {
+            if (isExecutingScript()) {
+                return executeInExecutor(task, unboundedExecutor);
+            } else if (mode == Mode.INLINE) {
+                return executeInline(task);
+            } else if (mode == Mode.POOLED) {
+                return executeInExecutor(task, getBoundedExecutor(task.getChannelId()));
+            } else {
+                return executeInExecutor(task, unboundedExecutor);
+            }
+        } finally {
+            getHistogram(task.getName()).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread, including callers blocked because a pool's
+     * queue is full.
+     */
+    public int getQueueDepth() {
+        int queueDepth = 0;
+
+        for (BoundedExecutor executor : boundedExecutors.values()) {
+            queueDepth += executor.getQueueDepth();
+        }
+
+        return queueDepth;
+    }
+
+    /**
+     * Returns the number of tasks currently executing in any mode.
+     */
+    public int getActiveCount() {
+        int activeCount = inlineActiveCount.get() + ((ThreadPoolExecutor) unboundedExecutor).getActiveCount();
+
+        for (BoundedExecutor executor : boundedExecutors.values()) {
+            activeCount += executor.getActiveCount();
+        }
+
+        return activeCount;
+    }
+
+    /**
+     * Returns the queue depth of each bounded pool, keyed by channel ID. The global pool uses an
+     * empty key.
+     */
+    public Map<String, Integer> getPoolQueueDepths() {
+        Map<String, Integer> queueDepths = new HashMap<String, Integer>();
+
+        for (Entry<String, BoundedExecutor> entry : boundedExecutors.entrySet()) {
+            queueDepths.put(entry.getKey(), entry.getValue().getQueueDepth());
+        }
+
+        return queueDepths;
+    }
+
+    /**
+     * Returns the execution latency histogram of each script, keyed by task name. The latency is
+     * measured from the caller's point of view, so it includes any time spent waiting for a thread.
+     */
+    public Map<String, ScriptLatencyHistogram> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    public void resetStatistics() {
+        histograms.clear();
+    }
+
+    /**
+     * Shuts down the bounded pool for the given channel, if one exists. Tasks already submitted to
+     * it are allowed to complete.
+     */
+    public void removeChannelPool(String channelId) {
+        if (channelId != null) {
+            BoundedExecutor executor = boundedExecutors.remove(channelId);
+
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private boolean isExecutingScript() {
+        return Thread.currentThread() instanceof MirthJavaScriptThread || Context.getCurrentContext() != null;
+    }
+
+    private <T> T executeInline(JavaScriptTask<T> task) throws JavaScriptExecutorException, InterruptedException {
+        inlineActiveCount.incrementAndGet();
+
+        try {
+            return task.call();
+        } catch (Throwable t) {
+            /*
+             * MirthContext halts the script once the thread is interrupted. Whatever the script
+             * threw as a result, report it the same way a pooled task would be reported to an
+             * interrupted caller.
+             */
+            if (Thread.currentThread().isInterrupted() || ExceptionUtils.indexOfThrowable(t, InterruptedException.class) >= 0) {
+                Thread.currentThread().interrupt();
+                InterruptedException e = new InterruptedException();
+                e.initCause(t);
+                throw e;
+            }
+
+            throw new JavaScriptExecutorException(t);
+        } finally {
+            inlineActiveCount.decrementAndGet();
+        }
+    }
+
+    private <T> T executeInExecutor(JavaScriptTask<T> task, ExecutorService executor) throws JavaScriptExecutorException, InterruptedException {
+        Future<T> future = submit(task, executor);
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new JavaScriptExecutorException(e.getCause());
+        } catch (InterruptedException e) {
+            // synchronize with JavaScriptTask.executeScript() so that it will not initialize the context while we are halting the task
+            synchronized (task) {
+                future.cancel(true);
+                Context context = task.getContext();
+
+                if (context != null && context instanceof MirthContext) {
+                    ((MirthContext) context).setRunning(false);
+                }
+            }
+
+            // TODO wait for the task thread to complete before exiting?
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> task, ExecutorService executor) throws InterruptedException {
+        if (executor instanceof BoundedExecutor) {
+            return ((BoundedExecutor) executor).submitWhenAvailable(task);
+        }
+
+        return executor.submit(task);
+    }
+
+    private BoundedExecutor getBoundedExecutor(String channelId) {
+        String poolId = poolPerChannel && channelId != null ? channelId : GLOBAL_POOL_ID;
+        BoundedExecutor executor = boundedExecutors.get(poolId);
+
+        if (executor == null) {
+            synchronized (boundedExecutors) {
+                executor = boundedExecutors.get(poolId);
+
+                if (executor == null) {
+                    executor = new BoundedExecutor(poolSize, queueSize);
+                    boundedExecutors.put(poolId, executor);
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    private ScriptLatencyHistogram getHistogram(String name) {
+        ScriptLatencyHistogram histogram = histograms.get(name);
+
+        if (histogram == null) {
+            synchronized (histograms) {
+                histogram = histograms.get(name);
+
+                if (histogram == null) {
+                    histogram = new ScriptLatencyHistogram();
+                    histograms.put(name, histogram);
+                }
+            }
+        }
+
+        return histogram;
+    }
+
+    /*
+     * A fixed size pool that limits the number of running and queued tasks with a semaphore. The
+     * permit is released after the worker thread has finished with the task, which also happens for
+     * tasks that were cancelled while still queued.
+     */
+    private static class BoundedExecutor extends ThreadPoolExecutor {
+        private Semaphore permits;
+
+        public BoundedExecutor(int poolSize, int queueSize) {
+            super(poolSize, poolSize, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new MirthJavaScriptThreadFactory(), new AbortPolicy());
+            allowCoreThreadTimeOut(true);
+            permits = new Semaphore(poolSize + queueSize, true);
+        }
+
+        public <T> Future<T> submitWhenAvailable(Callable<T> task) throws InterruptedException {
+            permits.acquire();
+
+            try {
+                return submit(task);
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        public int getQueueDepth() {
+            return getQueue().size() + permits.getQueueLength();
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable t) {
+            super.afterExecute(runnable, t);
+            permits.release();
+        }
+    }
+}
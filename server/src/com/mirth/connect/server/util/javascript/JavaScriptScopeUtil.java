@@ -9,13 +9,19 @@
 
 package com.mirth.connect.server.util.javascript;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
 import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.log4j.Logger;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
@@ -54,6 +60,24 @@ import com.mirth.connect.util.PropertyLoader;
 public class JavaScriptScopeUtil {
     private static Logger logger = Logger.getLogger(JavaScriptScopeUtil.class);
     private static Integer rhinoOptimizationLevel = null;
+    private static volatile boolean cacheChannelScopes = false;
+    private static final int CHANNEL_SCOPE_CACHE_SIZE = 32;
+
+    /*
+     * Each thread keeps the sealed channel scopes it has recently used, so that the bindings that
+     * don't depend on the message are only created once per thread rather than for every script.
+     * The caches of all threads are also kept by thread, so that the scopes of a channel can be
+     * removed from every thread when it is undeployed, since they hold on to its context factory.
+     */
+    private static Map<Thread, ChannelScopeCache> channelScopeCaches = Collections.synchronizedMap(new WeakHashMap<Thread, ChannelScopeCache>());
+    private static ThreadLocal<ChannelScopeCache> channelScopes = new ThreadLocal<ChannelScopeCache>() {
+        @Override
+        protected ChannelScopeCache initialValue() {
+            ChannelScopeCache cache = new ChannelScopeCache();
+            channelScopeCaches.put(Thread.currentThread(), cache);
+            return cache;
+        }
+    };
 
     static {
         /*
@@ -69,6 +93,42 @@ public class JavaScriptScopeUtil {
             logger.debug("using default Rhino context optimization level (-1)");
             rhinoOptimizationLevel = -1;
         }
+
+        /*
+         * Checks mirth.properties for the rhino.cachechannelscopes property. When enabled, the
+         * bindings that are the same for every message of a channel are kept in a sealed scope
+         * that is reused as the prototype of each message's scope.
+         */
+        if (MapUtils.isNotEmpty(properties)) {
+            cacheChannelScopes = BooleanUtils.toBoolean(properties.getProperty("rhino.cachechannelscopes"));
+        }
+    }
+
+    /**
+     * Enables or disables reuse of sealed channel scopes between script executions on the same
+     * thread. This is read from rhino.cachechannelscopes at startup.
+     */
+    public static void setCacheChannelScopes(boolean cacheChannelScopes) {
+        JavaScriptScopeUtil.cacheChannelScopes = cacheChannelScopes;
+    }
+
+    public static boolean isCacheChannelScopes() {
+        return cacheChannelScopes;
+    }
+
+    /**
+     * Removes the cached channel scopes of a channel from every thread.
+     */
+    public static void removeChannelScopes(String channelId) {
+        List<ChannelScopeCache> caches;
+
+        synchronized (channelScopeCaches) {
+            caches = new ArrayList<ChannelScopeCache>(channelScopeCaches.values());
+        }
+
+        for (ChannelScopeCache cache : caches) {
+            cache.removeChannel(channelId, null);
+        }
     }
 
     /*
@@ -99,8 +159,13 @@ public class JavaScriptScopeUtil {
 
     // Creates a new global scope within the current Context
     private static Scriptable getScope(Context context) {
-        Scriptable scope = context.newObject(((MirthContext) context).getSealedSharedScope());
-        scope.setPrototype(((MirthContext) context).getSealedSharedScope());
+        return getScope(context, ((MirthContext) context).getSealedSharedScope());
+    }
+
+    // Creates a new global scope that inherits from the given prototype scope
+    private static Scriptable getScope(Context context, Scriptable prototype) {
+        Scriptable scope = context.newObject(prototype);
+        scope.setPrototype(prototype);
         scope.setParentScope(null);
         return scope;
     }
@@ -175,9 +240,18 @@ public class JavaScriptScopeUtil {
 
     // Channel Builder
     private static void addChannel(Scriptable scope, String channelId, String channelName) {
+        addChannelConstants(scope, channelId, channelName);
+        addGlobalChannelMap(scope, channelId);
+    }
+
+    private static void addChannelConstants(Scriptable scope, String channelId, String channelName) {
         add("alerts", scope, new AlertSender(channelId));
         add("channelId", scope, channelId);
         add("channelName", scope, channelName);
+    }
+
+    // Global Channel Map Builder
+    private static void addGlobalChannelMap(Scriptable scope, String channelId) {
         add("globalChannelMap", scope, GlobalChannelVariableStoreFactory.getInstance().get(channelId));
     }
 
@@ -223,12 +297,55 @@ public class JavaScriptScopeUtil {
         return scope;
     }
 
+    /*
+     * If channel scopes are cached, the router, global map, context factory, logger and channel
+     * constants are taken from a sealed channel scope kept by the current thread, which becomes the
+     * prototype of the returned scope. Everything else, including anything the script declares, is
+     * still bound to a new scope for each execution, so scripts are isolated from each other the
+     * same way they are without the cache. Bindings whose values can change between executions or
+     * that hold state, such as the replacer's count, the configuration map and the global channel
+     * map, are never cached.
+     */
     private static Scriptable getBasicScope(Context context, Object logger, String channelId, String channelName) {
-        Scriptable scope = getBasicScope(context, logger);
-        addChannel(scope, channelId, channelName);
+        if (!cacheChannelScopes) {
+            Scriptable scope = getBasicScope(context, logger);
+            addChannel(scope, channelId, channelName);
+            return scope;
+        }
+
+        Scriptable scope = getScope(context, getChannelScope(context, logger, channelId, channelName));
+        addReplacer(scope);
+        addConfigurationMap(scope);
+        addDatabaseConnectionFactory(scope, context);
+        addGlobalChannelMap(scope, channelId);
         return scope;
     }
 
+    private static Scriptable getChannelScope(Context context, Object logger, String channelId, String channelName) {
+        ChannelScopeKey key = new ChannelScopeKey(context.getFactory(), logger, channelId, channelName);
+        ChannelScopeCache scopes = channelScopes.get();
+
+        synchronized (scopes) {
+            Scriptable channelScope = scopes.get(key);
+
+            if (channelScope == null) {
+                // Scopes created with a previous context factory of the channel won't be used again
+                scopes.removeChannel(channelId, context.getFactory());
+
+                channelScope = getScope(context);
+                addRouter(channelScope);
+                addGlobalMap(channelScope);
+                addContextFactory(channelScope, context);
+                addLogger(channelScope, logger);
+                addChannelConstants(channelScope, channelId, channelName);
+                ((ScriptableObject) channelScope).sealObject();
+                scopes.put(key, channelScope);
+            }
+
+            return channelScope;
+        }
+    }
+
     private static Scriptable getBasicScope(Context context, Object logger, ImmutableConnectorMessage message) {
         return getBasicScope(context, logger, message.getChannelId(), message.getChannelName());
     }
@@ -297,6 +414,27 @@ public class JavaScriptScopeUtil {
         return scope;
     }
 
+    /**
+     * Adds the message accessors from an IMessageAccessorSerializer to a filter/transformer scope
+     * as msg and tmp, in place of the serialized message and template.
+     */
+    public static void addMessageAccessors(Scriptable scope, Object message, Object template) {
+        addMessageAccessor("msg", scope, message);
+
+        if (template != null) {
+            addMessageAccessor("tmp", scope, template);
+        }
+    }
+
+    private static void addMessageAccessor(String name, Scriptable scope, Object accessor) {
+        if (accessor instanceof ScriptableObject) {
+            ((ScriptableObject) accessor).setParentScope(scope);
+            ((ScriptableObject) accessor).setPrototype(ScriptableObject.getObjectPrototype(scope));
+        }
+
+        add(name, scope, accessor);
+    }
+
     /**
      * Since this method calls getContext(), anything calling it should wrap this method in a
      * try-finally with Context.exit() in the finally block.
@@ -433,4 +571,65 @@ public class JavaScriptScopeUtil {
             response.setError(null);
         }
     }
+
+    private static class ChannelScopeKey {
+        private ContextFactory contextFactory;
+        private Object logger;
+        private String channelId;
+        private String channelName;
+
+        public ChannelScopeKey(ContextFactory contextFactory, Object logger, String channelId, String channelName) {
+            this.contextFactory = contextFactory;
+            this.logger = logger;
+            this.channelId = channelId;
+            this.channelName = channelName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ChannelScopeKey)) {
+                return false;
+            }
+
+            // The context factory and logger are compared by identity since they're bound as is
+            ChannelScopeKey other = (ChannelScopeKey) obj;
+            return contextFactory == other.contextFactory && logger == other.logger && Objects.equals(channelId, other.channelId) && Objects.equals(channelName, other.channelName);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(contextFactory) * 31 + Objects.hashCode(channelId);
+        }
+    }
+
+    /*
+     * The cache is used by its own thread, and only locked to let other threads remove the scopes
+     * of an undeployed channel.
+     */
+    private static class ChannelScopeCache extends LinkedHashMap<ChannelScopeKey, Scriptable> {
+        private static final long serialVersionUID = 1L;
+
+        public ChannelScopeCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ChannelScopeKey, Scriptable> eldest) {
+            return size() > CHANNEL_SCOPE_CACHE_SIZE;
+        }
+
+        /*
+         * Removes the scopes of the channel, except for the ones created with the given context
+         * factory if it isn't null.
+         */
+        public synchronized void removeChannel(String channelId, ContextFactory contextFactory) {
+            for (Iterator<ChannelScopeKey> iterator = keySet().iterator(); iterator.hasNext();) {
+                ChannelScopeKey key = iterator.next();
+
+                if (Objects.equals(channelId, key.channelId) && key.contextFactory != contextFactory) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ public abstract class JavaScriptTask<T> implements Callable<T> {
     private Logger logger = Logger.getLogger(JavaScriptTask.class);
     private MirthContextFactory contextFactory;
     private String threadName;
+    private String channelId;
     private Context context;
     private boolean contextCreated = false;
 
@@ -89,6 +90,18 @@ public abstract class JavaScriptTask<T> implements Callable<T> {
             }
         }
         threadName = builder.toString();
+        this.channelId = channelId;
+    }
+
+    /**
+     * Returns the name that identifies this task in thread names and execution statistics.
+     */
+    public String getName() {
+        return threadName;
+    }
+
+    public String getChannelId() {
+        return channelId;
     }
 
     public MirthContextFactory getContextFactory() {
@@ -118,6 +131,8 @@ public abstract class JavaScriptTask<T> implements Callable<T> {
 
     public Object executeScript(Script compiledScript, Scriptable scope) throws InterruptedException {
         Thread currentThread = Thread.currentThread();
+        // Inline scripts run on the caller's thread, which must get its own classloader back
+        ClassLoader originalClassLoader = currentThread.getContextClassLoader();
 
         try {
             // if the executor is halting this task, we don't want to initialize the context yet
@@ -159,6 +174,8 @@ public abstract class JavaScriptTask<T> implements Callable<T> {
                 mirthThread.setContext(null);
                 mirthThread.setScope(null);
             }
+
+            currentThread.setContextClassLoader(originalClassLoader);
         }
     }
 }
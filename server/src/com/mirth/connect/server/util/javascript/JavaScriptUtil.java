@@ -12,18 +12,14 @@ package com.mirth.connect.server.util.javascript;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
-import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.log4j.Logger;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.EvaluatorException;
@@ -54,40 +50,52 @@ import com.mirth.connect.server.controllers.ScriptController;
 import com.mirth.connect.server.userutil.Attachment;
 import com.mirth.connect.server.util.CompiledScriptCache;
 import com.mirth.connect.server.util.ServerUUIDGenerator;
+import com.mirth.connect.server.util.XsltTemplateCache;
+import com.mirth.connect.server.util.javascript.JavaScriptExecutionEngine.Mode;
 import com.mirth.connect.userutil.ImmutableConnectorMessage;
+import com.mirth.connect.util.PropertyLoader;
 
 public class JavaScriptUtil {
     private static Logger logger = Logger.getLogger(JavaScriptUtil.class);
     private static CompiledScriptCache compiledScriptCache = CompiledScriptCache.getInstance();
     private static final int SOURCE_CODE_LINE_WRAPPER = 5;
-    private static final RejectedExecutionHandler defaultHandler = new AbortPolicy();
-    private static ExecutorService executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new MirthJavaScriptThreadFactory(), defaultHandler);
+    private static JavaScriptExecutionEngine executionEngine;
     private static ContextFactoryController contextFactoryController = ControllerFactory.getFactory().createContextFactoryController();
     private static volatile String globalScriptContextFactoryId = null;
     private static String serverId = ControllerFactory.getFactory().createConfigurationController().getServerId();
 
-    public static <T> T execute(JavaScriptTask<T> task) throws JavaScriptExecutorException, InterruptedException {
-        Future<T> future = executor.submit(task);
+    static {
+        /*
+         * Checks mirth.properties for the rhino.executionmode property, which can be "unbounded"
+         * (the default), "inline" or "pooled". In pooled mode, rhino.poolsize and
+         * rhino.poolqueuesize limit the number of running and waiting tasks, and
+         * rhino.poolperchannel gives each channel its own pool instead of sharing a global one.
+         */
+        Properties properties = PropertyLoader.loadProperties("mirth");
+
+        if (MapUtils.isNotEmpty(properties)) {
+            Mode mode = Mode.fromString(properties.getProperty("rhino.executionmode"));
+            int poolSize = NumberUtils.toInt(properties.getProperty("rhino.poolsize"), JavaScriptExecutionEngine.DEFAULT_POOL_SIZE);
+            int queueSize = NumberUtils.toInt(properties.getProperty("rhino.poolqueuesize"), JavaScriptExecutionEngine.DEFAULT_QUEUE_SIZE);
+            boolean poolPerChannel = BooleanUtils.toBoolean(properties.getProperty("rhino.poolperchannel"));
+            executionEngine = new JavaScriptExecutionEngine(mode, poolSize, queueSize, poolPerChannel);
+        } else {
+            executionEngine = new JavaScriptExecutionEngine();
+        }
 
-        try {
-            return future.get();
-        } catch (ExecutionException e) {
-            throw new JavaScriptExecutorException(e.getCause());
-        } catch (InterruptedException e) {
-            // synchronize with JavaScriptTask.executeScript() so that it will not initialize the context while we are halting the task
-            synchronized (task) {
-                future.cancel(true);
-                Context context = task.getContext();
-
-                if (context != null && context instanceof MirthContext) {
-                    ((MirthContext) context).setRunning(false);
-                }
-            }
+        logger.debug("using JavaScript execution mode: " + executionEngine.getMode());
+    }
 
-            // TODO wait for the task thread to complete before exiting?
-            Thread.currentThread().interrupt();
-            throw e;
-        }
+    public static <T> T execute(JavaScriptTask<T> task) throws JavaScriptExecutorException, InterruptedException {
+        return executionEngine.execute(task);
+    }
+
+    /**
+     * Returns the engine that executes JavaScript tasks, which exposes the queue depth, active count
+     * and per-script latency histograms.
+     */
+    public static JavaScriptExecutionEngine getExecutionEngine() {
+        return executionEngine;
     }
 
     public static String executeAttachmentScript(MirthContextFactory contextFactory, RawMessage message, final String channelId, final String channelName, final List<Attachment> attachments) throws InterruptedException, AttachmentException, JavaScriptExecutorException {
@@ -724,6 +732,9 @@ public class JavaScriptUtil {
         removeScriptFromCache(ScriptController.getScriptId(ScriptController.POSTPROCESSOR_SCRIPT_KEY, channelId));
         removeScriptFromCache(ScriptController.getScriptId(ScriptController.ATTACHMENT_SCRIPT_KEY, channelId));
         removeScriptFromCache(ScriptController.getScriptId(ScriptController.BATCH_SCRIPT_KEY, channelId));
+        executionEngine.removeChannelPool(channelId);
+        XsltTemplateCache.getInstance().removeChannel(channelId);
+        JavaScriptScopeUtil.removeChannelScopes(channelId);
     }
 
     /**
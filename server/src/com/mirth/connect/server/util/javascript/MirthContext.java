@@ -38,7 +38,11 @@ public class MirthContext extends Context {
 
     @Override
     protected void observeInstructionCount(int count) {
-        if (!running.get()) {
+        /*
+         * A task halted by an interrupted caller is stopped through the running flag. A task
+         * running inline on the caller's own thread sees the interrupt directly.
+         */
+        if (!running.get() || Thread.currentThread().isInterrupted()) {
             logger.debug("Halting JavaScript execution");
             throw new Error();
         }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.util.javascript;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts script executions into fixed millisecond buckets. Each bucket holds the executions that
+ * took at most its upper bound and more than the previous bound, and the last bucket holds
+ * everything slower than the largest bound.
+ */
+public class ScriptLatencyHistogram {
+    private static final long[] BUCKET_BOUNDS_MILLIS = new long[] { 1, 2, 5, 10, 25, 50, 100, 250,
+            500, 1000, 2500, 5000, 10000 };
+
+    private AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+    private AtomicLong count = new AtomicLong();
+    private AtomicLong totalNanos = new AtomicLong();
+    private AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && millis > BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+
+        bucketCounts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long currentMax;
+        while (nanos > (currentMax = maxNanos.get()) && !maxNanos.compareAndSet(currentMax, nanos)) {}
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of each bucket except the last, which has no upper
+     * bound.
+     */
+    public static long[] getBucketBoundsMillis() {
+        return BUCKET_BOUNDS_MILLIS.clone();
+    }
+
+    public long[] getBucketCounts() {
+        long[] counts = new long[bucketCounts.length()];
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = bucketCounts.get(i);
+        }
+
+        return counts;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getAverageMillis() {
+        long executions = count.get();
+        return executions > 0 ? (double) TimeUnit.NANOSECONDS.toMicros(totalNanos.get()) / executions / 1000 : 0;
+    }
+
+    public double getMaxMillis() {
+        return (double) TimeUnit.NANOSECONDS.toMicros(maxNanos.get()) / 1000;
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket containing the given percentile (0 to
+     * 100) of executions, or -1 if it falls in the last, unbounded bucket.
+     */
+    public long getPercentileMillis(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            seen += counts[i];
+
+            if (seen >= threshold) {
+                return BUCKET_BOUNDS_MILLIS[i];
+            }
+        }
+
+        return -1;
+    }
+
+    public void reset() {
+        for (int i = 0; i < bucketCounts.length(); i++) {
+            bucketCounts.set(i, 0);
+        }
+
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
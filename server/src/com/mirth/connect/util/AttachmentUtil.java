@@ -10,8 +10,11 @@
 package com.mirth.connect.util;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
+import org.apache.commons.codec.binary.Base64OutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
@@ -20,6 +23,29 @@ import com.mirth.connect.donkey.util.Base64Util;
 
 public class AttachmentUtil {
     public static void writeToFile(String filePath, Attachment attachment, boolean binary) throws IOException {
+        File file = createFile(filePath);
+
+        if (attachment != null && StringUtils.isNotEmpty(filePath)) {
+            FileUtils.writeByteArrayToFile(file, binary ? Base64Util.decodeBase64(attachment.getContent()) : attachment.getContent());
+        }
+    }
+
+    /**
+     * Returns an output stream that writes attachment content to a file, so that the content can
+     * be streamed from storage without being loaded into memory. If binary is true, the content is
+     * Base64 decoded as it is written. The stream must be closed to write any remaining data.
+     */
+    public static OutputStream getFileOutputStream(String filePath, boolean binary) throws IOException {
+        OutputStream outputStream = new FileOutputStream(createFile(filePath));
+
+        if (binary) {
+            outputStream = new Base64OutputStream(outputStream, false);
+        }
+
+        return outputStream;
+    }
+
+    private static File createFile(String filePath) throws IOException {
         File file = new File(filePath);
         if (!file.canWrite()) {
             String dirName = file.getPath();
@@ -32,8 +58,6 @@ public class AttachmentUtil {
             file.createNewFile();
         }
 
-        if (attachment != null && StringUtils.isNotEmpty(filePath)) {
-            FileUtils.writeByteArrayToFile(file, binary ? Base64Util.decodeBase64(attachment.getContent()) : attachment.getContent());
-        }
+        return file;
     }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ import com.mirth.connect.donkey.model.message.Message;
 import com.mirth.connect.donkey.model.message.MessageContent;
 import com.mirth.connect.donkey.model.message.attachment.Attachment;
 import com.mirth.connect.donkey.server.Constants;
+import com.mirth.connect.donkey.util.CompressionUtil;
 import com.mirth.connect.donkey.util.MapUtil;
 import com.mirth.connect.model.converters.ObjectXMLSerializer;
 
@@ -59,7 +60,7 @@ public class MessageEncryptionUtil {
     public static void decryptMessageContent(MessageContent content, Encryptor encryptor) {
         if (content != null) {
             if (content.getContent() != null && content.isEncrypted()) {
-                content.setContent(encryptor.decrypt(content.getContent()));
+                content.setContent(CompressionUtil.decompressContent(encryptor.decrypt(content.getContent())));
                 content.setEncrypted(false);
             }
         }
@@ -68,7 +69,7 @@ public class MessageEncryptionUtil {
     public static void decryptMapContent(MapContent content, Encryptor encryptor) {
         if (content != null) {
             if (content.getContent() != null && content.isEncrypted()) {
-                content.setMap(MapUtil.deserializeMap(ObjectXMLSerializer.getInstance(), encryptor.decrypt((String) content.getContent())));
+                content.setMap(MapUtil.deserializeMap(ObjectXMLSerializer.getInstance(), CompressionUtil.decompressContent(encryptor.decrypt((String) content.getContent()))));
                 content.setEncrypted(false);
             }
         }
@@ -77,7 +78,7 @@ public class MessageEncryptionUtil {
     public static void decryptErrorContent(ErrorContent content, Encryptor encryptor) {
         if (content != null) {
             if (content.getContent() != null && content.isEncrypted()) {
-                content.setContent(encryptor.decrypt(content.getContent()));
+                content.setContent(CompressionUtil.decompressContent(encryptor.decrypt(content.getContent())));
                 content.setEncrypted(false);
             }
         }
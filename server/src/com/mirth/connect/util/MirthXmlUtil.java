@@ -184,6 +184,28 @@ public class MirthXmlUtil {
         return buffer.toString();
     }
 
+    /**
+     * Appends the characters of text from start (inclusive) to end (exclusive) to the builder,
+     * encoded the same way as encode(char[], int, int).
+     */
+    public static void encode(CharSequence text, int start, int end, StringBuilder builder) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+
+            int j = c;
+            if (j < 0x100 && encoderXml[j] != null) {
+                builder.append(encoderXml[j]); // have a named encoding
+                builder.append(';');
+            } else if (j < 0x80) {
+                builder.append(c); // use ASCII value
+            } else {
+                builder.append("&#"); // use numeric encoding
+                builder.append((int) c);
+                builder.append(';');
+            }
+        }
+    }
+
     private static void addEntity(String entity, int value) {
         decoder.put(entity, (new Character((char) value)).toString());
         if (value < 0x100)
@@ -25,7 +25,6 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 import org.apache.velocity.tools.generic.DateTool;
 
 import com.mirth.connect.donkey.model.message.ConnectorMessage;
@@ -34,6 +33,7 @@ import com.mirth.connect.userutil.ImmutableConnectorMessage;
 import com.mirth.connect.userutil.ImmutableMessage;
 import com.mirth.connect.userutil.JsonUtil;
 import com.mirth.connect.userutil.XmlUtil;
+import com.mirth.connect.util.ValueReplacerContext.LazyValue;
 
 public class ValueReplacer {
     private Logger logger = Logger.getLogger(this.getClass());
@@ -199,8 +199,7 @@ public class ValueReplacer {
         StringWriter writer = new StringWriter();
 
         try {
-            Velocity.init();
-            Velocity.evaluate(context, writer, "LOG", template);
+            VelocityTemplateCache.getInstance().merge(template, context, writer);
         } catch (Exception e) {
             logger.warn("Could not replace template values", e);
             return template;
@@ -211,18 +210,40 @@ public class ValueReplacer {
 
     /**
      * Returns the default VelocityContext used to replace template values. Includes the global
-     * variable map, along with some utility classes/variables.
+     * variable map, along with some utility classes/variables. The date, UUID and system time are
+     * only created if the template uses them.
      * 
      * @return The default context
      */
     protected VelocityContext getDefaultContext() {
-        VelocityContext context = new VelocityContext();
+        final long currentTimeMillis = System.currentTimeMillis();
+        ValueReplacerContext context = new ValueReplacerContext();
 
-        context.put("date", new DateTool());
-        context.put("DATE", new SimpleDateFormat("dd-MM-yy_HH-mm-ss.SS").format(new Date()));
+        context.put("date", new LazyValue() {
+            @Override
+            protected Object createValue() {
+                return new DateTool();
+            }
+        });
+        context.put("DATE", new LazyValue() {
+            @Override
+            protected Object createValue() {
+                return new SimpleDateFormat("dd-MM-yy_HH-mm-ss.SS").format(new Date(currentTimeMillis));
+            }
+        });
         context.put("COUNT", new CountTool());
-        context.put("UUID", UUID.randomUUID().toString());
-        context.put("SYSTIME", String.valueOf(System.currentTimeMillis()));
+        context.put("UUID", new LazyValue() {
+            @Override
+            protected Object createValue() {
+                return UUID.randomUUID().toString();
+            }
+        });
+        context.put("SYSTIME", new LazyValue() {
+            @Override
+            protected Object createValue() {
+                return String.valueOf(currentTimeMillis);
+            }
+        });
         context.put("XmlUtil", XmlUtil.class);
         context.put("JsonUtil", JsonUtil.class);
         context.put("maps", new MapTool());
@@ -231,15 +252,21 @@ public class ValueReplacer {
     }
 
     /**
-     * Loads all key/value pairs from a Map into the passed context.
+     * Loads all key/value pairs from a Map into the passed context. For the default context the
+     * map is added as a layer instead of being copied.
      * 
      * @return void
      */
     protected void loadContextFromMap(VelocityContext context, Map<String, ?> map) {
         if (map != null) {
             ((MapTool) context.get("maps")).addMap(map);
-            for (Entry<String, ?> entry : map.entrySet()) {
-                context.put(entry.getKey(), entry.getValue());
+
+            if (context instanceof ValueReplacerContext) {
+                ((ValueReplacerContext) context).addMap(map);
+            } else {
+                for (Entry<String, ?> entry : map.entrySet()) {
+                    context.put(entry.getKey(), entry.getValue());
+                }
             }
         }
     }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.velocity.VelocityContext;
+
+/**
+ * The context used by ValueReplacer. Instead of copying every entry of the variable maps into the
+ * context, the maps are kept as layers and only the keys used by a template are looked up. A key
+ * is found in the most recently added map or put value, the same as if every map had been copied
+ * into a VelocityContext in order. Values that are expensive to create can be put as a LazyValue,
+ * which is only created if the template uses it.
+ */
+public class ValueReplacerContext extends VelocityContext {
+    private static final Object REMOVED = new Object();
+
+    private List<Map<String, ?>> layers = new ArrayList<Map<String, ?>>();
+    private Map<String, Object> values;
+
+    /**
+     * Adds a map whose entries take precedence over all values put or added before it. The map is
+     * not copied, so it should not be changed while the context is in use.
+     */
+    public void addMap(Map<String, ?> map) {
+        if (map != null) {
+            layers.add(map);
+            values = null;
+        }
+    }
+
+    @Override
+    public Object internalGet(String key) {
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Map<String, ?> layer = layers.get(i);
+            Object value = layer.get(key);
+
+            if (value != null || layer.containsKey(key)) {
+                if (value == REMOVED) {
+                    return null;
+                } else if (value instanceof LazyValue) {
+                    return ((LazyValue) value).getValue();
+                }
+
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Object internalPut(String key, Object value) {
+        if (values == null) {
+            values = new HashMap<String, Object>();
+            layers.add(values);
+        }
+
+        return values.put(key, value);
+    }
+
+    @Override
+    public boolean internalContainsKey(Object key) {
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Map<String, ?> layer = layers.get(i);
+
+            if (layer.containsKey(key)) {
+                return layer.get(key) != REMOVED;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Object[] internalGetKeys() {
+        Set<Object> keys = new LinkedHashSet<Object>();
+        Set<Object> removedKeys = new HashSet<Object>();
+
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            for (Entry<String, ?> entry : layers.get(i).entrySet()) {
+                if (!keys.contains(entry.getKey()) && !removedKeys.contains(entry.getKey())) {
+                    if (entry.getValue() == REMOVED) {
+                        removedKeys.add(entry.getKey());
+                    } else {
+                        keys.add(entry.getKey());
+                    }
+                }
+            }
+        }
+
+        return keys.toArray();
+    }
+
+    @Override
+    public Object internalRemove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+
+        // The added maps aren't changed, so the key is hidden instead
+        Object value = internalGet((String) key);
+        internalPut((String) key, REMOVED);
+        return value;
+    }
+
+    @Override
+    public Object clone() {
+        ValueReplacerContext context = new ValueReplacerContext();
+
+        for (Map<String, ?> layer : layers) {
+            if (layer == values) {
+                context.values = new HashMap<String, Object>(values);
+                context.layers.add(context.values);
+            } else {
+                context.layers.add(layer);
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * A value that is created the first time it is used by a template.
+     */
+    public static abstract class LazyValue {
+        private Object value;
+        private boolean created;
+
+        protected abstract Object createValue();
+
+        public Object getValue() {
+            if (!created) {
+                value = createValue();
+                created = true;
+            }
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.util;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.apache.velocity.Template;
+import org.apache.velocity.app.Velocity;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.RuntimeSingleton;
+
+/**
+ * Holds the templates used by ValueReplacer, keyed by the template text. A template that only
+ * contains plain references such as ${originalFilename} is rendered by looking up each reference
+ * in the context, without using Velocity at all. Any other template is parsed once by Velocity and
+ * the parsed template is merged with the context of each replacement.
+ */
+public class VelocityTemplateCache {
+    /*
+     * Templates built dynamically, such as from message content, could otherwise fill the cache
+     * with a new template for every message.
+     */
+    private static final int MAX_TEMPLATES = 1000;
+    private static final int MAX_TEMPLATE_LENGTH = 10000;
+    private static final String LOG_TAG = "LOG";
+
+    private Logger logger = Logger.getLogger(this.getClass());
+    private ConcurrentMap<String, CachedTemplate> templates = new ConcurrentHashMap<String, CachedTemplate>();
+
+    // Created eagerly since it's used for every replacement
+    private static final VelocityTemplateCache instance = new VelocityTemplateCache();
+
+    private VelocityTemplateCache() {
+
+    }
+
+    public static VelocityTemplateCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Renders the template with the given context, parsing it the first time it is used.
+     */
+    public void merge(String template, Context context, Writer writer) throws Exception {
+        CachedTemplate cachedTemplate = templates.get(template);
+
+        if (cachedTemplate == null) {
+            cachedTemplate = createTemplate(template);
+
+            if (template.length() <= MAX_TEMPLATE_LENGTH) {
+                if (templates.size() >= MAX_TEMPLATES) {
+                    logger.debug("Velocity template cache is full, clearing it");
+                    templates.clear();
+                }
+
+                templates.putIfAbsent(template, cachedTemplate);
+            }
+        }
+
+        cachedTemplate.merge(context, writer);
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    public void clear() {
+        templates.clear();
+    }
+
+    /**
+     * Returns true if the template would be rendered without using Velocity.
+     */
+    boolean isReferenceTemplate(String template) {
+        return ReferenceTemplate.parse(template) != null;
+    }
+
+    private CachedTemplate createTemplate(String template) throws Exception {
+        CachedTemplate cachedTemplate = ReferenceTemplate.parse(template);
+
+        if (cachedTemplate == null) {
+            Velocity.init();
+
+            /*
+             * Macros are registered when a template is parsed and are removed when the next
+             * template is parsed, so templates defining them are still evaluated each time.
+             */
+            if (template.contains("#macro")) {
+                cachedTemplate = new EvaluatedTemplate(template);
+            } else {
+                cachedTemplate = new ParsedTemplate(template);
+            }
+        }
+
+        return cachedTemplate;
+    }
+
+    private interface CachedTemplate {
+        public void merge(Context context, Writer writer) throws Exception;
+    }
+
+    private static class ParsedTemplate implements CachedTemplate {
+        private Template template = new Template();
+
+        public ParsedTemplate(String text) throws Exception {
+            RuntimeServices runtimeServices = RuntimeSingleton.getRuntimeServices();
+            template.setRuntimeServices(runtimeServices);
+            template.setName(LOG_TAG);
+            template.setData(runtimeServices.parse(new StringReader(text), LOG_TAG));
+            template.initDocument();
+        }
+
+        @Override
+        public void merge(Context context, Writer writer) throws Exception {
+            template.merge(context, writer);
+        }
+    }
+
+    private static class EvaluatedTemplate implements CachedTemplate {
+        private String text;
+
+        public EvaluatedTemplate(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void merge(Context context, Writer writer) throws Exception {
+            Velocity.evaluate(context, writer, LOG_TAG, text);
+        }
+    }
+
+    /**
+     * A template made of literal text and ${name} or $!{name} references. Each reference is
+     * rendered the same as Velocity would: the value's toString() if the key has a non-null
+     * value, otherwise the reference itself, or nothing for a quiet reference.
+     */
+    private static class ReferenceTemplate implements CachedTemplate {
+        private List<String> literals = new ArrayList<String>();
+        private List<String> names = new ArrayList<String>();
+        private List<String> references = new ArrayList<String>();
+        private List<Boolean> quiet = new ArrayList<Boolean>();
+
+        /**
+         * Returns null if the template uses anything other than plain braced references, such as
+         * directives, escapes, unbraced references, properties and methods of a reference, or
+         * dollar signs that don't start a reference.
+         */
+        public static ReferenceTemplate parse(String text) {
+            if (text.indexOf('#') >= 0 || text.indexOf('\\') >= 0) {
+                return null;
+            }
+
+            ReferenceTemplate template = new ReferenceTemplate();
+            int start = 0;
+            int index = text.indexOf('$');
+
+            while (index >= 0) {
+                int next = index + 1;
+                boolean quietReference = false;
+
+                if (next < text.length() && text.charAt(next) == '!') {
+                    quietReference = true;
+                    next++;
+                }
+
+                if (next < text.length() && text.charAt(next) == '{') {
+                    int end = text.indexOf('}', next);
+
+                    if (end < 0 || !isIdentifier(text, next + 1, end)) {
+                        return null;
+                    }
+
+                    template.literals.add(text.substring(start, index));
+                    template.names.add(text.substring(next + 1, end));
+                    template.references.add(text.substring(index, end + 1));
+                    template.quiet.add(quietReference);
+
+                    start = end + 1;
+                    index = text.indexOf('$', start);
+                } else {
+                    // Velocity's handling of other dollar signs depends on the text around them
+                    return null;
+                }
+            }
+
+            template.literals.add(text.substring(start));
+            return template;
+        }
+
+        @Override
+        public void merge(Context context, Writer writer) throws Exception {
+            for (int i = 0; i < names.size(); i++) {
+                writer.write(literals.get(i));
+
+                Object value = context.get(names.get(i));
+                String string = value != null ? value.toString() : null;
+
+                if (string != null) {
+                    writer.write(string);
+                } else if (!quiet.get(i)) {
+                    writer.write(references.get(i));
+                }
+            }
+
+            writer.write(literals.get(names.size()));
+        }
+
+        private static boolean isIdentifier(String text, int start, int end) {
+            if (start >= end || !isIdentifierStart(text.charAt(start))) {
+                return false;
+            }
+
+            for (int i = start + 1; i < end; i++) {
+                char c = text.charAt(i);
+
+                if (!isIdentifierStart(c) && !(c >= '0' && c <= '9') && c != '-') {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+        }
+    }
+}
@@ -27,6 +27,7 @@ import com.mirth.connect.donkey.model.message.Content;
 import com.mirth.connect.donkey.model.message.ContentType;
 import com.mirth.connect.donkey.model.message.MapContent;
 import com.mirth.connect.donkey.model.message.Message;
+import com.mirth.connect.donkey.util.CompressionUtil;
 import com.mirth.connect.donkey.util.MapUtil;
 import com.mirth.connect.donkey.util.Serializer;
 import com.mirth.connect.model.converters.ObjectXMLSerializer;
@@ -148,7 +149,7 @@ public class MessageWriterFile implements MessageWriter {
                         String tempContent = (String) content.getContent();
 
                         if (contentEncrypted) {
-                            tempContent = encryptor.decrypt(tempContent);
+                            tempContent = CompressionUtil.decompressContent(encryptor.decrypt(tempContent));
                             contentEncrypted = false;
                         }
 
@@ -171,14 +172,17 @@ public class MessageWriterFile implements MessageWriter {
                     }
 
                     if (StringUtils.isNotEmpty(stringContent)) {
-                        if (encrypted) {
-                            if (!contentEncrypted) {
-                                stringContent = encryptor.encrypt(stringContent);
-                            }
-                        } else {
-                            if (contentEncrypted) {
-                                stringContent = encryptor.decrypt(stringContent);
+                        if (contentEncrypted) {
+                            // The content may have been compressed before it was encrypted
+                            String decryptedContent = encryptor.decrypt(stringContent);
+
+                            if (!encrypted) {
+                                stringContent = CompressionUtil.decompressContent(decryptedContent);
+                            } else if (CompressionUtil.isCompressed(decryptedContent)) {
+                                stringContent = encryptor.encrypt(CompressionUtil.decompressContent(decryptedContent));
                             }
+                        } else if (encrypted) {
+                            stringContent = encryptor.encrypt(stringContent);
                         }
 
                         if (StringUtils.isNotBlank(stringContent)) {
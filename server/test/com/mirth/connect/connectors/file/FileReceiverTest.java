@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.connectors.file.filesystems.FileConnection;
+import com.mirth.connect.connectors.file.filesystems.FileInfo;
+import com.mirth.connect.donkey.model.channel.DeployedState;
+import com.mirth.connect.donkey.model.message.RawMessage;
+import com.mirth.connect.donkey.model.message.attachment.Attachment;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.ChannelException;
+import com.mirth.connect.donkey.server.channel.DispatchResult;
+import com.mirth.connect.donkey.server.channel.StorageSettings;
+import com.mirth.connect.donkey.util.Base64Util;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+
+public class FileReceiverTest {
+    private static final String TEXT = StringUtils.repeat("MSH|^~\\&|café|\r", 1000);
+
+    private File directory;
+    private StorageSettings storageSettings;
+    private List<RawMessage> messages = Collections.synchronizedList(new ArrayList<RawMessage>());
+    private List<byte[]> attachmentContents = new ArrayList<byte[]>();
+    private List<File> attachmentFiles = new ArrayList<File>();
+    private AtomicInteger dispatching = new AtomicInteger();
+    private AtomicInteger maxDispatching = new AtomicInteger();
+    private volatile int dispatchDelay;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class));
+        when(controllerFactory.createEventController()).thenReturn(mock(EventController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+    }
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = File.createTempFile("FileReceiverTest", "");
+        directory.delete();
+        directory.mkdir();
+        storageSettings = new StorageSettings();
+
+        FileReceiver.setLargeFileThreshold(1024);
+        FileReceiver.setLargeFilePreviewSize(100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+        FileReceiver.setLargeFileThreshold(0);
+        FileReceiver.setLargeFilePreviewSize(65536);
+        FileReceiver.setParallelMode(false);
+        FileReceiver.setOrderKey(null);
+    }
+
+    @Test
+    public void testSmallFileReadIntoMemory() throws Exception {
+        File file = writeFile("small.txt", "MSH|small".getBytes("UTF-8"));
+        process(file, false, "UTF-8");
+
+        RawMessage message = messages.get(0);
+        assertEquals("MSH|small", message.getRawData());
+        assertNull(message.getAttachments());
+        assertNull(message.getSourceMap().get("largeFile"));
+    }
+
+    @Test
+    public void testLocalFileAttachedInPlace() throws Exception {
+        File file = writeFile("large.txt", TEXT.getBytes("UTF-8"));
+        process(file, false, "UTF-8");
+
+        RawMessage message = messages.get(0);
+        Attachment attachment = message.getAttachments().get(0);
+        assertEquals(attachment.getAttachmentId(), message.getRawData());
+        assertEquals("text/plain", attachment.getType());
+        assertEquals(file.getAbsolutePath(), attachmentFiles.get(0).getAbsolutePath());
+        assertArrayEquals(TEXT.getBytes("UTF-8"), attachmentContents.get(0));
+
+        assertEquals(true, message.getSourceMap().get("largeFile"));
+        assertEquals(TEXT.substring(0, 100), message.getSourceMap().get("filePreview"));
+    }
+
+    @Test
+    public void testTextConvertedToAttachmentCharset() throws Exception {
+        File file = writeFile("large.txt", TEXT.getBytes("ISO-8859-1"));
+        process(file, false, "ISO-8859-1");
+
+        RawMessage message = messages.get(0);
+        assertArrayEquals(TEXT.getBytes("UTF-8"), attachmentContents.get(0));
+        assertEquals(TEXT.substring(0, 100), message.getSourceMap().get("filePreview"));
+
+        // The copy is deleted once the message has been dispatched
+        assertFalse(attachmentFiles.get(0).equals(file));
+        assertFalse(attachmentFiles.get(0).exists());
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testBinaryEncodedAsBase64() throws Exception {
+        byte[] bytes = new byte[5000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        File file = writeFile("large.bin", bytes);
+        process(file, true, "UTF-8");
+
+        RawMessage message = messages.get(0);
+        assertEquals("application/octet-stream", message.getAttachments().get(0).getType());
+        assertArrayEquals(Base64Util.encodeBase64(bytes), attachmentContents.get(0));
+        assertNull(message.getSourceMap().get("filePreview"));
+        assertFalse(attachmentFiles.get(0).exists());
+    }
+
+    @Test
+    public void testAttachmentsNotStored() throws Exception {
+        storageSettings.setStoreAttachments(false);
+
+        File file = writeFile("large.txt", TEXT.getBytes("UTF-8"));
+        process(file, false, "UTF-8");
+
+        // Without stored attachments the file is read into memory as before
+        RawMessage message = messages.get(0);
+        assertEquals(TEXT, message.getRawData());
+        assertNull(message.getAttachments());
+    }
+
+    @Test
+    public void testParallelModeProcessesEachFileOnce() throws Exception {
+        FileReceiver.setParallelMode(true);
+        dispatchDelay = 20;
+
+        for (int i = 0; i < 40; i++) {
+            writeFile("file" + i + ".txt", ("MSH|" + i).getBytes("UTF-8"));
+        }
+
+        FileReceiverProperties properties = createProperties(false, "UTF-8");
+        properties.setAfterProcessingAction(FileAction.DELETE);
+        FileReceiver receiver = createReceiver(properties, 4);
+
+        try {
+            receiver.poll();
+        } finally {
+            receiver.onStop();
+        }
+
+        // Every file was dispatched and deleted by the time the poll returned
+        assertEquals(40, messages.size());
+        assertEquals(0, directory.list().length);
+        assertTrue(maxDispatching.get() > 1);
+        assertTrue(maxDispatching.get() <= 4);
+    }
+
+    @Test
+    public void testParallelModeOrderKey() throws Exception {
+        FileReceiver.setParallelMode(true);
+        FileReceiver.setOrderKey("^([^_]+)_");
+        dispatchDelay = 5;
+
+        for (String key : new String[] { "a", "b", "c" }) {
+            for (int i = 10; i < 30; i++) {
+                writeFile(key + "_" + i + ".txt", "MSH|".getBytes("UTF-8"));
+            }
+        }
+        writeFile("unordered.txt", "MSH|".getBytes("UTF-8"));
+
+        FileReceiverProperties properties = createProperties(false, "UTF-8");
+        properties.setSortBy(FileReceiverProperties.SORT_BY_NAME);
+        FileReceiver receiver = createReceiver(properties, 3);
+
+        try {
+            receiver.poll();
+        } finally {
+            receiver.onStop();
+        }
+
+        assertEquals(61, messages.size());
+
+        // Files with the same key were dispatched in sorted order
+        Map<String, String> lastFilenames = new HashMap<String, String>();
+        for (RawMessage message : messages) {
+            String filename = (String) message.getSourceMap().get("originalFilename");
+            String key = filename.substring(0, 1);
+            String lastFilename = lastFilenames.put(key, filename);
+            assertTrue(filename, lastFilename == null || lastFilename.compareTo(filename) < 0);
+        }
+    }
+
+    @Test
+    public void testParallelModeWaitsForFilesAfterError() throws Exception {
+        FileReceiver.setParallelMode(true);
+        dispatchDelay = 20;
+
+        for (int i = 0; i < 8; i++) {
+            writeFile("file" + i + ".txt", ("MSH|" + i).getBytes("UTF-8"));
+        }
+        new File(directory, "subdirectory").mkdir();
+
+        FileReceiverProperties properties = createProperties(false, "UTF-8");
+        properties.setDirectoryRecursion(true);
+        properties.setAfterProcessingAction(FileAction.DELETE);
+        FileReceiver receiver = createReceiver(new TestFileReceiver() {
+            private int sorts;
+
+            @Override
+            public void sortFiles(FileInfo[] files) {
+                // Fails on the subdirectory, after the files in the directory were submitted
+                if (++sorts > 1) {
+                    throw new IllegalStateException("Listing failed");
+                }
+                super.sortFiles(files);
+            }
+        }, properties, 4);
+
+        try {
+            receiver.poll();
+
+            // The files submitted before the error were processed by the time the poll returned
+            assertEquals(8, messages.size());
+            assertEquals(1, directory.list().length);
+        } finally {
+            receiver.onStop();
+        }
+    }
+
+    private File writeFile(String name, byte[] content) throws Exception {
+        File file = new File(directory, name);
+        FileUtils.writeByteArrayToFile(file, content);
+        return file;
+    }
+
+    private void process(File file, boolean binary, String charsetEncoding) throws Exception {
+        FileReceiver receiver = createReceiver(createProperties(binary, charsetEncoding), 1);
+
+        try {
+            receiver.processFile(new FileConnection().new FileFileInfo(file));
+        } finally {
+            receiver.onStop();
+        }
+    }
+
+    private FileReceiverProperties createProperties(boolean binary, String charsetEncoding) {
+        FileReceiverProperties properties = new FileReceiverProperties();
+        properties.setHost(directory.getAbsolutePath());
+        properties.setCheckFileAge(false);
+        properties.setBinary(binary);
+        properties.setCharsetEncoding(charsetEncoding);
+        return properties;
+    }
+
+    private FileReceiver createReceiver(FileReceiverProperties properties, int processingThreads) throws Exception {
+        return createReceiver(new TestFileReceiver(), properties, processingThreads);
+    }
+
+    private FileReceiver createReceiver(FileReceiver receiver, FileReceiverProperties properties, int processingThreads) throws Exception {
+        Channel channel = mock(Channel.class);
+        when(channel.getName()).thenReturn("File Channel");
+        when(channel.getStorageSettings()).thenReturn(storageSettings);
+        when(channel.getProcessingThreads()).thenReturn(processingThreads);
+
+        receiver.setChannelId("fileChannel");
+        receiver.setChannel(channel);
+        receiver.setSourceName("Source");
+        receiver.setConnectorProperties(properties);
+        receiver.onDeploy();
+        receiver.setCurrentState(DeployedState.STARTED);
+        receiver.onStart();
+        return receiver;
+    }
+
+    private class TestFileReceiver extends FileReceiver {
+        @Override
+        public DispatchResult dispatchRawMessage(RawMessage rawMessage) throws ChannelException {
+            int current = dispatching.incrementAndGet();
+            synchronized (maxDispatching) {
+                if (current > maxDispatching.get()) {
+                    maxDispatching.set(current);
+                }
+            }
+
+            try {
+                if (dispatchDelay > 0) {
+                    Thread.sleep(dispatchDelay);
+                }
+            } catch (InterruptedException e) {
+                throw new ChannelException(false, e);
+            } finally {
+                dispatching.decrementAndGet();
+            }
+
+            messages.add(rawMessage);
+
+            // Attachments are read while the message is dispatched, before any temp files are deleted
+            try {
+                if (rawMessage.getAttachments() != null) {
+                    for (Attachment attachment : rawMessage.getAttachments()) {
+                        InputStream is = attachment.getContentStream();
+                        try {
+                            attachmentContents.add(IOUtils.toByteArray(is));
+                        } finally {
+                            is.close();
+                        }
+                        attachmentFiles.add(attachment.getContentFile());
+                    }
+                }
+            } catch (IOException e) {
+                throw new ChannelException(false, e);
+            }
+
+            return mock(DispatchResult.class);
+        }
+
+        @Override
+        public void finishDispatch(DispatchResult dispatchResult) {}
+
+        @Override
+        public boolean isTerminated() {
+            // The poll job isn't started, so poll() is called directly
+            return false;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.model.message.attachment.AttachmentHandlerProvider;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+
+public class HttpDispatcherTest {
+    private static final int TIMEOUT = 10000;
+
+    private KeepAliveServer server;
+    private List<HttpDispatcher> dispatchers = new ArrayList<HttpDispatcher>();
+    private volatile boolean failRequests;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        ConfigurationController configurationController = mock(ConfigurationController.class);
+        when(configurationController.getHttpsClientProtocols()).thenReturn(new String[] { "TLSv1.2" });
+        when(configurationController.getHttpsCipherSuites()).thenReturn(new String[] { "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256" });
+        when(controllerFactory.createConfigurationController()).thenReturn(configurationController);
+        when(controllerFactory.createEventController()).thenReturn(mock(EventController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = new KeepAliveServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (HttpDispatcher dispatcher : dispatchers) {
+            dispatcher.onStop();
+        }
+
+        dispatchers.clear();
+        server.close();
+        HttpDispatcher.setPooledMode(false);
+        HttpDispatcher.setPoolMaxPerRoute(0);
+    }
+
+    @Test
+    public void testBasicModeConnectionPerThread() throws Exception {
+        HttpDispatcher dispatcher = createDispatcher(false, 1);
+
+        for (long dispatcherId = 0; dispatcherId < 3; dispatcherId++) {
+            assertEquals(Status.SENT, send(dispatcher, dispatcherId).getStatus());
+        }
+
+        assertEquals(3, server.connections.get());
+        assertNull(dispatcher.getConnectionPoolStats());
+    }
+
+    @Test
+    public void testPooledModeSharesConnections() throws Exception {
+        HttpDispatcher dispatcher = createDispatcher(true, 1);
+
+        for (long dispatcherId = 0; dispatcherId < 3; dispatcherId++) {
+            assertEquals(Status.SENT, send(dispatcher, dispatcherId).getStatus());
+        }
+
+        // Each queue thread reused the idle connection left by the previous one
+        assertEquals(1, server.connections.get());
+        assertEquals(3, server.requests.get());
+
+        PoolStats stats = dispatcher.getConnectionPoolStats();
+        assertNotNull(stats);
+        assertEquals(0, stats.getLeased());
+        assertEquals(0, stats.getPending());
+        assertEquals(1, stats.getAvailable());
+    }
+
+    @Test
+    public void testPooledModeMaxPerRoute() throws Exception {
+        server.responseDelay = 50;
+        final HttpDispatcher dispatcher = createDispatcher(true, 2);
+        final AtomicInteger sent = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 6; i++) {
+            final long dispatcherId = i;
+
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 3; j++) {
+                        if (send(dispatcher, dispatcherId).getStatus() == Status.SENT) {
+                            sent.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+        }
+
+        // Threads waited for a pooled connection instead of opening their own
+        assertEquals(18, sent.get());
+        assertTrue(server.connections.get() <= 2);
+        assertEquals(0, dispatcher.getConnectionPoolStats().getLeased());
+    }
+
+    @Test
+    public void testPooledModeErrorKeepsPool() throws Exception {
+        HttpDispatcher dispatcher = createDispatcher(true, 1);
+        assertEquals(Status.SENT, send(dispatcher, 0).getStatus());
+
+        // An error on one queue thread doesn't close the pool shared with the other threads
+        failRequests = true;
+        assertTrue(send(dispatcher, 1).getStatus() != Status.SENT);
+        assertEquals(1, dispatcher.getConnectionPoolStats().getAvailable());
+
+        failRequests = false;
+        assertEquals(Status.SENT, send(dispatcher, 2).getStatus());
+        assertEquals(1, server.connections.get());
+    }
+
+    @Test
+    public void testStopClosesPool() throws Exception {
+        HttpDispatcher dispatcher = createDispatcher(true, 1);
+        assertEquals(Status.SENT, send(dispatcher, 0).getStatus());
+        assertNotNull(dispatcher.getConnectionPoolStats());
+
+        dispatcher.onStop();
+        assertNull(dispatcher.getConnectionPoolStats());
+
+        // A new pool is created the next time a message is sent
+        assertEquals(Status.SENT, send(dispatcher, 0).getStatus());
+        assertEquals(2, server.connections.get());
+    }
+
+    private HttpDispatcher createDispatcher(boolean pooledMode, int threadCount) throws Exception {
+        HttpDispatcher.setPooledMode(pooledMode);
+
+        AttachmentHandlerProvider attachmentHandlerProvider = mock(AttachmentHandlerProvider.class);
+        Answer<String> contentAnswer = new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                if (failRequests) {
+                    throw new IllegalStateException("Request failed");
+                }
+                return (String) invocation.getArguments()[0];
+            }
+        };
+        doAnswer(contentAnswer).when(attachmentHandlerProvider).reAttachMessage(any(String.class), any(ConnectorMessage.class), anyBoolean());
+
+        Channel channel = mock(Channel.class);
+        when(channel.getAttachmentHandlerProvider()).thenReturn(attachmentHandlerProvider);
+
+        HttpDispatcherProperties properties = new HttpDispatcherProperties();
+        properties.setHost("http://127.0.0.1:" + server.serverSocket.getLocalPort() + "/");
+        properties.setContent("message");
+        properties.getDestinationConnectorProperties().setThreadCount(threadCount);
+
+        HttpDispatcher dispatcher = new HttpDispatcher();
+        dispatcher.setChannelId("httpChannel");
+        dispatcher.setChannel(channel);
+        dispatcher.setMetaDataId(1);
+        dispatcher.setDestinationName("Destination 1");
+        dispatcher.setConnectorProperties(properties);
+        dispatcher.onDeploy();
+        dispatchers.add(dispatcher);
+        return dispatcher;
+    }
+
+    private com.mirth.connect.donkey.model.message.Response send(HttpDispatcher dispatcher, long dispatcherId) {
+        ConnectorMessage connectorMessage = new ConnectorMessage("httpChannel", "HTTP Channel", 1, 1, "serverId", Calendar.getInstance(), Status.RECEIVED);
+        connectorMessage.setDispatcherId(dispatcherId);
+        return dispatcher.send(dispatcher.getConnectorProperties(), connectorMessage);
+    }
+
+    /**
+     * An HTTP/1.1 server that keeps every connection open and counts the connections accepted.
+     */
+    private static class KeepAliveServer extends Thread {
+        private ServerSocket serverSocket;
+        private List<Socket> sockets = new ArrayList<Socket>();
+        private AtomicInteger connections = new AtomicInteger();
+        private AtomicInteger requests = new AtomicInteger();
+        private volatile int responseDelay;
+
+        public KeepAliveServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+
+                    synchronized (sockets) {
+                        sockets.add(socket);
+                    }
+
+                    Thread handler = new Thread() {
+                        @Override
+                        public void run() {
+                            handle(socket);
+                        }
+                    };
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+
+        private void handle(Socket socket) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                OutputStream os = socket.getOutputStream();
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    int contentLength = 0;
+
+                    while (line != null && !line.isEmpty()) {
+                        if (line.toLowerCase().startsWith("content-length:")) {
+                            contentLength = Integer.parseInt(line.substring(15).trim());
+                        }
+                        line = reader.readLine();
+                    }
+
+                    for (int i = 0; i < contentLength; i++) {
+                        reader.read();
+                    }
+
+                    requests.incrementAndGet();
+
+                    if (responseDelay > 0) {
+                        Thread.sleep(responseDelay);
+                    }
+
+                    os.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nOK".getBytes("US-ASCII"));
+                    os.flush();
+                }
+            } catch (Exception e) {
+                // Closed
+            }
+        }
+
+        public void close() throws IOException {
+            serverSocket.close();
+
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.channel.DeployedState;
+import com.mirth.connect.donkey.model.message.RawMessage;
+import com.mirth.connect.donkey.model.message.Response;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.DispatchResult;
+import com.mirth.connect.donkey.server.message.DataType;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.util.RequestTracker;
+import com.mirth.connect.userutil.MessageParameters;
+
+public class HttpReceiverTest {
+    private static final int TIMEOUT = 10000;
+
+    private TestHttpReceiver receiver;
+    private int port;
+    private ExecutorService clientExecutor = Executors.newCachedThreadPool();
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class));
+        when(controllerFactory.createEventController()).thenReturn(mock(EventController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (receiver != null) {
+            receiver.release();
+            receiver.setCurrentState(DeployedState.STOPPING);
+            receiver.onStop();
+            receiver = null;
+        }
+
+        HttpReceiver.setAsyncMode(false);
+        HttpReceiver.setMaxInFlight(200);
+    }
+
+    @Test
+    public void testResponses() throws Exception {
+        for (boolean asyncMode : new boolean[] { false, true }) {
+            startReceiver(asyncMode, 10, 0);
+
+            assertEquals("200 ACK hello", send("POST", "text/plain", "hello"));
+            assertEquals("200 ACK ", send("GET", null, null));
+            assertEquals("200 ACK  a=1", send("POST", "application/x-www-form-urlencoded", "a=1"));
+
+            StringBuilder largeMessage = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                largeMessage.append("segment ").append(i).append('\r');
+            }
+            assertEquals("200 ACK " + largeMessage, send("POST", "text/plain", largeMessage.toString()));
+
+            RequestTracker requestTracker = receiver.getRequestTracker();
+            assertEquals(4, requestTracker.getCount(RequestTracker.DISPATCH));
+            assertEquals(4, requestTracker.getCount(RequestTracker.RESPONSE));
+            assertEquals(asyncMode ? 4 : 0, requestTracker.getCount(RequestTracker.QUEUED));
+            // The form body is read by the request on the dispatch thread
+            assertEquals(asyncMode ? 3 : 0, requestTracker.getCount(RequestTracker.BODY));
+            waitForInFlight(0);
+
+            tearDown();
+        }
+    }
+
+    @Test
+    public void testBusyResponse() throws Exception {
+        startReceiver(true, 2, 2);
+
+        List<Future<String>> slowRequests = new ArrayList<Future<String>>();
+        for (int i = 0; i < 2; i++) {
+            slowRequests.add(sendLater("slow" + i));
+        }
+        assertTrue(receiver.awaitSlowRequests());
+
+        // Both slots are taken, so the next request is turned away instead of waiting
+        assertEquals("503 Too many requests are in progress, try again later.", send("POST", "text/plain", "rejected"));
+        assertEquals(1, receiver.getRequestTracker().getRejected());
+
+        receiver.release();
+        for (int i = 0; i < 2; i++) {
+            assertEquals("200 ACK slow" + i, slowRequests.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        waitForInFlight(0);
+
+        assertEquals("200 ACK accepted", send("POST", "text/plain", "accepted"));
+        waitForInFlight(0);
+    }
+
+    @Test
+    public void testRequestsBeyondLimitWithoutAsyncMode() throws Exception {
+        // The limit only applies in async mode
+        startReceiver(false, 1, 2);
+
+        List<Future<String>> slowRequests = new ArrayList<Future<String>>();
+        for (int i = 0; i < 2; i++) {
+            slowRequests.add(sendLater("slow" + i));
+        }
+        assertTrue(receiver.awaitSlowRequests());
+
+        receiver.release();
+        for (int i = 0; i < 2; i++) {
+            assertEquals("200 ACK slow" + i, slowRequests.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(0, receiver.getRequestTracker().getRejected());
+    }
+
+    private void startReceiver(boolean asyncMode, int maxInFlight, int slowRequests) throws Exception {
+        HttpReceiver.setAsyncMode(asyncMode);
+        HttpReceiver.setMaxInFlight(maxInFlight);
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        HttpReceiverProperties properties = new HttpReceiverProperties();
+        properties.getListenerConnectorProperties().setHost("127.0.0.1");
+        properties.getListenerConnectorProperties().setPort(String.valueOf(port));
+
+        Channel channel = mock(Channel.class);
+        when(channel.getName()).thenReturn("HTTP Channel");
+
+        receiver = new TestHttpReceiver(slowRequests);
+        receiver.setChannelId("httpChannel");
+        receiver.setChannel(channel);
+        receiver.setSourceName("Source");
+        receiver.setInboundDataType(new DataType("HL7V2", null, null));
+        receiver.setConnectorProperties(properties);
+        receiver.onDeploy();
+        receiver.setCurrentState(DeployedState.STARTED);
+        receiver.onStart();
+    }
+
+    /*
+     * Requests are finished after the response is completed, so the client can see the response
+     * first.
+     */
+    private void waitForInFlight(int inFlight) throws Exception {
+        long start = System.currentTimeMillis();
+
+        while (receiver.getRequestTracker().getInFlight() != inFlight) {
+            assertTrue("Timed out waiting for " + inFlight + " requests in flight", System.currentTimeMillis() - start < TIMEOUT);
+            Thread.sleep(10);
+        }
+    }
+
+    private Future<String> sendLater(final String message) {
+        return clientExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return send("POST", "text/plain", message);
+            }
+        });
+    }
+
+    /*
+     * Returns the status code and body of the response.
+     */
+    private String send(String method, String contentType, String body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/").openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            OutputStream outputStream = connection.getOutputStream();
+            outputStream.write(body.getBytes("UTF-8"));
+            outputStream.close();
+        }
+
+        int status = connection.getResponseCode();
+        InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        try {
+            return status + " " + IOUtils.toString(inputStream, "UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static class TestHttpReceiver extends HttpReceiver {
+        private CountDownLatch slowRequestsStarted;
+        private CountDownLatch released = new CountDownLatch(1);
+
+        public TestHttpReceiver(int slowRequests) {
+            slowRequestsStarted = new CountDownLatch(slowRequests);
+        }
+
+        public boolean awaitSlowRequests() throws InterruptedException {
+            return slowRequestsStarted.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+
+        public void release() {
+            released.countDown();
+        }
+
+        @Override
+        public DispatchResult dispatchRawMessage(RawMessage rawMessage) {
+            if (rawMessage.getRawData().startsWith("slow")) {
+                slowRequestsStarted.countDown();
+                try {
+                    released.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            String response = "ACK " + rawMessage.getRawData();
+            MessageParameters parameters = (MessageParameters) rawMessage.getSourceMap().get("parameters");
+            if (parameters.contains("a")) {
+                response += " a=" + parameters.getParameter("a");
+            }
+
+            DispatchResult dispatchResult = mock(DispatchResult.class);
+            when(dispatchResult.getSelectedResponse()).thenReturn(new Response(response));
+            return dispatchResult;
+        }
+
+        @Override
+        public void finishDispatch(DispatchResult dispatchResult) {}
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.Response;
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.server.controllers.ContextFactoryController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.util.javascript.MirthContextFactory;
+
+public class DatabaseDispatcherQueryTest {
+    private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    private static final String URL = "jdbc:derby:memory:databasewritertest;create=true";
+    private static final String INSERT = "INSERT INTO messages (id, content) VALUES (?, ?)";
+    private static final int THREADS = 8;
+    private static final int MESSAGES_PER_THREAD = 50;
+
+    private Connection connection;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+
+        MirthContextFactory contextFactory = mock(MirthContextFactory.class);
+        when(contextFactory.getId()).thenReturn("contextFactory");
+        ContextFactoryController contextFactoryController = mock(ContextFactoryController.class);
+        when(contextFactoryController.getContextFactory(any())).thenReturn(contextFactory);
+        when(controllerFactory.createContextFactoryController()).thenReturn(contextFactoryController);
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        Class.forName(DRIVER);
+    }
+
+    @Before
+    public void createTable() throws Exception {
+        connection = DriverManager.getConnection(URL, "", "");
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE messages (id INTEGER PRIMARY KEY, content VARCHAR(100))");
+        statement.close();
+    }
+
+    @After
+    public void dropTable() throws Exception {
+        DatabaseDispatcherQuery.setBatchSize(1);
+
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE messages");
+        statement.close();
+        connection.close();
+    }
+
+    @Test
+    public void testConnectionPoolReusesConnections() throws Exception {
+        DatabaseConnectionPool connectionPool = new DatabaseConnectionPool(null, URL, "", "");
+
+        Connection first = connectionPool.getConnection();
+        connectionPool.returnConnection(first, true);
+        assertSame(first, connectionPool.getConnection());
+
+        // A connection is never given to two callers at once
+        Connection second = connectionPool.getConnection();
+        assertNotSame(first, second);
+        assertEquals(2, connectionPool.getCreatedCount());
+
+        // Broken connections are discarded
+        second.close();
+        connectionPool.returnConnection(second, false);
+        connectionPool.returnConnection(first, false);
+        assertSame(first, connectionPool.getConnection());
+        assertTrue(connectionPool.getConnection() != second);
+        assertEquals(3, connectionPool.getCreatedCount());
+
+        // Connections in use when the pool is closed are closed when they are returned
+        Connection third = connectionPool.getConnection();
+        connectionPool.close();
+        connectionPool.returnConnection(third, true);
+        assertTrue(third.isClosed());
+    }
+
+    @Test
+    public void testResponses() throws Exception {
+        DatabaseDispatcherQuery query = createQuery();
+
+        assertEquals("Database write success, 1 rows updated", send(query, INSERT, 1, "first").getStatusMessage());
+        assertEquals("Database write success, 0 rows updated", send(query, "UPDATE messages SET content = ? WHERE id = ?", "second", 2).getStatusMessage());
+
+        try {
+            send(query, INSERT, 1, "duplicate");
+            fail("Expected a duplicate key error");
+        } catch (DatabaseDispatcherException e) {
+            assertEquals("Failed to write to database", e.getMessage());
+        }
+
+        assertEquals(Status.SENT, send(query, INSERT, 2, "second").getStatus());
+        assertEquals(2, countRows());
+        query.stop();
+    }
+
+    @Test
+    public void testBatchedInserts() throws Exception {
+        DatabaseDispatcherQuery.setBatchSize(20);
+        final DatabaseDispatcherQuery query = createQuery();
+
+        // Every tenth message of each thread reuses an existing key and must fail on its own
+        final Set<Integer> duplicates = Collections.synchronizedSet(new HashSet<Integer>());
+        List<Future<Void>> futures = sendConcurrently(new Sender() {
+            @Override
+            public void send(int thread, int message) throws Exception {
+                int id = thread * MESSAGES_PER_THREAD + message;
+                boolean duplicate = message > 0 && message % 10 == 0;
+
+                try {
+                    Response response = DatabaseDispatcherQueryTest.this.send(query, INSERT, duplicate ? id - 1 : id, "message " + id);
+                    assertTrue(!duplicate);
+                    assertEquals(Status.SENT, response.getStatus());
+                    assertTrue(response.getStatusMessage().startsWith("Database write success"));
+                } catch (DatabaseDispatcherException e) {
+                    assertTrue("Unexpected error for message " + id, duplicate);
+                    duplicates.add(id);
+                }
+            }
+        });
+
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+
+        assertEquals(THREADS * 4, duplicates.size());
+        assertEquals(THREADS * MESSAGES_PER_THREAD - duplicates.size(), countRows());
+        query.stop();
+    }
+
+    @Test
+    public void testBatchWriterGroupsConcurrentInserts() throws Exception {
+        DatabaseConnectionPool connectionPool = new DatabaseConnectionPool(null, URL, "", "");
+        final DatabaseBatchWriter batchWriter = new DatabaseBatchWriter(connectionPool, INSERT, 50);
+
+        List<Future<Void>> futures = sendConcurrently(new Sender() {
+            @Override
+            public void send(int thread, int message) throws Exception {
+                int id = thread * MESSAGES_PER_THREAD + message;
+                assertEquals(1, batchWriter.write(new Object[] { id, "message " + id }));
+            }
+        });
+
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+
+        assertEquals(THREADS * MESSAGES_PER_THREAD, countRows());
+        assertTrue("Expected fewer executions than statements", batchWriter.getExecuteCount() < THREADS * MESSAGES_PER_THREAD);
+        assertTrue(connectionPool.getCreatedCount() <= THREADS);
+        connectionPool.close();
+    }
+
+    private DatabaseDispatcherQuery createQuery() throws Exception {
+        DatabaseDispatcher connector = mock(DatabaseDispatcher.class);
+        when(connector.getConnectorProperties()).thenReturn(createProperties(INSERT));
+
+        DatabaseDispatcherQuery query = new DatabaseDispatcherQuery(connector);
+        query.deploy();
+        query.start();
+        return query;
+    }
+
+    private DatabaseDispatcherProperties createProperties(String sql, Object... parameters) {
+        DatabaseDispatcherProperties properties = new DatabaseDispatcherProperties();
+        properties.setDriver(DRIVER);
+        properties.setUrl(URL);
+        properties.setUsername("");
+        properties.setPassword("");
+        properties.setQuery(sql);
+        properties.setParameters(parameters);
+        return properties;
+    }
+
+    private Response send(DatabaseDispatcherQuery query, String sql, Object... parameters) throws Exception {
+        ConnectorMessage connectorMessage = new ConnectorMessage();
+        connectorMessage.setMetaDataId(1);
+        return query.send(createProperties(sql, parameters), connectorMessage);
+    }
+
+    private int countRows() throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM messages");
+        resultSet.next();
+        int count = resultSet.getInt(1);
+        statement.close();
+        return count;
+    }
+
+    private List<Future<Void>> sendConcurrently(final Sender sender) {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int message = 0; message < MESSAGES_PER_THREAD; message++) {
+                        sender.send(thread, message);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        executor.shutdown();
+        return futures;
+    }
+
+    private interface Sender {
+        public void send(int thread, int message) throws Exception;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.channel.DeployedState;
+import com.mirth.connect.donkey.model.message.RawMessage;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.ChannelException;
+import com.mirth.connect.donkey.server.channel.DispatchResult;
+import com.mirth.connect.server.controllers.ChannelController;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ContextFactoryController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.util.GlobalChannelVariableStoreFactory;
+import com.mirth.connect.server.util.javascript.MirthContextFactory;
+
+public class DatabaseReceiverTest {
+    private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+    private static final String URL = "jdbc:derby:memory:databasereadertest;create=true";
+    private static final String CHANNEL_ID = "databaseChannel";
+
+    private Connection connection;
+    private List<String> messages = new ArrayList<String>();
+    private Set<String> failingRows = new HashSet<String>();
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+
+        MirthContextFactory contextFactory = mock(MirthContextFactory.class);
+        when(contextFactory.getId()).thenReturn("contextFactory");
+        ContextFactoryController contextFactoryController = mock(ContextFactoryController.class);
+        when(contextFactoryController.getContextFactory(any())).thenReturn(contextFactory);
+        when(controllerFactory.createContextFactoryController()).thenReturn(contextFactoryController);
+
+        ChannelController channelController = mock(ChannelController.class);
+        when(channelController.getDeployedChannelById(any())).thenReturn(new com.mirth.connect.model.Channel());
+        when(controllerFactory.createChannelController()).thenReturn(channelController);
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class));
+        when(controllerFactory.createEventController()).thenReturn(mock(EventController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        Class.forName(DRIVER);
+    }
+
+    @Before
+    public void createTable() throws Exception {
+        connection = DriverManager.getConnection(URL, "", "");
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE messages (id INTEGER PRIMARY KEY, content VARCHAR(100))");
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO messages (id, content) VALUES (?, ?)");
+        for (int i = 1; i <= 7; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, "row" + i);
+            insert.execute();
+        }
+        insert.close();
+
+        GlobalChannelVariableStoreFactory.getInstance().get(CHANNEL_ID).put("checkpoint", 0);
+    }
+
+    @After
+    public void dropTable() throws Exception {
+        GlobalChannelVariableStoreFactory.getInstance().get(CHANNEL_ID).clear();
+
+        Statement statement = connection.createStatement();
+        statement.execute("DROP TABLE messages");
+        statement.close();
+        connection.close();
+    }
+
+    @Test
+    public void testRowsPerMessage() throws Exception {
+        DatabaseReceiverProperties properties = createProperties("SELECT * FROM messages ORDER BY id");
+        properties.setAggregateResults(true);
+        properties.setRowsPerMessage("3");
+        DatabaseReceiver receiver = createReceiver(properties);
+
+        try {
+            receiver.poll();
+        } finally {
+            receiver.onStop();
+        }
+
+        // The rows were split into messages of at most three rows each
+        assertEquals(3, messages.size());
+        assertEquals(3, StringUtils.countMatches(messages.get(0), "<result>"));
+        assertTrue(messages.get(0).contains("row3") && !messages.get(0).contains("row4"));
+        assertEquals(3, StringUtils.countMatches(messages.get(1), "<result>"));
+        assertEquals(1, StringUtils.countMatches(messages.get(2), "<result>"));
+        assertTrue(messages.get(2).contains("row7"));
+    }
+
+    @Test
+    public void testAllRowsAggregatedByDefault() throws Exception {
+        DatabaseReceiverProperties properties = createProperties("SELECT * FROM messages ORDER BY id");
+        properties.setAggregateResults(true);
+        properties.setRowsPerMessage(null);
+        DatabaseReceiver receiver = createReceiver(properties);
+
+        try {
+            receiver.poll();
+        } finally {
+            receiver.onStop();
+        }
+
+        assertEquals(1, messages.size());
+        assertEquals(7, StringUtils.countMatches(messages.get(0), "<result>"));
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        DatabaseReceiverProperties properties = createProperties("SELECT * FROM messages WHERE id > ${checkpoint} ORDER BY id");
+        properties.setCheckpointColumn("ID");
+        failingRows.add("row5");
+        DatabaseReceiver receiver = createReceiver(properties);
+
+        try {
+            assertNull(receiver.getCheckpoint());
+            receiver.poll();
+
+            // Rows after the failed one were still dispatched, but the checkpoint stopped before it
+            assertEquals(6, messages.size());
+            assertEquals(4, receiver.getCheckpoint());
+
+            failingRows.clear();
+            messages.clear();
+            receiver.poll();
+
+            // The next poll resumed at the failed row
+            assertEquals(3, messages.size());
+            assertTrue(messages.get(0).contains("row5"));
+            assertEquals(7, receiver.getCheckpoint());
+
+            messages.clear();
+            receiver.poll();
+            assertEquals(0, messages.size());
+        } finally {
+            receiver.onStop();
+        }
+    }
+
+    @Test
+    public void testCheckpointAggregated() throws Exception {
+        DatabaseReceiverProperties properties = createProperties("SELECT * FROM messages WHERE id > ${checkpoint} ORDER BY id");
+        properties.setAggregateResults(true);
+        properties.setRowsPerMessage("2");
+        properties.setCheckpointColumn("id");
+        failingRows.add("row6");
+        DatabaseReceiver receiver = createReceiver(properties);
+
+        try {
+            receiver.poll();
+
+            // The message with the failed row ended the poll
+            assertEquals(2, messages.size());
+            assertEquals(4, receiver.getCheckpoint());
+
+            failingRows.clear();
+            messages.clear();
+            receiver.poll();
+
+            assertEquals(2, messages.size());
+            assertTrue(messages.get(0).contains("row5") && messages.get(0).contains("row6"));
+            assertEquals(7, receiver.getCheckpoint());
+        } finally {
+            receiver.onStop();
+        }
+    }
+
+    private DatabaseReceiverProperties createProperties(String select) {
+        DatabaseReceiverProperties properties = new DatabaseReceiverProperties();
+        properties.setDriver(DRIVER);
+        properties.setUrl(URL);
+        properties.setSelect(select);
+        properties.setCacheResults(false);
+        properties.setRetryCount("0");
+        return properties;
+    }
+
+    private DatabaseReceiver createReceiver(DatabaseReceiverProperties properties) throws Exception {
+        Channel channel = mock(Channel.class);
+        when(channel.getName()).thenReturn("Database Channel");
+
+        DatabaseReceiver receiver = new TestDatabaseReceiver();
+        receiver.setChannelId(CHANNEL_ID);
+        receiver.setChannel(channel);
+        receiver.setSourceName("Source");
+        receiver.setConnectorProperties(properties);
+        receiver.onDeploy();
+        receiver.setCurrentState(DeployedState.STARTED);
+        receiver.onStart();
+        return receiver;
+    }
+
+    private class TestDatabaseReceiver extends DatabaseReceiver {
+        @Override
+        public DispatchResult dispatchRawMessage(RawMessage rawMessage) throws ChannelException {
+            for (String row : failingRows) {
+                if (rawMessage.getRawData().contains(row)) {
+                    throw new ChannelException(false);
+                }
+            }
+
+            messages.add(rawMessage.getRawData());
+            return mock(DispatchResult.class);
+        }
+
+        @Override
+        public void finishDispatch(DispatchResult dispatchResult) {}
+
+        @Override
+        public boolean isTerminated() {
+            // The poll job isn't started, so poll() is called directly
+            return false;
+        }
+    }
+}
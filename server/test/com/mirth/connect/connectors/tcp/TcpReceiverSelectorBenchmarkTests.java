@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.channel.DeployedState;
+import com.mirth.connect.donkey.model.event.ConnectionStatusEventType;
+import com.mirth.connect.donkey.model.event.Event;
+import com.mirth.connect.donkey.model.message.RawMessage;
+import com.mirth.connect.donkey.model.message.Response;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.DispatchResult;
+import com.mirth.connect.donkey.server.event.ConnectorCountEvent;
+import com.mirth.connect.donkey.server.message.DataType;
+import com.mirth.connect.model.transmission.framemode.FrameModeProperties;
+import com.mirth.connect.plugins.DataTypeServerPlugin;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.controllers.ExtensionController;
+import com.mirth.connect.util.TcpUtil;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Opens increasing numbers of idle persistent connections to a TCP Listener, first with a thread
+ * for each connection and then in selector mode. Prints the number of threads, the heap and the
+ * reserved thread stack memory used while the connections are idle, and the time taken to send one
+ * message on every connection and read the responses.
+ */
+public class TcpReceiverSelectorBenchmarkTests {
+    private static final int[] CONNECTION_COUNTS = new int[] { 250, 1000, 3000 };
+    private static final String MESSAGE = "MSH|^~\\&|ADT1|SHM|SHMADT|SHM|200812091126|SECURITY|ADT^A01^ADT_A01|MSG00001|P|2.5|\rEVN|A01|200812091126||\rPID|1|1001|1001^5^M11^ADT1^MR^SHM||O'HALLAHAN^COLLEEN^^||19850704|F\r";
+
+    private static AtomicInteger connectedCount = new AtomicInteger();
+    private static byte[] frame;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class));
+
+        EventController eventController = mock(EventController.class, withSettings().stubOnly());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Object event = invocation.getArguments()[0];
+                if (event instanceof ConnectorCountEvent && ((ConnectorCountEvent) event).getState() == ConnectionStatusEventType.CONNECTED) {
+                    connectedCount.incrementAndGet();
+                }
+                return null;
+            }
+        }).when(eventController).dispatchEvent(any(Event.class));
+        when(controllerFactory.createEventController()).thenReturn(eventController);
+
+        Map<String, DataTypeServerPlugin> dataTypePlugins = new HashMap<String, DataTypeServerPlugin>();
+        dataTypePlugins.put("HL7V2", mock(DataTypeServerPlugin.class));
+        ExtensionController extensionController = mock(ExtensionController.class);
+        when(extensionController.getDataTypePlugins()).thenReturn(dataTypePlugins);
+        when(controllerFactory.createExtensionController()).thenReturn(extensionController);
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(TcpUtil.stringToByteArray(TcpUtil.DEFAULT_LLP_START_BYTES));
+        bos.write(MESSAGE.getBytes("US-ASCII"));
+        bos.write(TcpUtil.stringToByteArray(TcpUtil.DEFAULT_LLP_END_BYTES));
+        frame = bos.toByteArray();
+    }
+
+    @Test
+    public void testIdleConnections() throws Exception {
+        // Warm up both modes before measuring
+        run(false, 100);
+        run(true, 100);
+
+        System.out.println(String.format("%-15s %12s %10s %12s %15s %15s", "mode", "connections", "threads", "heap KB", "stack KB", "round trip ms"));
+
+        for (int connections : CONNECTION_COUNTS) {
+            for (boolean selectorMode : new boolean[] { false, true }) {
+                long[] result = run(selectorMode, connections);
+                System.out.println(String.format("%-15s %12d %10d %12d %15d %15d", selectorMode ? "selector" : "thread/socket", connections, result[0], result[1] / 1024, result[0] * getThreadStackSize(), result[2]));
+            }
+        }
+    }
+
+    /*
+     * Returns the number of threads started, the heap used while the connections are idle, and the
+     * time taken to send a message on every connection and receive all responses.
+     */
+    private long[] run(boolean selectorMode, int connections) throws Exception {
+        TcpReceiver.setSelectorMode(selectorMode);
+        connectedCount.set(0);
+
+        int threadsBefore = waitForThreadsToExit();
+        long heapBefore = getUsedHeap();
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        TcpReceiver receiver = startReceiver(port, connections);
+        List<Socket> clients = new ArrayList<Socket>();
+
+        try {
+            for (int i = 0; i < connections; i++) {
+                Socket client = new Socket("127.0.0.1", port);
+                client.setSoTimeout(30000);
+                clients.add(client);
+            }
+
+            long start = System.currentTimeMillis();
+            while (connectedCount.get() < connections) {
+                assertTrue("Timed out waiting for connections", System.currentTimeMillis() - start < 60000);
+                Thread.sleep(10);
+            }
+
+            long threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            long heap = getUsedHeap() - heapBefore;
+
+            long startNanos = System.nanoTime();
+            for (Socket client : clients) {
+                client.getOutputStream().write(frame);
+            }
+            for (Socket client : clients) {
+                readResponse(client.getInputStream());
+            }
+            long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+
+            return new long[] { threads, heap, elapsedMillis };
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+
+            receiver.setCurrentState(DeployedState.STOPPING);
+            receiver.onStop();
+            TcpReceiver.setSelectorMode(false);
+        }
+    }
+
+    private TcpReceiver startReceiver(int port, int connections) throws Exception {
+        TcpReceiverProperties properties = new TcpReceiverProperties();
+        properties.getListenerConnectorProperties().setHost("127.0.0.1");
+        properties.getListenerConnectorProperties().setPort(String.valueOf(port));
+        properties.setMaxConnections(String.valueOf(connections));
+
+        FrameModeProperties frameModeProperties = new FrameModeProperties("Basic");
+        frameModeProperties.setStartOfMessageBytes(TcpUtil.DEFAULT_LLP_START_BYTES);
+        frameModeProperties.setEndOfMessageBytes(TcpUtil.DEFAULT_LLP_END_BYTES);
+        properties.setTransmissionModeProperties(frameModeProperties);
+
+        Channel channel = mock(Channel.class);
+        when(channel.getName()).thenReturn("TCP Channel");
+
+        TcpReceiver receiver = new TcpReceiver() {
+            @Override
+            public DispatchResult dispatchRawMessage(RawMessage rawMessage) {
+                DispatchResult dispatchResult = mock(DispatchResult.class, withSettings().stubOnly());
+                when(dispatchResult.getSelectedResponse()).thenReturn(new Response("ACK"));
+                return dispatchResult;
+            }
+
+            @Override
+            public void finishDispatch(DispatchResult dispatchResult) {}
+        };
+
+        receiver.setChannelId("tcpChannel");
+        receiver.setChannel(channel);
+        receiver.setSourceName("Source");
+        receiver.setInboundDataType(new DataType("HL7V2", null, null));
+        receiver.setConnectorProperties(properties);
+        receiver.onDeploy();
+        receiver.setCurrentState(DeployedState.STARTED);
+        receiver.onStart();
+        return receiver;
+    }
+
+    private void readResponse(InputStream inputStream) throws Exception {
+        assertEquals(0x0B, inputStream.read());
+        for (byte b : "ACK".getBytes("US-ASCII")) {
+            assertEquals(b, inputStream.read());
+        }
+        assertEquals(0x1C, inputStream.read());
+        assertEquals(0x0D, inputStream.read());
+    }
+
+    /*
+     * The worker threads of the previous run exit asynchronously after the receiver is stopped.
+     */
+    private int waitForThreadsToExit() throws Exception {
+        int threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+        int previousCount;
+
+        do {
+            previousCount = threadCount;
+            Thread.sleep(500);
+            threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+        } while (threadCount < previousCount);
+
+        return threadCount;
+    }
+
+    private long getUsedHeap() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private long getThreadStackSize() {
+        HotSpotDiagnosticMXBean diagnosticBean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        return Long.parseLong(diagnosticBean.getVMOption("ThreadStackSize").getValue());
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.channel.DeployedState;
+import com.mirth.connect.donkey.model.event.ConnectionStatusEventType;
+import com.mirth.connect.donkey.model.event.Event;
+import com.mirth.connect.donkey.model.message.RawMessage;
+import com.mirth.connect.donkey.model.message.Response;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.DispatchResult;
+import com.mirth.connect.donkey.server.event.ConnectionStatusEvent;
+import com.mirth.connect.donkey.server.event.ConnectorCountEvent;
+import com.mirth.connect.donkey.server.message.DataType;
+import com.mirth.connect.model.transmission.framemode.FrameModeProperties;
+import com.mirth.connect.plugins.DataTypeServerPlugin;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.controllers.ExtensionController;
+import com.mirth.connect.util.TcpUtil;
+
+public class TcpReceiverTest {
+    private static final int TIMEOUT = 10000;
+
+    private static List<Event> events = Collections.synchronizedList(new ArrayList<Event>());
+
+    private TestTcpReceiver receiver;
+    private int port;
+    private List<Socket> clients = new ArrayList<Socket>();
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class));
+
+        EventController eventController = mock(EventController.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                events.add((Event) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(eventController).dispatchEvent(any(Event.class));
+        when(controllerFactory.createEventController()).thenReturn(eventController);
+
+        Map<String, DataTypeServerPlugin> dataTypePlugins = new HashMap<String, DataTypeServerPlugin>();
+        dataTypePlugins.put("HL7V2", mock(DataTypeServerPlugin.class));
+        ExtensionController extensionController = mock(ExtensionController.class);
+        when(extensionController.getDataTypePlugins()).thenReturn(dataTypePlugins);
+        when(controllerFactory.createExtensionController()).thenReturn(extensionController);
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Socket client : clients) {
+            client.close();
+        }
+
+        if (receiver != null) {
+            receiver.setCurrentState(DeployedState.STOPPING);
+            receiver.onStop();
+            receiver = null;
+        }
+
+        TcpReceiver.setSelectorMode(false);
+        events.clear();
+    }
+
+    @Test
+    public void testResponsesOnPersistentConnections() throws Exception {
+        for (boolean selectorMode : new boolean[] { false, true }) {
+            startReceiver(selectorMode, true, "0", "10");
+
+            Socket first = connect();
+            Socket second = connect();
+
+            for (int i = 0; i < 3; i++) {
+                send(first, "first" + i);
+                assertEquals("ACK first" + i, readFrame(first));
+                send(second, "second" + i);
+                assertEquals("ACK second" + i, readFrame(second));
+            }
+
+            tearDown();
+        }
+    }
+
+    @Test
+    public void testIdleConnectionsDoNotHoldWorkerThreads() throws Exception {
+        TcpReceiver.setSelectorThreads(1);
+
+        try {
+            startReceiver(true, true, "0", "10");
+
+            // With a single worker thread, the second client is only served if the first one was parked
+            Socket first = connect();
+            Socket second = connect();
+            waitForEvents(ConnectionStatusEventType.CONNECTED, 2);
+
+            send(second, "second");
+            assertEquals("ACK second", readFrame(second));
+            send(first, "first");
+            assertEquals("ACK first", readFrame(first));
+        } finally {
+            TcpReceiver.setSelectorThreads(Runtime.getRuntime().availableProcessors() * 2);
+        }
+    }
+
+    @Test
+    public void testPipelinedMessages() throws Exception {
+        startReceiver(true, true, "0", "10");
+
+        Socket client = connect();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (int i = 0; i < 5; i++) {
+            bos.write(frame("message" + i));
+        }
+        client.getOutputStream().write(bos.toByteArray());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ACK message" + i, readFrame(client));
+        }
+    }
+
+    @Test
+    public void testRemoteCloseDisconnects() throws Exception {
+        startReceiver(true, true, "0", "10");
+
+        Socket client = connect();
+        send(client, "message");
+        assertEquals("ACK message", readFrame(client));
+        client.close();
+
+        waitForEvents(ConnectionStatusEventType.DISCONNECTED, 1);
+    }
+
+    @Test
+    public void testReceiveTimeout() throws Exception {
+        startReceiver(true, true, "200", "10");
+
+        Socket client = connect();
+        waitForEvents(ConnectionStatusEventType.INFO, 2);
+
+        // The connection is kept open after the timeout
+        send(client, "message");
+        assertEquals("ACK message", readFrame(client));
+        tearDown();
+
+        startReceiver(true, false, "200", "10");
+        client = connect();
+        waitForEvents(ConnectionStatusEventType.FAILURE, 1);
+        waitForEvents(ConnectionStatusEventType.DISCONNECTED, 1);
+        assertEquals(-1, client.getInputStream().read());
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        startReceiver(true, true, "0", "1");
+
+        Socket first = connect();
+        waitForEvents(ConnectionStatusEventType.CONNECTED, 1);
+
+        Socket second = connect();
+        assertEquals(-1, second.getInputStream().read());
+
+        send(first, "message");
+        assertEquals("ACK message", readFrame(first));
+    }
+
+    @Test
+    public void testStopClosesParkedConnections() throws Exception {
+        startReceiver(true, true, "0", "10");
+
+        Socket client = connect();
+        waitForEvents(ConnectionStatusEventType.CONNECTED, 1);
+
+        receiver.setCurrentState(DeployedState.STOPPING);
+        receiver.onStop();
+        receiver = null;
+
+        assertEquals(1, countEvents(ConnectionStatusEventType.DISCONNECTED));
+        assertEquals(-1, client.getInputStream().read());
+    }
+
+    private void startReceiver(boolean selectorMode, boolean keepConnectionOpen, String receiveTimeout, String maxConnections) throws Exception {
+        TcpReceiver.setSelectorMode(selectorMode);
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        TcpReceiverProperties properties = new TcpReceiverProperties();
+        properties.getListenerConnectorProperties().setHost("127.0.0.1");
+        properties.getListenerConnectorProperties().setPort(String.valueOf(port));
+        properties.setKeepConnectionOpen(keepConnectionOpen);
+        properties.setReceiveTimeout(receiveTimeout);
+        properties.setMaxConnections(maxConnections);
+
+        FrameModeProperties frameModeProperties = new FrameModeProperties("Basic");
+        frameModeProperties.setStartOfMessageBytes(TcpUtil.DEFAULT_LLP_START_BYTES);
+        frameModeProperties.setEndOfMessageBytes(TcpUtil.DEFAULT_LLP_END_BYTES);
+        properties.setTransmissionModeProperties(frameModeProperties);
+
+        Channel channel = mock(Channel.class);
+        when(channel.getName()).thenReturn("TCP Channel");
+
+        receiver = new TestTcpReceiver();
+        receiver.setChannelId("tcpChannel");
+        receiver.setChannel(channel);
+        receiver.setSourceName("Source");
+        receiver.setInboundDataType(new DataType("HL7V2", null, null));
+        receiver.setConnectorProperties(properties);
+        receiver.onDeploy();
+        receiver.setCurrentState(DeployedState.STARTED);
+        receiver.onStart();
+    }
+
+    private Socket connect() throws Exception {
+        Socket client = new Socket("127.0.0.1", port);
+        client.setSoTimeout(TIMEOUT);
+        clients.add(client);
+        return client;
+    }
+
+    private byte[] frame(String message) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(TcpUtil.stringToByteArray(TcpUtil.DEFAULT_LLP_START_BYTES));
+        bos.write(message.getBytes("UTF-8"));
+        bos.write(TcpUtil.stringToByteArray(TcpUtil.DEFAULT_LLP_END_BYTES));
+        return bos.toByteArray();
+    }
+
+    private void send(Socket client, String message) throws Exception {
+        client.getOutputStream().write(frame(message));
+        client.getOutputStream().flush();
+    }
+
+    private String readFrame(Socket client) throws IOException {
+        InputStream inputStream = client.getInputStream();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int b;
+
+        assertEquals(0x0B, inputStream.read());
+        while ((b = inputStream.read()) != 0x1C) {
+            assertTrue("Connection closed before the end of the response", b != -1);
+            bos.write(b);
+        }
+        assertEquals(0x0D, inputStream.read());
+
+        return new String(bos.toByteArray(), "UTF-8");
+    }
+
+    private int countEvents(ConnectionStatusEventType type) {
+        int count = 0;
+
+        synchronized (events) {
+            for (Event event : events) {
+                if (event instanceof ConnectionStatusEvent && ((ConnectionStatusEvent) event).getState() == type) {
+                    // The count event dispatched when the connector is deployed isn't for a connection
+                    if (!(event instanceof ConnectorCountEvent) || ((ConnectorCountEvent) event).getMaximum() == null) {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private void waitForEvents(ConnectionStatusEventType type, int count) throws Exception {
+        long start = System.currentTimeMillis();
+
+        while (countEvents(type) < count) {
+            assertTrue("Timed out waiting for " + count + " " + type + " events", System.currentTimeMillis() - start < TIMEOUT);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class TestTcpReceiver extends TcpReceiver {
+        @Override
+        public DispatchResult dispatchRawMessage(RawMessage rawMessage) {
+            DispatchResult dispatchResult = mock(DispatchResult.class);
+            when(dispatchResult.getSelectedResponse()).thenReturn(new Response("ACK " + rawMessage.getRawData()));
+            return dispatchResult;
+        }
+
+        @Override
+        public void finishDispatch(DispatchResult dispatchResult) {}
+    }
+}
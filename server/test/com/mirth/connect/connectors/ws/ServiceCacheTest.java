@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.Dispatch;
+import javax.xml.ws.Service;
+import javax.xml.ws.handler.MessageContext;
+
+import org.junit.Test;
+
+import com.mirth.connect.connectors.ws.ServiceCache.PooledDispatch;
+import com.mirth.connect.connectors.ws.ServiceCache.ServiceFactory;
+import com.mirth.connect.connectors.ws.ServiceCache.ServiceKey;
+
+public class ServiceCacheTest {
+    private static final ServiceKey KEY = new ServiceKey("http://localhost/service?wsdl", "user", "pass", "{urn:test}Service", "{urn:test}Port");
+
+    @Test
+    public void testServiceCreatedOnce() throws Exception {
+        ServiceCache cache = new ServiceCache(0, 10);
+        CountingServiceFactory factory = new CountingServiceFactory();
+
+        for (int i = 0; i < 5; i++) {
+            PooledDispatch dispatch = cache.borrowDispatch(new ServiceKey("http://localhost/service?wsdl", "user", "pass", "{urn:test}Service", "{urn:test}Port"), factory);
+            cache.returnDispatch(dispatch);
+        }
+
+        // The returned dispatch was handed out again
+        assertEquals(1, factory.services.get());
+        assertEquals(1, factory.dispatches.get());
+
+        // A different password is a different service
+        cache.borrowDispatch(new ServiceKey("http://localhost/service?wsdl", "user", "other", "{urn:test}Service", "{urn:test}Port"), factory);
+        assertEquals(2, factory.services.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testDispatchesNotShared() throws Exception {
+        ServiceCache cache = new ServiceCache(0, 10);
+        CountingServiceFactory factory = new CountingServiceFactory();
+
+        PooledDispatch first = cache.borrowDispatch(KEY, factory);
+        PooledDispatch second = cache.borrowDispatch(KEY, factory);
+        assertNotSame(first.getDispatch(), second.getDispatch());
+        assertEquals(1, factory.services.get());
+        assertEquals(2, factory.dispatches.get());
+
+        cache.returnDispatch(first);
+        assertSame(first, cache.borrowDispatch(KEY, factory));
+    }
+
+    @Test
+    public void testDefaultRequestHeaders() throws Exception {
+        ServiceCache cache = new ServiceCache(0, 10);
+        CountingServiceFactory factory = new CountingServiceFactory();
+
+        PooledDispatch dispatch = cache.borrowDispatch(KEY, factory);
+        assertTrue(dispatch.getDefaultRequestHeaders().isEmpty());
+
+        // Headers added by a send aren't kept as defaults
+        dispatch.getDispatch().getRequestContext().put(MessageContext.HTTP_REQUEST_HEADERS, Collections.singletonMap("X-Test", Collections.singletonList("value")));
+        cache.returnDispatch(dispatch);
+        assertTrue(cache.borrowDispatch(KEY, factory).getDefaultRequestHeaders().isEmpty());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        ServiceCache cache = new ServiceCache(50, 10);
+        CountingServiceFactory factory = new CountingServiceFactory();
+
+        PooledDispatch dispatch = cache.borrowDispatch(KEY, factory);
+        File tempFile = factory.tempFiles.get(0);
+        Thread.sleep(100);
+        cache.returnDispatch(dispatch);
+
+        // The expired service is created again, and the dispatch from the old one isn't reused
+        assertNotSame(dispatch, cache.borrowDispatch(KEY, factory));
+        assertEquals(2, factory.services.get());
+        assertFalse(tempFile.exists());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        ServiceCache cache = new ServiceCache(0, 3);
+        CountingServiceFactory factory = new CountingServiceFactory();
+
+        for (int i = 0; i < 10; i++) {
+            cache.borrowDispatch(new ServiceKey("http://localhost/service" + i + "?wsdl", null, null, "{urn:test}Service", "{urn:test}Port"), factory);
+            Thread.sleep(2);
+        }
+
+        assertEquals(3, cache.size());
+
+        // Only the temp files of the cached services remain
+        int existing = 0;
+        for (File tempFile : factory.tempFiles) {
+            if (tempFile.exists()) {
+                existing++;
+            }
+        }
+        assertEquals(3, existing);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        for (File tempFile : factory.tempFiles) {
+            assertFalse(tempFile.exists());
+        }
+    }
+
+    @Test
+    public void testFailedServiceNotCached() throws Exception {
+        ServiceCache cache = new ServiceCache(0, 10);
+        CountingServiceFactory factory = new CountingServiceFactory();
+        factory.fail = true;
+
+        try {
+            cache.borrowDispatch(KEY, factory);
+            fail("Exception should have been thrown");
+        } catch (Exception e) {
+        }
+
+        assertEquals(0, cache.size());
+
+        factory.fail = false;
+        cache.borrowDispatch(KEY, factory);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testConcurrentBorrowers() throws Exception {
+        final ServiceCache cache = new ServiceCache(0, 10);
+        final CountingServiceFactory factory = new CountingServiceFactory();
+        factory.delay = 100;
+        final Set<Dispatch<SOAPMessage>> inUse = Collections.newSetFromMap(new ConcurrentHashMap<Dispatch<SOAPMessage>, Boolean>());
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            PooledDispatch dispatch = cache.borrowDispatch(KEY, factory);
+
+                            // No other thread may be using the same dispatch
+                            if (!inUse.add(dispatch.getDispatch())) {
+                                errors.incrementAndGet();
+                            }
+                            Thread.yield();
+                            inUse.remove(dispatch.getDispatch());
+
+                            cache.returnDispatch(dispatch);
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // The threads waited for the first one to create the service
+        assertEquals(0, errors.get());
+        assertEquals(1, factory.services.get());
+        assertTrue(factory.dispatches.get() <= 8);
+    }
+
+    private class CountingServiceFactory implements ServiceFactory {
+        private AtomicInteger services = new AtomicInteger();
+        private AtomicInteger dispatches = new AtomicInteger();
+        private List<File> tempFiles = Collections.synchronizedList(new ArrayList<File>());
+        private volatile boolean fail;
+        private volatile int delay;
+
+        @Override
+        public Service createService(ServiceKey key, List<File> tempFiles) throws Exception {
+            if (fail) {
+                throw new Exception("Unable to load WSDL");
+            }
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+
+            File tempFile = File.createTempFile("ServiceCacheTest", ".wsdl");
+            tempFile.deleteOnExit();
+            tempFiles.add(tempFile);
+            this.tempFiles.add(tempFile);
+
+            services.incrementAndGet();
+            return mock(Service.class);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Dispatch<SOAPMessage> createDispatch(ServiceKey key, Service service) throws Exception {
+            Map<String, Object> requestContext = new HashMap<String, Object>();
+            Dispatch<SOAPMessage> dispatch = mock(Dispatch.class);
+            when(dispatch.getRequestContext()).thenReturn(requestContext);
+
+            dispatches.incrementAndGet();
+            return dispatch;
+        }
+    }
+}
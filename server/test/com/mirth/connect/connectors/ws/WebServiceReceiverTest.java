@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.connectors.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.channel.DeployedState;
+import com.mirth.connect.donkey.model.message.RawMessage;
+import com.mirth.connect.donkey.model.message.Response;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.DispatchResult;
+import com.mirth.connect.donkey.server.message.DataType;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ContextFactoryController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.util.RequestTracker;
+
+public class WebServiceReceiverTest {
+    private static final int TIMEOUT = 10000;
+
+    private TestWebServiceReceiver receiver;
+    private int port;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class));
+        when(controllerFactory.createEventController()).thenReturn(mock(EventController.class));
+
+        // Without a context factory, the receiver falls back to DefaultAcceptMessage
+        when(controllerFactory.createContextFactoryController()).thenReturn(mock(ContextFactoryController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (receiver != null) {
+            receiver.release();
+            receiver.setCurrentState(DeployedState.STOPPING);
+            receiver.onStop();
+            receiver = null;
+        }
+
+        WebServiceReceiver.setMaxInFlight(0);
+    }
+
+    @Test
+    public void testResponses() throws Exception {
+        startReceiver(0, 0);
+
+        for (int i = 0; i < 3; i++) {
+            String response = send("message" + i);
+            assertTrue(response, response.startsWith("200 ") && response.contains(">ACK message" + i + "</return>"));
+        }
+
+        RequestTracker requestTracker = receiver.getRequestTracker();
+        assertEquals(3, requestTracker.getCount(RequestTracker.DISPATCH));
+        assertEquals(3, requestTracker.getCount(RequestTracker.EXCHANGE));
+        waitForInFlight(0);
+    }
+
+    @Test
+    public void testBusyResponse() throws Exception {
+        startReceiver(1, 1);
+
+        Future<String> slowRequest = Executors.newSingleThreadExecutor().submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return send("slow");
+            }
+        });
+        assertTrue(receiver.awaitSlowRequests());
+
+        // The SOAP request is turned away, but the WSDL is still served
+        assertEquals("503 Too many requests are in progress, try again later.", send("rejected"));
+        assertEquals(1, receiver.getRequestTracker().getRejected());
+        String wsdl = get("/services/Mirth?wsdl");
+        assertTrue(wsdl, wsdl.startsWith("200 ") && wsdl.contains("acceptMessage"));
+
+        receiver.release();
+        String response = slowRequest.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue(response, response.contains(">ACK slow</return>"));
+        waitForInFlight(0);
+
+        response = send("accepted");
+        assertTrue(response, response.contains(">ACK accepted</return>"));
+    }
+
+    private void startReceiver(int maxInFlight, int slowRequests) throws Exception {
+        WebServiceReceiver.setMaxInFlight(maxInFlight);
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        WebServiceReceiverProperties properties = new WebServiceReceiverProperties();
+        properties.getListenerConnectorProperties().setHost("127.0.0.1");
+        properties.getListenerConnectorProperties().setPort(String.valueOf(port));
+
+        Channel channel = mock(Channel.class);
+        when(channel.getName()).thenReturn("Web Service Channel");
+
+        receiver = new TestWebServiceReceiver(slowRequests);
+        receiver.setChannelId("wsChannel");
+        receiver.setChannel(channel);
+        receiver.setSourceName("Source");
+        receiver.setInboundDataType(new DataType("XML", null, null));
+        receiver.setResourceIds(new HashSet<String>());
+        receiver.setConnectorProperties(properties);
+        receiver.onDeploy();
+        receiver.setCurrentState(DeployedState.STARTED);
+        receiver.onStart();
+    }
+
+    /*
+     * Requests are finished after the response is written, so the client can see the response
+     * first.
+     */
+    private void waitForInFlight(int inFlight) throws Exception {
+        long start = System.currentTimeMillis();
+
+        while (receiver.getRequestTracker().getInFlight() != inFlight) {
+            assertTrue("Timed out waiting for " + inFlight + " requests in flight", System.currentTimeMillis() - start < TIMEOUT);
+            Thread.sleep(10);
+        }
+    }
+
+    private String send(String message) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/services/Mirth").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+        connection.setRequestProperty("SOAPAction", "\"\"");
+
+        OutputStream outputStream = connection.getOutputStream();
+        outputStream.write(("<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:ws=\"http://ws.connectors.connect.mirth.com/\"><soapenv:Body><ws:acceptMessage><arg0>" + message + "</arg0></ws:acceptMessage></soapenv:Body></soapenv:Envelope>").getBytes("UTF-8"));
+        outputStream.close();
+
+        return read(connection);
+    }
+
+    private String get(String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        return read(connection);
+    }
+
+    /*
+     * Returns the status code and body of the response.
+     */
+    private String read(HttpURLConnection connection) throws Exception {
+        int status = connection.getResponseCode();
+        InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        try {
+            return status + " " + IOUtils.toString(inputStream, "UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static class TestWebServiceReceiver extends WebServiceReceiver {
+        private CountDownLatch slowRequestsStarted;
+        private CountDownLatch released = new CountDownLatch(1);
+
+        public TestWebServiceReceiver(int slowRequests) {
+            slowRequestsStarted = new CountDownLatch(slowRequests);
+        }
+
+        public boolean awaitSlowRequests() throws InterruptedException {
+            return slowRequestsStarted.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+
+        public void release() {
+            released.countDown();
+        }
+
+        @Override
+        public DispatchResult dispatchRawMessage(RawMessage rawMessage) {
+            if (rawMessage.getRawData().startsWith("slow")) {
+                slowRequestsStarted.countDown();
+                try {
+                    released.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            DispatchResult dispatchResult = mock(DispatchResult.class);
+            when(dispatchResult.getSelectedResponse()).thenReturn(new Response("ACK " + rawMessage.getRawData()));
+            return dispatchResult;
+        }
+
+        @Override
+        public void finishDispatch(DispatchResult dispatchResult) {}
+    }
+}
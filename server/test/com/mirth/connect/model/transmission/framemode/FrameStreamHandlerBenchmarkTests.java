@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.model.transmission.framemode;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.server.message.StreamHandler;
+import com.mirth.connect.model.transmission.batch.DefaultBatchStreamReader;
+import com.mirth.connect.util.TcpUtil;
+
+/**
+ * Compares LegacyFrameStreamHandler with FrameStreamHandler reading MLLP frames from a
+ * BufferedInputStream, with a new handler for each message the same as the TCP Listener. Prints
+ * the throughput and the bytes allocated per message for each.
+ */
+public class FrameStreamHandlerBenchmarkTests {
+    private static final String MESSAGE = "MSH|^~\\&|ADT1|SHM|SHMADT|SHM|200812091126|SECURITY|ADT^A01^ADT_A01|MSG00001|P|2.5|\rEVN|A01|200812091126||\rPID|1|1001|1001^5^M11^ADT1^MR^SHM~123456789^^^USSSA^SS||O'HALLAHAN^COLLEEN^^||19850704|F||2106-3|1200 N ELM STREET^^NEWPORT BEACH^CA^92660-1020^US^H|OC|(949) 555-1234|(949) 555-5678||S||PATID1001^2^M10^ADT1^AN^A|123456789|U1234567^CA|\rNK1|1|O'HALLAHAN^BRITTANY^M|SIS^SISTER||||N^NEXT-OF-KIN\rPV1|1|I|2000^2012^01||||001122^ZOIDBERG^JOHN^|||SUR||||1|A0|\r";
+    private static final int MESSAGE_COUNT = 20000;
+    private static final int ITERATIONS = 10;
+
+    private static FrameModeProperties properties;
+    private static byte[] data;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        properties = new FrameModeProperties("MLLP");
+        properties.setStartOfMessageBytes(TcpUtil.DEFAULT_LLP_START_BYTES);
+        properties.setEndOfMessageBytes(TcpUtil.DEFAULT_LLP_END_BYTES);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] messageBytes = MESSAGE.getBytes("US-ASCII");
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            bos.write(TcpUtil.stringToByteArray(TcpUtil.DEFAULT_LLP_START_BYTES));
+            bos.write(messageBytes);
+            bos.write(TcpUtil.stringToByteArray(TcpUtil.DEFAULT_LLP_END_BYTES));
+        }
+
+        data = bos.toByteArray();
+    }
+
+    @Test
+    public void testReadThroughput() throws Exception {
+        // Warm up both handlers before measuring
+        for (int i = 0; i < ITERATIONS; i++) {
+            run(true);
+            run(false);
+        }
+
+        System.out.println(String.format("%-20s %15s %15s %15s", "handler", "msg/s", "MB/s", "bytes/msg"));
+
+        for (boolean legacy : new boolean[] { true, false }) {
+            long elapsedNanos = 0;
+            long allocatedBytes = 0;
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                long startBytes = getAllocatedBytes();
+                long startNanos = System.nanoTime();
+                run(legacy);
+                elapsedNanos += System.nanoTime() - startNanos;
+                allocatedBytes += getAllocatedBytes() - startBytes;
+            }
+
+            long messages = (long) MESSAGE_COUNT * ITERATIONS;
+            double seconds = elapsedNanos / 1000000000d;
+            System.out.println(String.format("%-20s %15.0f %15.1f %15d", legacy ? "legacy" : "block read", messages / seconds, data.length * (double) ITERATIONS / seconds / 1024 / 1024, allocatedBytes / messages));
+        }
+    }
+
+    private void run(boolean legacy) throws Exception {
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(data));
+        int count = 0;
+        byte[] bytes;
+
+        while ((bytes = createHandler(inputStream, legacy).read()) != null) {
+            assertEquals(MESSAGE.length(), bytes.length);
+            count++;
+        }
+
+        assertEquals(MESSAGE_COUNT, count);
+    }
+
+    private StreamHandler createHandler(InputStream inputStream, boolean legacy) {
+        DefaultBatchStreamReader batchStreamReader = new DefaultBatchStreamReader(inputStream);
+
+        if (legacy) {
+            return new LegacyFrameStreamHandler(inputStream, null, batchStreamReader, properties);
+        } else {
+            return new FrameStreamHandler(inputStream, null, batchStreamReader, properties);
+        }
+    }
+
+    private long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
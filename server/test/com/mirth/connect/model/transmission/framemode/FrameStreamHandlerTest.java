@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.model.transmission.framemode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.server.message.StreamHandler;
+import com.mirth.connect.model.transmission.batch.DefaultBatchStreamReader;
+import com.mirth.connect.util.TcpUtil;
+
+public class FrameStreamHandlerTest {
+
+    private static final byte[] ALPHABET = new byte[] { 0x0B, 0x1C, 0x0D, 'A', 'B', (byte) 0xFF };
+    private static final String[][] FRAMES = new String[][] {
+            { TcpUtil.DEFAULT_LLP_START_BYTES, TcpUtil.DEFAULT_LLP_END_BYTES }, { "", "" },
+            { "4142", "1C" }, { "", "0D0A" }, { "0B", "" } };
+
+    private enum StreamType {
+        BUFFERED, BYTE_ARRAY, UNMARKABLE, FAILING
+    }
+
+    @Test
+    public void testMatchesLegacyHandler() throws Exception {
+        Random random = new Random(8);
+
+        for (int i = 0; i < 500; i++) {
+            byte[] data = new byte[random.nextInt(60)];
+
+            for (int j = 0; j < data.length; j++) {
+                data[j] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+
+            int failPosition = random.nextInt(data.length + 1);
+
+            for (String[] frame : FRAMES) {
+                for (StreamType streamType : StreamType.values()) {
+                    String description = streamType + " " + frame[0] + "/" + frame[1] + " " + Hex.encodeHexString(data) + " failing at " + failPosition;
+                    List<String> expected = readAll(createStream(streamType, data, failPosition), frame, true);
+                    List<String> actual = readAll(createStream(streamType, data, failPosition), frame, false);
+                    assertEquals(description, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBytesAfterFrameRemainInStream() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(0x0B);
+        bos.write("first".getBytes("US-ASCII"));
+        bos.write(new byte[] { 0x1C, 0x0D, 0x0B });
+        bos.write("second".getBytes("US-ASCII"));
+        bos.write(new byte[] { 0x1C, 0x0D });
+        bos.write("rest".getBytes("US-ASCII"));
+
+        // A separate handler is created for each message, as the TCP connectors do
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(bos.toByteArray()), 4);
+        assertArrayEquals("first".getBytes("US-ASCII"), createHandler(inputStream, FRAMES[0], false).read());
+        assertArrayEquals("second".getBytes("US-ASCII"), createHandler(inputStream, FRAMES[0], false).read());
+
+        byte[] rest = new byte[4];
+        assertEquals(4, inputStream.read(rest));
+        assertArrayEquals("rest".getBytes("US-ASCII"), rest);
+        assertEquals(-1, inputStream.read());
+    }
+
+    @Test
+    public void testReadAfterReset() throws Exception {
+        FrameModeProperties properties = new FrameModeProperties("MLLP");
+        properties.setStartOfMessageBytes(TcpUtil.DEFAULT_LLP_START_BYTES);
+        properties.setEndOfMessageBytes(TcpUtil.DEFAULT_LLP_END_BYTES);
+
+        InputStream inputStream = new ByteArrayInputStream(new byte[] { 0x0B, 'A', 0x1C, 0x0D, 0x0B, 'B', 0x1C, 0x0D });
+        FrameStreamHandler handler = new FrameStreamHandler(inputStream, null, new DefaultBatchStreamReader(inputStream), properties);
+
+        assertArrayEquals(new byte[] { 'A' }, handler.read());
+        assertNull(handler.read());
+        handler.reset();
+        assertArrayEquals(new byte[] { 'B' }, handler.read());
+    }
+
+    private List<String> readAll(InputStream inputStream, String[] frame, boolean legacy) {
+        List<String> results = new ArrayList<String>();
+
+        for (int i = 0; i < 70; i++) {
+            try {
+                byte[] bytes = createHandler(inputStream, frame, legacy).read();
+                results.add(bytes == null ? "null" : Hex.encodeHexString(bytes));
+            } catch (Exception e) {
+                results.add(e.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+
+        return results;
+    }
+
+    private StreamHandler createHandler(InputStream inputStream, String[] frame, boolean legacy) {
+        FrameModeProperties properties = new FrameModeProperties("Basic");
+        properties.setStartOfMessageBytes(frame[0]);
+        properties.setEndOfMessageBytes(frame[1]);
+        DefaultBatchStreamReader batchStreamReader = new DefaultBatchStreamReader(inputStream);
+
+        if (legacy) {
+            return new LegacyFrameStreamHandler(inputStream, null, batchStreamReader, properties);
+        } else {
+            return new FrameStreamHandler(inputStream, null, batchStreamReader, properties);
+        }
+    }
+
+    private InputStream createStream(StreamType streamType, byte[] data, int failPosition) {
+        switch (streamType) {
+            case BUFFERED:
+                return new BufferedInputStream(new ByteArrayInputStream(data), 8);
+            case BYTE_ARRAY:
+                return new ByteArrayInputStream(data);
+            case UNMARKABLE:
+                return new BufferedInputStream(new ByteArrayInputStream(data), 8) {
+                    @Override
+                    public boolean markSupported() {
+                        return false;
+                    }
+                };
+            default:
+                return new BufferedInputStream(new FailingInputStream(data, failPosition), 8);
+        }
+    }
+
+    /*
+     * Throws a socket timeout once when the given position is reached, and continues normally
+     * afterwards. Like a socket waiting for data, it never reports any bytes as available.
+     */
+    private static class FailingInputStream extends InputStream {
+        private byte[] data;
+        private int position;
+        private int failPosition;
+
+        public FailingInputStream(byte[] data, int failPosition) {
+            this.data = data;
+            this.failPosition = failPosition;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position == failPosition) {
+                failPosition = -1;
+                throw new SocketTimeoutException("timeout");
+            }
+
+            if (position >= data.length) {
+                return -1;
+            }
+
+            int count = Math.min(len, (failPosition > position ? failPosition : data.length) - position);
+            System.arraycopy(data, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+}
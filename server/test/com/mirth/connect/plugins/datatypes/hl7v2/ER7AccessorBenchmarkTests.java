@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.ContentType;
+import com.mirth.connect.donkey.model.message.MessageContent;
+import com.mirth.connect.donkey.model.message.SerializationType;
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.FilterTransformerExecutor;
+import com.mirth.connect.donkey.server.channel.SourceConnector;
+import com.mirth.connect.donkey.server.message.DataType;
+import com.mirth.connect.server.controllers.CodeTemplateController;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ContextFactoryController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.controllers.ExtensionController;
+import com.mirth.connect.server.message.DefaultAutoResponder;
+import com.mirth.connect.server.transformers.JavaScriptFilterTransformer;
+import com.mirth.connect.server.util.javascript.MirthContextFactory;
+
+/**
+ * Runs an HL7 v2.x source filter/transformer with a few simple mappings through the
+ * FilterTransformerExecutor, once with the message converted to XML and back and once with the
+ * lazy parser's message accessor. Prints the time and the bytes allocated by all threads per
+ * message for each.
+ */
+public class ER7AccessorBenchmarkTests {
+    private static final String CHANNEL_ID = "accessorChannel";
+    private static final String MAPPINGS = "channelMap.put('mrn', validate(msg['PID']['PID.3']['PID.3.1'].toString(), '', new Array())); msg['PID']['PID.5']['PID.5.1'] = 'Doe'; msg['MSH']['MSH.3']['MSH.3.1'] = 'LAZY'; return true;";
+    private static final int WARMUP_SIZE = 2000;
+    private static final int TEST_SIZE = 5000;
+
+    private static SourceConnector connector;
+    private static String message;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class, withSettings().stubOnly());
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class, withSettings().stubOnly()));
+        when(controllerFactory.createExtensionController()).thenReturn(mock(ExtensionController.class, withSettings().stubOnly()));
+        when(controllerFactory.createCodeTemplateController()).thenReturn(mock(CodeTemplateController.class, withSettings().stubOnly()));
+        when(controllerFactory.createEventController()).thenReturn(mock(EventController.class, withSettings().stubOnly()));
+
+        ContextFactoryController contextFactoryController = mock(ContextFactoryController.class, withSettings().stubOnly());
+        when(controllerFactory.createContextFactoryController()).thenReturn(contextFactoryController);
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        MirthContextFactory contextFactory = new MirthContextFactory(new URL[0], new HashSet<String>());
+        when(contextFactoryController.getContextFactory(any(Set.class))).thenReturn(contextFactory);
+
+        Channel channel = mock(Channel.class, withSettings().stubOnly());
+        when(channel.getName()).thenReturn("Accessor Channel");
+
+        connector = mock(SourceConnector.class, withSettings().stubOnly());
+        when(connector.getChannelId()).thenReturn(CHANNEL_ID);
+        when(connector.getChannel()).thenReturn(channel);
+        when(connector.getResourceIds()).thenReturn(new HashSet<String>());
+        when(connector.getDestinationIdMap()).thenReturn(new HashMap<String, Integer>());
+
+        message = FileUtils.readFileToString(new File("tests/test-hl7-input.txt"), "UTF-8");
+    }
+
+    @Test
+    public void testFilterTransformer() throws Exception {
+        HL7v2DataTypeProperties properties = new HL7v2DataTypeProperties();
+        ((HL7v2SerializationProperties) properties.getSerializationProperties()).setUseLazyParser(true);
+        ER7Serializer serializer = new ER7Serializer(properties.getSerializerProperties());
+
+        /*
+         * The same as the scripts that JavaScriptBuilder generates with and without message
+         * accessors. The server's XML processor skips the XML declaration, but the one in the
+         * Rhino jar ahead of it on the test classpath doesn't, so it's removed in the script.
+         */
+        FilterTransformerExecutor xmlExecutor = new FilterTransformerExecutor(createDataType(serializer, SerializationType.XML), createDataType(serializer, SerializationType.XML));
+        xmlExecutor.setFilterTransformer(new JavaScriptFilterTransformer(connector, "Source", "var data = connectorMessage.getTransformedData(); msg = new XML(data.substring(data.indexOf('?>') + 2)); " + MAPPINGS, null));
+
+        FilterTransformerExecutor accessorExecutor = new FilterTransformerExecutor(createDataType(serializer, SerializationType.RAW), createDataType(serializer, SerializationType.RAW));
+        accessorExecutor.setFilterTransformer(new JavaScriptFilterTransformer(connector, "Source", MAPPINGS, null, serializer, serializer));
+
+        assertEquals(run(xmlExecutor, 1).getEncoded().getContent(), run(accessorExecutor, 1).getEncoded().getContent());
+
+        // Warm up both before measuring
+        run(xmlExecutor, WARMUP_SIZE);
+        run(accessorExecutor, WARMUP_SIZE);
+
+        System.out.println(String.format("%-10s %15s %15s", "msg", "ns/message", "bytes/message"));
+
+        for (boolean accessor : new boolean[] { false, true }) {
+            long startBytes = getAllocatedBytes();
+            long startNanos = System.nanoTime();
+            run(accessor ? accessorExecutor : xmlExecutor, TEST_SIZE);
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long allocatedBytes = getAllocatedBytes() - startBytes;
+
+            System.out.println(String.format("%-10s %15d %15d", accessor ? "accessor" : "XML", elapsedNanos / TEST_SIZE, allocatedBytes / TEST_SIZE));
+        }
+    }
+
+    private DataType createDataType(ER7Serializer serializer, SerializationType serializationType) {
+        return new DataType("HL7V2", serializer, new DefaultAutoResponder(), serializationType);
+    }
+
+    /*
+     * Returns the last connector message that was processed.
+     */
+    private ConnectorMessage run(FilterTransformerExecutor executor, int size) throws Exception {
+        ConnectorMessage connectorMessage = null;
+
+        for (long messageId = 1; messageId <= size; messageId++) {
+            connectorMessage = new ConnectorMessage(CHANNEL_ID, "Accessor Channel", messageId, 0, "server", Calendar.getInstance(), Status.RECEIVED);
+            connectorMessage.setRaw(new MessageContent(CHANNEL_ID, messageId, 0, ContentType.RAW, message, "HL7V2", false));
+
+            executor.processConnectorMessage(connectorMessage);
+            assertEquals(Status.TRANSFORMED, connectorMessage.getStatus());
+            assertEquals("4223161584", connectorMessage.getChannelMap().get("mrn"));
+        }
+
+        return connectorMessage;
+    }
+
+    /*
+     * Scripts run on the JavaScript executor's threads, so this sums the allocations of every live
+     * thread.
+     */
+    private long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+
+        for (long allocatedBytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            if (allocatedBytes > 0) {
+                total += allocatedBytes;
+            }
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Checks that filter and transformer scripts see and produce the same messages through ER7Node as
+ * they do when the message is converted to XML, edited with E4X and converted back.
+ */
+public class ER7NodeTest {
+    private static final String[] SCRIPTS = new String[] {
+            "return msg['PID']['PID.5']['PID.5.1'].toString();",
+            "return msg['MSH']['MSH.9']['MSH.9.1'].toString() + '-' + msg['MSH']['MSH.9']['MSH.9.2'].toString();",
+            "return msg['MSH']['MSH.1'].toString() + msg['MSH']['MSH.2'].toString() + msg['MSH']['MSH.3']['MSH.3.1'].toString();",
+            "return msg['PID'][0]['PID.3'][0]['PID.3.1'].toString() + msg['PID']['PID.99']['PID.99.1'].toString();",
+            "return msg['OBX'].length() + ',' + msg['OBX'][1]['OBX.3']['OBX.3.2'].toString();",
+            "var names = ''; for each (var obx in msg['OBX']) { names += obx['OBX.3']['OBX.3.2'].toString() + ','; } return names;",
+            "return msg['OBX'][0]['OBX.2'].length() + ',' + msg['OBX'][0]['OBX.2'][1]['OBX.2.1'].toString() + ',' + msg['OBX']['OBX.3']['OBX.3.2']['OBX.3.2.2'].toString();",
+            "return msg['PV1']['PV1.7']['PV1.7.2'] == 'Shephard';",
+            "msg['PID']['PID.5']['PID.5.1'] = 'Doe'; return '';",
+            "msg['PID']['PID.5']['PID.5.1'] = msg['PID']['PID.5']['PID.5.2'].toString(); msg['PID']['PID.5']['PID.5.2'] = 'Jon'; return '';",
+            "msg['PID']['PID.3']['PID.3.1'] = ''; msg['ORC']['ORC.1']['ORC.1.1'] = 'NW'; return '';",
+            "msg['OBX'][2]['OBX.5']['OBX.5.1'] = '146'; msg['OBX'][3]['OBX.3']['OBX.3.3'] = 'LN'; return '';",
+            "msg['OBX'][0]['OBX.2'][1]['OBX.2.1'] = 'qux'; return '';",
+            "delete msg['OBX'][0]; return '';",
+            "delete msg['OBX']; return msg['OBX'].length();",
+            "delete msg['PID']['PID.5']; return '';" };
+
+    private static List<String> messages = new ArrayList<String>();
+    private static String whitespaceMessage;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        for (File file : new File("tests").listFiles()) {
+            if (file.getName().startsWith("test-hl7-") && file.getName().endsWith("-input.txt") && !file.getName().contains("batch")) {
+                String message = FileUtils.readFileToString(file, "UTF-8");
+                messages.add(message);
+
+                if (file.getName().contains("whitespace")) {
+                    whitespaceMessage = message;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedMessages() throws Exception {
+        for (boolean handleRepetitions : new boolean[] { true, false }) {
+            for (boolean handleSubcomponents : new boolean[] { true, false }) {
+                for (String segmentDelimiter : new String[] { "\\r", "\\n", "\\r\\n" }) {
+                    ER7Serializer serializer = createSerializer(handleRepetitions, handleSubcomponents, segmentDelimiter);
+
+                    for (String message : messages) {
+                        assertEquals(serializer.fromXML(serializer.toXML(message)), serializer.createAccessor(message, serializer).toString());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testScripts() throws Exception {
+        int skipped = 0;
+
+        for (boolean handleRepetitions : new boolean[] { true, false }) {
+            for (boolean handleSubcomponents : new boolean[] { true, false }) {
+                ER7Serializer serializer = createSerializer(handleRepetitions, handleSubcomponents, "\\r");
+
+                for (String message : messages) {
+                    // E4X trims the values in the whitespace message, which the accessor leaves alone
+                    if (message == whitespaceMessage) {
+                        continue;
+                    }
+
+                    for (String script : SCRIPTS) {
+                        String[] expected;
+                        try {
+                            expected = runWithXML(serializer, message, script);
+                        } catch (EcmaError e) {
+                            // E4X can't index segments that don't exist, so there's nothing to compare
+                            if (!e.getErrorMessage().contains("undefined")) {
+                                throw e;
+                            }
+                            skipped++;
+                            continue;
+                        }
+
+                        String[] actual = runWithAccessor(serializer, message, script);
+                        assertEquals(script, expected[0], actual[0]);
+                        assertEquals(script, expected[1], actual[1]);
+                    }
+                }
+            }
+        }
+
+        assertTrue(skipped < SCRIPTS.length * messages.size());
+    }
+
+    @Test
+    public void testAddedSegments() throws Exception {
+        ER7Serializer serializer = createSerializer(true, true, "\\r");
+        String message = "MSH|^~\\&|MIRTH|MIRTH|||200612131519||ORM^O01|12345678|P|2.4\rPID|1\r";
+
+        String[] result = runWithAccessor(serializer, message, "msg['ZZZ']['ZZZ.3'][1]['ZZZ.3.2']['ZZZ.3.2.2'] = 'x'; msg['NTE'][1]['NTE.3'] = 'note'; return msg['ZZZ'].length();");
+        assertEquals("1", result[0]);
+        assertEquals("MSH|^~\\&|MIRTH|MIRTH|||200612131519||ORM^O01|12345678|P|2.4\rPID|1\rZZZ|||~^&x\rNTE\rNTE|||note\r", result[1]);
+    }
+
+    @Test
+    public void testEncodingCharacters() throws Exception {
+        ER7Serializer serializer = createSerializer(true, true, "\\r");
+        String message = "MSH#$%*@#MIRTH$A%B$C*D@E\rPID#1$2%3*4@5\r";
+
+        String[] result = runWithAccessor(serializer, message, "return msg['PID']['PID.1'][1]['PID.1.1']['PID.1.1.2'].toString() + msg['MSH']['MSH.1'] + msg['MSH']['MSH.2'];");
+        assertEquals("5#$%*@", result[0]);
+        assertEquals(runWithXML(serializer, message, "return msg['MSH']['MSH.3'][1]['MSH.3.2']['MSH.3.2.2'].toString();")[0], runWithAccessor(serializer, message, "return msg['MSH']['MSH.3'][1]['MSH.3.2']['MSH.3.2.2'].toString();")[0]);
+
+        try {
+            runWithAccessor(serializer, message, "msg['MSH']['MSH.2'] = '^~\\\\&';");
+            fail("The encoding characters should not be editable");
+        } catch (EvaluatorException e) {
+            assertTrue(e.getMessage().contains("MSH.2"));
+        }
+    }
+
+    private ER7Serializer createSerializer(boolean handleRepetitions, boolean handleSubcomponents, String segmentDelimiter) {
+        HL7v2DataTypeProperties properties = new HL7v2DataTypeProperties();
+        HL7v2SerializationProperties serializationProperties = (HL7v2SerializationProperties) properties.getSerializationProperties();
+        serializationProperties.setHandleRepetitions(handleRepetitions);
+        serializationProperties.setHandleSubcomponents(handleSubcomponents);
+        serializationProperties.setSegmentDelimiter(segmentDelimiter);
+        serializationProperties.setUseLazyParser(true);
+        ((HL7v2DeserializationProperties) properties.getDeserializationProperties()).setSegmentDelimiter(segmentDelimiter);
+        return new ER7Serializer(properties.getSerializerProperties());
+    }
+
+    /*
+     * Returns the script's result and the message afterward, using E4X the same way as a
+     * filter/transformer script that doesn't use the lazy parser.
+     */
+    private String[] runWithXML(ER7Serializer serializer, String message, String script) throws Exception {
+        Context context = Context.enter();
+        try {
+            Scriptable scope = context.initStandardObjects();
+            // Leave out the XML declaration, which the E4X parser doesn't accept
+            String xml = serializer.toXML(message);
+            ScriptableObject.putProperty(scope, "xml", xml.substring(xml.indexOf("?>") + 2));
+            context.evaluateString(scope, "XML.ignoreWhitespace = true; XML.prettyPrinting = false; msg = new XML(xml);", "setup", 1, null);
+            Object result = context.evaluateString(scope, "(function() { " + script + " })();", "script", 1, null);
+            String output = Context.toString(context.evaluateString(scope, "msg.toXMLString();", "output", 1, null));
+            return new String[] { Context.toString(result), serializer.fromXML(output) };
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private String[] runWithAccessor(ER7Serializer serializer, String message, String script) throws Exception {
+        Context context = Context.enter();
+        try {
+            Scriptable scope = context.initStandardObjects();
+            ER7Node accessor = (ER7Node) serializer.createAccessor(message, serializer);
+            accessor.setParentScope(scope);
+            accessor.setPrototype(ScriptableObject.getObjectPrototype(scope));
+            ScriptableObject.putProperty(scope, "msg", accessor);
+            Object result = context.evaluateString(scope, "(function() { " + script + " })();", "script", 1, null);
+            return new String[] { Context.toString(result), Context.toString(ScriptableObject.getProperty(scope, "msg")) };
+        } finally {
+            Context.exit();
+        }
+    }
+}
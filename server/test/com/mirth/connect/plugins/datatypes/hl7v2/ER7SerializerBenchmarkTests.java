@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.mirth.connect.util.StringUtil;
+
+/**
+ * Compares the ER7 serializer with the ER7Reader and SAX-based conversions it replaced, using the
+ * HL7 test files with the default serialization properties. Prints the time and the bytes
+ * allocated per message in each direction.
+ */
+public class ER7SerializerBenchmarkTests {
+    private static final int MESSAGES = 1000;
+    private static final int ITERATIONS = 10;
+
+    private HL7v2DataTypeProperties properties = new HL7v2DataTypeProperties();
+    private ER7Serializer serializer = new ER7Serializer(properties.getSerializerProperties());
+
+    @Test
+    public void testConversions() throws Exception {
+        File[] files = new File("tests").listFiles();
+        Arrays.sort(files);
+
+        System.out.println(String.format("%-45s %-8s %-10s %15s %15s", "file", "to", "serializer", "ns/message", "bytes/message"));
+
+        for (File file : files) {
+            if (!file.getName().startsWith("test-hl7-")) {
+                continue;
+            }
+
+            String message = FileUtils.readFileToString(file, "UTF-8");
+            boolean er7 = file.getName().endsWith(".txt");
+
+            for (boolean legacy : new boolean[] { true, false }) {
+                // Warm up before measuring
+                String result = run(message, er7, legacy);
+                assertEquals(run(message, er7, true), result);
+
+                long elapsedNanos = 0;
+                long allocatedBytes = 0;
+
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long startBytes = getAllocatedBytes();
+                    long startNanos = System.nanoTime();
+                    for (int j = 0; j < MESSAGES; j++) {
+                        run(message, er7, legacy);
+                    }
+                    elapsedNanos += System.nanoTime() - startNanos;
+                    allocatedBytes += getAllocatedBytes() - startBytes;
+                }
+
+                long messages = (long) MESSAGES * ITERATIONS;
+                System.out.println(String.format("%-45s %-8s %-10s %15d %15d", file.getName(), er7 ? "XML" : "ER7", legacy ? "legacy" : "scanner", elapsedNanos / messages, allocatedBytes / messages));
+            }
+        }
+    }
+
+    private String run(String message, boolean er7, boolean legacy) throws Exception {
+        if (er7) {
+            return legacy ? ER7SerializerTest.legacyToXML((HL7v2SerializationProperties) properties.getSerializationProperties(), message) : serializer.toXML(message);
+        } else {
+            return legacy ? ER7SerializerTest.legacyFromXML(StringUtil.unescape(((HL7v2DeserializationProperties) properties.getDeserializationProperties()).getSegmentDelimiter()), message) : serializer.fromXML(message);
+        }
+    }
+
+    private long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.hl7v2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+import com.mirth.connect.donkey.model.message.MessageSerializerException;
+import com.mirth.connect.model.converters.XMLPrettyPrinter;
+import com.mirth.connect.util.StringUtil;
+
+/**
+ * Checks that the ER7 serializer produces exactly what the ER7Reader and SAX-based conversions
+ * did, for the HL7 test files and for messages with unusual encodings.
+ */
+public class ER7SerializerTest {
+    private static final String[] SEGMENT_DELIMITERS = new String[] { "\\r", "\\n", "\\r\\n", "~" };
+
+    private static final Pattern PRETTY_PATTERN_1 = Pattern.compile("\\s*<([^/][^>]*)>");
+    private static final Pattern PRETTY_PATTERN_2 = Pattern.compile("<([^>]*/|/[^>]*)>\\s*");
+
+    private static List<String> er7Messages = new ArrayList<String>();
+    private static List<String> xmlMessages = new ArrayList<String>();
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        for (File file : new File("tests").listFiles()) {
+            if (file.getName().startsWith("test-hl7-")) {
+                String content = FileUtils.readFileToString(file, "UTF-8");
+                if (file.getName().endsWith(".txt")) {
+                    er7Messages.add(content);
+                } else {
+                    xmlMessages.add(content);
+                }
+            }
+        }
+
+        er7Messages.add("MSH|^~\\&|SENDING|FACILITY|||20170101||ADT^A01|1|P|2.3\rPID|||123~~456^^^A&B&&C||DOE^JOHN^^^^\r");
+        er7Messages.add("MSH|^~&|A|B\rPID|1|a&b^c\r");
+        er7Messages.add("MSH|^~\\&\r");
+        er7Messages.add("MSH|^~\rPID|a^b&c|~|\r");
+        er7Messages.add("MSH|^\rPID|a~b\r");
+        er7Messages.add("MSH|\rPID||\r");
+        er7Messages.add("msh|^~\\&|lowercase\rMSH|^~\\&|second\r");
+        er7Messages.add("FHS|^~\\&|file\rBHS|^~\\&|batch\rMSH|^~\\&|message\rBTS|1\rFTS|1\r");
+        er7Messages.add("MSH#$%*/#x#y$z%w*v/u/t\rPID#a$b*c/d#\r");
+        er7Messages.add("  \r\n MSH|^~\\&|<tag>&\"'|café|\u00e9\u4e2d\u0001|\r\n\r\nPID|1\n\nPV1|2\r\r\n   ");
+        er7Messages.add("MSH|^~\\&|\r\nPID|1\r\n");
+        er7Messages.add("MSH|\r\n^~\\&|A\r\nPID|1");
+        er7Messages.add("MSH\r\n|^~\\&|A");
+        er7Messages.add("PID|1|2\rNK1|3");
+        er7Messages.add("|PID|1\r|2\r");
+        er7Messages.add(" PID |1\r  NTE|x");
+        er7Messages.add("ABCDE");
+        er7Messages.add("  ABC\r\nDE  ");
+        er7Messages.add("~~~~~~~~");
+        er7Messages.add("MSH|^~\\&|A|B|C\r" + StringUtils.repeat("OBX|1|TX|||" + StringUtils.repeat("text^more&sub~", 50) + "\r", 20));
+
+        xmlMessages.add("<HL7Message><MSH><MSH.1>|</MSH.1><MSH.2>^~\\&amp;</MSH.2><MSH.3><MSH.3.1>A|B</MSH.3.1></MSH.3></MSH></HL7Message>");
+        xmlMessages.add("<HL7Message><MSH><MSH.1>|</MSH.1><MSH.2>^~\\&amp;</MSH.2></MSH><PID><PID.1><PID.1.1>&#124;</PID.1.1></PID.1><PID.2>|</PID.2></PID></HL7Message>");
+        xmlMessages.add("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<HL7Message>\n  <MSH>\n    <MSH.1>|</MSH.1>\n    <MSH.2>^~\\&amp;</MSH.2>\n    <MSH.3>\n      <MSH.3.1> a b </MSH.3.1>\n    </MSH.3>\n  </MSH>\n</HL7Message>\n");
+        xmlMessages.add("  <?xml version='1.0' encoding='ISO-8859-1' standalone='yes' ?><HL7Message><PID><PID.1><PID.1.1>&lt;&gt;&quot;&apos;&#x41;&#66;\r\nx\ry</PID.1.1></PID.1></PID></HL7Message>");
+        xmlMessages.add("<HL7Message xmlns=\"urn:hl7-org:v2xml\" xmlns:a=\"urn:a\" attr = 'x'><PID><PID.1/><PID.3><PID.3.1>1</PID.3.1><PID.3.4/></PID.3><PID.3><PID.3.1>2</PID.3.1></PID.3></PID></HL7Message>");
+        xmlMessages.add("<HL7Message><PID>text<PID.1>before<PID.1.1>x</PID.1.1>after</PID.1></PID>\f</HL7Message>");
+        xmlMessages.add("<HL7Message><MSH><MSH.1>#</MSH.1><MSH.2>$%*/</MSH.2><MSH.3><MSH.3.1>a#b</MSH.3.1></MSH.3></MSH></HL7Message>");
+        xmlMessages.add("<PID.3><PID.3.1>a</PID.3.1><PID.3.2>b</PID.3.2></PID.3>");
+        xmlMessages.add("<HL7Message><!-- comment --><PID><PID.1><![CDATA[<x>]]></PID.1></PID></HL7Message>");
+        xmlMessages.add("<HL7Message><PID><PID.1>&nbsp;</PID.1></PID></HL7Message>");
+        xmlMessages.add("<HL7Message><PID><PID.1>a</PID.2></PID></HL7Message>");
+        xmlMessages.add("<HL7Message><PID><PID.1>a</PID.1></PID>");
+        xmlMessages.add("<HL7Message><PID/></HL7Message>trailing");
+        xmlMessages.add("<HL7Message><hl7:PID xmlns:hl7=\"urn:hl7\"/></HL7Message>");
+        xmlMessages.add("<HL7Message><PID><PID.1>]]></PID.1></PID></HL7Message>");
+        xmlMessages.add("<HL7Message><PID><PID.1>\u0001</PID.1></PID></HL7Message>");
+        xmlMessages.add("<HL7Message><PID a=\"1\" a=\"2\"/></HL7Message>");
+        xmlMessages.add("<HL7Message><PID><PID.1>&#0;</PID.1></PID></HL7Message>");
+        xmlMessages.add("");
+        xmlMessages.add("not xml");
+    }
+
+    @Test
+    public void testToXML() throws Exception {
+        for (String message : er7Messages) {
+            for (String segmentDelimiter : SEGMENT_DELIMITERS) {
+                for (int options = 0; options < 8; options++) {
+                    HL7v2DataTypeProperties properties = new HL7v2DataTypeProperties();
+                    HL7v2SerializationProperties serializationProperties = (HL7v2SerializationProperties) properties.getSerializationProperties();
+                    serializationProperties.setSegmentDelimiter(segmentDelimiter);
+                    serializationProperties.setHandleRepetitions((options & 1) != 0);
+                    serializationProperties.setHandleSubcomponents((options & 2) != 0);
+                    serializationProperties.setConvertLineBreaks((options & 4) != 0);
+                    serializationProperties.setStripNamespaces(options % 3 == 0);
+
+                    String expected = legacyToXML(serializationProperties, message);
+                    String actual = toXML(new ER7Serializer(properties.getSerializerProperties()), message);
+                    assertEquals("Delimiter " + segmentDelimiter + ", options " + options + ": " + message, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFromXML() throws Exception {
+        List<String> messages = new ArrayList<String>(xmlMessages);
+
+        // The XML created from the ER7 messages should also convert back the same way
+        HL7v2DataTypeProperties defaultProperties = new HL7v2DataTypeProperties();
+        for (String message : er7Messages) {
+            String xml = toXML(new ER7Serializer(defaultProperties.getSerializerProperties()), message);
+            if (!xml.startsWith("Error")) {
+                messages.add(xml);
+            }
+        }
+
+        for (String message : messages) {
+            for (String segmentDelimiter : SEGMENT_DELIMITERS) {
+                HL7v2DataTypeProperties properties = new HL7v2DataTypeProperties();
+                ((HL7v2DeserializationProperties) properties.getDeserializationProperties()).setSegmentDelimiter(segmentDelimiter);
+
+                String expected = legacyFromXML(StringUtil.unescape(segmentDelimiter), message);
+                String actual = fromXML(new ER7Serializer(properties.getSerializerProperties()), message);
+                assertEquals("Delimiter " + segmentDelimiter + ": " + message, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testScannerFallback() throws Exception {
+        // Messages like the serializer's own output are handled without the SAX parser
+        assertTrue(scan("<?xml version=\"1.0\" encoding=\"UTF-8\"?><HL7Message><MSH><MSH.1>|</MSH.1><MSH.2>^~\\&amp;</MSH.2></MSH><PID><PID.1><PID.1.1>a&amp;b</PID.1.1></PID.1></PID></HL7Message>"));
+        assertTrue(scan("<HL7Message>\n  <PID>\n    <PID.1/>\n  </PID>\n</HL7Message>"));
+
+        // Anything else falls back to it
+        assertFalse(scan("<HL7Message><!-- comment --></HL7Message>"));
+        assertFalse(scan("<HL7Message><PID><PID.1><![CDATA[x]]></PID.1></PID></HL7Message>"));
+        assertFalse(scan("<!DOCTYPE HL7Message><HL7Message/>"));
+        assertFalse(scan("<HL7Message><hl7:PID xmlns:hl7=\"urn:hl7\"/></HL7Message>"));
+        assertFalse(scan("<HL7Message><PID><PID.1>a|b</PID.1></PID></HL7Message>"));
+        assertFalse(scan("<HL7Message><PID></HL7Message>"));
+    }
+
+    @Test
+    public void testReusedBuilder() throws Exception {
+        ER7Serializer serializer = new ER7Serializer(new HL7v2DataTypeProperties().getSerializerProperties());
+
+        // A large message replaces the thread's buffer, and later messages don't see its contents
+        String large = "MSH|^~\\&|A\r" + StringUtils.repeat("NTE|1|" + StringUtils.repeat("x", 1000) + "\r", 2000);
+        assertTrue(serializer.toXML(large).length() > 2000000);
+        assertEquals("MSH|^~\\&|B\r", serializer.fromXML(serializer.toXML("MSH|^~\\&|B")));
+
+        try {
+            serializer.toXML("MSH|");
+            fail("Expected an exception for a message that is too short");
+        } catch (MessageSerializerException e) {
+            assertEquals("Unable to parse message. It is NULL or too short. MSH|", e.getCause().getMessage());
+        }
+    }
+
+    private boolean scan(String xml) throws Exception {
+        XMLEncodedHL7Handler handler = new XMLEncodedHL7Handler("\r", "|", "^", "~", "\\", "&", true);
+        return new XMLEncodedHL7Scanner().parse(xml, handler);
+    }
+
+    private String toXML(ER7Serializer serializer, String message) {
+        try {
+            return serializer.toXML(message);
+        } catch (MessageSerializerException e) {
+            return "Error: " + e.getCause().getMessage();
+        }
+    }
+
+    private String fromXML(ER7Serializer serializer, String message) {
+        try {
+            return serializer.fromXML(message);
+        } catch (MessageSerializerException e) {
+            return "Error: " + e.getCause().getClass().getName();
+        }
+    }
+
+    /*
+     * The conversion as it was done before ER7Scanner.
+     */
+    static String legacyToXML(HL7v2SerializationProperties properties, String message) {
+        try {
+            String segmentDelimiter = StringUtil.unescape(properties.getSegmentDelimiter());
+
+            if (properties.isConvertLineBreaks()) {
+                message = StringUtil.convertLineBreaks(message, segmentDelimiter);
+            }
+
+            ER7Reader er7Reader = new ER7Reader(properties.isHandleRepetitions(), properties.isHandleSubcomponents(), segmentDelimiter);
+            StringWriter stringWriter = new StringWriter();
+            XMLPrettyPrinter serializer = new XMLPrettyPrinter(stringWriter);
+            serializer.setEncodeEntities(true);
+            er7Reader.setContentHandler(serializer);
+            er7Reader.parse(new InputSource(new StringReader(message)));
+            return stringWriter.toString();
+        } catch (Exception e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+
+    /*
+     * The conversion as it was done before XMLEncodedHL7Scanner, with the separators found the same
+     * way as in ER7Serializer.
+     */
+    static String legacyFromXML(String segmentDelimiter, String message) {
+        try {
+            String fieldSeparator = getNodeValue(message, "<MSH.1>", "</MSH.1>");
+            if (StringUtils.isEmpty(fieldSeparator)) {
+                fieldSeparator = "|";
+            }
+
+            String componentSeparator = "^";
+            String repetitionSeparator = "~";
+            String subcomponentSeparator = "&";
+            String escapeCharacter = "\\";
+
+            String separators = getNodeValue(message, "<MSH.2>", "</MSH.2>").replace("&amp;", "&");
+            if (separators.length() == 4) {
+                componentSeparator = separators.substring(0, 1);
+                repetitionSeparator = separators.substring(1, 2);
+                escapeCharacter = separators.substring(2, 3);
+                subcomponentSeparator = separators.substring(3, 4);
+            }
+
+            XMLEncodedHL7Handler handler = new XMLEncodedHL7Handler(segmentDelimiter, fieldSeparator, componentSeparator, repetitionSeparator, escapeCharacter, subcomponentSeparator, true);
+            XMLReader reader = XMLReaderFactory.createXMLReader();
+            reader.setContentHandler(handler);
+            reader.setErrorHandler(handler);
+            reader.parse(new InputSource(new StringReader(PRETTY_PATTERN_2.matcher(PRETTY_PATTERN_1.matcher(message).replaceAll("<$1>")).replaceAll("<$1>"))));
+            return handler.getOutput().toString();
+        } catch (Exception e) {
+            return "Error: " + e.getClass().getName();
+        }
+    }
+
+    private static String getNodeValue(String source, String startTag, String endTag) {
+        int startIndex = source.indexOf(startTag);
+        if (startIndex == -1) {
+            return "";
+        }
+        return source.substring(startIndex + startTag.length(), source.indexOf(endTag, startIndex));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.message.BatchRawMessage;
+import com.mirth.connect.donkey.server.channel.SourceConnector;
+import com.mirth.connect.donkey.server.message.batch.BatchMessageReader;
+import com.mirth.connect.plugins.datatypes.xml.XMLBatchProperties.SplitType;
+import com.mirth.connect.server.controllers.ContextFactoryController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+
+/**
+ * Splits a generated batch file at level 1, once with the XPath query that the adaptor used to
+ * evaluate over the whole document and once with the streamed Level split type. Prints the time
+ * per message and the peak heap and old generation used while splitting for each.
+ */
+public class XMLBatchAdaptorBenchmarkTests {
+    private static final int BATCH_SIZE = 100000;
+
+    private static SourceConnector sourceConnector;
+    private static File batchFile;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        when(controllerFactory.createContextFactoryController()).thenReturn(mock(ContextFactoryController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        sourceConnector = mock(SourceConnector.class);
+
+        batchFile = File.createTempFile("xmlbatch", ".xml");
+        BufferedWriter writer = new BufferedWriter(new FileWriter(batchFile));
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<patients>\n");
+            for (int i = 1; i <= BATCH_SIZE; i++) {
+                writer.write("    <patient id=\"" + i + "\">\n        <name><family>Doe</family><given>John</given></name>\n        <birthDate>1970-01-01</birthDate>\n        <address use=\"home\"><line>123 Main St</line><city>Springfield</city><postalCode>12345</postalCode></address>\n        <note><![CDATA[Allergic to <penicillin> & latex]]></note>\n    </patient>\n");
+            }
+            writer.write("</patients>\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @AfterClass
+    public static void teardown() throws Exception {
+        batchFile.delete();
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        // Warm up both before measuring
+        split(SplitType.XPath_Query);
+        split(SplitType.Level);
+
+        System.out.println(String.format("%d messages, %d bytes", BATCH_SIZE, batchFile.length()));
+        System.out.println(String.format("%-12s %15s %15s %15s", "split type", "ns/message", "peak heap", "peak old gen"));
+
+        for (SplitType splitType : new SplitType[] { SplitType.XPath_Query, SplitType.Level }) {
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+
+            long startNanos = System.nanoTime();
+            split(splitType);
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            long peakHeap = 0;
+            long peakOldGen = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+
+                    // Short-lived garbage is collected before it gets here, so this is closer to what's retained
+                    if (pool.getName().contains("Old") || pool.getName().contains("Tenured")) {
+                        peakOldGen += pool.getPeakUsage().getUsed();
+                    }
+                }
+            }
+
+            System.out.println(String.format("%-12s %15d %15d %15d", splitType, elapsedNanos / BATCH_SIZE, peakHeap, peakOldGen));
+        }
+    }
+
+    private void split(SplitType splitType) throws Exception {
+        XMLBatchProperties batchProperties = new XMLBatchProperties();
+        batchProperties.setSplitType(splitType);
+        batchProperties.setLevel(1);
+        batchProperties.setQuery("/*/*");
+
+        Reader reader = new FileReader(batchFile);
+        XMLBatchAdaptor batchAdaptor = new XMLBatchAdaptor(null, sourceConnector, new BatchRawMessage(new BatchMessageReader(reader)));
+        batchAdaptor.setBatchProperties(batchProperties);
+
+        int count = 0;
+        try {
+            while (batchAdaptor.getMessage() != null) {
+                count++;
+            }
+        } finally {
+            batchAdaptor.cleanup();
+            reader.close();
+        }
+
+        assertEquals(BATCH_SIZE, count);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.plugins.datatypes.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.message.BatchRawMessage;
+import com.mirth.connect.donkey.server.channel.SourceConnector;
+import com.mirth.connect.donkey.server.message.batch.BatchMessageException;
+import com.mirth.connect.donkey.server.message.batch.BatchMessageReader;
+import com.mirth.connect.plugins.datatypes.xml.XMLBatchProperties.SplitType;
+import com.mirth.connect.server.controllers.ContextFactoryController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+
+/**
+ * Checks that the streamed Element_Name and Level split types return the same messages as the
+ * XPath queries that the batch adaptor used to evaluate for them.
+ */
+public class XMLBatchAdaptorTest {
+    private static final String SIMPLE_BATCH = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- exported -->\n<batch>\n    <patient id=\"1\" type='in&amp;out'>\n        <name>Doe &amp; Doe</name>\n        <!-- a comment -->\n        <note><![CDATA[<b>bold</b> & more]]></note>\n        <?audit checked?>\n        <empty/>\n        <chars>&#233;&lt;&gt;&quot;</chars>\n    </patient>\n    text between patients\n    <patient id=\"2\"><name>Roe</name></patient>\n</batch>\n";
+    private static final String NAMESPACE_BATCH = "<hl7:batch xmlns:hl7=\"urn:hl7-org:v3\" xmlns=\"urn:default\" xmlns:unused=\"urn:unused\">\n  <hl7:patient hl7:id=\"1\"><name>Doe</name></hl7:patient>\n  <patient xmlns:x=\"urn:x\" x:flag=\"y\"><x:name>Roe</x:name></patient>\n  <other:patient xmlns:other=\"urn:other\"><other:name xmlns=\"\">Poe</other:name></other:patient>\n</hl7:batch>";
+    private static final String NESTED_BATCH = "<root><item n=\"1\"><item n=\"2\"><item n=\"3\"/></item><value/><item n=\"4\"/></item><group><item n=\"5\"/></group></root>";
+
+    private static SourceConnector sourceConnector;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        when(controllerFactory.createContextFactoryController()).thenReturn(mock(ContextFactoryController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        sourceConnector = mock(SourceConnector.class);
+    }
+
+    @Test
+    public void testElementName() throws Exception {
+        for (String batch : new String[] { SIMPLE_BATCH, NAMESPACE_BATCH }) {
+            List<String> messages = split(batch, SplitType.Element_Name, "patient", 0);
+            assertEquals(batch.contains("other:patient") ? 3 : 2, messages.size());
+            assertEquals(split(batch, SplitType.XPath_Query, "//*[local-name()='patient']", 0), messages);
+        }
+
+        assertEquals(split(SIMPLE_BATCH, SplitType.XPath_Query, "//*[local-name()='name']", 0), split(SIMPLE_BATCH, SplitType.Element_Name, "name", 0));
+        assertEquals(0, split(SIMPLE_BATCH, SplitType.Element_Name, "missing", 0).size());
+    }
+
+    @Test
+    public void testNestedElements() throws Exception {
+        List<String> messages = split(NESTED_BATCH, SplitType.Element_Name, "item", 0);
+        assertEquals(5, messages.size());
+
+        for (int i = 0; i < messages.size(); i++) {
+            assertTrue(messages.get(i), messages.get(i).startsWith("<item n=\"" + (i + 1) + "\""));
+        }
+
+        assertEquals(split(NESTED_BATCH, SplitType.XPath_Query, "//*[local-name()='item']", 0), messages);
+    }
+
+    @Test
+    public void testLevel() throws Exception {
+        for (String batch : new String[] { SIMPLE_BATCH, NAMESPACE_BATCH, NESTED_BATCH }) {
+            for (int level = 0; level <= 3; level++) {
+                StringBuilder query = new StringBuilder("/*");
+                for (int i = 0; i < level; i++) {
+                    query.append("/*");
+                }
+
+                assertEquals(split(batch, SplitType.XPath_Query, query.toString(), 0), split(batch, SplitType.Level, null, level));
+            }
+        }
+
+        assertEquals(2, split(SIMPLE_BATCH, SplitType.Level, null, 1).size());
+    }
+
+    @Test
+    public void testMalformedBatch() throws Exception {
+        // Messages before the error are still returned, since the batch isn't read all at once
+        List<String> messages = new ArrayList<String>();
+        XMLBatchAdaptor batchAdaptor = createBatchAdaptor("<batch><patient>1</patient><patient>2</patient><patient></batch>", SplitType.Element_Name, "patient", 0);
+
+        try {
+            String message;
+            while ((message = batchAdaptor.getMessage()) != null) {
+                messages.add(message);
+            }
+            fail("The malformed batch should fail");
+        } catch (BatchMessageException e) {
+            assertEquals(1, messages.size());
+        } finally {
+            batchAdaptor.cleanup();
+        }
+    }
+
+    private List<String> split(String batch, SplitType splitType, String value, int level) throws Exception {
+        List<String> messages = new ArrayList<String>();
+        XMLBatchAdaptor batchAdaptor = createBatchAdaptor(batch, splitType, value, level);
+
+        try {
+            String message;
+            while ((message = batchAdaptor.getMessage()) != null) {
+                messages.add(message);
+            }
+        } finally {
+            batchAdaptor.cleanup();
+        }
+
+        return messages;
+    }
+
+    private XMLBatchAdaptor createBatchAdaptor(String batch, SplitType splitType, String value, int level) {
+        XMLBatchProperties batchProperties = new XMLBatchProperties();
+        batchProperties.setSplitType(splitType);
+        batchProperties.setLevel(level);
+        if (splitType == SplitType.XPath_Query) {
+            batchProperties.setQuery(value);
+        } else {
+            batchProperties.setElementName(value);
+        }
+
+        XMLBatchAdaptor batchAdaptor = new XMLBatchAdaptor(null, sourceConnector, new BatchRawMessage(new BatchMessageReader(batch)));
+        batchAdaptor.setBatchProperties(batchProperties);
+        return batchAdaptor;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ *
+ * http://www.mirthcorp.com
+ *
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ChannelDeployTimerTest {
+
+    @Test
+    public void testPhaseTimes() throws Exception {
+        ChannelDeployTimer timer = new ChannelDeployTimer("channelId");
+        Thread.sleep(20);
+        long createTime = timer.phaseEnded(ChannelDeployTimer.CREATE);
+        timer.phaseEnded(ChannelDeployTimer.COMPILE_SCRIPTS);
+        Thread.sleep(10);
+        long startTime = timer.phaseEnded(ChannelDeployTimer.START);
+
+        assertTrue(createTime >= 20);
+        assertTrue(startTime >= 10);
+
+        // Phases are kept in the order they ended, and add up to the total
+        Map<String, Long> phaseTimes = timer.getPhaseTimes();
+        assertEquals(Arrays.asList(ChannelDeployTimer.CREATE, ChannelDeployTimer.COMPILE_SCRIPTS, ChannelDeployTimer.START), new ArrayList<String>(phaseTimes.keySet()));
+
+        long total = 0;
+        for (long time : phaseTimes.values()) {
+            total += time;
+        }
+        assertEquals(timer.getTotalTime(), total);
+    }
+
+    @Test
+    public void testRepeatedPhase() throws Exception {
+        ChannelDeployTimer timer = new ChannelDeployTimer("channelId");
+        Thread.sleep(10);
+        long first = timer.phaseEnded(ChannelDeployTimer.QUEUED);
+        Thread.sleep(10);
+        long second = timer.phaseEnded(ChannelDeployTimer.QUEUED);
+
+        assertEquals(1, timer.getPhaseTimes().size());
+        assertEquals(first + second, timer.getPhaseTimes().get(ChannelDeployTimer.QUEUED).longValue());
+    }
+
+    @Test
+    public void testTotalPhaseTimes() throws Exception {
+        List<ChannelDeployTimer> timers = new ArrayList<ChannelDeployTimer>();
+
+        for (int i = 0; i < 3; i++) {
+            ChannelDeployTimer timer = new ChannelDeployTimer("channel" + i);
+            timer.setChannelName("Channel " + i);
+            timer.phaseEnded(ChannelDeployTimer.CREATE);
+            if (i > 0) {
+                timer.phaseEnded(ChannelDeployTimer.DEPENDENCIES);
+            }
+            timers.add(timer);
+        }
+
+        Map<String, Long> totals = ChannelDeployTimer.getTotalPhaseTimes(timers);
+        assertEquals(Arrays.asList(ChannelDeployTimer.CREATE, ChannelDeployTimer.DEPENDENCIES), new ArrayList<String>(totals.keySet()));
+
+        String text = timers.get(1).toString();
+        assertTrue(text, text.startsWith("Channel 1 (channel1) in "));
+        assertTrue(text, text.contains("create ") && text.contains(" ms, dependencies "));
+    }
+}
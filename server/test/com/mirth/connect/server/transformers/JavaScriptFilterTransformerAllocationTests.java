@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.transformers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.ContentType;
+import com.mirth.connect.donkey.model.message.MessageContent;
+import com.mirth.connect.donkey.model.message.Status;
+import com.mirth.connect.donkey.server.channel.Channel;
+import com.mirth.connect.donkey.server.channel.FilterTransformerResult;
+import com.mirth.connect.donkey.server.channel.SourceConnector;
+
+import com.mirth.connect.server.controllers.CodeTemplateController;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ContextFactoryController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.EventController;
+import com.mirth.connect.server.controllers.ExtensionController;
+import com.mirth.connect.server.util.javascript.JavaScriptScopeUtil;
+import com.mirth.connect.server.util.javascript.MirthContextFactory;
+
+/**
+ * Allocation benchmark for JavaScriptFilterTransformer.doFilterTransform. Runs the same filter and
+ * transformer with and without cached channel scopes and prints the bytes allocated per message by
+ * all threads, along with the throughput of each run. The controllers are mocks, so the numbers
+ * only include the script, its scope and the task that runs it.
+ */
+public class JavaScriptFilterTransformerAllocationTests {
+    private final static String CHANNEL_ID = "allocationChannel";
+    private final static String SCRIPT = "channelMap.put('key', connectorMessage.getMessageId()); var total = 0; for (var i = 0; i < 10; i++) { total += i; } return total == 45;";
+    private final static int WARMUP_SIZE = 20000;
+    private final static int TEST_SIZE = 50000;
+
+    private static JavaScriptFilterTransformer filterTransformer;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class, withSettings().stubOnly());
+        when(controllerFactory.createConfigurationController()).thenReturn(mock(ConfigurationController.class, withSettings().stubOnly()));
+        when(controllerFactory.createExtensionController()).thenReturn(mock(ExtensionController.class, withSettings().stubOnly()));
+        when(controllerFactory.createCodeTemplateController()).thenReturn(mock(CodeTemplateController.class, withSettings().stubOnly()));
+        when(controllerFactory.createEventController()).thenReturn(mock(EventController.class, withSettings().stubOnly()));
+
+        ContextFactoryController contextFactoryController = mock(ContextFactoryController.class, withSettings().stubOnly());
+        when(controllerFactory.createContextFactoryController()).thenReturn(contextFactoryController);
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        MirthContextFactory contextFactory = new MirthContextFactory(new URL[0], new HashSet<String>());
+        when(contextFactoryController.getContextFactory(any(Set.class))).thenReturn(contextFactory);
+
+        Channel channel = mock(Channel.class, withSettings().stubOnly());
+        when(channel.getName()).thenReturn("Allocation Channel");
+
+        SourceConnector connector = mock(SourceConnector.class, withSettings().stubOnly());
+        when(connector.getChannelId()).thenReturn(CHANNEL_ID);
+        when(connector.getChannel()).thenReturn(channel);
+        when(connector.getResourceIds()).thenReturn(new HashSet<String>());
+        when(connector.getDestinationIdMap()).thenReturn(new HashMap<String, Integer>());
+
+        filterTransformer = new JavaScriptFilterTransformer(connector, "Source", SCRIPT, null);
+    }
+
+    @Test
+    public void testAllocation() throws Exception {
+        // Warm up both modes before measuring
+        run(WARMUP_SIZE, false);
+        run(WARMUP_SIZE, true);
+
+        System.out.println(String.format("%-20s %15s %15s", "channel scopes", "bytes/msg", "msg/s"));
+
+        for (boolean cacheChannelScopes : new boolean[] { false, true }) {
+            long[] result = run(TEST_SIZE, cacheChannelScopes);
+            System.out.println(String.format("%-20s %15d %15d", cacheChannelScopes ? "cached" : "not cached", result[0], result[1]));
+        }
+    }
+
+    /*
+     * Returns the bytes allocated per message and the number of messages per second.
+     */
+    private long[] run(int size, boolean cacheChannelScopes) throws Exception {
+        JavaScriptScopeUtil.setCacheChannelScopes(cacheChannelScopes);
+
+        try {
+            long startBytes = getAllocatedBytes();
+            long startTime = System.nanoTime();
+
+            for (long messageId = 1; messageId <= size; messageId++) {
+                ConnectorMessage message = new ConnectorMessage(CHANNEL_ID, "Allocation Channel", messageId, 0, "server", Calendar.getInstance(), Status.RECEIVED);
+                message.setRaw(new MessageContent(CHANNEL_ID, messageId, 0, ContentType.RAW, "raw", "RAW", false));
+
+                FilterTransformerResult result = filterTransformer.doFilterTransform(message);
+                assertFalse(result.isFiltered());
+                assertEquals(messageId, ((Number) message.getChannelMap().get("key")).longValue());
+            }
+
+            long elapsedNanos = System.nanoTime() - startTime;
+            long allocatedBytes = getAllocatedBytes() - startBytes;
+
+            return new long[] { allocatedBytes / size, size * 1000000000L / Math.max(elapsedNanos, 1) };
+        } finally {
+            JavaScriptScopeUtil.setCacheChannelScopes(false);
+        }
+    }
+
+    /*
+     * Scripts run on the JavaScript executor's threads, so this sums the allocations of every live
+     * thread. Idle executor threads are kept alive between messages, so none are lost mid-run.
+     */
+    private long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+
+        for (long allocatedBytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            if (allocatedBytes > 0) {
+                total += allocatedBytes;
+            }
+        }
+
+        return total;
+    }
+}
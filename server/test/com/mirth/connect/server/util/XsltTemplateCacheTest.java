@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.Scriptable;
+
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.plugins.xsltstep.XsltStep;
+import com.mirth.connect.server.util.XsltTemplateCache.TemplateStatistics;
+
+public class XsltTemplateCacheTest {
+    private final static String CHANNEL_ID = "xsltChannel";
+    private final static String TEMPLATE = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:output method=\"text\"/><xsl:param name=\"prefix\"/><xsl:template match=\"/\"><xsl:value-of select=\"$prefix\"/><xsl:value-of select=\"/a\"/></xsl:template></xsl:stylesheet>";
+    private final static String OTHER_TEMPLATE = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:output method=\"text\"/><xsl:template match=\"/\">other</xsl:template></xsl:stylesheet>";
+    private final static String JDK_FACTORY = "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl";
+
+    private XsltTemplateCache cache = XsltTemplateCache.getInstance();
+
+    @Before
+    public void setup() {
+        cache.removeChannel(CHANNEL_ID);
+        cache.resetStatistics();
+    }
+
+    @After
+    public void tearDown() {
+        cache.removeChannel(CHANNEL_ID);
+    }
+
+    @Test
+    public void testTemplateIsCompiledOnce() throws Exception {
+        Transformer first = cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE);
+        Transformer second = cache.getTransformer(CHANNEL_ID, 0, "0", "", TEMPLATE);
+
+        assertSame(first, second);
+        assertEquals("value", transform(second, "<a>value</a>"));
+        assertEquals(1, cache.getCompileCount());
+        assertEquals(1, cache.getHitCount());
+
+        List<TemplateStatistics> statistics = cache.getStatistics(CHANNEL_ID);
+        assertEquals(1, statistics.size());
+        assertEquals("0", statistics.get(0).getStepId());
+        assertEquals(1, statistics.get(0).getHitCount());
+    }
+
+    @Test
+    public void testTransformerIsResetBeforeReuse() throws Exception {
+        Transformer transformer = cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE);
+        transformer.setParameter("prefix", "before-");
+        assertEquals("before-value", transform(transformer, "<a>value</a>"));
+
+        transformer = cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE);
+        assertEquals("value", transform(transformer, "<a>value</a>"));
+    }
+
+    @Test
+    public void testEachThreadGetsItsOwnTransformer() throws Exception {
+        final Transformer transformer = cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE);
+        final AtomicReference<Transformer> otherTransformer = new AtomicReference<Transformer>();
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    otherTransformer.set(cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE));
+                } catch (TransformerConfigurationException e) {
+                }
+            }
+        };
+
+        thread.start();
+        thread.join(5000);
+
+        assertNotSame(transformer, otherTransformer.get());
+        assertEquals(1, cache.getCompileCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testStepsAndFactoriesAreCachedSeparately() throws Exception {
+        cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE);
+        cache.getTransformer(CHANNEL_ID, 1, "0", null, TEMPLATE);
+        cache.getTransformer(CHANNEL_ID, 0, "1", null, TEMPLATE);
+        cache.getTransformer(CHANNEL_ID, 0, "0", JDK_FACTORY, TEMPLATE);
+        assertEquals("other", transform(cache.getTransformer(CHANNEL_ID, 0, "0", null, OTHER_TEMPLATE), "<a/>"));
+
+        assertEquals(5, cache.getCompileCount());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(5, cache.getStatistics(CHANNEL_ID).size());
+    }
+
+    @Test
+    public void testInvalidTemplateIsNotCached() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getTransformer(CHANNEL_ID, 0, "0", null, "<xsl:stylesheet");
+                fail("The template should not have compiled");
+            } catch (TransformerConfigurationException e) {
+            }
+        }
+
+        assertEquals(0, cache.getCompileCount());
+    }
+
+    @Test
+    public void testRemoveChannel() throws Exception {
+        cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE);
+        cache.removeChannel(CHANNEL_ID);
+
+        assertTrue(cache.getStatistics(CHANNEL_ID).isEmpty());
+        cache.getTransformer(CHANNEL_ID, 0, "0", null, TEMPLATE);
+        assertEquals(2, cache.getCompileCount());
+    }
+
+    @Test
+    public void testStepScriptUsesCache() throws Exception {
+        XsltStep step = new XsltStep();
+        step.setSequenceNumber("0");
+        step.setSourceXml("'<a>value</a>'");
+        step.setResultVariable("result");
+        step.setTemplate("'" + TEMPLATE.replace("\"", "\\\"") + "'");
+
+        Map<String, Object> channelMap = new HashMap<String, Object>();
+        Context context = Context.enter();
+
+        try {
+            Scriptable scope = new ImporterTopLevel(context);
+            scope.put("connectorMessage", scope, Context.javaToJS(new ConnectorMessage(CHANNEL_ID, "XSLT Channel", 1, 0, "server", null, null), scope));
+            scope.put("channelMap", scope, Context.javaToJS(channelMap, scope));
+
+            for (int i = 0; i < 2; i++) {
+                context.evaluateString(scope, step.getScript(false), "xslt", 1, null);
+            }
+        } finally {
+            Context.exit();
+        }
+
+        assertEquals("value", channelMap.get("result"));
+        assertEquals(1, cache.getCompileCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    private String transform(Transformer transformer, String xml) throws Exception {
+        StringWriter writer = new StringWriter();
+        transformer.transform(new StreamSource(new StringReader(xml)), new StreamResult(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.util.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+import com.mirth.connect.server.util.javascript.JavaScriptExecutionEngine.Mode;
+
+public class JavaScriptExecutionEngineTest {
+
+    @Test
+    public void testInlineRunsOnCallingThread() throws Exception {
+        JavaScriptExecutionEngine engine = new JavaScriptExecutionEngine(Mode.INLINE, 0, 0, false);
+        final Thread callingThread = Thread.currentThread();
+        String originalName = callingThread.getName();
+
+        Thread executingThread = engine.execute(new JavaScriptTask<Thread>(null, "Inline") {
+            @Override
+            public Thread doCall() throws Exception {
+                assertTrue(Thread.currentThread().getName().startsWith("Inline JavaScript Task < "));
+                return Thread.currentThread();
+            }
+        });
+
+        assertSame(callingThread, executingThread);
+        assertEquals(originalName, callingThread.getName());
+        assertEquals(1, engine.getHistograms().get("Inline JavaScript Task").getCount());
+        assertEquals(0, engine.getActiveCount());
+    }
+
+    @Test
+    public void testInlineRestoresContextClassLoader() throws Exception {
+        JavaScriptExecutionEngine engine = new JavaScriptExecutionEngine(Mode.INLINE, 0, 0, false);
+        ClassLoader applicationClassLoader = new URLClassLoader(new URL[0]);
+        MirthContextFactory contextFactory = mock(MirthContextFactory.class);
+        // The classloader methods are final, so they run as they would on a real factory
+        contextFactory.initApplicationClassLoader(applicationClassLoader);
+        ClassLoader originalClassLoader = Thread.currentThread().getContextClassLoader();
+
+        Object scriptClassLoader = engine.execute(new JavaScriptTask<Object>(contextFactory, "ClassLoader") {
+            @Override
+            public Object doCall() throws Exception {
+                Context context = Context.enter();
+
+                try {
+                    return executeScript(new Script() {
+                        @Override
+                        public Object exec(Context context, Scriptable scope) {
+                            return Thread.currentThread().getContextClassLoader();
+                        }
+                    }, context.initStandardObjects());
+                } finally {
+                    Context.exit();
+                }
+            }
+        });
+
+        // The script runs with the channel's classloader, and the calling thread gets its own back
+        assertSame(applicationClassLoader, scriptClassLoader);
+        assertSame(originalClassLoader, Thread.currentThread().getContextClassLoader());
+    }
+
+    @Test
+    public void testInlineWrapsTaskException() throws Exception {
+        JavaScriptExecutionEngine engine = new JavaScriptExecutionEngine(Mode.INLINE, 0, 0, false);
+
+        try {
+            engine.execute(new JavaScriptTask<Object>(null, "Failing") {
+                @Override
+                public Object doCall() throws Exception {
+                    throw new IllegalArgumentException("failed");
+                }
+            });
+            fail("The task exception should have been thrown");
+        } catch (JavaScriptExecutorException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void testInlineInterruptedTaskThrowsInterruptedException() throws Exception {
+        final JavaScriptExecutionEngine engine = new JavaScriptExecutionEngine(Mode.INLINE, 0, 0, false);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger interrupted = new AtomicInteger();
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    engine.execute(new JavaScriptTask<Object>(null, "Sleeping") {
+                        @Override
+                        public Object doCall() throws Exception {
+                            started.countDown();
+
+                            try {
+                                Thread.sleep(10000);
+                            } catch (InterruptedException e) {
+                                // Rhino wraps Java exceptions, and throwing this one cleared the status
+                                throw new RuntimeException(e);
+                            }
+
+                            return null;
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        interrupted.incrementAndGet();
+                    }
+                } catch (JavaScriptExecutorException e) {
+                }
+            }
+        };
+
+        thread.start();
+        started.await();
+        thread.interrupt();
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertEquals(1, interrupted.get());
+    }
+
+    @Test
+    public void testNestedTaskUsesSeparateThread() throws Exception {
+        final JavaScriptExecutionEngine engine = new JavaScriptExecutionEngine(Mode.INLINE, 0, 0, false);
+
+        Thread nestedThread = engine.execute(new JavaScriptTask<Thread>(null, "Outer") {
+            @Override
+            public Thread doCall() throws Exception {
+                Context.enter();
+
+                try {
+                    return engine.execute(new JavaScriptTask<Thread>(null, "Nested") {
+                        @Override
+                        public Thread doCall() throws Exception {
+                            return Thread.currentThread();
+                        }
+                    });
+                } finally {
+                    Context.exit();
+                }
+            }
+        });
+
+        assertTrue(nestedThread instanceof MirthJavaScriptThread);
+    }
+
+    @Test
+    public void testPooledAppliesBackpressure() throws Exception {
+        final int poolSize = 2;
+        final int queueSize = 1;
+        final int callerCount = 6;
+        final JavaScriptExecutionEngine engine = new JavaScriptExecutionEngine(Mode.POOLED, poolSize, queueSize, false);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger completed = new AtomicInteger();
+        List<Thread> callers = new ArrayList<Thread>();
+
+        for (int i = 0; i < callerCount; i++) {
+            Thread caller = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        engine.execute(new JavaScriptTask<Object>(null, "Blocking") {
+                            @Override
+                            public Object doCall() throws Exception {
+                                release.await();
+                                return null;
+                            }
+                        });
+
+                        completed.incrementAndGet();
+                    } catch (Exception e) {
+                    }
+                }
+            };
+
+            callers.add(caller);
+            caller.start();
+        }
+
+        // Two tasks run, one is queued and the remaining callers wait for a permit
+        waitFor(engine, poolSize, callerCount - poolSize);
+        assertEquals(poolSize, engine.getActiveCount());
+        assertEquals(callerCount - poolSize, engine.getQueueDepth());
+
+        release.countDown();
+
+        for (Thread caller : callers) {
+            caller.join(5000);
+        }
+
+        assertEquals(callerCount, completed.get());
+        assertEquals(0, engine.getQueueDepth());
+        assertEquals(callerCount, engine.getHistograms().get("Blocking JavaScript Task").getCount());
+    }
+
+    @Test
+    public void testPoolPerChannel() throws Exception {
+        JavaScriptExecutionEngine engine = new JavaScriptExecutionEngine(Mode.POOLED, 1, 1, true);
+
+        for (String channelId : new String[] { "channel1", "channel2" }) {
+            engine.execute(new JavaScriptTask<Object>(null, "Channel", channelId, channelId) {
+                @Override
+                public Object doCall() throws Exception {
+                    return null;
+                }
+            });
+        }
+
+        assertEquals(2, engine.getPoolQueueDepths().size());
+        assertTrue(engine.getPoolQueueDepths().containsKey("channel1"));
+
+        engine.removeChannelPool("channel1");
+        assertFalse(engine.getPoolQueueDepths().containsKey("channel1"));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        ScriptLatencyHistogram histogram = new ScriptLatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(20));
+
+        long[] counts = histogram.getBucketCounts();
+        assertEquals(ScriptLatencyHistogram.getBucketBoundsMillis().length + 1, counts.length);
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[2]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(4, histogram.getCount());
+        assertEquals(5, histogram.getPercentileMillis(50));
+        assertEquals(-1, histogram.getPercentileMillis(100));
+        assertEquals(20000, histogram.getMaxMillis(), 0.001);
+    }
+
+    private void waitFor(JavaScriptExecutionEngine engine, int activeCount, int queueDepth) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+
+        while ((engine.getActiveCount() != activeCount || engine.getQueueDepth() != queueDepth) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+    }
+}
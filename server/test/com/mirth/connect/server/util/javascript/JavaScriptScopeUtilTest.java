@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.server.util.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mirth.connect.server.controllers.ConfigurationController;
+import com.mirth.connect.server.controllers.ControllerFactory;
+import com.mirth.connect.server.controllers.ExtensionController;
+
+public class JavaScriptScopeUtilTest {
+    private final static Logger scriptLogger = Logger.getLogger("filter");
+
+    private static ConfigurationController configurationController;
+    private static MirthContextFactory contextFactory;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final ControllerFactory controllerFactory = mock(ControllerFactory.class);
+        configurationController = mock(ConfigurationController.class);
+        when(controllerFactory.createConfigurationController()).thenReturn(configurationController);
+        when(controllerFactory.createExtensionController()).thenReturn(mock(ExtensionController.class));
+
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                requestStaticInjection(ControllerFactory.class);
+                bind(ControllerFactory.class).toInstance(controllerFactory);
+            }
+        });
+        injector.getInstance(ControllerFactory.class);
+
+        contextFactory = new MirthContextFactory(new URL[0], new HashSet<String>());
+    }
+
+    @After
+    public void tearDown() {
+        JavaScriptScopeUtil.setCacheChannelScopes(false);
+    }
+
+    @Test
+    public void testChannelScopeIsReused() throws Exception {
+        JavaScriptScopeUtil.setCacheChannelScopes(true);
+
+        Scriptable first = getScope("channel1");
+        Scriptable second = getScope("channel1");
+        Scriptable otherChannel = getScope("channel2");
+
+        assertNotSame(first, second);
+        assertSame(first.getPrototype(), second.getPrototype());
+        assertNotSame(first.getPrototype(), otherChannel.getPrototype());
+    }
+
+    @Test
+    public void testScopeIsNotReusedWhenDisabled() throws Exception {
+        Scriptable first = getScope("channel1");
+        Scriptable second = getScope("channel1");
+
+        assertSame(first.getPrototype(), second.getPrototype());
+        assertEquals("channel1", execute(first, "channelId"));
+        assertEquals(Boolean.TRUE, execute(first, "Object.prototype.hasOwnProperty.call(this, 'router')"));
+    }
+
+    @Test
+    public void testScriptGlobalsAreNotShared() throws Exception {
+        JavaScriptScopeUtil.setCacheChannelScopes(true);
+
+        execute(getScope("channel1"), "var declared = 1; undeclared = 2; this.property = 3; router = null; channelId = 'changed';");
+
+        Scriptable scope = getScope("channel1");
+        assertEquals("undefined undefined undefined", execute(scope, "typeof declared + ' ' + typeof undeclared + ' ' + typeof property"));
+        assertEquals(Boolean.TRUE, execute(scope, "router != null"));
+        assertEquals("channel1", execute(scope, "channelId"));
+        assertEquals("channel1 Channel 1", execute(scope, "channelId + ' ' + channelName"));
+    }
+
+    @Test
+    public void testEscapedFunctionKeepsItsOwnScope() throws Exception {
+        JavaScriptScopeUtil.setCacheChannelScopes(true);
+
+        Function function = (Function) execute(getScope("channel1"), "var id = 'first'; (function() { return id; })");
+        execute(getScope("channel1"), "var id = 'second';");
+
+        Context context = JavaScriptScopeUtil.getContext(contextFactory);
+
+        try {
+            assertEquals("first", function.call(context, function.getParentScope(), null, new Object[0]));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void testChannelScopesAreRemoved() throws Exception {
+        JavaScriptScopeUtil.setCacheChannelScopes(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            Callable<Scriptable> getChannelScope = new Callable<Scriptable>() {
+                @Override
+                public Scriptable call() throws Exception {
+                    return getScope("channel1").getPrototype();
+                }
+            };
+
+            Scriptable otherThreadScope = executor.submit(getChannelScope).get();
+            assertSame(otherThreadScope, executor.submit(getChannelScope).get());
+
+            Scriptable channelScope = getScope("channel1").getPrototype();
+            Scriptable otherChannelScope = getScope("channel2").getPrototype();
+            JavaScriptScopeUtil.removeChannelScopes("channel1");
+
+            // The scopes are removed from every thread, and only for the given channel
+            assertNotSame(channelScope, getScope("channel1").getPrototype());
+            assertNotSame(otherThreadScope, executor.submit(getChannelScope).get());
+            assertSame(otherChannelScope, getScope("channel2").getPrototype());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConfigurationMapIsBoundForEachExecution() throws Exception {
+        JavaScriptScopeUtil.setCacheChannelScopes(true);
+
+        Map<String, String> firstMap = Collections.singletonMap("key", "first");
+        Map<String, String> secondMap = Collections.singletonMap("key", "second");
+        when(configurationController.getConfigurationMap()).thenReturn(firstMap, secondMap);
+
+        assertEquals("first", execute(getScope("channel1"), "String(configurationMap.get('key'))"));
+        assertEquals("second", execute(getScope("channel1"), "String(configurationMap.get('key'))"));
+    }
+
+    private Scriptable getScope(String channelId) {
+        try {
+            return JavaScriptScopeUtil.getMessageReceiverScope(contextFactory, scriptLogger, channelId, "Channel " + channelId.substring(channelId.length() - 1));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private Object execute(Scriptable scope, String script) {
+        Context context = JavaScriptScopeUtil.getContext(contextFactory);
+
+        try {
+            Object result = context.evaluateString(scope, script, "test", 1, null);
+            return result instanceof Function ? result : Context.jsToJava(result, Object.class);
+        } finally {
+            Context.exit();
+        }
+    }
+}
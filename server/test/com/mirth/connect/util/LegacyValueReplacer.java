@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.util;
+
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.UUID;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.Velocity;
+import org.apache.velocity.tools.generic.DateTool;
+
+import com.mirth.connect.userutil.JsonUtil;
+import com.mirth.connect.userutil.XmlUtil;
+
+/**
+ * Replaces values the way ValueReplacer did before templates were cached, by copying every map
+ * into a new VelocityContext and evaluating the template. Used as the reference for
+ * ValueReplacerTest and as the baseline for ValueReplacerBenchmarkTests.
+ */
+public class LegacyValueReplacer extends ValueReplacer {
+
+    @Override
+    protected String evaluate(VelocityContext context, String template) {
+        StringWriter writer = new StringWriter();
+
+        try {
+            Velocity.init();
+            Velocity.evaluate(context, writer, "LOG", template);
+        } catch (Exception e) {
+            return template;
+        }
+
+        return writer.toString();
+    }
+
+    @Override
+    protected VelocityContext getDefaultContext() {
+        VelocityContext context = new VelocityContext();
+
+        context.put("date", new DateTool());
+        context.put("DATE", new SimpleDateFormat("dd-MM-yy_HH-mm-ss.SS").format(new Date()));
+        context.put("COUNT", new CountTool());
+        context.put("UUID", UUID.randomUUID().toString());
+        context.put("SYSTIME", String.valueOf(System.currentTimeMillis()));
+        context.put("XmlUtil", XmlUtil.class);
+        context.put("JsonUtil", JsonUtil.class);
+        context.put("maps", new MapTool());
+
+        return context;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.Status;
+
+/**
+ * Compares LegacyValueReplacer with ValueReplacer replacing a connector property with a connector
+ * message, the same as a dispatcher does for each field of each message. Prints the time and the
+ * bytes allocated per field for a plain reference template, a template with a property of a
+ * reference, and a template with a directive.
+ */
+public class ValueReplacerBenchmarkTests {
+    private static final String[] TEMPLATES = new String[] {
+            "/data/out/${channelName}/${originalFilename}",
+            "http://${host}:${port}/path/${message.messageId}",
+            "#if($priority == 'high')urgent#{else}routine#end-${originalFilename}" };
+    private static final int FIELDS = 20000;
+    private static final int ITERATIONS = 10;
+
+    private static ConnectorMessage connectorMessage;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        connectorMessage = new ConnectorMessage("channelId", "Channel Name", 1, 1, "serverId", Calendar.getInstance(), Status.RECEIVED);
+
+        // Maps of a typical size, most of which the templates don't use
+        Map<String, Object> sourceMap = new HashMap<String, Object>();
+        Map<String, Object> channelMap = new HashMap<String, Object>();
+        for (int i = 0; i < 20; i++) {
+            sourceMap.put("source" + i, "value" + i);
+            channelMap.put("channel" + i, "value" + i);
+        }
+        sourceMap.put("originalFilename", "file.txt");
+        channelMap.put("host", "localhost");
+        channelMap.put("port", 8080);
+        channelMap.put("priority", "high");
+
+        connectorMessage.setSourceMap(sourceMap);
+        connectorMessage.setChannelMap(channelMap);
+    }
+
+    @Test
+    public void testReplaceValues() throws Exception {
+        ValueReplacer legacyValueReplacer = new LegacyValueReplacer();
+        ValueReplacer valueReplacer = new ValueReplacer();
+
+        System.out.println(String.format("%-70s %-10s %15s %15s", "template", "replacer", "ns/field", "bytes/field"));
+
+        for (String template : TEMPLATES) {
+            assertEquals(legacyValueReplacer.replaceValues(template, connectorMessage), valueReplacer.replaceValues(template, connectorMessage));
+
+            // Warm up both replacers before measuring
+            run(legacyValueReplacer, template);
+            run(valueReplacer, template);
+
+            for (ValueReplacer replacer : new ValueReplacer[] { legacyValueReplacer, valueReplacer }) {
+                long elapsedNanos = 0;
+                long allocatedBytes = 0;
+
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long startBytes = getAllocatedBytes();
+                    long startNanos = System.nanoTime();
+                    run(replacer, template);
+                    elapsedNanos += System.nanoTime() - startNanos;
+                    allocatedBytes += getAllocatedBytes() - startBytes;
+                }
+
+                long fields = (long) FIELDS * ITERATIONS;
+                System.out.println(String.format("%-70s %-10s %15d %15d", template, replacer == legacyValueReplacer ? "legacy" : "cached", elapsedNanos / fields, allocatedBytes / fields));
+            }
+        }
+    }
+
+    private void run(ValueReplacer replacer, String template) {
+        for (int i = 0; i < FIELDS; i++) {
+            replacer.replaceValues(template, connectorMessage);
+        }
+    }
+
+    private long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
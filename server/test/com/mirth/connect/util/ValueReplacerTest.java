@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Mirth Corporation. All rights reserved.
+ * 
+ * http://www.mirthcorp.com
+ * 
+ * The software in this package is published under the terms of the MPL license a copy of which has
+ * been included with this distribution in the LICENSE.txt file.
+ */
+
+package com.mirth.connect.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mirth.connect.donkey.model.message.ConnectorMessage;
+import com.mirth.connect.donkey.model.message.Status;
+
+public class ValueReplacerTest {
+    private static final String[] TEMPLATES = new String[] {
+            "no references",
+            "${originalFilename}",
+            "prefix_${channelVar}_${connectorVar}.txt",
+            "${shared}",
+            "${missing} and $!{missing} and $!{shared}",
+            "cost $5 and $$${shared} and $",
+            "cost $5${shared} $ ${shared}$",
+            "{${shared}}${shared}}",
+            "${nullValue}",
+            "${foo-bar}",
+            "${channelId} ${channelName}",
+            "${shared}.txt",
+            "${message.messageId}",
+            "${maps.get('shared')}",
+            "$channelVar.length()",
+            "#if($channelVar == 'channel')yes#{else}no#end",
+            "#set($x = 'a')${x}${x}",
+            "\\${shared}",
+            "${unclosed",
+            "$!{}" };
+
+    private ValueReplacer valueReplacer = new ValueReplacer();
+    private ValueReplacer legacyValueReplacer = new LegacyValueReplacer();
+    private ConnectorMessage connectorMessage;
+
+    @Before
+    public void setup() {
+        connectorMessage = new ConnectorMessage("channelId", "Channel Name", 1, 1, "serverId", Calendar.getInstance(), Status.RECEIVED);
+
+        Map<String, Object> sourceMap = new HashMap<String, Object>();
+        sourceMap.put("shared", "source");
+        sourceMap.put("nullValue", "source");
+        sourceMap.put("originalFilename", "file.txt");
+        connectorMessage.setSourceMap(sourceMap);
+
+        Map<String, Object> channelMap = new HashMap<String, Object>();
+        channelMap.put("shared", "channel");
+        channelMap.put("channelVar", "channel");
+        channelMap.put("nullValue", null);
+        channelMap.put("foo-bar", "dashed");
+        connectorMessage.setChannelMap(channelMap);
+
+        Map<String, Object> connectorMap = new HashMap<String, Object>();
+        connectorMap.put("connectorVar", 5);
+        connectorMessage.setConnectorMap(connectorMap);
+
+        Map<String, Object> responseMap = new HashMap<String, Object>();
+        responseMap.put("shared", "response");
+        connectorMessage.setResponseMap(responseMap);
+
+        VelocityTemplateCache.getInstance().clear();
+    }
+
+    @Test
+    public void testSameAsVelocity() {
+        for (String template : TEMPLATES) {
+            String expected = legacyValueReplacer.replaceValues(template, connectorMessage);
+
+            // The second replacement uses the cached template
+            assertEquals(template, expected, valueReplacer.replaceValues(template, connectorMessage));
+            assertEquals(template, expected, valueReplacer.replaceValues(template, connectorMessage));
+        }
+    }
+
+    @Test
+    public void testMapPrecedence() {
+        assertEquals("response", valueReplacer.replaceValues("${shared}", connectorMessage));
+
+        // The maps tool returns the first map containing the key
+        assertEquals("source", valueReplacer.replaceValues("${maps.get('shared')}", connectorMessage));
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("shared", "map");
+        assertEquals("map", valueReplacer.replaceValues("${shared}", map));
+
+        // The original filename defaults to the current time when not in a map
+        connectorMessage.getSourceMap().remove("originalFilename");
+        assertTrue(valueReplacer.replaceValues("${originalFilename}", connectorMessage).endsWith(".dat"));
+    }
+
+    @Test
+    public void testReferenceTemplates() {
+        VelocityTemplateCache cache = VelocityTemplateCache.getInstance();
+
+        assertTrue(cache.isReferenceTemplate("${originalFilename}"));
+        assertTrue(cache.isReferenceTemplate("prefix_${a}_$!{b_2}.txt"));
+
+        assertFalse(cache.isReferenceTemplate("${message.encodedData}"));
+        assertFalse(cache.isReferenceTemplate("$originalFilename"));
+        assertFalse(cache.isReferenceTemplate("#if($a)b#end"));
+        assertFalse(cache.isReferenceTemplate("\\${a}"));
+        assertFalse(cache.isReferenceTemplate("${a"));
+        assertFalse(cache.isReferenceTemplate("$${a}"));
+        assertFalse(cache.isReferenceTemplate("cost $5"));
+    }
+
+    @Test
+    public void testDefaultValues() {
+        String uuid = valueReplacer.replaceValues("${UUID}");
+        assertEquals(36, uuid.length());
+        assertFalse(uuid.equals(valueReplacer.replaceValues("${UUID}")));
+
+        // Lazy values are only created once per replacement
+        String replaced = valueReplacer.replaceValues("${UUID} ${UUID} ${SYSTIME} ${DATE}");
+        String[] values = replaced.split(" ");
+        assertEquals(values[0], values[1]);
+        assertTrue(Long.parseLong(values[2]) > 0);
+
+        assertEquals("2000", valueReplacer.replaceValues("$date.format('yyyy', $date.toDate('yyyyMMdd', '20000101'))"));
+        assertEquals(String.valueOf(Long.parseLong(valueReplacer.replaceValues("${COUNT}")) + 1), valueReplacer.replaceValues("${COUNT}"));
+    }
+
+    @Test
+    public void testInvalidTemplate() {
+        // Templates that fail to parse are returned unchanged
+        assertEquals("#if(", valueReplacer.replaceValues("#if(", connectorMessage));
+        assertEquals("#if(", valueReplacer.replaceValues("#if(", connectorMessage));
+    }
+}